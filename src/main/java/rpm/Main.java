@@ -14,19 +14,22 @@ import rpm.auth.UserStore;
 import rpm.config.ConfigStore;
 import rpm.dao.AbnormalEventDao;
 import rpm.dao.MinuteAverageDao;
+import rpm.data.AsyncStage;
 import rpm.data.MinuteAggregator;
-import rpm.data.PatientDataStore;
+import rpm.data.PatientEvent;
 import rpm.data.PatientManager;
+import rpm.data.SamplingEngine;
 import rpm.model.Patient;
 import rpm.model.VitalSample;
 import rpm.notify.AudioAlertService;
 import rpm.notify.DailyDigestNotifier;
 import rpm.notify.EmailService;
 import rpm.notify.FileEmailService;
-import rpm.sim.Simulator;
 import rpm.ui.LoginFrame;
 import rpm.db.Db;
+import rpm.cloud.CloudOutbox;
 import rpm.cloud.CloudSyncService;
+import rpm.cloud.SegmentLog;
 import rpm.notify.SmtpEmailService;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -39,6 +42,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.Connection;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -123,8 +127,33 @@ public class Main {
         final long cloudUploadPeriodMs = configStore.getInt("cloud.upload.period.ms", 1000);
         final int cloudQueueMax = configStore.getInt("cloud.queue.max", 2000);
 
+        final int cloudBatchMax = configStore.getInt("cloud.batch.max", CloudSyncService.DEFAULT_BATCH_MAX);
+        final long cloudLingerMs = configStore.getInt("cloud.batch.linger.ms", (int) CloudSyncService.DEFAULT_LINGER_MS);
+        final int cloudMaxInFlight = configStore.getInt("cloud.max.inflight", CloudSyncService.DEFAULT_MAX_IN_FLIGHT);
+
+        // disk outbox: spill instead of dropping while the cloud is unreachable
+        CloudOutbox cloudOutbox = null;
+        if (cloudSyncEnabled && configStore.getBool("cloud.outbox.enabled", true)) {
+            final String outboxDir = configStore.getString("cloud.outbox.dir", "cloud-outbox");
+            final SegmentLog.FsyncPolicy fsync = SegmentLog.FsyncPolicy.parse(
+                    configStore.getString("cloud.outbox.fsync", "interval"), SegmentLog.FsyncPolicy.INTERVAL);
+            final int fsyncMs = configStore.getInt("cloud.outbox.fsync.ms", 1000);
+            final long maxBytes = configStore.getInt("cloud.outbox.max.mb", 256) * 1024L * 1024L;
+            try {
+                cloudOutbox = new CloudOutbox(Path.of(outboxDir), fsync, fsyncMs, maxBytes);
+                System.out.println("[Main] cloud.outbox.dir=" + outboxDir + " fsync=" + fsync);
+            } catch (Exception e) {
+                System.err.println("[Main] cloud outbox unavailable, running without it: " + e.getMessage());
+            }
+        }
+
         final CloudSyncService cloudSync =
-                new CloudSyncService(cloudSyncEnabled, cloudBaseUrl, cloudTimeoutMs, cloudUploadPeriodMs, cloudQueueMax);
+                new CloudSyncService(cloudSyncEnabled, cloudBaseUrl, cloudTimeoutMs, cloudUploadPeriodMs, cloudQueueMax,
+                        cloudBatchMax, cloudLingerMs, cloudMaxInFlight, cloudOutbox);
+        if (cloudSyncEnabled) {
+            // hand queued items to the outbox on a normal exit
+            Runtime.getRuntime().addShutdownHook(new Thread(cloudSync::shutdown, "cloud-sync-shutdown"));
+        }
 
         System.out.println("[Main] cloud.sync.enabled=" + cloudSyncEnabled + " | cloud.baseUrl=" + cloudBaseUrl);
 
@@ -149,91 +178,105 @@ public class Main {
                 + " | audio.enabled=" + audioEnabled
                 + " | heartbeat.enabled=" + heartbeatEnabled);
 
-        ScheduledExecutorService exec = Executors.newSingleThreadScheduledExecutor();
-
+        // DB writes run on their own thread so a slow round-trip never delays a tick
+        final AsyncStage dbStage = dbEnabled
+                ? new AsyncStage("db-writer", configStore.getInt("db.queue.max", 10000))
+                : null;
 
+        final int shards = configStore.getInt("sampler.shards", Runtime.getRuntime().availableProcessors());
 
-        // background sampling: every 200ms
-        exec.scheduleAtFixedRate(new Runnable() {
+        // background sampling: every 200ms, patients spread over the shard threads
+        final SamplingEngine sampler = new SamplingEngine(pm, Math.max(1, shards), samplePeriodMs,
+                new SamplingEngine.TickListener() {
             @Override
-            public void run() {
-                long now = System.currentTimeMillis();
+            public void onSample(Patient p, VitalSample sample, MinuteAggregator.AggregationResult result, long now) {
+                String id = p.patientId();
+                cloudSync.enqueueVital(id, sample);
+
+                // Audio should only run after user login (avoid beeping on startup/login screen)
+                if (audioArmed.get()) {
+                    audioAlert.onAbnormalEvents(result.abnormalEvents(), now);
+                    audioAlert.onHeartRate(sample.heartRate(), now);
+                }
 
-                for (Patient p : pm.getPatients()) {
-                    String id = p.patientId();
+                // 1) abnormal events: always try cloud upload; DB write only if enabled
+                List<PatientEvent> dbEvents = dbEnabled ? new ArrayList<>() : null;
+                for (var e : result.abnormalEvents()) {
+                    // cloud (non-blocking)
+                    cloudSync.enqueueAbnormal(id, e);
 
-                    Simulator sim = pm.simulatorOf(id);
-                    PatientDataStore store = pm.storeOf(id);
+                    if (dbEnabled) dbEvents.add(new PatientEvent(id, e));
+                }
+                // DB (optional, async): the tick's events in one statement
+                if (dbEnabled && !dbEvents.isEmpty()) {
+                    dbStage.submit(() -> abnormalDao.insertAll(dbEvents));
+                }
 
-                    VitalSample sample = sim.nextSample(now);
-                    store.addSample(sample);
-                    cloudSync.enqueueVital(id, sample);
+                // 2) minute average: write DB only if enabled
+                if (result.minuteRecord() != null) {
+                    var mr = result.minuteRecord();
 
-                    MinuteAggregator agg = pm.aggregatorOf(id);
-                    MinuteAggregator.AggregationResult result = agg.onSample(sample);
+                    // cloud (non-blocking)
+                    cloudSync.enqueueMinuteRecord(id, mr);
 
-                    // Audio should only run after user login (avoid beeping on startup/login screen)
-                    if (audioArmed.get()) {
-                        audioAlert.onAbnormalEvents(result.abnormalEvents(), now);
-                        audioAlert.onHeartRate(sample.heartRate(), now);
+                    if (dbEnabled) {
+                        dbStage.submit(() -> minuteDao.upsert(id, mr));
                     }
 
-
-                    // 1) abnormal events: always try cloud upload; DB write only if enabled
-                    if (result.abnormalEvents() != null && !result.abnormalEvents().isEmpty()) {
-                        for (var e : result.abnormalEvents()) {
-
-                            pm.historyOf(id).addAbnormalEvent(e);
-
-                            // cloud (non-blocking)
-                            cloudSync.enqueueAbnormal(id, e);
-
-                            // DB (optional)
-                            if (dbEnabled) {
-                                try {
-                                    abnormalDao.insert(id, e);
-                                } catch (Exception ex) {
-                                    // do not spam stack traces
-                                    System.err.println("[Main] abnormalDao.insert failed: " + ex.getMessage());
-                                }
-                            }
-                        }
+                    // digest stats (no immediate emails)
+                    if (emailEnabled) {
+                        digest.onMinuteAverage(
+                                p,
+                                mr.minuteStartMs(),
+                                mr.avgTemp(),
+                                mr.avgHR(),
+                                mr.avgRR(),
+                                mr.avgSys(),
+                                mr.avgDia()
+                        );
                     }
+                }
+            }
+        });
+        sampler.start();
+
+        // on exit: stop ticking, then let the db-writer finish what is queued
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                sampler.shutdown(2000);
+                if (dbStage != null && !dbStage.shutdown(5000)) {
+                    System.err.println("[Main] db-writer did not drain; dropped=" + dbStage.dropped());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "sampler-shutdown"));
 
+        System.out.println("[Main] sampler.shards=" + sampler.shardCount());
 
+        ScheduledExecutorService exec = Executors.newSingleThreadScheduledExecutor();
 
-                    // 2) minute average: write DB only if enabled
-                    if (result.minuteRecord() != null) {
-                        var mr = result.minuteRecord();
-                        pm.historyOf(id).addMinuteRecord(mr);
-
-                        // cloud (non-blocking)
-                        cloudSync.enqueueMinuteRecord(id, mr);
-
-                        if (dbEnabled) {
-                            try {
-                                minuteDao.upsert(id, mr);
-                            } catch (Exception ex) {
-                                System.err.println("[Main] minuteDao.upsert failed: " + ex.getMessage());
-                            }
-                        }
-
-                        // digest stats (no immediate emails)
-                        if (emailEnabled) {
-                            digest.onMinuteAverage(
-                                    p,
-                                    mr.minuteStartMs(),
-                                    mr.avgTemp(),
-                                    mr.avgHR(),
-                                    mr.avgRR(),
-                                    mr.avgSys(),
-                                    mr.avgDia()
-                            );
-                        }
+        // sampler health: tick lateness / duration, once a minute
+        exec.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                System.out.println("[SamplingEngine] " + sampler.lateness().summary());
+                System.out.println("[SamplingEngine] " + sampler.tickDuration().summary());
+                if (dbStage != null) {
+                    System.out.println("[SamplingEngine] db-writer depth=" + dbStage.depth()
+                            + " dropped=" + dbStage.dropped() + " failed=" + dbStage.failed());
+                }
+                if (cloudSyncEnabled) {
+                    System.out.println("[cloud-sync] " + cloudSync.summary());
+                    for (CloudSyncService.Lane lane : CloudSyncService.Lane.values()) {
+                        System.out.println("[cloud-sync] " + cloudSync.laneLag(lane).summary());
+                        cloudSync.laneLag(lane).reset();
                     }
                 }
+                sampler.lateness().reset();
+                sampler.tickDuration().reset();
             }
-        }, 0, samplePeriodMs, TimeUnit.MILLISECONDS);
+        }, 60, 60, TimeUnit.SECONDS);
 
         // send digest once per day (check every 60s)
         exec.scheduleAtFixedRate(new Runnable() {
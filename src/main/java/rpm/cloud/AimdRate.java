@@ -0,0 +1,80 @@
+package rpm.cloud;
+
+/**
+ * Additive-increase / multiplicative-decrease controller for an upload rate.
+ *
+ * <p>Every on-time success adds {@code step} to the rate; a failure, or a success
+ * slower than {@code targetLatencyMs}, multiplies it by {@code backoff}. The rate
+ * stays within [{@code minRate}, {@code maxRate}]. Smoothed latency and error rate
+ * are kept alongside for metrics.
+ */
+public final class AimdRate {
+
+    private static final double EWMA_ALPHA = 0.2;
+
+    private final double minRate;
+    private final double maxRate;
+    private final double step;
+    private final double backoff;
+    private final long targetLatencyMs;
+
+    private double rate;
+    private double latencyEwmaMs;
+    private double errorEwma;
+
+    /**
+     * @param minRate          lowest rate (events per second), must be > 0
+     * @param maxRate          highest rate, also the starting point
+     * @param step             additive increase per on-time success
+     * @param backoff          multiplicative decrease factor in (0, 1)
+     * @param targetLatencyMs  successes slower than this count as congestion
+     */
+    public AimdRate(double minRate, double maxRate, double step, double backoff, long targetLatencyMs) {
+        if (minRate <= 0 || maxRate < minRate) throw new IllegalArgumentException("need 0 < minRate <= maxRate");
+        if (backoff <= 0 || backoff >= 1) throw new IllegalArgumentException("backoff must be in (0, 1)");
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.step = step;
+        this.backoff = backoff;
+        this.targetLatencyMs = targetLatencyMs;
+        this.rate = maxRate;
+    }
+
+    public synchronized void onSuccess(long latencyMs) {
+        latencyEwmaMs += EWMA_ALPHA * (latencyMs - latencyEwmaMs);
+        errorEwma += EWMA_ALPHA * (0 - errorEwma);
+        if (latencyMs > targetLatencyMs) decrease();
+        else rate = Math.min(maxRate, rate + step);
+    }
+
+    public synchronized void onFailure() {
+        errorEwma += EWMA_ALPHA * (1 - errorEwma);
+        decrease();
+    }
+
+    /** Back-pressure signal that is not tied to one request, e.g. a queue filling up. */
+    public synchronized void onCongestion() {
+        decrease();
+    }
+
+    public synchronized double rate() {
+        return rate;
+    }
+
+    /** Minimum spacing between events at the current rate. */
+    public synchronized long periodMs() {
+        return Math.round(1000.0 / rate);
+    }
+
+    public synchronized double latencyEwmaMs() {
+        return latencyEwmaMs;
+    }
+
+    public synchronized double errorRate() {
+        return errorEwma;
+    }
+
+    private void decrease() {
+        rate = Math.max(minRate, rate * backoff);
+    }
+}
@@ -0,0 +1,186 @@
+package rpm.cloud;
+
+import rpm.data.AbnormalEvent;
+import rpm.data.MinuteRecord;
+import rpm.model.AlertLevel;
+import rpm.model.VitalSample;
+import rpm.model.VitalType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk spill area for {@link CloudSyncService}: items that could not be queued in
+ * memory or sent during an outage are appended here and replayed later.
+ *
+ * <p>Two {@link SegmentLog}s keep priorities apart: abnormal events and minute records
+ * go to {@code priority/}, throttled vitals to {@code vitals/}. Replay always drains
+ * the priority log first, and each log has its own size cap, so a long outage fills
+ * up with vitals without pushing out alarms.
+ */
+public final class CloudOutbox implements Closeable {
+
+    public static final int DEFAULT_SEGMENT_BYTES = 8 * 1024 * 1024;
+
+    /** Items read for replay, to be {@link #commit committed} once delivered. */
+    static final class Replay {
+        final SegmentLog log;
+        final SegmentLog.Batch batch;
+        final List<CloudSyncService.Item> items;
+
+        Replay(SegmentLog log, SegmentLog.Batch batch, List<CloudSyncService.Item> items) {
+            this.log = log;
+            this.batch = batch;
+            this.items = items;
+        }
+    }
+
+    private final SegmentLog priority;
+    private final SegmentLog vitals;
+
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param maxBytes disk cap for each of the two logs
+     */
+    public CloudOutbox(Path dir, SegmentLog.FsyncPolicy fsync, long fsyncIntervalMs, long maxBytes) throws IOException {
+        this(dir, DEFAULT_SEGMENT_BYTES, fsync, fsyncIntervalMs, maxBytes);
+    }
+
+    CloudOutbox(Path dir, int segmentBytes, SegmentLog.FsyncPolicy fsync, long fsyncIntervalMs, long maxBytes) throws IOException {
+        this.priority = new SegmentLog(dir.resolve("priority"), segmentBytes, fsync, fsyncIntervalMs, maxBytes);
+        this.vitals = new SegmentLog(dir.resolve("vitals"), segmentBytes, fsync, fsyncIntervalMs, maxBytes);
+    }
+
+    /** Appends the item to its log; false (and counted as dropped) if the log is full or failing. */
+    boolean spill(CloudSyncService.Item it) {
+        SegmentLog log = it.kind == CloudSyncService.ItemKind.VITAL ? vitals : priority;
+        try {
+            if (log.append(encode(it))) {
+                spilled.incrementAndGet();
+                return true;
+            }
+        } catch (IOException | IllegalStateException e) {
+            // do not spam stack traces
+            if (dropped.get() % 1000 == 0) System.err.println("[cloud-outbox] spill failed: " + e.getMessage());
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    /** Next items to replay, priority log first; null when both logs are empty. */
+    Replay next(int max) {
+        for (SegmentLog log : new SegmentLog[]{priority, vitals}) {
+            if (log.isEmpty()) continue;
+            SegmentLog.Batch b = log.read(max);
+            if (b.isEmpty()) continue;
+
+            List<CloudSyncService.Item> items = new ArrayList<>(b.records().size());
+            for (byte[] r : b.records()) {
+                try {
+                    items.add(decode(r));
+                } catch (IOException | RuntimeException e) {
+                    // an undecodable record is skipped, not retried forever
+                    dropped.incrementAndGet();
+                }
+            }
+            return new Replay(log, b, items);
+        }
+        return null;
+    }
+
+    void commit(Replay r) throws IOException {
+        r.log.commit(r.batch);
+        replayed.addAndGet(r.items.size());
+    }
+
+    public boolean isEmpty() {
+        return priority.isEmpty() && vitals.isEmpty();
+    }
+
+    public long pendingBytes() {
+        return priority.pendingBytes() + vitals.pendingBytes();
+    }
+
+    public long spilled() { return spilled.get(); }
+    public long replayed() { return replayed.get(); }
+    public long dropped() { return dropped.get(); }
+
+    public void flushIfDue() {
+        priority.flushIfDue();
+        vitals.flushIfDue();
+    }
+
+    @Override
+    public void close() {
+        priority.close();
+        vitals.close();
+    }
+
+    // ---------- record codec ----------
+
+    static byte[] encode(CloudSyncService.Item it) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(it.kind.ordinal());
+        out.writeUTF(it.patientId);
+        if (it.kind == CloudSyncService.ItemKind.VITAL) {
+            VitalSample s = it.vital;
+            out.writeLong(s.timestampMs());
+            out.writeDouble(s.bodyTemp());
+            out.writeDouble(s.heartRate());
+            out.writeDouble(s.respiratoryRate());
+            out.writeDouble(s.systolicBP());
+            out.writeDouble(s.diastolicBP());
+            out.writeDouble(s.ecgValue());
+        } else if (it.kind == CloudSyncService.ItemKind.ABNORMAL) {
+            AbnormalEvent e = it.abnormal;
+            out.writeLong(e.timestampMs());
+            out.writeUTF(e.vitalType().name());
+            out.writeUTF(e.level().name());
+            out.writeDouble(e.value());
+            out.writeUTF(e.message() == null ? "" : e.message());
+        } else {
+            // the cloud only stores the averages
+            MinuteRecord r = it.minute;
+            out.writeLong(r.minuteStartMs());
+            out.writeDouble(r.avgTemp());
+            out.writeDouble(r.avgHR());
+            out.writeDouble(r.avgRR());
+            out.writeDouble(r.avgSys());
+            out.writeDouble(r.avgDia());
+            out.writeInt(r.sampleCount());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static CloudSyncService.Item decode(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        CloudSyncService.ItemKind kind = CloudSyncService.ItemKind.values()[in.readUnsignedByte()];
+        String patientId = in.readUTF();
+        if (kind == CloudSyncService.ItemKind.VITAL) {
+            return CloudSyncService.Item.vital(patientId, new VitalSample(in.readLong(),
+                    in.readDouble(), in.readDouble(), in.readDouble(),
+                    in.readDouble(), in.readDouble(), in.readDouble()));
+        }
+        if (kind == CloudSyncService.ItemKind.ABNORMAL) {
+            long ts = in.readLong();
+            VitalType type = VitalType.valueOf(in.readUTF());
+            AlertLevel level = AlertLevel.valueOf(in.readUTF());
+            return CloudSyncService.Item.abnormal(patientId, new AbnormalEvent(ts, type, level, in.readDouble(), in.readUTF()));
+        }
+        return CloudSyncService.Item.minute(patientId, new MinuteRecord(in.readLong(),
+                in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), in.readInt()));
+    }
+}
@@ -5,30 +5,143 @@ package rpm.cloud;
  *
  * <p>Important: the desktop UI remains usable even if the cloud is down. This service
  * is best-effort and should never crash the UI thread.
+ *
+ * <p>Transport: the worker drains the queue in micro-batches (up to {@code batchMax}
+ * items, waiting at most {@code lingerMs} for a batch to fill) and sends each kind
+ * as one gzip-compressed JSON array to its {@code /batch} endpoint. Requests go
+ * through one shared {@link HttpClient}, so connections are kept alive and reused,
+ * and up to {@code maxInFlight} of them run concurrently. A server without a bulk
+ * endpoint (404) is remembered per kind and gets single-item posts instead.
+ * Vitals go in the compact binary format of {@link VitalBatchCodec} rather than
+ * JSON; if the server does not know the format (415), the service switches to JSON for
+ * good. Any other rejection, including 400, only fails that batch.
+ *
+ * <p>Durability: with a {@link CloudOutbox}, nothing is dropped silently. Items that do
+ * not fit the in-memory queue, and batches that fail with a network error or a
+ * retryable status (408, 429, 5xx), are spilled to disk. While the cloud is
+ * unreachable, new batches go straight to disk. Once a retry succeeds, the outbox is
+ * replayed: abnormal events and minute records first, then vitals.
+ *
+ * <p>Priorities: items wait in three {@link Lane}s (warning/urgent events, minute
+ * records and normal events, vitals). Each batch takes from every lane in proportion
+ * to its weight, then fills any room left in priority order, so alarms are never
+ * stuck behind a vital backlog and a batch holding an alarm is sent without lingering.
+ * The per-patient vital upload rate is an {@link AimdRate}: it backs off when uplink
+ * latency or errors rise, or the vital lane fills past half (once per round trip
+ * while it stays there), and recovers step by step.
  */
 
+import com.google.gson.Strictness;
+import com.google.gson.stream.JsonWriter;
+import rpm.codec.VitalBatchCodec;
 import rpm.data.AbnormalEvent;
 import rpm.data.MinuteRecord;
+import rpm.metrics.LatencyHistogram;
+import rpm.model.AlertLevel;
+import rpm.model.PatientSample;
 import rpm.model.VitalSample;
 
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPOutputStream;
 
 public class CloudSyncService {
 
+    public static final int DEFAULT_BATCH_MAX = 500;
+    public static final long DEFAULT_LINGER_MS = 250;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
+    // retry back-off after a failed delivery, doubled per failure
+    private static final long RETRY_MIN_MS = 500;
+    private static final long RETRY_MAX_MS = 60_000;
+
+    // alarms first when a batch mixes kinds
+    private static final ItemKind[] SEND_ORDER = {ItemKind.ABNORMAL, ItemKind.MINUTE, ItemKind.VITAL};
+
+    // vital rate control: the configured period is the fastest rate, slowed down
+    // at most this many times while the uplink is struggling
+    private static final int VITAL_MAX_SLOWDOWN = 16;
+    private static final double VITAL_BACKOFF = 0.5;
+    private static final long VITAL_LATENCY_TARGET_MS = 1000;
+    // a vital lane that stays over half full backs the rate off again at most once per
+    // round trip, and never more often than this
+    private static final long VITAL_CONGESTION_MIN_MS = 100;
+
+    /** Delivery priority; the weight is the lane's share of each batch. */
+    public enum Lane {
+        /** WARNING and URGENT abnormal events. */
+        ALERT(8),
+        /** Minute records and other abnormal events. */
+        MINUTE(4),
+        VITAL(1);
+
+        final int weight;
+
+        Lane(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    private static final int TOTAL_WEIGHT = Lane.ALERT.weight + Lane.MINUTE.weight + Lane.VITAL.weight;
+
     private final boolean enabled;
     private final String baseUrl;
     private final int timeoutMs;
-    private final long uploadPeriodMs;
-
-    private final BlockingQueue<Item> q;
+    // null when vitals are not rate limited (upload period 0)
+    private final AimdRate vitalRate;
+    private final int batchMax;
+    private final long lingerMs;
+
+    private final HttpClient http;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    // bulk posts sent but not answered; whoever removes an entry owns its items
+    private final ConcurrentHashMap<Long, List<Item>> unanswered = new ConcurrentHashMap<>();
+    private final AtomicLong requestIds = new AtomicLong();
+
+    // kinds whose bulk endpoint answered 404: sent one item per request instead
+    private final Set<ItemKind> singleOnly = ConcurrentHashMap.newKeySet();
+    // cleared once the server turns the binary vital format down
+    private volatile boolean binaryVitals = true;
+
+    private final AtomicLong sentItems = new AtomicLong();
+    private final AtomicLong sentRequests = new AtomicLong();
+    private final AtomicLong failedItems = new AtomicLong();
+    private final AtomicLong droppedItems = new AtomicLong();
+
+    private final CloudOutbox outbox;
+    // while now < retryAtMs the cloud is treated as down and batches go to the outbox;
+    // both are updated together in synchronized methods (HttpClient callbacks and the worker),
+    // retryAtMs is read without it
+    private volatile long retryAtMs = 0;
+    private long backoffMs = RETRY_MIN_MS;
+
+    private final EnumMap<Lane, LaneQueue> lanes = new EnumMap<>(Lane.class);
     private final ExecutorService worker;
+    private volatile Thread workerThread;
     private final AtomicBoolean running = new AtomicBoolean(true);
 
+    // worker thread only: vital lane over half full at the last check, and when that last slowed the rate
+    private boolean vitalBacklogged;
+    private long vitalCongestionAtMs;
+
     // per patient last upload time (vitals only)
     private final ConcurrentHashMap<String, Long> lastVitalUploadMs = new ConcurrentHashMap<>();
 
@@ -37,11 +150,57 @@ public class CloudSyncService {
                             int timeoutMs,
                             long uploadPeriodMs,
                             int queueMax) {
+        this(enabled, baseUrl, timeoutMs, uploadPeriodMs, queueMax,
+                DEFAULT_BATCH_MAX, DEFAULT_LINGER_MS, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public CloudSyncService(boolean enabled,
+                            String baseUrl,
+                            int timeoutMs,
+                            long uploadPeriodMs,
+                            int queueMax,
+                            int batchMax,
+                            long lingerMs,
+                            int maxInFlight) {
+        this(enabled, baseUrl, timeoutMs, uploadPeriodMs, queueMax, batchMax, lingerMs, maxInFlight, null);
+    }
+
+    /**
+     * @param outbox disk spill area for items that cannot be queued or delivered;
+     *               null keeps the old drop-when-full behaviour
+     */
+    public CloudSyncService(boolean enabled,
+                            String baseUrl,
+                            int timeoutMs,
+                            long uploadPeriodMs,
+                            int queueMax,
+                            int batchMax,
+                            long lingerMs,
+                            int maxInFlight,
+                            CloudOutbox outbox) {
         this.enabled = enabled;
+        this.outbox = outbox;
         this.baseUrl = trimTrailingSlash(baseUrl);
         this.timeoutMs = timeoutMs;
-        this.uploadPeriodMs = uploadPeriodMs;
-        this.q = new ArrayBlockingQueue<>(Math.max(100, queueMax));
+        if (uploadPeriodMs > 0) {
+            double maxRate = 1000.0 / uploadPeriodMs;
+            this.vitalRate = new AimdRate(maxRate / VITAL_MAX_SLOWDOWN, maxRate,
+                    maxRate / VITAL_MAX_SLOWDOWN, VITAL_BACKOFF, Math.min(VITAL_LATENCY_TARGET_MS, Math.max(1, timeoutMs / 2)));
+        } else {
+            this.vitalRate = null;
+        }
+        this.batchMax = Math.max(1, batchMax);
+        this.lingerMs = Math.max(0, lingerMs);
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.inFlight = new Semaphore(this.maxInFlight);
+        int priorityCap = Math.max(100, queueMax / 4);
+        lanes.put(Lane.ALERT, new LaneQueue(Lane.ALERT, priorityCap));
+        lanes.put(Lane.MINUTE, new LaneQueue(Lane.MINUTE, priorityCap));
+        lanes.put(Lane.VITAL, new LaneQueue(Lane.VITAL, Math.max(100, queueMax)));
+
+        this.http = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(Math.max(1, timeoutMs)))
+                .build();
 
         this.worker = Executors.newSingleThreadExecutor(r -> {
             Thread t = new Thread(r, "cloud-sync-worker");
@@ -60,13 +219,15 @@ public class CloudSyncService {
 
         patientId = normalisePatientId(patientId);
 
-        long now = System.currentTimeMillis();
-        long last = lastVitalUploadMs.getOrDefault(patientId, 0L);
-        if (now - last < uploadPeriodMs) return; // rate limit per patient
-        lastVitalUploadMs.put(patientId, now);
+        if (vitalRate != null) {
+            long now = System.currentTimeMillis();
+            long last = lastVitalUploadMs.getOrDefault(patientId, 0L);
+            if (now - last < vitalRate.periodMs()) return; // adaptive rate limit per patient
+            lastVitalUploadMs.put(patientId, now);
+        }
 
-        // if full -> drop silently
-        q.offer(Item.vital(patientId, s));
+        // if full -> spill to the outbox (dropped only without one)
+        offer(Item.vital(patientId, s));
     }
 
     /** called by sampling thread: never block */
@@ -75,8 +236,8 @@ public class CloudSyncService {
 
         patientId = normalisePatientId(patientId);
 
-        // if full -> drop silently
-        q.offer(Item.abnormal(patientId, e));
+        // if full -> spill to the outbox (dropped only without one)
+        offer(Item.abnormal(patientId, e));
     }
 
     /** called by sampling thread: never block */
@@ -85,101 +246,522 @@ public class CloudSyncService {
 
         patientId = normalisePatientId(patientId);
 
-        // if full -> drop silently
-        q.offer(Item.minute(patientId, r));
+        // if full -> spill to the outbox (dropped only without one)
+        offer(Item.minute(patientId, r));
     }
 
+    /**
+     * Stops the worker and waits up to the request timeout for bulk posts already sent.
+     * Items still queued in memory, and those of posts that got no answer in time, are
+     * written to the outbox (if any) so the next run delivers them.
+     */
     public void shutdown() {
         running.set(false);
         worker.shutdownNow();
+        try {
+            worker.awaitTermination(2, TimeUnit.SECONDS);
+            if (inFlight.tryAcquire(maxInFlight, Math.max(1, timeoutMs), TimeUnit.MILLISECONDS)) {
+                inFlight.release(maxInFlight);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        List<Item> rest = new ArrayList<>();
+        for (Long id : new ArrayList<>(unanswered.keySet())) {
+            List<Item> items = unanswered.remove(id);
+            if (items != null) rest.addAll(items);
+        }
+        if (outbox != null) {
+            for (LaneQueue l : lanes.values()) l.q.drainTo(rest);
+            for (Item it : rest) outbox.spill(it);
+            outbox.close();
+        } else if (!rest.isEmpty()) {
+            droppedItems.addAndGet(rest.size());
+        }
+    }
+
+    public int queueDepth() {
+        int n = 0;
+        for (LaneQueue l : lanes.values()) n += l.q.size();
+        return n;
+    }
+
+    public int laneDepth(Lane lane) {
+        return lanes.get(lane).q.size();
+    }
+
+    /** Items of this lane neither queued, spilled nor delivered. */
+    public long laneDropped(Lane lane) {
+        return lanes.get(lane).dropped.get();
+    }
+
+    /** Time from an item's own timestamp until the cloud accepted it; reset by the caller. */
+    public LatencyHistogram laneLag(Lane lane) {
+        return lanes.get(lane).lag;
+    }
+
+    /** Current minimum spacing of vital uploads per patient, 0 when not limited. */
+    public long vitalPeriodMs() {
+        return vitalRate == null ? 0 : vitalRate.periodMs();
+    }
+
+    public long sentItems() {
+        return sentItems.get();
+    }
+
+    public long failedItems() {
+        return failedItems.get();
+    }
+
+    public long droppedItems() {
+        return droppedItems.get() + (outbox == null ? 0 : outbox.dropped());
+    }
+
+    public String summary() {
+        String s = "queued=" + queueDepth()
+                + " sentItems=" + sentItems.get()
+                + " requests=" + sentRequests.get()
+                + " failedItems=" + failedItems.get()
+                + " dropped=" + droppedItems()
+                + " inFlight=" + (maxInFlight - inFlight.availablePermits());
+        if (outbox != null) {
+            s += " outboxBytes=" + outbox.pendingBytes()
+                    + " spilled=" + outbox.spilled()
+                    + " replayed=" + outbox.replayed();
+        }
+        if (vitalRate != null) {
+            s += String.format(" vitalPeriod=%dms uplinkLatency=%.0fms errorRate=%.2f",
+                    vitalRate.periodMs(), vitalRate.latencyEwmaMs(), vitalRate.errorRate());
+        }
+        for (LaneQueue l : lanes.values()) {
+            s += " | " + l.lane.name().toLowerCase()
+                    + " depth=" + l.q.size()
+                    + " enqueued=" + l.enqueued.get()
+                    + " sent=" + l.sent.get()
+                    + " spilled=" + l.spilled.get()
+                    + " dropped=" + l.dropped.get();
+        }
+        return s;
+    }
+
+    private void offer(Item it) {
+        LaneQueue l = lanes.get(it.lane());
+        if (l.q.offer(it)) {
+            l.enqueued.incrementAndGet();
+            Thread w = workerThread;
+            if (w != null) LockSupport.unpark(w);
+        } else {
+            spill(it);
+        }
+    }
+
+    private void spill(Item it) {
+        LaneQueue l = lanes.get(it.lane());
+        if (outbox != null && outbox.spill(it)) {
+            l.spilled.incrementAndGet();
+        } else {
+            l.dropped.incrementAndGet();
+            // the outbox counts its own drops
+            if (outbox == null) droppedItems.incrementAndGet();
+        }
+    }
+
+    private boolean cloudDown() {
+        return outbox != null && System.currentTimeMillis() < retryAtMs;
+    }
+
+    /** A delivery failed for a transient reason: spill the items and back off. */
+    private void outage(ItemKind kind, List<Item> items, String why) {
+        long wait = backOff();
+
+        if (outbox == null) {
+            failed(kind, items.size(), why);
+            return;
+        }
+        for (Item it : items) spill(it);
+        System.err.println("[cloud-sync] POST " + kind.path + " failed (" + items.size()
+                + " items, spilled to outbox; retry in " + wait + " ms): " + why);
+    }
+
+    /** Marks the cloud down for the current back-off, doubles it and returns the wait. */
+    private synchronized long backOff() {
+        long wait = backoffMs;
+        backoffMs = Math.min(RETRY_MAX_MS, wait * 2);
+        retryAtMs = Math.max(retryAtMs, System.currentTimeMillis() + wait);
+        return wait;
+    }
+
+    private synchronized void resetBackoff() {
+        backoffMs = RETRY_MIN_MS;
+    }
+
+    private void delivered(List<Item> items) {
+        sentItems.addAndGet(items.size());
+        resetBackoff();
+        long now = System.currentTimeMillis();
+        for (Item it : items) {
+            LaneQueue l = lanes.get(it.lane());
+            l.sent.incrementAndGet();
+            l.lag.recordMillis(Math.max(0, now - it.eventTimeMs()));
+        }
+    }
+
+    private static boolean retryable(int status) {
+        return status < 0 || status == 408 || status == 429 || status >= 500;
     }
 
     private void loop() {
+        workerThread = Thread.currentThread();
+        List<Item> batch = new ArrayList<>(batchMax);
         while (running.get()) {
             try {
-                Item it = q.poll(500, TimeUnit.MILLISECONDS);
-                if (it == null) continue;
-
-                if (it.kind == ItemKind.VITAL) {
-                    postVital(it.patientId, it.vital);
-                } else if (it.kind == ItemKind.ABNORMAL) {
-                    postAbnormal(it.patientId, it.abnormal);
-                } else if (it.kind == ItemKind.MINUTE) {
-                    postMinute(it.patientId, it.minute);
+                boolean replayDue = outbox != null && !outbox.isEmpty() && !cloudDown();
+                drain(batch);
+                if (batch.isEmpty() && !replayDue) {
+                    park(TimeUnit.MILLISECONDS.toNanos(500));
+                    drain(batch);
+                }
+
+                if (!batch.isEmpty()) {
+                    fill(batch);
+                    checkVitalCongestion(System.currentTimeMillis());
+                    if (cloudDown()) {
+                        for (Item it : batch) spill(it);
+                    } else {
+                        send(batch);
+                    }
                 }
 
+                if (outbox != null) {
+                    outbox.flushIfDue();
+                    if (!outbox.isEmpty() && !cloudDown()) replayOnce();
+                }
             } catch (InterruptedException ie) {
                 Thread.currentThread().interrupt();
+                // stopping: items not handed to a request yet are kept for shutdown
+                for (Item it : batch) offer(it);
                 break;
             } catch (Exception e) {
                 System.err.println("[cloud-sync] worker error: " + e.getMessage());
+            } finally {
+                batch.clear();
             }
         }
     }
 
-    private void postVital(String patientId, VitalSample s) throws Exception {
-        String json = "{"
-                + "\"patientId\":\"" + escape(patientId) + "\","
-                + "\"timestampMs\":" + s.timestampMs() + ","
-                + "\"bodyTemp\":" + s.bodyTemp() + ","
-                + "\"heartRate\":" + s.heartRate() + ","
-                + "\"respiratoryRate\":" + s.respiratoryRate() + ","
-                + "\"systolicBP\":" + s.systolicBP() + ","
-                + "\"diastolicBP\":" + s.diastolicBP() + ","
-                + "\"ecgValue\":" + s.ecgValue()
-                + "}";
+    /**
+     * Slows vitals down when their lane crosses half full, and again once per round
+     * trip while it stays there, so a standing backlog does not pin the rate to its floor.
+     */
+    void checkVitalCongestion(long nowMs) {
+        if (vitalRate == null) return;
+        LaneQueue v = lanes.get(Lane.VITAL);
+        boolean over = v.q.size() > v.capacity / 2;
+        long rttMs = Math.max(VITAL_CONGESTION_MIN_MS, Math.round(vitalRate.latencyEwmaMs()));
+        if (over && (!vitalBacklogged || nowMs - vitalCongestionAtMs >= rttMs)) {
+            vitalRate.onCongestion();
+            vitalCongestionAtMs = nowMs;
+        }
+        vitalBacklogged = over;
+    }
 
-        httpPostJson(baseUrl + "/api/vitals", json, "POST /api/vitals");
+    /**
+     * Tops the batch up to batchMax, waiting no longer than the linger time; a batch
+     * holding an alert leaves at once.
+     */
+    private void fill(List<Item> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMs);
+        while (batch.size() < batchMax && !hasAlert(batch)) {
+            long wait = deadline - System.nanoTime();
+            if (wait <= 0) return;
+            park(wait);
+            drain(batch);
+        }
     }
 
-    private void postAbnormal(String patientId, AbnormalEvent e) throws Exception {
-        String json = "{"
-                + "\"patientId\":\"" + escape(patientId) + "\","
-                + "\"timestampMs\":" + e.timestampMs() + ","
-                + "\"vitalType\":\"" + escape(e.vitalType().name()) + "\","
-                + "\"level\":\"" + escape(e.level().name()) + "\","
-                + "\"value\":" + e.value() + ","
-                + "\"message\":\"" + escape(e.message() == null ? "" : e.message()) + "\""
-                + "}";
+    /**
+     * Moves queued items into the batch: first each lane's weighted share of the free
+     * room, then whatever still fits, highest priority first.
+     */
+    private void drain(List<Item> batch) {
+        int room = batchMax - batch.size();
+        if (room <= 0) return;
+        for (LaneQueue l : lanes.values()) {
+            int share = Math.max(1, room * l.lane.weight / TOTAL_WEIGHT);
+            l.q.drainTo(batch, Math.min(share, batchMax - batch.size()));
+        }
+        for (LaneQueue l : lanes.values()) {
+            if (batch.size() >= batchMax) return;
+            l.q.drainTo(batch, batchMax - batch.size());
+        }
+    }
+
+    private static boolean hasAlert(List<Item> batch) {
+        for (Item it : batch) if (it.lane() == Lane.ALERT) return true;
+        return false;
+    }
+
+    private static void park(long nanos) throws InterruptedException {
+        LockSupport.parkNanos(nanos);
+        if (Thread.interrupted()) throw new InterruptedException();
+    }
 
-        httpPostJson(baseUrl + "/api/abnormal", json, "POST /api/abnormal");
+    private void send(List<Item> batch) throws Exception {
+        for (ItemKind kind : SEND_ORDER) {
+            List<Item> items = ofKind(batch, kind);
+            if (items.isEmpty()) continue;
+
+            if (singleOnly.contains(kind)) {
+                for (Item it : items) {
+                    if (cloudDown()) {
+                        spill(it);
+                        continue;
+                    }
+                    int code = postSingle(it);
+                    if (retryable(code)) outage(kind, List.of(it), "http=" + code);
+                }
+            } else {
+                postBulk(kind, items);
+            }
+            // handed off: no longer the worker's to keep if it is stopped
+            batch.removeIf(it -> it.kind == kind);
+        }
     }
 
-    private void postMinute(String patientId, MinuteRecord r) throws Exception {
-        String json = "{"
-                + "\"patientId\":\"" + escape(patientId) + "\","
-                + "\"minuteStartMs\":" + r.minuteStartMs() + ","
-                + "\"avgTemp\":" + r.avgTemp() + ","
-                + "\"avgHR\":" + r.avgHR() + ","
-                + "\"avgRR\":" + r.avgRR() + ","
-                + "\"avgSys\":" + r.avgSys() + ","
-                + "\"avgDia\":" + r.avgDia() + ","
-                + "\"sampleCount\":" + r.sampleCount()
-                + "}";
+    /**
+     * Delivers one batch from the outbox synchronously and commits it only when every
+     * kind in it was accepted (or permanently rejected); otherwise backs off and leaves
+     * it for the next attempt. Re-sent items are harmless: the server ignores duplicates.
+     */
+    private void replayOnce() throws Exception {
+        CloudOutbox.Replay r = outbox.next(batchMax);
+        if (r == null) return;
+
+        for (ItemKind kind : SEND_ORDER) {
+            List<Item> items = ofKind(r.items, kind);
+            if (items.isEmpty()) continue;
+
+            int code = singleOnly.contains(kind) ? postSingles(items) : postBulkSync(kind, items);
+            if (code == 404 && singleOnly.add(kind)) {
+                System.err.println("[cloud-sync] POST " + kind.path + "/batch not found; using single posts");
+                code = postSingles(items);
+            }
+            if (retryable(code)) {
+                backOff();
+                return;
+            }
+            if (code >= 200 && code < 300) {
+                delivered(items);
+            } else {
+                failed(kind, items.size(), "http=" + code);
+            }
+        }
+        outbox.commit(r);
+    }
 
-        httpPostJson(baseUrl + "/api/minutes", json, "POST /api/minutes");
+    private static List<Item> ofKind(List<Item> batch, ItemKind kind) {
+        List<Item> items = new ArrayList<>();
+        for (Item it : batch) if (it.kind == kind) items.add(it);
+        return items;
     }
 
-    private void httpPostJson(String urlStr, String json, String tag) throws Exception {
-        URL url = new URL(urlStr);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setConnectTimeout(timeoutMs);
-        conn.setReadTimeout(timeoutMs);
-        conn.setRequestMethod("POST");
-        conn.setDoOutput(true);
-        conn.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+    // ---------- transport ----------
+
+    /**
+     * Sends one gzip-compressed JSON array asynchronously. Blocks only while
+     * {@code maxInFlight} requests are already outstanding.
+     */
+    private void postBulk(ItemKind kind, List<Item> items) throws Exception {
+        boolean binary = binaryFor(kind);
+        HttpRequest req = bulkRequest(kind, items, binary);
+
+        inFlight.acquire();
+        sentRequests.incrementAndGet();
+        long id = requestIds.incrementAndGet();
+        unanswered.put(id, items);
+        long startNs = System.nanoTime();
+        http.sendAsync(req, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((resp, err) -> {
+                    inFlight.release();
+                    // given up on by shutdown, which kept the items
+                    if (unanswered.remove(id) == null) return;
+                    if (kind == ItemKind.VITAL) uplinkFeedback(err == null ? resp.statusCode() : -1, startNs);
+                    if (err != null) {
+                        outage(kind, items, String.valueOf(err.getMessage()));
+                    } else if (binary && rejectsBinary(resp.statusCode())) {
+                        // server without the binary format: switch to JSON and requeue
+                        binaryRejected(resp.statusCode());
+                        for (Item it : items) offer(it);
+                    } else if (resp.statusCode() == 404) {
+                        // older server without bulk endpoints: fall back and requeue
+                        if (singleOnly.add(kind)) {
+                            System.err.println("[cloud-sync] POST " + kind.path + "/batch not found; using single posts");
+                        }
+                        for (Item it : items) offer(it);
+                    } else if (retryable(resp.statusCode())) {
+                        outage(kind, items, "http=" + resp.statusCode());
+                    } else if (resp.statusCode() < 200 || resp.statusCode() >= 300) {
+                        failed(kind, items.size(), "http=" + resp.statusCode());
+                    } else {
+                        delivered(items);
+                    }
+                });
+    }
 
-        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
-        try (OutputStream os = conn.getOutputStream()) {
-            os.write(bytes);
+    /** Feeds the outcome of one vital upload into the adaptive vital rate. */
+    private void uplinkFeedback(int status, long startNs) {
+        if (vitalRate == null) return;
+        if (retryable(status)) {
+            vitalRate.onFailure();
+        } else {
+            vitalRate.onSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs));
         }
+    }
 
-        int code = conn.getResponseCode();
-        if (code < 200 || code >= 300) {
-            System.err.println("[cloud-sync] " + tag + " http=" + code);
+    /** Synchronous bulk post; returns the HTTP status, or -1 if the request failed. */
+    private int postBulkSync(ItemKind kind, List<Item> items) throws Exception {
+        boolean binary = binaryFor(kind);
+        sentRequests.incrementAndGet();
+        int code;
+        try {
+            code = http.send(bulkRequest(kind, items, binary), HttpResponse.BodyHandlers.discarding()).statusCode();
+        } catch (IOException e) {
+            return -1;
         }
+        if (binary && rejectsBinary(code)) {
+            binaryRejected(code);
+            return postBulkSync(kind, items);
+        }
+        return code;
+    }
+
+    private boolean binaryFor(ItemKind kind) {
+        return kind == ItemKind.VITAL && binaryVitals;
+    }
 
-        conn.disconnect();
+    // 415 only: a 400 is about this body, not the format, and fails just the batch
+    private static boolean rejectsBinary(int status) {
+        return status == 415;
+    }
+
+    private void binaryRejected(int status) {
+        if (binaryVitals) {
+            binaryVitals = false;
+            System.err.println("[cloud-sync] " + VitalBatchCodec.CONTENT_TYPE + " rejected (http=" + status + "); sending vitals as JSON");
+        }
+    }
+
+    /** Posts items one by one; returns the first retryable status, else 200. */
+    private int postSingles(List<Item> items) throws Exception {
+        for (Item it : items) {
+            int code = postSingle(it);
+            if (retryable(code)) return code;
+        }
+        // per-item outcomes were already counted
+        return 200;
+    }
+
+    private HttpRequest bulkRequest(ItemKind kind, List<Item> items, boolean binary) throws IOException {
+        HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(baseUrl + kind.path + "/batch"))
+                .timeout(Duration.ofMillis(Math.max(1, timeoutMs)));
+        if (binary) {
+            // already dense: gzip would gain little
+            return b.header("Content-Type", VitalBatchCodec.CONTENT_TYPE)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(encodeVitals(items)))
+                    .build();
+        }
+        return b.header("Content-Type", "application/json; charset=utf-8")
+                .header("Content-Encoding", "gzip")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(gzip(items)))
+                .build();
+    }
+
+    /** Posts one item; returns the HTTP status, or -1 if the request failed. */
+    private int postSingle(Item it) throws Exception {
+        StringWriter sw = new StringWriter();
+        try (JsonWriter w = new JsonWriter(sw)) {
+            w.setStrictness(Strictness.LENIENT);
+            writeItem(w, it);
+        }
+
+        HttpRequest req = HttpRequest.newBuilder(URI.create(baseUrl + it.kind.path))
+                .timeout(Duration.ofMillis(Math.max(1, timeoutMs)))
+                .header("Content-Type", "application/json; charset=utf-8")
+                .POST(HttpRequest.BodyPublishers.ofString(sw.toString(), StandardCharsets.UTF_8))
+                .build();
+
+        sentRequests.incrementAndGet();
+        int code;
+        try {
+            code = http.send(req, HttpResponse.BodyHandlers.discarding()).statusCode();
+        } catch (IOException e) {
+            return -1;
+        }
+        if (code >= 200 && code < 300) {
+            delivered(List.of(it));
+        } else if (!retryable(code)) {
+            failed(it.kind, 1, "http=" + code);
+        }
+        return code;
+    }
+
+    private void failed(ItemKind kind, int items, String why) {
+        failedItems.addAndGet(items);
+        System.err.println("[cloud-sync] POST " + kind.path + " failed (" + items + " items): " + why);
+    }
+
+    /** Items of one kind as a gzip-compressed JSON array. */
+    static byte[] gzip(List<Item> items) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + items.size() * 48);
+        try (Writer out = new OutputStreamWriter(new GZIPOutputStream(bytes, 8192), StandardCharsets.UTF_8);
+             JsonWriter w = new JsonWriter(out)) {
+            // allow NaN / Infinity readings through rather than failing the batch
+            w.setStrictness(Strictness.LENIENT);
+            w.beginArray();
+            for (Item it : items) writeItem(w, it);
+            w.endArray();
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Vital items in the {@link VitalBatchCodec} format. */
+    static byte[] encodeVitals(List<Item> items) {
+        List<PatientSample> rows = new ArrayList<>(items.size());
+        for (Item it : items) rows.add(new PatientSample(it.patientId, it.vital));
+        return VitalBatchCodec.encode(rows);
+    }
+
+    /** Same field names as the single-item endpoints. */
+    private static void writeItem(JsonWriter w, Item it) throws IOException {
+        w.beginObject();
+        w.name("patientId").value(it.patientId);
+        if (it.kind == ItemKind.VITAL) {
+            VitalSample s = it.vital;
+            w.name("timestampMs").value(s.timestampMs());
+            w.name("bodyTemp").value(s.bodyTemp());
+            w.name("heartRate").value(s.heartRate());
+            w.name("respiratoryRate").value(s.respiratoryRate());
+            w.name("systolicBP").value(s.systolicBP());
+            w.name("diastolicBP").value(s.diastolicBP());
+            w.name("ecgValue").value(s.ecgValue());
+        } else if (it.kind == ItemKind.ABNORMAL) {
+            AbnormalEvent e = it.abnormal;
+            w.name("timestampMs").value(e.timestampMs());
+            w.name("vitalType").value(e.vitalType().name());
+            w.name("level").value(e.level().name());
+            w.name("value").value(e.value());
+            w.name("message").value(e.message() == null ? "" : e.message());
+        } else {
+            MinuteRecord r = it.minute;
+            w.name("minuteStartMs").value(r.minuteStartMs());
+            w.name("avgTemp").value(r.avgTemp());
+            w.name("avgHR").value(r.avgHR());
+            w.name("avgRR").value(r.avgRR());
+            w.name("avgSys").value(r.avgSys());
+            w.name("avgDia").value(r.avgDia());
+            w.name("sampleCount").value(r.sampleCount());
+        }
+        w.endObject();
     }
 
     private static String trimTrailingSlash(String s) {
@@ -187,18 +769,20 @@ public class CloudSyncService {
         return s.endsWith("/") ? s.substring(0, s.length() - 1) : s;
     }
 
-    private static String escape(String s) {
-        if (s == null) return "";
-        return s.replace("\\", "\\\\").replace("\"", "\\\"");
-    }
+    /** Ordinals are persisted by {@link CloudOutbox}: add new kinds at the end. */
+    enum ItemKind {
+        VITAL("/api/vitals"),
+        ABNORMAL("/api/abnormal"),
+        MINUTE("/api/minutes");
 
-    private enum ItemKind {
-        VITAL,
-        ABNORMAL,
-        MINUTE
+        final String path;
+
+        ItemKind(String path) {
+            this.path = path;
+        }
     }
 
-    private static class Item {
+    static class Item {
         final ItemKind kind;
         final String patientId;
         final VitalSample vital;
@@ -229,6 +813,41 @@ public class CloudSyncService {
         static Item minute(String patientId, MinuteRecord r) {
             return new Item(ItemKind.MINUTE, patientId, null, null, r);
         }
+
+        Lane lane() {
+            if (kind == ItemKind.VITAL) return Lane.VITAL;
+            if (kind == ItemKind.ABNORMAL
+                    && (abnormal.level() == AlertLevel.URGENT || abnormal.level() == AlertLevel.WARNING)) {
+                return Lane.ALERT;
+            }
+            return Lane.MINUTE;
+        }
+
+        /** When the data was produced; a minute record counts from the end of its minute. */
+        long eventTimeMs() {
+            if (kind == ItemKind.VITAL) return vital.timestampMs();
+            if (kind == ItemKind.ABNORMAL) return abnormal.timestampMs();
+            return minute.minuteStartMs() + 60_000L;
+        }
+    }
+
+    /** One priority lane: its bounded queue and counters. */
+    private static final class LaneQueue {
+        final Lane lane;
+        final int capacity;
+        final BlockingQueue<Item> q;
+        final AtomicLong enqueued = new AtomicLong();
+        final AtomicLong sent = new AtomicLong();
+        final AtomicLong spilled = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        final LatencyHistogram lag;
+
+        LaneQueue(Lane lane, int capacity) {
+            this.lane = lane;
+            this.capacity = capacity;
+            this.q = new ArrayBlockingQueue<>(capacity);
+            this.lag = new LatencyHistogram("cloud-lag-" + lane.name().toLowerCase());
+        }
     }
 
     /** Convert "P1" -> "P001". Keep already-normalised IDs as-is. */
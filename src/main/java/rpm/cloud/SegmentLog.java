@@ -0,0 +1,344 @@
+package rpm.cloud;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of byte records in memory-mapped segment files, with a persisted
+ * read checkpoint.
+ *
+ * <p>Layout: a directory of fixed-size files {@code <base>.seg}, where {@code base} is
+ * the global byte position of the segment's first byte. Each record is
+ * {@code [int length][int crc32][payload]}; a zero length marks the end of the written
+ * part of a segment. The {@code checkpoint} file holds the position of the first
+ * record not yet {@link #commit committed}, replaced atomically on every commit.
+ *
+ * <p>Crash safety: on open the last segment is scanned and cut at the first
+ * incomplete or corrupt record, so a torn append is discarded rather than replayed.
+ * How much of what was appended survives a power loss depends on the
+ * {@link FsyncPolicy}; a process crash loses nothing already appended, because the
+ * mapping is backed by the page cache.
+ *
+ * <p>All methods are synchronized; appends and reads are expected from a handful of
+ * threads at most.
+ */
+public final class SegmentLog implements Closeable {
+
+    /** When appended records are forced to the storage device. */
+    public enum FsyncPolicy {
+        /** After every append. Slowest; nothing acknowledged is ever lost. */
+        ALWAYS,
+        /** At most every {@code fsyncIntervalMs}, on append or {@link #flush}. */
+        INTERVAL,
+        /** Left to the OS (and {@link #close}). */
+        NEVER;
+
+        public static FsyncPolicy parse(String v, FsyncPolicy def) {
+            if (v == null || v.isBlank()) return def;
+            try {
+                return valueOf(v.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                return def;
+            }
+        }
+    }
+
+    private static final int HEADER = 8;
+    private static final String SUFFIX = ".seg";
+    private static final String CHECKPOINT = "checkpoint";
+
+    /** A batch of records read from the log and the position just after the last one. */
+    public static final class Batch {
+        private final List<byte[]> records;
+        private final long next;
+
+        Batch(List<byte[]> records, long next) {
+            this.records = records;
+            this.next = next;
+        }
+
+        public List<byte[]> records() {
+            return records;
+        }
+
+        public boolean isEmpty() {
+            return records.isEmpty();
+        }
+
+        long next() {
+            return next;
+        }
+    }
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final FsyncPolicy fsync;
+    private final long fsyncIntervalMs;
+    private final long maxBytes;
+
+    private final TreeMap<Long, MappedByteBuffer> segments = new TreeMap<>();
+    private final List<Path> undeleted = new ArrayList<>();
+
+    private long writePos;
+    private long readPos;
+    private long forcedPos;
+    private long lastForceMs = System.currentTimeMillis();
+    private boolean dirty;
+    private boolean closed;
+
+    /**
+     * Opens (or creates) the log in {@code dir}, recovering the write position and
+     * checkpoint left by a previous run.
+     *
+     * @param maxBytes cap on unread bytes; {@link #append} refuses records beyond it
+     */
+    public SegmentLog(Path dir, int segmentBytes, FsyncPolicy fsync, long fsyncIntervalMs, long maxBytes) throws IOException {
+        if (segmentBytes <= HEADER) throw new IllegalArgumentException("segmentBytes must be > " + HEADER);
+        if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes must be > 0");
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.fsync = fsync == null ? FsyncPolicy.INTERVAL : fsync;
+        this.fsyncIntervalMs = Math.max(0, fsyncIntervalMs);
+        this.maxBytes = maxBytes;
+
+        Files.createDirectories(dir);
+        recover();
+    }
+
+    /**
+     * Appends one record. Returns false, without writing, if the unread backlog would
+     * exceed {@code maxBytes}; a record larger than a segment is rejected outright.
+     */
+    public synchronized boolean append(byte[] payload) throws IOException {
+        ensureOpen();
+        int size = HEADER + payload.length;
+        if (size > segmentBytes) throw new IllegalArgumentException("record larger than a segment: " + payload.length);
+        if (writePos - readPos + size > maxBytes) return false;
+
+        long base = baseOf(writePos);
+        int off = (int) (writePos - base);
+        if (off + size > segmentBytes) {
+            // does not fit: the zero bytes left behind mark the end of this segment
+            base += segmentBytes;
+            off = 0;
+            openSegment(base, true);
+        }
+
+        ByteBuffer seg = segments.get(base).duplicate();
+        seg.position(off + 4);
+        seg.putInt(crc(payload));
+        seg.put(payload);
+        // length last, so a torn write never looks like a complete record
+        seg.putInt(off, payload.length);
+
+        writePos = base + off + size;
+        dirty = true;
+        if (fsync == FsyncPolicy.ALWAYS) force();
+        else if (fsync == FsyncPolicy.INTERVAL) flushIfDue();
+        return true;
+    }
+
+    /** Up to {@code max} unread records, oldest first; nothing is consumed until {@link #commit}. */
+    public synchronized Batch read(int max) {
+        ensureOpen();
+        List<byte[]> out = new ArrayList<>(Math.min(max, 256));
+        long pos = readPos;
+        while (out.size() < max && pos < writePos) {
+            long base = baseOf(pos);
+            ByteBuffer seg = segments.get(base);
+            int off = (int) (pos - base);
+            int len = off + HEADER <= segmentBytes ? seg.getInt(off) : 0;
+            if (len <= 0) {
+                // end of this segment: continue in the next one
+                Long nextBase = segments.higherKey(base);
+                if (nextBase == null) break;
+                pos = nextBase;
+                continue;
+            }
+            byte[] payload = new byte[len];
+            ByteBuffer d = seg.duplicate();
+            d.position(off + HEADER);
+            d.get(payload);
+            out.add(payload);
+            pos += HEADER + len;
+        }
+        return new Batch(out, pos);
+    }
+
+    /** Marks everything in {@code batch} as consumed and drops segments no longer needed. */
+    public synchronized void commit(Batch batch) throws IOException {
+        ensureOpen();
+        if (batch.next() <= readPos) return;
+        readPos = Math.min(batch.next(), writePos);
+        writeCheckpoint(readPos);
+        deleteConsumedSegments();
+    }
+
+    public synchronized boolean isEmpty() {
+        return readPos >= writePos;
+    }
+
+    /** Bytes appended but not yet committed (including record headers). */
+    public synchronized long pendingBytes() {
+        return writePos - readPos;
+    }
+
+    /** Forces appended data to disk if the INTERVAL policy is due. */
+    public synchronized void flushIfDue() {
+        if (closed || !dirty) return;
+        if (fsync == FsyncPolicy.INTERVAL && System.currentTimeMillis() - lastForceMs >= fsyncIntervalMs) force();
+    }
+
+    /** Forces appended data to disk regardless of policy. */
+    public synchronized void flush() {
+        if (!closed && dirty) force();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        flush();
+        closed = true;
+        segments.clear();
+    }
+
+    // ---------- internals ----------
+
+    private void recover() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path f : files) {
+                String name = f.getFileName().toString();
+                try {
+                    long base = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+                    openSegment(base, false);
+                } catch (NumberFormatException ignored) {
+                    // not ours
+                }
+            }
+        }
+
+        if (segments.isEmpty()) {
+            openSegment(0, true);
+            writePos = 0;
+        } else {
+            long base = segments.lastKey();
+            writePos = base + scanValidEnd(segments.get(base));
+        }
+
+        forcedPos = writePos;
+        long first = segments.firstKey();
+        long cp = readCheckpoint(first);
+        readPos = Math.max(first, Math.min(cp, writePos));
+        deleteConsumedSegments();
+    }
+
+    /** Offset just past the last intact record; zeroes any torn bytes after it. */
+    private int scanValidEnd(MappedByteBuffer seg) {
+        int off = 0;
+        while (off + HEADER <= segmentBytes) {
+            int len = seg.getInt(off);
+            if (len <= 0 || off + HEADER + len > segmentBytes) break;
+            byte[] payload = new byte[len];
+            ByteBuffer d = seg.duplicate();
+            d.position(off + HEADER);
+            d.get(payload);
+            if (crc(payload) != seg.getInt(off + 4)) break;
+            off += HEADER + len;
+        }
+        for (int i = off; i < segmentBytes; i++) {
+            if (seg.get(i) != 0) seg.put(i, (byte) 0);
+        }
+        return off;
+    }
+
+    private void openSegment(long base, boolean create) throws IOException {
+        Path f = dir.resolve(base + SUFFIX);
+        try (RandomAccessFile raf = new RandomAccessFile(f.toFile(), "rw");
+             FileChannel ch = raf.getChannel()) {
+            if (raf.length() != segmentBytes) raf.setLength(segmentBytes);
+            // the mapping stays valid after the channel is closed
+            segments.put(base, ch.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes));
+        }
+        if (create) dirty = true;
+    }
+
+    private long baseOf(long pos) {
+        Map.Entry<Long, MappedByteBuffer> e = segments.floorEntry(pos);
+        return e == null ? segments.firstKey() : e.getKey();
+    }
+
+    private void deleteConsumedSegments() {
+        long keep = baseOf(readPos);
+        while (segments.firstKey() < keep) {
+            long base = segments.firstKey();
+            segments.remove(base);
+            undeleted.add(dir.resolve(base + SUFFIX));
+        }
+        // a file can stay locked while its mapping is alive on some platforms; retry later
+        undeleted.removeIf(p -> {
+            try {
+                Files.deleteIfExists(p);
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        });
+    }
+
+    private long readCheckpoint(long def) {
+        Path f = dir.resolve(CHECKPOINT);
+        try {
+            if (!Files.exists(f)) return def;
+            ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(f));
+            if (b.remaining() != 12) return def;
+            long pos = b.getLong();
+            return b.getInt() == crc(ByteBuffer.allocate(8).putLong(0, pos).array()) ? pos : def;
+        } catch (IOException e) {
+            return def;
+        }
+    }
+
+    private void writeCheckpoint(long pos) throws IOException {
+        byte[] p = ByteBuffer.allocate(8).putLong(0, pos).array();
+        byte[] bytes = ByteBuffer.allocate(12).put(p).putInt(crc(p)).array();
+        Path tmp = dir.resolve(CHECKPOINT + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ch.write(ByteBuffer.wrap(bytes));
+            if (fsync != FsyncPolicy.NEVER) ch.force(true);
+        }
+        Files.move(tmp, dir.resolve(CHECKPOINT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void force() {
+        // only segments written since the last force can hold dirty pages
+        for (MappedByteBuffer seg : segments.tailMap(baseOf(forcedPos), true).values()) seg.force();
+        forcedPos = writePos;
+        lastForceMs = System.currentTimeMillis();
+        dirty = false;
+    }
+
+    private void ensureOpen() {
+        if (closed) throw new IllegalStateException("log is closed");
+    }
+
+    private static int crc(byte[] payload) {
+        CRC32 c = new CRC32();
+        c.update(payload, 0, payload.length);
+        return (int) c.getValue();
+    }
+}
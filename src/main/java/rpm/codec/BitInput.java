@@ -0,0 +1,37 @@
+package rpm.codec;
+
+/** Reader for bits written by {@link BitOutput}; running past the end is a corrupt input. */
+final class BitInput {
+
+    private final byte[] data;
+    private int pos;
+    private int cur;
+    private int curBits;
+
+    BitInput(byte[] data, int offset) {
+        this.data = data;
+        this.pos = offset;
+    }
+
+    boolean readBit() {
+        return readBits(1) != 0;
+    }
+
+    /** Reads {@code n} bits (0 <= n <= 64) as an unsigned value, most significant first. */
+    long readBits(int n) {
+        long v = 0;
+        while (n > 0) {
+            if (curBits == 0) {
+                if (pos >= data.length) throw new IllegalStateException("truncated bit stream");
+                cur = data[pos++] & 0xFF;
+                curBits = 8;
+            }
+            int take = Math.min(curBits, n);
+            int shift = curBits - take;
+            v = (v << take) | ((cur >>> shift) & ((1 << take) - 1));
+            curBits -= take;
+            n -= take;
+        }
+        return v;
+    }
+}
@@ -0,0 +1,49 @@
+package rpm.codec;
+
+import java.util.Arrays;
+
+/** Growable big-endian bit buffer: bits are packed from the most significant end of each byte. */
+final class BitOutput {
+
+    private byte[] buf;
+    private int size;
+    private int cur;
+    private int curBits;
+
+    BitOutput(int capacity) {
+        buf = new byte[Math.max(16, capacity)];
+    }
+
+    void writeBit(boolean bit) {
+        writeBits(bit ? 1 : 0, 1);
+    }
+
+    /** Writes the low {@code n} bits of {@code v}, most significant first (0 <= n <= 64). */
+    void writeBits(long v, int n) {
+        while (n > 0) {
+            int take = Math.min(8 - curBits, n);
+            int bits = (int) ((v >>> (n - take)) & ((1 << take) - 1));
+            cur = (cur << take) | bits;
+            curBits += take;
+            n -= take;
+            if (curBits == 8) {
+                if (size == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+                buf[size++] = (byte) cur;
+                cur = 0;
+                curBits = 0;
+            }
+        }
+    }
+
+    /** Bits written so far. */
+    long bitLength() {
+        return size * 8L + curBits;
+    }
+
+    /** The buffer, with the last partial byte padded with zero bits. */
+    byte[] toByteArray() {
+        byte[] out = Arrays.copyOf(buf, size + (curBits > 0 ? 1 : 0));
+        if (curBits > 0) out[size] = (byte) (cur << (8 - curBits));
+        return out;
+    }
+}
@@ -0,0 +1,152 @@
+package rpm.codec;
+
+import rpm.model.VitalSample;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Cursor over a {@link VitalBatchCodec} body, read straight from the stream.
+ *
+ * <p>{@link #next()} decodes one row into primitive fields that the getters expose
+ * until the following call; apart from one String per patient group nothing is
+ * allocated per row. Callers that need objects use {@link #sample()}.
+ * Malformed input surfaces as an {@link IOException}.
+ */
+public final class VitalBatchReader implements Closeable {
+
+    private static final int MAX_ID_BYTES = 1024;
+
+    private final InputStream in;
+    private final byte[] buf = new byte[8192];
+    private int pos;
+    private int limit;
+
+    private boolean started;
+    private long groupsLeft;
+    private long rowsLeft;
+    private boolean firstRow;
+
+    private String patientId;
+    private int xorMask;
+    private long prevTs;
+    private long prevDelta;
+    private final long[] prev = new long[VitalBatchCodec.COLUMNS];
+
+    private long timestampMs;
+    private final double[] values = new double[VitalBatchCodec.COLUMNS];
+
+    VitalBatchReader(InputStream in) {
+        this.in = in;
+    }
+
+    /** Advances to the next row; false at the end of the batch. */
+    public boolean next() throws IOException {
+        if (!started) {
+            readHeader();
+            started = true;
+        }
+        while (rowsLeft == 0) {
+            if (groupsLeft == 0) return false;
+            readGroup();
+        }
+
+        long delta = readSigned() + prevDelta;
+        timestampMs = prevTs + delta;
+        prevDelta = firstRow ? 0 : delta;
+        prevTs = timestampMs;
+        firstRow = false;
+
+        for (int c = 0; c < VitalBatchCodec.COLUMNS; c++) {
+            if ((xorMask & (1 << c)) != 0) {
+                prev[c] ^= readVarint();
+                values[c] = Double.longBitsToDouble(prev[c]);
+            } else {
+                prev[c] += readSigned();
+                values[c] = prev[c] / (double) VitalBatchCodec.SCALE[c];
+            }
+        }
+        rowsLeft--;
+        return true;
+    }
+
+    public String patientId() { return patientId; }
+    public long timestampMs() { return timestampMs; }
+    public double bodyTemp() { return values[0]; }
+    public double heartRate() { return values[1]; }
+    public double respiratoryRate() { return values[2]; }
+    public double systolicBP() { return values[3]; }
+    public double diastolicBP() { return values[4]; }
+    public double ecgValue() { return values[5]; }
+
+    /** The current row as a new {@link VitalSample}. */
+    public VitalSample sample() {
+        return new VitalSample(timestampMs, values[0], values[1], values[2], values[3], values[4], values[5]);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    // ---------- internals ----------
+
+    private void readHeader() throws IOException {
+        if (readByte() != VitalBatchCodec.MAGIC[0] || readByte() != VitalBatchCodec.MAGIC[1]) {
+            throw new IOException("not an " + VitalBatchCodec.CONTENT_TYPE + " body");
+        }
+        int version = readByte();
+        if (version != VitalBatchCodec.VERSION) throw new IOException("unsupported version " + version);
+        groupsLeft = readVarint();
+        if (groupsLeft < 0) throw new IOException("bad group count");
+    }
+
+    private void readGroup() throws IOException {
+        long idLength = readVarint();
+        if (idLength < 0 || idLength > MAX_ID_BYTES) throw new IOException("bad patient id length " + idLength);
+        byte[] id = new byte[(int) idLength];
+        for (int i = 0; i < id.length; i++) id[i] = (byte) readByte();
+        patientId = new String(id, StandardCharsets.UTF_8);
+
+        rowsLeft = readVarint();
+        if (rowsLeft < 0) throw new IOException("bad row count");
+        xorMask = readByte();
+        groupsLeft--;
+
+        Arrays.fill(prev, 0);
+        prevTs = 0;
+        prevDelta = 0;
+        firstRow = true;
+    }
+
+    private long readSigned() throws IOException {
+        long v = readVarint();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private long readVarint() throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+        throw new IOException("varint too long");
+    }
+
+    private int readByte() throws IOException {
+        if (pos == limit) {
+            limit = in.read(buf, 0, buf.length);
+            pos = 0;
+            if (limit <= 0) {
+                limit = 0;
+                throw new EOFException("truncated " + VitalBatchCodec.CONTENT_TYPE + " body");
+            }
+        }
+        return buf[pos++] & 0xFF;
+    }
+}
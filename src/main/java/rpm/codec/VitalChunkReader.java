@@ -0,0 +1,96 @@
+package rpm.codec;
+
+import rpm.model.VitalSample;
+
+/**
+ * Cursor over a block written by {@link VitalChunkWriter}.
+ *
+ * <p>Like {@link VitalBatchReader}, {@link #next()} decodes into primitive fields and
+ * allocates nothing per sample. A corrupt block surfaces as
+ * {@link IllegalStateException}.
+ */
+public final class VitalChunkReader {
+
+    private final BitInput in;
+    private final int count;
+    private int read;
+
+    private long prevDelta;
+    private final long[] prevBits = new long[VitalBatchCodec.COLUMNS];
+    private final int[] prevLead = new int[VitalBatchCodec.COLUMNS];
+    private final int[] prevTrail = new int[VitalBatchCodec.COLUMNS];
+
+    private long timestampMs;
+    private final double[] values = new double[VitalBatchCodec.COLUMNS];
+
+    public VitalChunkReader(byte[] chunk) {
+        if (chunk.length < VitalChunkWriter.HEADER_BYTES || chunk[0] != VitalChunkWriter.VERSION) {
+            throw new IllegalStateException("not a vital chunk");
+        }
+        this.count = ((chunk[1] & 0xFF) << 24) | ((chunk[2] & 0xFF) << 16) | ((chunk[3] & 0xFF) << 8) | (chunk[4] & 0xFF);
+        if (count < 0) throw new IllegalStateException("bad vital chunk count");
+        this.in = new BitInput(chunk, VitalChunkWriter.HEADER_BYTES);
+    }
+
+    /** Samples in the block. */
+    public int count() {
+        return count;
+    }
+
+    /** Advances to the next sample; false after the last one. */
+    public boolean next() {
+        if (read >= count) return false;
+        if (read == 0) {
+            timestampMs = in.readBits(64);
+            for (int c = 0; c < VitalBatchCodec.COLUMNS; c++) {
+                prevBits[c] = in.readBits(64);
+                prevLead[c] = 64;
+                values[c] = Double.longBitsToDouble(prevBits[c]);
+            }
+        } else {
+            long delta = prevDelta + readDod();
+            timestampMs += delta;
+            prevDelta = delta;
+            for (int c = 0; c < VitalBatchCodec.COLUMNS; c++) {
+                values[c] = Double.longBitsToDouble(readXor(c));
+            }
+        }
+        read++;
+        return true;
+    }
+
+    public long timestampMs() { return timestampMs; }
+    public double bodyTemp() { return values[0]; }
+    public double heartRate() { return values[1]; }
+    public double respiratoryRate() { return values[2]; }
+    public double systolicBP() { return values[3]; }
+    public double diastolicBP() { return values[4]; }
+    public double ecgValue() { return values[5]; }
+
+    /** The current sample as a new {@link VitalSample}. */
+    public VitalSample sample() {
+        return new VitalSample(timestampMs, values[0], values[1], values[2], values[3], values[4], values[5]);
+    }
+
+    private long readDod() {
+        if (!in.readBit()) return 0;
+        if (!in.readBit()) return in.readBits(7) - 63;
+        if (!in.readBit()) return in.readBits(9) - 255;
+        if (!in.readBit()) return in.readBits(12) - 2047;
+        return in.readBits(64);
+    }
+
+    private long readXor(int c) {
+        if (in.readBit()) {
+            if (in.readBit()) {
+                prevLead[c] = (int) in.readBits(6);
+                int len = (int) in.readBits(6) + 1;
+                prevTrail[c] = 64 - prevLead[c] - len;
+                if (prevTrail[c] < 0) throw new IllegalStateException("bad vital chunk window");
+            }
+            int len = 64 - prevLead[c] - prevTrail[c];
+            prevBits[c] ^= in.readBits(len) << prevTrail[c];
+        }
+        return prevBits[c];
+    }
+}
@@ -0,0 +1,125 @@
+package rpm.codec;
+
+import rpm.model.VitalSample;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encoder for a Gorilla-style compressed block of one patient's vital samples.
+ *
+ * <p>Layout: a version byte and a 32-bit sample count, then one bit stream with the
+ * samples interleaved. The first sample is stored raw (64-bit timestamp and values).
+ * After that a timestamp is the delta-of-delta as a prefix code ({@code 0}: same
+ * interval; {@code 10}, {@code 110}, {@code 1110}: 7, 9 or 12 bit offset;
+ * {@code 1111}: 64 bits), and each of the six vitals is the XOR with its previous
+ * value: {@code 0} if unchanged, {@code 10} + the meaningful bits if they fit the
+ * previous leading/trailing zero window, else {@code 11} + 6 bits of leading zeros,
+ * 6 bits of length and the meaningful bits.
+ *
+ * <p>Lossless, unlike {@link VitalBatchCodec}. Append samples in timestamp order for
+ * the best ratio; any order decodes correctly.
+ */
+public final class VitalChunkWriter {
+
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 5;
+
+    private final BitOutput out;
+    private int count;
+
+    private long prevTs;
+    private long prevDelta;
+    private final long[] prevBits = new long[VitalBatchCodec.COLUMNS];
+    private final int[] prevLead = new int[VitalBatchCodec.COLUMNS];
+    private final int[] prevTrail = new int[VitalBatchCodec.COLUMNS];
+
+    public VitalChunkWriter() {
+        this(64);
+    }
+
+    /** @param expectedSamples sizing hint (e.g. 300 for a minute at 5 Hz) */
+    public VitalChunkWriter(int expectedSamples) {
+        this.out = new BitOutput(expectedSamples * 24);
+    }
+
+    public void append(VitalSample s) {
+        long ts = s.timestampMs();
+        if (count == 0) {
+            out.writeBits(ts, 64);
+            for (int c = 0; c < VitalBatchCodec.COLUMNS; c++) {
+                prevBits[c] = Double.doubleToLongBits(VitalBatchCodec.value(s, c));
+                prevLead[c] = 64; // forces a full window on the first change
+                out.writeBits(prevBits[c], 64);
+            }
+        } else {
+            long delta = ts - prevTs;
+            writeDod(delta - prevDelta);
+            prevDelta = delta;
+            for (int c = 0; c < VitalBatchCodec.COLUMNS; c++) {
+                writeXor(c, Double.doubleToLongBits(VitalBatchCodec.value(s, c)));
+            }
+        }
+        prevTs = ts;
+        count++;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    /** Encoded size so far, in bytes. */
+    public int size() {
+        return HEADER_BYTES + (int) ((out.bitLength() + 7) / 8);
+    }
+
+    public byte[] toByteArray() {
+        byte[] body = out.toByteArray();
+        return ByteBuffer.allocate(HEADER_BYTES + body.length)
+                .put((byte) VERSION)
+                .putInt(count)
+                .put(body)
+                .array();
+    }
+
+    private void writeDod(long dod) {
+        if (dod == 0) {
+            out.writeBit(false);
+        } else if (dod >= -63 && dod <= 64) {
+            out.writeBits(0b10, 2);
+            out.writeBits(dod + 63, 7);
+        } else if (dod >= -255 && dod <= 256) {
+            out.writeBits(0b110, 3);
+            out.writeBits(dod + 255, 9);
+        } else if (dod >= -2047 && dod <= 2048) {
+            out.writeBits(0b1110, 4);
+            out.writeBits(dod + 2047, 12);
+        } else {
+            out.writeBits(0b1111, 4);
+            out.writeBits(dod, 64);
+        }
+    }
+
+    private void writeXor(int c, long bits) {
+        long xor = bits ^ prevBits[c];
+        prevBits[c] = bits;
+        if (xor == 0) {
+            out.writeBit(false);
+            return;
+        }
+        int lead = Long.numberOfLeadingZeros(xor);
+        int trail = Long.numberOfTrailingZeros(xor);
+        if (lead >= prevLead[c] && trail >= prevTrail[c]) {
+            int len = 64 - prevLead[c] - prevTrail[c];
+            out.writeBits(0b10, 2);
+            out.writeBits(xor >>> prevTrail[c], len);
+        } else {
+            int len = 64 - lead - trail;
+            out.writeBits(0b11, 2);
+            out.writeBits(lead, 6);
+            out.writeBits(len - 1, 6);
+            out.writeBits(xor >>> trail, len);
+            prevLead[c] = lead;
+            prevTrail[c] = trail;
+        }
+    }
+}
@@ -0,0 +1,6 @@
+/**
+ * Compact wire formats.
+
+ Binary encodings shared by the desktop sync client and the cloud ingest servlets, used in place of JSON where volume matters.
+ */
+package rpm.codec;
@@ -1,76 +1,205 @@
 package rpm.dao;
 
 import rpm.data.AbnormalEvent;
+import rpm.data.PatientEvent;
 import rpm.db.Db;
+import rpm.db.QueryMetrics;
+import rpm.db.SchemaLayout;
 import rpm.model.AlertLevel;
 import rpm.model.VitalType;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.ToIntFunction;
 
 public final class AbnormalEventDao {
 
+    /**
+     * All events of a burst in one statement: parallel arrays unnested into rows. The
+     * table's (patient_id, timestamp_ms, vital_type) key drops duplicates, including
+     * ones racing in from another writer, and the update count is what was inserted.
+     * Fills both layouts (see SchemaLayout): names and patient_id, codes and patient_key.
+     */
+    private static final String INSERT_ALL_SQL =
+            "INSERT INTO abnormal_events " +
+                    "(patient_id, timestamp_ms, vital_type, level, value, message, patient_key, vital_code, level_code) " +
+                    "SELECT pid, ts, vt, lv, val, msg, pk, vc::smallint, lc::smallint " +
+                    "FROM unnest(?::text[], ?::bigint[], ?::text[], ?::text[], ?::float8[], ?::text[], " +
+                    "?::int4[], ?::int4[], ?::int4[]) AS u(pid, ts, vt, lv, val, msg, pk, vc, lc) " +
+                    "ON CONFLICT (patient_id, timestamp_ms, vital_type) DO NOTHING";
+
+    // the vital code of a row in the TEXT layout, for orderings shared with the keyed one
+    private static final String VITAL_CODE_OF_NAME = vitalCodeOf("vital_type");
+
+    private final PatientDao patients = new PatientDao();
+
     public void insert(String patientId, AbnormalEvent e) throws SQLException {
+        insertAll(Collections.singletonList(new PatientEvent(patientId, e)));
+    }
 
-        // Works even if the table has NO unique/primary key constraint.
-        // Avoids Postgres error: "no unique or exclusion constraint matching the ON CONFLICT specification"
-        String sql =
-                "INSERT INTO abnormal_events " +
-                        "(patient_id, timestamp_ms, vital_type, level, value, message) " +
-                        "SELECT ?, ?, ?, ?, ?, ? " +
-                        "WHERE NOT EXISTS (" +
-                        "  SELECT 1 FROM abnormal_events " +
-                        "  WHERE patient_id = ? AND timestamp_ms = ? AND vital_type = ?" +
-                        ")";
+    /** Inserts the events in one round-trip; returns how many were new (the rest were duplicates). */
+    public int insertAll(List<PatientEvent> rows) throws SQLException {
+        if (rows.isEmpty()) return 0;
 
-        try (Connection c = Db.getConnection();
-             PreparedStatement ps = c.prepareStatement(sql)) {
+        try (Connection c = Db.getConnection()) {
+            return insertAll(c, rows);
+        }
+    }
 
-            ps.setString(1, patientId);
-            ps.setLong(2, e.timestampMs());
-            ps.setString(3, e.vitalType().name());
-            ps.setString(4, e.level().name());
-            ps.setDouble(5, e.value());
-            ps.setString(6, e.message());
-
-            // NOT EXISTS params
-            ps.setString(7, patientId);
-            ps.setLong(8, e.timestampMs());
-            ps.setString(9, e.vitalType().name());
-
-            ps.executeUpdate();
+    /**
+     * Like {@link #insertAll(List)} on the caller's connection, e.g. inside its own
+     * transaction.
+     */
+    public int insertAll(Connection c, List<PatientEvent> rows) throws SQLException {
+        if (rows.isEmpty()) return 0;
+
+        int n = rows.size();
+        String[] pids = new String[n];
+        Long[] ts = new Long[n];
+        String[] types = new String[n];
+        String[] levels = new String[n];
+        Double[] values = new Double[n];
+        String[] messages = new String[n];
+        Integer[] keys = new Integer[n];
+        Integer[] typeCodes = new Integer[n];
+        Integer[] levelCodes = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            PatientEvent row = rows.get(i);
+            AbnormalEvent e = row.event();
+            pids[i] = row.patientId();
+            ts[i] = e.timestampMs();
+            types[i] = e.vitalType().name();
+            levels[i] = e.level().name();
+            values[i] = e.value();
+            messages[i] = e.message();
+            keys[i] = patients.key(c, row.patientId());
+            typeCodes[i] = (int) e.vitalType().code();
+            levelCodes[i] = (int) e.level().code();
+        }
+
+        try (PreparedStatement ps = c.prepareStatement(INSERT_ALL_SQL)) {
+            ps.setArray(1, c.createArrayOf("text", pids));
+            ps.setArray(2, c.createArrayOf("int8", ts));
+            ps.setArray(3, c.createArrayOf("text", types));
+            ps.setArray(4, c.createArrayOf("text", levels));
+            ps.setArray(5, c.createArrayOf("float8", values));
+            ps.setArray(6, c.createArrayOf("text", messages));
+            ps.setArray(7, c.createArrayOf("int4", keys));
+            ps.setArray(8, c.createArrayOf("int4", typeCodes));
+            ps.setArray(9, c.createArrayOf("int4", levelCodes));
+            long t0 = System.nanoTime();
+            int inserted = ps.executeUpdate();
+            QueryMetrics.record("abnormal.insertAll", t0, inserted);
+            return inserted;
         }
     }
 
+    // newest first; the vital code breaks timestamp ties so keyset pages are stable,
+    // and in the same order in both layouts
+    private static final String LATEST_SQL =
+            "SELECT timestamp_ms, vital_type, level, value, message " +
+                    "FROM abnormal_events " +
+                    "WHERE patient_id = ? " +
+                    "ORDER BY timestamp_ms DESC, " + VITAL_CODE_OF_NAME + " DESC " +
+                    "LIMIT ?";
+
+    private static final String LATEST_BY_KEY_SQL =
+            "SELECT timestamp_ms, vital_code, level_code, value, message " +
+                    "FROM abnormal_events " +
+                    "WHERE patient_key = ? " +
+                    "ORDER BY timestamp_ms DESC, vital_code DESC " +
+                    "LIMIT ?";
+
+    private static final String BEFORE_SQL =
+            "SELECT timestamp_ms, vital_type, level, value, message " +
+                    "FROM abnormal_events " +
+                    "WHERE patient_id = ? AND (timestamp_ms, " + VITAL_CODE_OF_NAME + ") < (?, ?) " +
+                    "ORDER BY timestamp_ms DESC, " + VITAL_CODE_OF_NAME + " DESC " +
+                    "LIMIT ?";
+
+    private static final String BEFORE_BY_KEY_SQL =
+            "SELECT timestamp_ms, vital_code, level_code, value, message " +
+                    "FROM abnormal_events " +
+                    "WHERE patient_key = ? AND (timestamp_ms, vital_code) < (?, ?) " +
+                    "ORDER BY timestamp_ms DESC, vital_code DESC " +
+                    "LIMIT ?";
+
     public List<AbnormalEvent> latest(String patientId, int limit) throws SQLException {
-        String sql =
-                "SELECT timestamp_ms, vital_type, level, value, message " +
-                        "FROM abnormal_events " +
-                        "WHERE patient_id = ? " +
-                        "ORDER BY timestamp_ms DESC " +
-                        "LIMIT ?";
+        boolean keyed = SchemaLayout.patientKeys();
+        try (Connection c = Db.getConnection();
+             PreparedStatement ps = c.prepareStatement(keyed ? LATEST_BY_KEY_SQL : LATEST_SQL)) {
 
-        List<AbnormalEvent> out = new ArrayList<>();
+            if (!bindPatient(ps, c, keyed, patientId)) return new ArrayList<>();
+            ps.setInt(2, limit);
+            return read(ps, keyed, "abnormal.latest");
+        }
+    }
 
+    /**
+     * The page after {@link #latest} (or an earlier page) ended at event
+     * ({@code beforeMs}, {@code beforeType}): up to {@code limit} older events in the
+     * same newest-first order.
+     */
+    public List<AbnormalEvent> before(String patientId, long beforeMs, VitalType beforeType, int limit)
+            throws SQLException {
+        boolean keyed = SchemaLayout.patientKeys();
         try (Connection c = Db.getConnection();
-             PreparedStatement ps = c.prepareStatement(sql)) {
+             PreparedStatement ps = c.prepareStatement(keyed ? BEFORE_BY_KEY_SQL : BEFORE_SQL)) {
+
+            if (!bindPatient(ps, c, keyed, patientId)) return new ArrayList<>();
+            ps.setLong(2, beforeMs);
+            ps.setShort(3, beforeType.code());
+            ps.setInt(4, limit);
+            return read(ps, keyed, "abnormal.before");
+        }
+    }
 
+    /** Binds parameter 1 to the patient; false for a patient without a key, who has no events. */
+    private boolean bindPatient(PreparedStatement ps, Connection c, boolean keyed, String patientId) throws SQLException {
+        if (!keyed) {
             ps.setString(1, patientId);
-            ps.setInt(2, limit);
+            return true;
+        }
+        int key = patients.findKey(c, patientId);
+        if (key == PatientDao.NO_KEY) return false;
+        ps.setInt(1, key);
+        return true;
+    }
 
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    out.add(new AbnormalEvent(
-                            rs.getLong("timestamp_ms"),
-                            VitalType.valueOf(rs.getString("vital_type")),
-                            AlertLevel.valueOf(rs.getString("level")),
-                            rs.getDouble("value"),
-                            rs.getString("message")
-                    ));
-                }
+    private static List<AbnormalEvent> read(PreparedStatement ps, boolean keyed, String metric) throws SQLException {
+        List<AbnormalEvent> out = new ArrayList<>();
+        long t0 = System.nanoTime();
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                out.add(new AbnormalEvent(
+                        rs.getLong(1),
+                        keyed ? VitalType.fromCode(rs.getShort(2)) : VitalType.valueOf(rs.getString(2)),
+                        keyed ? AlertLevel.fromCode(rs.getShort(3)) : AlertLevel.valueOf(rs.getString(3)),
+                        rs.getDouble(4),
+                        rs.getString(5)
+                ));
             }
         }
+        QueryMetrics.record(metric, t0, out.size());
         return out;
     }
+
+    /** SQL expression mapping the vital name in {@code column} to its SMALLINT code. */
+    public static String vitalCodeOf(String column) {
+        return codeOfName(column, VitalType.values(), VitalType::code);
+    }
+
+    /** SQL expression mapping the alert level name in {@code column} to its SMALLINT code. */
+    public static String levelCodeOf(String column) {
+        return codeOfName(column, AlertLevel.values(), AlertLevel::code);
+    }
+
+    /** {@code CASE column WHEN 'NAME' THEN code ... END} over all constants. */
+    private static <E extends Enum<E>> String codeOfName(String column, E[] values, ToIntFunction<E> code) {
+        StringBuilder sb = new StringBuilder("CASE ").append(column);
+        for (E v : values) sb.append(" WHEN '").append(v.name()).append("' THEN ").append(code.applyAsInt(v));
+        return sb.append(" END").toString();
+    }
 }
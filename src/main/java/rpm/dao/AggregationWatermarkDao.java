@@ -0,0 +1,65 @@
+package rpm.dao;
+
+import rpm.db.Db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Progress of background aggregation jobs: per job, the time before which all
+ * output has been written ({@code aggregation_watermarks}).
+ *
+ * Local-friendly: without PG env vars nothing is stored and {@link #load} reports
+ * no watermark.
+ */
+public final class AggregationWatermarkDao {
+
+    /** Returned by {@link #load} when the job has never saved a watermark. */
+    public static final long NONE = -1L;
+
+    private static final String LOAD_SQL =
+            "SELECT completed_before_ms FROM aggregation_watermarks WHERE job = ?";
+
+    // never moves backwards, even if two instances race
+    private static final String SAVE_SQL =
+            "INSERT INTO aggregation_watermarks (job, completed_before_ms, updated_at_ms) VALUES (?, ?, ?) " +
+                    "ON CONFLICT (job) DO UPDATE SET " +
+                    "completed_before_ms = GREATEST(aggregation_watermarks.completed_before_ms, EXCLUDED.completed_before_ms), " +
+                    "updated_at_ms = EXCLUDED.updated_at_ms";
+
+    private static boolean hasPgEnv() {
+        return System.getenv("PGHOST") != null
+                && System.getenv("PGPORT") != null
+                && System.getenv("PGDATABASE") != null
+                && System.getenv("PGUSER") != null
+                && System.getenv("PGPASSWORD") != null;
+    }
+
+    public long load(String job) throws SQLException {
+        if (!hasPgEnv()) return NONE;
+
+        try (Connection c = Db.getConnection();
+             PreparedStatement ps = c.prepareStatement(LOAD_SQL)) {
+
+            ps.setString(1, job);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : NONE;
+            }
+        }
+    }
+
+    public void save(String job, long completedBeforeMs) throws SQLException {
+        if (!hasPgEnv()) return;
+
+        try (Connection c = Db.getConnection();
+             PreparedStatement ps = c.prepareStatement(SAVE_SQL)) {
+
+            ps.setString(1, job);
+            ps.setLong(2, completedBeforeMs);
+            ps.setLong(3, System.currentTimeMillis());
+            ps.executeUpdate();
+        }
+    }
+}
@@ -1,14 +1,87 @@
 package rpm.dao;
 
 import rpm.db.Db;
+import rpm.db.QueryMetrics;
+import rpm.db.SchemaLayout;
 import rpm.data.MinuteRecord;
+import rpm.data.PatientMinute;
 
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 public final class MinuteAverageDao {
 
+    // server-side cursor batch size for streamed reads
+    private static final int FETCH_ROWS = 1000;
+
+    private static final String RANGE_SQL = rangeSql("patient_id");
+    private static final String RANGE_BY_KEY_SQL = rangeSql("patient_key");
+    private static final String LATEST_SQL = latestSql("patient_id");
+    private static final String LATEST_BY_KEY_SQL = latestSql("patient_key");
+
+    // writes fill both layouts (see SchemaLayout); an update also keys an older row
+    private static final String UPSERT_SQL =
+            "INSERT INTO minute_averages " +
+                    "(patient_id, minute_start_ms, avg_temp, avg_hr, avg_rr, avg_sys, avg_dia, sample_count, patient_key) " +
+                    "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) " +
+                    "ON CONFLICT (patient_id, minute_start_ms) DO UPDATE SET " +
+                    "patient_key = EXCLUDED.patient_key, " +
+                    "avg_temp = EXCLUDED.avg_temp, " +
+                    "avg_hr = EXCLUDED.avg_hr, " +
+                    "avg_rr = EXCLUDED.avg_rr, " +
+                    "avg_sys = EXCLUDED.avg_sys, " +
+                    "avg_dia = EXCLUDED.avg_dia, " +
+                    "sample_count = EXCLUDED.sample_count";
+
+    /**
+     * Set-based catch-up: every patient's minutes in [?, ?) straight from vital_samples,
+     * in one statement. RETURNING hands the results back for the abnormal checks.
+     */
+    private static final String AGGREGATE_SAMPLES_SQL =
+            "INSERT INTO minute_averages " +
+                    "(patient_id, minute_start_ms, avg_temp, avg_hr, avg_rr, avg_sys, avg_dia, sample_count, patient_key) " +
+                    "SELECT s.patient_id, (s.ts_ms / 60000) * 60000, " +
+                    "avg(s.body_temp), avg(s.heart_rate), avg(s.respiratory_rate), avg(s.systolic_bp), avg(s.diastolic_bp), " +
+                    "count(*), k.patient_key " +
+                    "FROM vital_samples s JOIN patient_keys k ON k.patient_id = s.patient_id " +
+                    "WHERE s.ts_ms >= ? AND s.ts_ms < ? " +
+                    "GROUP BY 1, 2, k.patient_key " +
+                    "ON CONFLICT (patient_id, minute_start_ms) DO UPDATE SET " +
+                    "patient_key = EXCLUDED.patient_key, " +
+                    "avg_temp = EXCLUDED.avg_temp, " +
+                    "avg_hr = EXCLUDED.avg_hr, " +
+                    "avg_rr = EXCLUDED.avg_rr, " +
+                    "avg_sys = EXCLUDED.avg_sys, " +
+                    "avg_dia = EXCLUDED.avg_dia, " +
+                    "sample_count = EXCLUDED.sample_count " +
+                    "RETURNING patient_id, minute_start_ms, avg_temp, avg_hr, avg_rr, avg_sys, avg_dia, sample_count";
+
+    // run first, so the join above finds a key for every patient in the window
+    private static final String INTERN_SAMPLE_KEYS_SQL =
+            "INSERT INTO patient_keys (patient_id) " +
+                    "SELECT DISTINCT patient_id FROM vital_samples WHERE ts_ms >= ? AND ts_ms < ? " +
+                    "ON CONFLICT (patient_id) DO NOTHING";
+
+    private final PatientDao patients = new PatientDao();
+
+    private static String rangeSql(String patientColumn) {
+        return "SELECT minute_start_ms, avg_temp, avg_hr, avg_rr, avg_sys, avg_dia, sample_count " +
+                "FROM minute_averages " +
+                "WHERE " + patientColumn + " = ? AND minute_start_ms >= ? AND minute_start_ms <= ? " +
+                "ORDER BY minute_start_ms ASC " +
+                "LIMIT ?";
+    }
+
+    private static String latestSql(String patientColumn) {
+        return "SELECT minute_start_ms, avg_temp, avg_hr, avg_rr, avg_sys, avg_dia, sample_count " +
+                "FROM minute_averages " +
+                "WHERE " + patientColumn + " = ? " +
+                "ORDER BY minute_start_ms DESC " +
+                "LIMIT ?";
+    }
+
     private static boolean hasPgEnv() {
         return System.getenv("PGHOST") != null
                 && System.getenv("PGPORT") != null
@@ -20,53 +93,65 @@ public final class MinuteAverageDao {
     public void upsert(String patientId, MinuteRecord r) throws SQLException {
         if (!hasPgEnv()) return;
 
-        String sql =
-                "INSERT INTO minute_averages " +
-                        "(patient_id, minute_start_ms, avg_temp, avg_hr, avg_rr, avg_sys, avg_dia, sample_count) " +
-                        "VALUES (?, ?, ?, ?, ?, ?, ?, ?) " +
-                        "ON CONFLICT (patient_id, minute_start_ms) DO UPDATE SET " +
-                        "avg_temp = EXCLUDED.avg_temp, " +
-                        "avg_hr = EXCLUDED.avg_hr, " +
-                        "avg_rr = EXCLUDED.avg_rr, " +
-                        "avg_sys = EXCLUDED.avg_sys, " +
-                        "avg_dia = EXCLUDED.avg_dia, " +
-                        "sample_count = EXCLUDED.sample_count";
-
         try (Connection c = Db.getConnection();
-             PreparedStatement ps = c.prepareStatement(sql)) {
+             PreparedStatement ps = c.prepareStatement(UPSERT_SQL)) {
 
-            ps.setString(1, patientId);
-            ps.setLong(2, r.minuteStartMs());
-            ps.setDouble(3, r.avgTemp());
-            ps.setDouble(4, r.avgHR());
-            ps.setDouble(5, r.avgRR());
-            ps.setDouble(6, r.avgSys());
-            ps.setDouble(7, r.avgDia());
-            ps.setInt(8, r.sampleCount());
+            bind(ps, patients.key(c, patientId), patientId, r);
             ps.executeUpdate();
         }
     }
 
-    public List<MinuteRecord> latest(String patientId, int limit) throws SQLException {
-        List<MinuteRecord> out = new ArrayList<>();
-        if (!hasPgEnv()) return out;
+    /**
+     * Prepares the upsert on {@code c} for {@link #addUpsert}; the caller owns the
+     * statement and runs the batch, typically inside its own transaction.
+     */
+    public PreparedStatement prepareUpsert(Connection c) throws SQLException {
+        return c.prepareStatement(UPSERT_SQL);
+    }
+
+    /** Adds one record to the batch of a statement from {@link #prepareUpsert}. */
+    public void addUpsert(PreparedStatement ps, String patientId, MinuteRecord r) throws SQLException {
+        bind(ps, patients.key(ps.getConnection(), patientId), patientId, r);
+        ps.addBatch();
+    }
 
-        String sql =
-                "SELECT minute_start_ms, avg_temp, avg_hr, avg_rr, avg_sys, avg_dia, sample_count " +
-                        "FROM minute_averages " +
-                        "WHERE patient_id = ? " +
-                        "ORDER BY minute_start_ms DESC " +
-                        "LIMIT ?";
+    /** Upserts many patients' records as one JDBC batch. */
+    public void upsertAll(List<PatientMinute> rows) throws SQLException {
+        if (!hasPgEnv() || rows.isEmpty()) return;
 
         try (Connection c = Db.getConnection();
-             PreparedStatement ps = c.prepareStatement(sql)) {
+             PreparedStatement ps = prepareUpsert(c)) {
 
-            ps.setString(1, patientId);
-            ps.setInt(2, limit);
+            for (PatientMinute row : rows) addUpsert(ps, row.patientId(), row.record());
+            long t0 = System.nanoTime();
+            ps.executeBatch();
+            QueryMetrics.record("minutes.upsertAll", t0, rows.size());
+        }
+    }
+
+    /**
+     * Recomputes every patient's minutes with a start in {@code [fromMs, toMs)} from
+     * the rows in vital_samples and upserts them in one statement; returns what was
+     * written. Only valid for minutes not yet compacted into vital_chunks.
+     */
+    public List<PatientMinute> aggregateFromSamples(long fromMs, long toMs) throws SQLException {
+        List<PatientMinute> out = new ArrayList<>();
+        if (!hasPgEnv()) return out;
+
+        try (Connection c = Db.getConnection();
+             PreparedStatement keys = c.prepareStatement(INTERN_SAMPLE_KEYS_SQL);
+             PreparedStatement ps = c.prepareStatement(AGGREGATE_SAMPLES_SQL)) {
+
+            keys.setLong(1, fromMs);
+            keys.setLong(2, toMs);
+            keys.executeUpdate();
+
+            ps.setLong(1, fromMs);
+            ps.setLong(2, toMs);
 
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
-                    out.add(new MinuteRecord(
+                    out.add(new PatientMinute(rs.getString("patient_id"), new MinuteRecord(
                             rs.getLong("minute_start_ms"),
                             rs.getDouble("avg_temp"),
                             rs.getDouble("avg_hr"),
@@ -74,30 +159,38 @@ public final class MinuteAverageDao {
                             rs.getDouble("avg_sys"),
                             rs.getDouble("avg_dia"),
                             rs.getInt("sample_count")
-                    ));
+                    )));
                 }
             }
         }
         return out;
     }
 
-    public List<MinuteRecord> range(String patientId, long fromMs, long toMs) throws SQLException {
+    private static void bind(PreparedStatement ps, int patientKey, String patientId, MinuteRecord r)
+            throws SQLException {
+        ps.setString(1, patientId);
+        ps.setLong(2, r.minuteStartMs());
+        ps.setDouble(3, r.avgTemp());
+        ps.setDouble(4, r.avgHR());
+        ps.setDouble(5, r.avgRR());
+        ps.setDouble(6, r.avgSys());
+        ps.setDouble(7, r.avgDia());
+        ps.setInt(8, r.sampleCount());
+        ps.setInt(9, patientKey);
+    }
+
+    public List<MinuteRecord> latest(String patientId, int limit) throws SQLException {
         List<MinuteRecord> out = new ArrayList<>();
         if (!hasPgEnv()) return out;
 
-        String sql =
-                "SELECT minute_start_ms, avg_temp, avg_hr, avg_rr, avg_sys, avg_dia, sample_count " +
-                        "FROM minute_averages " +
-                        "WHERE patient_id = ? AND minute_start_ms >= ? AND minute_start_ms <= ? " +
-                        "ORDER BY minute_start_ms ASC";
-
+        boolean keyed = SchemaLayout.patientKeys();
         try (Connection c = Db.getConnection();
-             PreparedStatement ps = c.prepareStatement(sql)) {
+             PreparedStatement ps = c.prepareStatement(keyed ? LATEST_BY_KEY_SQL : LATEST_SQL)) {
 
-            ps.setString(1, patientId);
-            ps.setLong(2, fromMs);
-            ps.setLong(3, toMs);
+            if (!bindPatient(ps, c, keyed, patientId)) return out;
+            ps.setInt(2, limit);
 
+            long t0 = System.nanoTime();
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
                     out.add(new MinuteRecord(
@@ -111,7 +204,76 @@ public final class MinuteAverageDao {
                     ));
                 }
             }
+            QueryMetrics.record("minutes.latest", t0, out.size());
         }
         return out;
     }
+
+    public List<MinuteRecord> range(String patientId, long fromMs, long toMs) throws SQLException {
+        List<MinuteRecord> out = new ArrayList<>();
+        stream(patientId, fromMs, toMs, Integer.MAX_VALUE, out::add);
+        return out;
+    }
+
+    /**
+     * Streams the minutes with {@code fromMs <= minute_start_ms <= toMs} to {@code v},
+     * oldest first, stopping after {@code limit}. Rows come through a server-side
+     * cursor, so memory stays flat however long the range. Returns the number visited.
+     */
+    public int stream(String patientId, long fromMs, long toMs, int limit, Consumer<MinuteRecord> v)
+            throws SQLException {
+        if (!hasPgEnv()) return 0;
+
+        boolean keyed = SchemaLayout.patientKeys();
+        // includes the time v takes, i.e. writing the response
+        long t0 = System.nanoTime();
+        try (Connection c = Db.getConnection()) {
+            // the driver only honours the fetch size inside a transaction
+            c.setAutoCommit(false);
+            try (PreparedStatement ps = c.prepareStatement(keyed ? RANGE_BY_KEY_SQL : RANGE_SQL)) {
+                ps.setFetchSize(FETCH_ROWS);
+                if (!bindPatient(ps, c, keyed, patientId)) return 0;
+                ps.setLong(2, fromMs);
+                ps.setLong(3, toMs);
+                ps.setInt(4, limit);
+
+                int n = 0;
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        v.accept(new MinuteRecord(
+                                rs.getLong("minute_start_ms"),
+                                rs.getDouble("avg_temp"),
+                                rs.getDouble("avg_hr"),
+                                rs.getDouble("avg_rr"),
+                                rs.getDouble("avg_sys"),
+                                rs.getDouble("avg_dia"),
+                                rs.getInt("sample_count")
+                        ));
+                        n++;
+                    }
+                }
+                QueryMetrics.record("minutes.stream", t0, n);
+                return n;
+            } finally {
+                // read-only: just end the transaction before the connection goes back
+                try { c.rollback(); } catch (Exception ignored) {}
+                try { c.setAutoCommit(true); } catch (Exception ignored) {}
+            }
+        }
+    }
+
+    /**
+     * Binds parameter 1 to the patient in the layout the read uses; false for a
+     * patient without a key, who has no rows to read.
+     */
+    private boolean bindPatient(PreparedStatement ps, Connection c, boolean keyed, String patientId) throws SQLException {
+        if (!keyed) {
+            ps.setString(1, patientId);
+            return true;
+        }
+        int key = patients.findKey(c, patientId);
+        if (key == PatientDao.NO_KEY) return false;
+        ps.setInt(1, key);
+        return true;
+    }
 }
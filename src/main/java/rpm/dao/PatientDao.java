@@ -6,8 +6,12 @@ import rpm.model.Patient;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Patient DAO.
@@ -19,6 +23,18 @@ import java.util.List;
 
 public final class PatientDao {
 
+    /** What {@link #findKey} returns for a patient without a key (keys start at 1). */
+    public static final int NO_KEY = -1;
+
+    private static final String INTERN_KEY_SQL =
+            "INSERT INTO patient_keys (patient_id) VALUES (?) ON CONFLICT (patient_id) DO NOTHING";
+
+    private static final String FIND_KEY_SQL =
+            "SELECT patient_key FROM patient_keys WHERE patient_id = ?";
+
+    // keys never change once assigned, so every DAO instance shares one cache
+    private static final Map<String, Integer> KEYS = new ConcurrentHashMap<>();
+
     private static boolean hasPgEnv() {
         return System.getenv("PGHOST") != null
                 && System.getenv("PGPORT") != null
@@ -85,4 +101,58 @@ public final class PatientDao {
         return out;
     }
 
+    /**
+     * Integer surrogate of {@code patientId} from {@code patient_keys}, assigned on
+     * first use and cached for the life of the process. A key assigned inside the
+     * caller's transaction is not cached, since a rollback takes it back; writers
+     * call {@link #internAll} before they open one, so their keys are cached by then.
+     */
+    public int key(Connection c, String patientId) throws SQLException {
+        Integer cached = KEYS.get(patientId);
+        if (cached != null) return cached;
+
+        int key = intern(c, patientId);
+        if (c.getAutoCommit()) KEYS.put(patientId, key);
+        return key;
+    }
+
+    /**
+     * Assigns and caches the keys of {@code patientIds} that are not cached yet, on
+     * {@code c} while it is still in auto-commit mode.
+     */
+    public void internAll(Connection c, Collection<String> patientIds) throws SQLException {
+        for (String patientId : patientIds) key(c, patientId);
+    }
+
+    /**
+     * Key of {@code patientId}, or {@link #NO_KEY} if it has none; never assigns one,
+     * so reads for an unknown patient leave patient_keys alone.
+     */
+    public int findKey(Connection c, String patientId) throws SQLException {
+        Integer cached = KEYS.get(patientId);
+        if (cached != null) return cached;
+
+        try (PreparedStatement sel = c.prepareStatement(FIND_KEY_SQL)) {
+            sel.setString(1, patientId);
+            try (ResultSet rs = sel.executeQuery()) {
+                if (!rs.next()) return NO_KEY;
+                int key = rs.getInt(1);
+                KEYS.put(patientId, key);
+                return key;
+            }
+        }
+    }
+
+    private static int intern(Connection c, String patientId) throws SQLException {
+        try (PreparedStatement ins = c.prepareStatement(INTERN_KEY_SQL);
+             PreparedStatement sel = c.prepareStatement(FIND_KEY_SQL)) {
+            ins.setString(1, patientId);
+            ins.executeUpdate();
+            sel.setString(1, patientId);
+            try (ResultSet rs = sel.executeQuery()) {
+                if (!rs.next()) throw new SQLException("no patient_key for " + patientId);
+                return rs.getInt(1);
+            }
+        }
+    }
 }
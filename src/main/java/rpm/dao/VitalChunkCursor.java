@@ -0,0 +1,48 @@
+package rpm.dao;
+
+import rpm.codec.VitalChunkReader;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Walks the samples of a {@code SELECT data FROM vital_chunks ... ORDER BY chunk_start_ms}
+ * result in timestamp order, skipping those outside {@code [fromMs, toMs]}. Only the
+ * current chunk is decoded at a time.
+ */
+final class VitalChunkCursor {
+
+    private final ResultSet rs;
+    private final long fromMs;
+    private final long toMs;
+    private VitalChunkReader reader;
+
+    VitalChunkCursor(ResultSet rs, long fromMs, long toMs) {
+        this.rs = rs;
+        this.fromMs = fromMs;
+        this.toMs = toMs;
+    }
+
+    /** Advances to the next sample in range; false after the last one. */
+    boolean next() throws SQLException {
+        while (true) {
+            if (reader != null) {
+                while (reader.next()) {
+                    long ts = reader.timestampMs();
+                    if (ts >= fromMs && ts <= toMs) return true;
+                }
+            }
+            if (!rs.next()) return false;
+            reader = new VitalChunkReader(rs.getBytes(1));
+        }
+    }
+
+    long timestampMs() {
+        return reader.timestampMs();
+    }
+
+    void visit(VitalSampleVisitor v) {
+        v.visit(reader.timestampMs(), reader.bodyTemp(), reader.heartRate(), reader.respiratoryRate(),
+                reader.systolicBP(), reader.diastolicBP(), reader.ecgValue());
+    }
+}
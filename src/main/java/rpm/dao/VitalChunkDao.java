@@ -0,0 +1,229 @@
+package rpm.dao;
+
+import rpm.codec.VitalChunkReader;
+import rpm.codec.VitalChunkWriter;
+import rpm.db.DbSession;
+import rpm.db.QueryMetrics;
+import rpm.model.VitalSample;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Compressed vital storage: one {@code vital_chunks} row per patient and minute,
+ * holding that minute's samples as a {@link VitalChunkWriter} block.
+ *
+ * <p>Samples arrive in {@code vital_samples} as before; {@link #compact} later moves a
+ * closed minute into its chunk. Reads go through {@link VitalSampleDao}, which
+ * combines both tables. Methods take the caller's connection (or, for the
+ * compaction loop, a {@link DbSession}) and throw, like {@link VitalSampleDao#copyBatch}.
+ */
+public final class VitalChunkDao {
+
+    public static final long CHUNK_MS = 60_000L;
+
+    // the chunk already stored wins over a row for the same timestamp, as
+    // ON CONFLICT DO NOTHING would for rows
+    private static final String LOCK_CHUNK_SQL =
+            "SELECT data FROM vital_chunks WHERE patient_id = ? AND chunk_start_ms = ? FOR UPDATE";
+
+    private static final String MOVE_ROWS_SQL =
+            "DELETE FROM vital_samples WHERE patient_id = ? AND ts_ms >= ? AND ts_ms < ? " +
+                    "RETURNING ts_ms, body_temp, heart_rate, respiratory_rate, systolic_bp, diastolic_bp, ecg_value";
+
+    private static final String UPSERT_CHUNK_SQL =
+            "INSERT INTO vital_chunks (patient_id, chunk_start_ms, first_ts_ms, last_ts_ms, sample_count, data) " +
+                    "VALUES (?, ?, ?, ?, ?, ?) " +
+                    "ON CONFLICT (patient_id, chunk_start_ms) DO UPDATE SET " +
+                    "first_ts_ms = EXCLUDED.first_ts_ms, last_ts_ms = EXCLUDED.last_ts_ms, " +
+                    "sample_count = EXCLUDED.sample_count, data = EXCLUDED.data";
+
+    private static final String PENDING_SQL =
+            "SELECT DISTINCT (ts_ms / " + CHUNK_MS + ") * " + CHUNK_MS + " AS chunk_start " +
+                    "FROM vital_samples WHERE patient_id = ? AND ts_ms < ? " +
+                    "ORDER BY chunk_start LIMIT ?";
+
+    // keyset pages over the patients with rows old enough to compact
+    private static final String PENDING_PATIENTS_SQL =
+            "SELECT DISTINCT patient_id FROM vital_samples WHERE ts_ms < ? AND patient_id > ? " +
+                    "ORDER BY patient_id LIMIT ?";
+
+    // retention: a bounded batch per statement keeps each transaction short
+    private static final String DELETE_BEFORE_SQL =
+            "DELETE FROM vital_chunks WHERE ctid IN (" +
+                    "SELECT ctid FROM vital_chunks WHERE chunk_start_ms < ? LIMIT ?)";
+
+    // bounded on chunk_start_ms so the primary key does the work
+    private static final String SCAN_SQL =
+            "SELECT data FROM vital_chunks " +
+                    "WHERE patient_id = ? AND chunk_start_ms >= ? AND chunk_start_ms <= ? " +
+                    "AND last_ts_ms >= ? AND first_ts_ms <= ? " +
+                    "ORDER BY chunk_start_ms ASC";
+
+    private static final String LATEST_SQL =
+            "SELECT data FROM vital_chunks WHERE patient_id = ? AND chunk_start_ms < ? " +
+                    "ORDER BY chunk_start_ms DESC LIMIT ?";
+
+    public static long chunkStart(long tsMs) {
+        return Math.floorDiv(tsMs, CHUNK_MS) * CHUNK_MS;
+    }
+
+    /**
+     * Moves the rows of one patient-minute from vital_samples into its chunk, merging
+     * with a chunk written earlier. One transaction on the session's connection, using
+     * its held statements, so a loop over minutes prepares each SQL once; returns the
+     * number of rows moved.
+     */
+    public int compact(DbSession s, String patientId, long chunkStartMs) throws SQLException {
+        Connection c = s.connection();
+        long t0 = System.nanoTime();
+        boolean autoCommit = c.getAutoCommit();
+        c.setAutoCommit(false);
+        try {
+            TreeMap<Long, VitalSample> merged = new TreeMap<>();
+            PreparedStatement lock = s.statement(LOCK_CHUNK_SQL);
+            lock.setString(1, patientId);
+            lock.setLong(2, chunkStartMs);
+            try (ResultSet rs = lock.executeQuery()) {
+                if (rs.next()) {
+                    VitalChunkReader r = new VitalChunkReader(rs.getBytes(1));
+                    while (r.next()) merged.put(r.timestampMs(), r.sample());
+                }
+            }
+
+            int moved = 0;
+            PreparedStatement move = s.statement(MOVE_ROWS_SQL);
+            move.setString(1, patientId);
+            move.setLong(2, chunkStartMs);
+            move.setLong(3, chunkStartMs + CHUNK_MS);
+            try (ResultSet rs = move.executeQuery()) {
+                while (rs.next()) {
+                    merged.putIfAbsent(rs.getLong(1), new VitalSample(rs.getLong(1),
+                            rs.getDouble(2), rs.getDouble(3), rs.getDouble(4),
+                            rs.getDouble(5), rs.getDouble(6), rs.getDouble(7)));
+                    moved++;
+                }
+            }
+
+            if (moved > 0) {
+                PreparedStatement upsert = s.statement(UPSERT_CHUNK_SQL);
+                upsert.setString(1, patientId);
+                upsert.setLong(2, chunkStartMs);
+                upsert.setLong(3, merged.firstKey());
+                upsert.setLong(4, merged.lastKey());
+                upsert.setInt(5, merged.size());
+                upsert.setBytes(6, encode(merged.values()));
+                upsert.executeUpdate();
+            }
+            c.commit();
+            QueryMetrics.record("chunks.compact", t0, moved);
+            return moved;
+        } catch (SQLException | RuntimeException e) {
+            try { c.rollback(); } catch (Exception ignored) {}
+            throw e;
+        } finally {
+            try { c.setAutoCommit(autoCommit); } catch (Exception ignored) {}
+        }
+    }
+
+    /** Starts of the minutes before {@code beforeMs} that still have rows in vital_samples, oldest first. */
+    public List<Long> pendingChunks(DbSession s, String patientId, long beforeMs, int max) throws SQLException {
+        List<Long> out = new ArrayList<>();
+        PreparedStatement ps = s.statement(PENDING_SQL);
+        ps.setString(1, patientId);
+        ps.setLong(2, beforeMs);
+        ps.setInt(3, max);
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) out.add(rs.getLong(1));
+        }
+        return out;
+    }
+
+    /**
+     * Patients with rows before {@code beforeMs} still in vital_samples, whoever wrote
+     * them, in id order after {@code afterPatientId} ("" for the first page).
+     */
+    public List<String> pendingPatients(DbSession s, long beforeMs, String afterPatientId, int max) throws SQLException {
+        List<String> out = new ArrayList<>();
+        PreparedStatement ps = s.statement(PENDING_PATIENTS_SQL);
+        ps.setLong(1, beforeMs);
+        ps.setString(2, afterPatientId);
+        ps.setInt(3, max);
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) out.add(rs.getString(1));
+        }
+        return out;
+    }
+
+    /** Deletes up to {@code max} chunks of minutes that started before {@code beforeMs}; returns how many. */
+    public int deleteBefore(Connection c, long beforeMs, int max) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement(DELETE_BEFORE_SQL)) {
+            ps.setLong(1, chunkStart(beforeMs));
+            ps.setInt(2, max);
+            return ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Decodes the chunked samples with {@code fromMs <= ts <= toMs} in timestamp order,
+     * stopping after {@code limit}; returns the number visited.
+     */
+    public int scan(Connection c, String patientId, long fromMs, long toMs, int limit, VitalSampleVisitor v)
+            throws SQLException {
+        int n = 0;
+        try (PreparedStatement ps = prepareScan(c, patientId, fromMs, toMs);
+             ResultSet rs = ps.executeQuery()) {
+            VitalChunkCursor cursor = new VitalChunkCursor(rs, fromMs, toMs);
+            while (n < limit && cursor.next()) {
+                cursor.visit(v);
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /** The chunks that may hold samples in {@code [fromMs, toMs]}, oldest first; read with a {@link VitalChunkCursor}. */
+    PreparedStatement prepareScan(Connection c, String patientId, long fromMs, long toMs) throws SQLException {
+        PreparedStatement ps = c.prepareStatement(SCAN_SQL);
+        ps.setString(1, patientId);
+        ps.setLong(2, chunkStart(fromMs));
+        ps.setLong(3, toMs);
+        ps.setLong(4, fromMs);
+        ps.setLong(5, toMs);
+        return ps;
+    }
+
+    /** Up to {@code limit} chunked samples older than {@code beforeMs}, newest first. */
+    public List<VitalSample> latest(Connection c, String patientId, long beforeMs, int limit) throws SQLException {
+        List<VitalSample> out = new ArrayList<>();
+        try (PreparedStatement ps = c.prepareStatement(LATEST_SQL)) {
+            ps.setString(1, patientId);
+            ps.setLong(2, beforeMs);
+            // a minute holds at least one sample
+            ps.setInt(3, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (out.size() < limit && rs.next()) {
+                    VitalChunkReader r = new VitalChunkReader(rs.getBytes(1));
+                    List<VitalSample> chunk = new ArrayList<>(r.count());
+                    while (r.next()) chunk.add(r.sample());
+                    for (int i = chunk.size() - 1; i >= 0 && out.size() < limit; i--) {
+                        if (chunk.get(i).timestampMs() < beforeMs) out.add(chunk.get(i));
+                    }
+                }
+            }
+        }
+        return out;
+    }
+
+    static byte[] encode(Collection<VitalSample> samples) {
+        VitalChunkWriter w = new VitalChunkWriter(samples.size());
+        for (VitalSample s : samples) w.append(s);
+        return w.toByteArray();
+    }
+}
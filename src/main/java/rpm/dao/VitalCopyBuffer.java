@@ -0,0 +1,122 @@
+package rpm.dao;
+
+import org.postgresql.copy.CopyIn;
+import rpm.model.VitalSample;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Staging buffer that encodes vital samples as CSV rows for
+ * {@code COPY ... FROM STDIN (FORMAT csv)}.
+ *
+ * <p>Column order matches {@link VitalSampleDao#COPY_COLUMNS}. Rows are appended into
+ * one growable byte array that is reused between flushes, so encoding a batch
+ * allocates no per-row objects beyond the number formatting.
+ */
+public final class VitalCopyBuffer {
+
+    private byte[] buf;
+    private int len;
+    private int rows;
+
+    public VitalCopyBuffer() {
+        this(64 * 1024);
+    }
+
+    public VitalCopyBuffer(int initialCapacity) {
+        if (initialCapacity <= 0) throw new IllegalArgumentException("initialCapacity must be > 0");
+        this.buf = new byte[initialCapacity];
+    }
+
+    public void append(String patientId, VitalSample s) {
+        appendText(patientId);
+        put(',');
+        appendAscii(Long.toString(s.timestampMs()));
+        appendDouble(s.bodyTemp());
+        appendDouble(s.heartRate());
+        appendDouble(s.respiratoryRate());
+        appendDouble(s.systolicBP());
+        appendDouble(s.diastolicBP());
+        appendDouble(s.ecgValue());
+        put('\n');
+        rows++;
+    }
+
+    /** Encoded bytes currently staged. */
+    public int size() {
+        return len;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public boolean isEmpty() {
+        return rows == 0;
+    }
+
+    /** Copy of the staged bytes (mainly for tests). */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, len);
+    }
+
+    /** Sends the staged bytes to an open COPY and empties the buffer. */
+    public void writeTo(CopyIn in) throws SQLException {
+        if (len > 0) in.writeToCopy(buf, 0, len);
+        reset();
+    }
+
+    public void reset() {
+        len = 0;
+        rows = 0;
+    }
+
+    // ---------- encoding ----------
+
+    private void appendDouble(double v) {
+        put(',');
+        // Double.toString yields NaN / Infinity / -Infinity, which PostgreSQL accepts as-is
+        appendAscii(Double.toString(v));
+    }
+
+    /** CSV text field: quoted only when it contains a delimiter, quote or line break. */
+    private void appendText(String v) {
+        boolean quote = v.isEmpty();
+        for (int i = 0; i < v.length() && !quote; i++) {
+            char c = v.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        // an empty unquoted field would be read as NULL
+        if (!quote) {
+            appendBytes(v.getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        put('"');
+        appendBytes(v.replace("\"", "\"\"").getBytes(StandardCharsets.UTF_8));
+        put('"');
+    }
+
+    private void appendAscii(String v) {
+        ensure(v.length());
+        for (int i = 0; i < v.length(); i++) buf[len++] = (byte) v.charAt(i);
+    }
+
+    private void appendBytes(byte[] b) {
+        ensure(b.length);
+        System.arraycopy(b, 0, buf, len, b.length);
+        len += b.length;
+    }
+
+    private void put(char c) {
+        ensure(1);
+        buf[len++] = (byte) c;
+    }
+
+    private void ensure(int extra) {
+        if (len + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+        }
+    }
+}
@@ -1,13 +1,24 @@
 package rpm.dao;
 
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
 import rpm.db.Db;
+import rpm.db.QueryMetrics;
+import rpm.model.PatientSample;
 import rpm.model.VitalSample;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 /**
  * Vital samples DAO.
@@ -15,10 +26,68 @@ import java.util.List;
  * Local-friendly:
  * - If PG* env vars are missing (local run), NO-OP / return empty instead of throwing.
  * - On Tsuru (cloud), PG* env vars exist -> normal DB persistence.
+ *
+ * Reads cover both vital_samples and the compressed minutes in vital_chunks
+ * (see {@link VitalChunkDao}), so callers do not care which one holds a sample.
  */
 
 public final class VitalSampleDao {
 
+    /**
+     * Batch insert used by the background writer. Duplicate (patient_id, ts_ms) rows
+     * are skipped so one replayed sample cannot fail the whole batch.
+     */
+    private static final String BATCH_INSERT_SQL =
+            "INSERT INTO vital_samples " +
+                    "(patient_id, ts_ms, body_temp, heart_rate, respiratory_rate, systolic_bp, diastolic_bp, ecg_value) " +
+                    "VALUES (?, ?, ?, ?, ?, ?, ?, ?) " +
+                    "ON CONFLICT (patient_id, ts_ms) DO NOTHING";
+
+    /** Column order of the COPY stream written by {@link VitalCopyBuffer}. */
+    static final String COPY_COLUMNS =
+            "patient_id, ts_ms, body_temp, heart_rate, respiratory_rate, systolic_bp, diastolic_bp, ecg_value";
+
+    // Session-local staging table; emptied by every commit, so a pooled connection
+    // can reuse it without cleanup.
+    private static final String CREATE_STAGE_SQL =
+            "CREATE TEMP TABLE IF NOT EXISTS vital_samples_stage " +
+                    "(LIKE vital_samples INCLUDING DEFAULTS) ON COMMIT DELETE ROWS";
+
+    // physical connections whose session already has the stage table; pooled
+    // connections keep their session, so the CREATE runs once per connection
+    private static final Set<PGConnection> STAGED =
+            Collections.newSetFromMap(Collections.synchronizedMap(new WeakHashMap<>()));
+
+    private static final String COPY_STAGE_SQL =
+            "COPY vital_samples_stage (" + COPY_COLUMNS + ") FROM STDIN WITH (FORMAT csv)";
+
+    private static final String MERGE_STAGE_SQL =
+            "INSERT INTO vital_samples (" + COPY_COLUMNS + ") " +
+                    "SELECT " + COPY_COLUMNS + " FROM vital_samples_stage " +
+                    "ON CONFLICT (patient_id, ts_ms) DO NOTHING";
+
+    // same merge, reporting the rows it inserted
+    private static final String MERGE_STAGE_RETURNING_SQL = MERGE_STAGE_SQL + " RETURNING patient_id, ts_ms";
+
+    // generated keys of a tracked batch insert: the rows ON CONFLICT did not skip
+    private static final String[] KEY_COLUMNS = {"patient_id", "ts_ms"};
+
+    // bytes handed to the driver per writeToCopy call
+    private static final int COPY_CHUNK_BYTES = 256 * 1024;
+
+    private static final String SCAN_ROWS_SQL =
+            "SELECT ts_ms, body_temp, heart_rate, respiratory_rate, systolic_bp, diastolic_bp, ecg_value " +
+                    "FROM vital_samples " +
+                    "WHERE patient_id = ? AND ts_ms >= ? AND ts_ms <= ? " +
+                    "ORDER BY ts_ms ASC " +
+                    "LIMIT ?";
+
+    // server-side cursor batch sizes for streamed reads
+    private static final int FETCH_ROWS = 1000;
+    private static final int FETCH_CHUNKS = 8;
+
+    private final VitalChunkDao chunks = new VitalChunkDao();
+
     private static boolean hasPgEnv() {
         return System.getenv("PGHOST") != null
                 && System.getenv("PGPORT") != null
@@ -53,6 +122,138 @@ public final class VitalSampleDao {
         }
     }
 
+    /**
+     * Prepares the batch insert on {@code c}. The caller owns the statement and may
+     * reuse it for any number of {@link #insertBatch} calls on the same connection.
+     */
+    public PreparedStatement prepareBatchInsert(Connection c) throws SQLException {
+        return c.prepareStatement(BATCH_INSERT_SQL);
+    }
+
+    /**
+     * Like {@link #prepareBatchInsert}, but the statement also returns the key of each
+     * row it inserts, so {@link #insertBatch(PreparedStatement, List, BitSet)} can tell
+     * new rows from duplicates.
+     */
+    public PreparedStatement prepareTrackedBatchInsert(Connection c) throws SQLException {
+        return c.prepareStatement(BATCH_INSERT_SQL, KEY_COLUMNS);
+    }
+
+    /**
+     * Adds every row to {@code ps} and executes them as one JDBC batch.
+     * Unlike {@link #insert}, failures are thrown so the caller can retry or count them.
+     */
+    public void insertBatch(PreparedStatement ps, List<PatientSample> rows) throws SQLException {
+        insertBatch(ps, rows, null);
+    }
+
+    /**
+     * {@link #insertBatch(PreparedStatement, List)} on a statement from
+     * {@link #prepareTrackedBatchInsert}: sets bit {@code i} of {@code inserted} for
+     * each {@code rows.get(i)} that was stored rather than skipped as a duplicate, and
+     * returns how many were. With a null {@code inserted} the count is not known and 0
+     * is returned.
+     */
+    public int insertBatch(PreparedStatement ps, List<PatientSample> rows, BitSet inserted) throws SQLException {
+        if (inserted != null) inserted.clear();
+        if (rows.isEmpty()) return 0;
+
+        for (PatientSample row : rows) {
+            VitalSample sample = row.sample();
+            ps.setString(1, row.patientId());
+            ps.setLong(2, sample.timestampMs());
+            ps.setDouble(3, sample.bodyTemp());
+            ps.setDouble(4, sample.heartRate());
+            ps.setDouble(5, sample.respiratoryRate());
+            ps.setDouble(6, sample.systolicBP());
+            ps.setDouble(7, sample.diastolicBP());
+            ps.setDouble(8, sample.ecgValue());
+            ps.addBatch();
+        }
+
+        long t0 = System.nanoTime();
+        try {
+            ps.executeBatch();
+            QueryMetrics.record("samples.insertBatch", t0, rows.size());
+            if (inserted == null) return 0;
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                return markInserted(keys, rows, inserted);
+            }
+        } finally {
+            ps.clearBatch();
+        }
+    }
+
+    /**
+     * Bulk path: streams the rows with {@code COPY} into a temp staging table, then
+     * merges them into vital_samples, skipping (patient_id, ts_ms) rows that already
+     * exist. Runs as one transaction on {@code c} and returns the number of rows inserted.
+     * The staging table is created on the first call per connection.
+     *
+     * @param buf staging buffer, reused across calls by the caller
+     */
+    public int copyBatch(Connection c, List<PatientSample> rows, VitalCopyBuffer buf) throws SQLException {
+        return copyBatch(c, rows, buf, null);
+    }
+
+    /**
+     * {@link #copyBatch(Connection, List, VitalCopyBuffer)} that also sets bit {@code i}
+     * of {@code inserted} for each {@code rows.get(i)} that was stored rather than
+     * skipped as a duplicate (when not null).
+     */
+    public int copyBatch(Connection c, List<PatientSample> rows, VitalCopyBuffer buf, BitSet inserted) throws SQLException {
+        if (inserted != null) inserted.clear();
+        if (rows.isEmpty()) return 0;
+
+        long t0 = System.nanoTime();
+        boolean autoCommit = c.getAutoCommit();
+        c.setAutoCommit(false);
+        try {
+            PGConnection pg = c.unwrap(PGConnection.class);
+            if (!STAGED.contains(pg)) {
+                try (Statement st = c.createStatement()) {
+                    st.execute(CREATE_STAGE_SQL);
+                }
+            }
+
+            CopyIn in = pg.getCopyAPI().copyIn(COPY_STAGE_SQL);
+            try {
+                buf.reset();
+                for (PatientSample row : rows) {
+                    buf.append(row.patientId(), row.sample());
+                    if (buf.size() >= COPY_CHUNK_BYTES) buf.writeTo(in);
+                }
+                buf.writeTo(in);
+                in.endCopy();
+            } finally {
+                if (in.isActive()) in.cancelCopy();
+            }
+
+            int n;
+            try (Statement st = c.createStatement()) {
+                if (inserted == null) {
+                    n = st.executeUpdate(MERGE_STAGE_SQL);
+                } else {
+                    try (ResultSet keys = st.executeQuery(MERGE_STAGE_RETURNING_SQL)) {
+                        n = markInserted(keys, rows, inserted);
+                    }
+                }
+            }
+            c.commit();
+            STAGED.add(pg);
+            QueryMetrics.record("samples.copyBatch", t0, n);
+            return n;
+        } catch (SQLException | RuntimeException e) {
+            // a rollback also undoes a CREATE made in this transaction
+            try { c.rollback(); } catch (Exception ignored) {}
+            try { STAGED.remove(c.unwrap(PGConnection.class)); } catch (Exception ignored) {}
+            throw e;
+        } finally {
+            buf.reset();
+            try { c.setAutoCommit(autoCommit); } catch (Exception ignored) {}
+        }
+    }
+
     public List<VitalSample> latest(String patientId, int limit) {
         List<VitalSample> out = new ArrayList<>();
         if (!hasPgEnv()) return out;
@@ -62,25 +263,31 @@ public final class VitalSampleDao {
                         "FROM vital_samples WHERE patient_id = ? " +
                         "ORDER BY ts_ms DESC LIMIT ?";
 
-        try (Connection c = Db.getConnection();
-             PreparedStatement ps = c.prepareStatement(sql)) {
+        try (Connection c = Db.getConnection()) {
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setString(1, patientId);
+                ps.setInt(2, limit);
 
-            ps.setString(1, patientId);
-            ps.setInt(2, limit);
-
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    long ts = rs.getLong("ts_ms");
-                    double temp = rs.getDouble("body_temp");
-                    double hr = rs.getDouble("heart_rate");
-                    double rr = rs.getDouble("respiratory_rate");
-                    double sys = rs.getDouble("systolic_bp");
-                    double dia = rs.getDouble("diastolic_bp");
-                    double ecg = rs.getDouble("ecg_value");
-
-                    out.add(new VitalSample(ts, temp, hr, rr, sys, dia, ecg));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        long ts = rs.getLong("ts_ms");
+                        double temp = rs.getDouble("body_temp");
+                        double hr = rs.getDouble("heart_rate");
+                        double rr = rs.getDouble("respiratory_rate");
+                        double sys = rs.getDouble("systolic_bp");
+                        double dia = rs.getDouble("diastolic_bp");
+                        double ecg = rs.getDouble("ecg_value");
+
+                        out.add(new VitalSample(ts, temp, hr, rr, sys, dia, ecg));
+                    }
                 }
             }
+
+            // older samples may already be compacted
+            if (out.size() < limit) {
+                long before = out.isEmpty() ? Long.MAX_VALUE : out.get(out.size() - 1).timestampMs();
+                out.addAll(chunks.latest(c, patientId, before, limit - out.size()));
+            }
         } catch (Exception ignored) {
         }
 
@@ -91,37 +298,111 @@ public final class VitalSampleDao {
         List<VitalSample> out = new ArrayList<>();
         if (!hasPgEnv()) return out;
 
-        String sql =
-                "SELECT ts_ms, body_temp, heart_rate, respiratory_rate, systolic_bp, diastolic_bp, ecg_value " +
-                        "FROM vital_samples " +
-                        "WHERE patient_id = ? AND ts_ms >= ? AND ts_ms <= ? " +
-                        "ORDER BY ts_ms ASC " +
-                        "LIMIT ?";
+        try {
+            stream(patientId, fromMs, toMs, limit,
+                    (ts, temp, hr, rr, sys, dia, ecg) -> out.add(new VitalSample(ts, temp, hr, rr, sys, dia, ecg)));
+        } catch (Exception ignored) {
+            out.clear();
+        }
 
-        try (Connection c = Db.getConnection();
-             PreparedStatement ps = c.prepareStatement(sql)) {
+        return out;
+    }
 
-            ps.setString(1, patientId);
-            ps.setLong(2, fromMs);
-            ps.setLong(3, toMs);
-            ps.setInt(4, limit);
-
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    out.add(new VitalSample(
-                            rs.getLong("ts_ms"),
-                            rs.getDouble("body_temp"),
-                            rs.getDouble("heart_rate"),
-                            rs.getDouble("respiratory_rate"),
-                            rs.getDouble("systolic_bp"),
-                            rs.getDouble("diastolic_bp"),
-                            rs.getDouble("ecg_value")
-                    ));
+    /**
+     * Streams the samples with {@code fromMs <= ts <= toMs} to {@code v}: first the
+     * compacted ones, then those still in vital_samples, each part in timestamp order
+     * and capped at {@code limit}. Returns how many came from chunks.
+     * No-op without PG env; failures are thrown, since a partial scan is not a result.
+     */
+    public int scan(String patientId, long fromMs, long toMs, int limit, VitalSampleVisitor v) throws SQLException {
+        if (!hasPgEnv()) return 0;
+
+        try (Connection c = Db.getConnection()) {
+            int chunked = chunks.scan(c, patientId, fromMs, toMs, limit, v);
+
+            try (PreparedStatement ps = c.prepareStatement(SCAN_ROWS_SQL)) {
+                ps.setString(1, patientId);
+                ps.setLong(2, fromMs);
+                ps.setLong(3, toMs);
+                ps.setInt(4, limit);
+
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        v.visit(rs.getLong(1), rs.getDouble(2), rs.getDouble(3), rs.getDouble(4),
+                                rs.getDouble(5), rs.getDouble(6), rs.getDouble(7));
+                    }
                 }
             }
-        } catch (Exception ignored) {}
+            return chunked;
+        }
+    }
 
-        return out;
+    /**
+     * Streams the samples with {@code fromMs <= ts <= toMs} to {@code v} in timestamp
+     * order, merging compacted chunks with vital_samples rows (the chunk wins a
+     * timestamp held by both), and stops after {@code limit}. Both tables are read
+     * through server-side cursors, so memory stays flat however long the range.
+     * Returns the number visited. No-op without PG env; failures are thrown.
+     */
+    public int stream(String patientId, long fromMs, long toMs, int limit, VitalSampleVisitor v) throws SQLException {
+        if (!hasPgEnv()) return 0;
+
+        // includes the time v takes, i.e. writing the response
+        long t0 = System.nanoTime();
+        try (Connection c = Db.getConnection()) {
+            // the driver only honours the fetch size inside a transaction
+            c.setAutoCommit(false);
+            try (PreparedStatement cps = chunks.prepareScan(c, patientId, fromMs, toMs);
+                 PreparedStatement rps = c.prepareStatement(SCAN_ROWS_SQL)) {
+
+                cps.setFetchSize(FETCH_CHUNKS);
+                rps.setFetchSize(FETCH_ROWS);
+                rps.setString(1, patientId);
+                rps.setLong(2, fromMs);
+                rps.setLong(3, toMs);
+                rps.setInt(4, limit);
+
+                try (ResultSet crs = cps.executeQuery();
+                     ResultSet rrs = rps.executeQuery()) {
+                    VitalChunkCursor chunk = new VitalChunkCursor(crs, fromMs, toMs);
+                    boolean hasChunk = chunk.next();
+                    boolean hasRow = rrs.next();
+                    int n = 0;
+                    while (n < limit && (hasChunk || hasRow)) {
+                        if (hasChunk && (!hasRow || chunk.timestampMs() <= rrs.getLong(1))) {
+                            if (hasRow && chunk.timestampMs() == rrs.getLong(1)) hasRow = rrs.next();
+                            chunk.visit(v);
+                            hasChunk = chunk.next();
+                        } else {
+                            v.visit(rrs.getLong(1), rrs.getDouble(2), rrs.getDouble(3), rrs.getDouble(4),
+                                    rrs.getDouble(5), rrs.getDouble(6), rrs.getDouble(7));
+                            hasRow = rrs.next();
+                        }
+                        n++;
+                    }
+                    QueryMetrics.record("samples.stream", t0, n);
+                    return n;
+                }
+            } finally {
+                // read-only: just end the transaction before the connection goes back
+                try { c.rollback(); } catch (Exception ignored) {}
+                try { c.setAutoCommit(true); } catch (Exception ignored) {}
+            }
+        }
     }
 
+    /**
+     * Sets the bit of each row whose (patient_id, ts_ms) is among {@code keys}; a key
+     * repeated within {@code rows} marks its first row only. Returns the number of keys.
+     */
+    private static int markInserted(ResultSet keys, List<PatientSample> rows, BitSet inserted) throws SQLException {
+        Set<String> stored = new HashSet<>();
+        while (keys.next()) stored.add(keys.getString(1) + '\u0000' + keys.getLong(2));
+        if (stored.isEmpty()) return 0;
+        for (int i = 0; i < rows.size(); i++) {
+            PatientSample row = rows.get(i);
+            if (stored.remove(row.patientId() + '\u0000' + row.sample().timestampMs())) inserted.set(i);
+        }
+        return inserted.cardinality();
+    }
 }
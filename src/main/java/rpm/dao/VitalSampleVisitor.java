@@ -0,0 +1,17 @@
+package rpm.dao;
+
+/**
+ * Receives vital samples one at a time from a streaming read, as primitives, so a
+ * scan over many samples allocates nothing per row.
+ */
+@FunctionalInterface
+public interface VitalSampleVisitor {
+
+    void visit(long timestampMs,
+               double bodyTemp,
+               double heartRate,
+               double respiratoryRate,
+               double systolicBP,
+               double diastolicBP,
+               double ecgValue);
+}
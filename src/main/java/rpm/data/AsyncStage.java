@@ -0,0 +1,113 @@
+package rpm.data;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded hand-off from the sampler threads to one background worker
+ * (e.g. DB persistence). {@link #submit} never blocks: when the queue is full
+ * the task is dropped and counted, so a slow database cannot delay a tick.
+ * {@link #shutdown} runs what is already queued before the worker exits.
+ */
+public class AsyncStage {
+
+    /** A unit of background work; failures are counted and logged, not rethrown. */
+    public interface Task {
+        void run() throws Exception;
+    }
+
+    private final String name;
+    private final BlockingQueue<Task> queue;
+    private final Thread worker;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    // written under lock, so no submit can land between the worker's last poll and its exit
+    private final Object lock = new Object();
+    private volatile boolean running = true;
+
+    public AsyncStage(String name, int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be > 0");
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.worker = new Thread(this::loop, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Queues a task; returns false (and counts a drop) if the queue is full or
+     * {@link #shutdown} has started.
+     */
+    public boolean submit(Task task) {
+        synchronized (lock) {
+            if (running && queue.offer(task)) {
+                submitted.incrementAndGet();
+                return true;
+            }
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    public int depth() {
+        return queue.size();
+    }
+
+    public long submitted() {
+        return submitted.get();
+    }
+
+    public long dropped() {
+        return dropped.get();
+    }
+
+    public long failed() {
+        return failed.get();
+    }
+
+    /**
+     * Stops accepting tasks and waits up to {@code timeoutMs} for the worker to run the
+     * ones already queued. Returns false if it had to be interrupted with work left,
+     * which is then dropped and counted.
+     */
+    public boolean shutdown(long timeoutMs) throws InterruptedException {
+        synchronized (lock) {
+            running = false;
+        }
+        worker.join(Math.max(1, timeoutMs));
+        if (!worker.isAlive()) return true;
+
+        worker.interrupt();
+        worker.join(1000);
+        dropped.addAndGet(queue.size());
+        queue.clear();
+        return false;
+    }
+
+    private void loop() {
+        while (true) {
+            try {
+                // once stopped, drain what is left without waiting for more
+                Task task = running ? queue.poll(500, TimeUnit.MILLISECONDS) : queue.poll();
+                if (task == null) {
+                    if (running) continue;
+                    break;
+                }
+                task.run();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                // do not spam stack traces
+                if (failed.incrementAndGet() % 100 == 1) {
+                    System.err.println("[" + name + "] task failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -6,29 +6,41 @@ import rpm.model.VitalSample;
 import rpm.model.VitalType;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 /**
  * Aggregates incoming samples into minute-level records and detects abnormal events.
+ *
+ * <p>Samples are folded into per-vital running accumulators instead of being kept
+ * until the minute ends, and the common case (same minute, no alert transition)
+ * returns a shared empty result, so the sampler allocates almost nothing per tick.
  */
 
 public class MinuteAggregator {
+
+    // vitals that make up a minute record (ECG is only checked for alerts)
+    private static final VitalType[] AVERAGED = {
+            VitalType.BODY_TEMPERATURE, VitalType.HEART_RATE, VitalType.RESPIRATORY_RATE,
+            VitalType.SYSTOLIC_BP, VitalType.DIASTOLIC_BP
+    };
+
     private final AlertEngine alertEngine;
 
     private long currentMinuteStart = -1;
-    private final List<VitalSample> bucket = new ArrayList<>();
+    private int bucketCount = 0;
+    private final VitalAccumulator[] acc = new VitalAccumulator[VitalType.values().length];
 
     // Track the last alert level for each vital type to detect state changes.
-    private AlertLevel lastTemp = AlertLevel.NORMAL;
-    private AlertLevel lastHR   = AlertLevel.NORMAL;
-    private AlertLevel lastRR   = AlertLevel.NORMAL;
-    private AlertLevel lastSys  = AlertLevel.NORMAL;
-    private AlertLevel lastDia  = AlertLevel.NORMAL;
-    private AlertLevel lastECG  = AlertLevel.NORMAL;
+    private final AlertLevel[] lastLevel = new AlertLevel[VitalType.values().length];
 
     public MinuteAggregator(AlertEngine alertEngine) {
         this.alertEngine = alertEngine;
+        for (VitalType t : VitalType.values()) {
+            acc[t.ordinal()] = new VitalAccumulator();
+            lastLevel[t.ordinal()] = AlertLevel.NORMAL;
+        }
     }
 
     /**
@@ -37,47 +49,57 @@ public class MinuteAggregator {
      * 2. Aggregates data into 1-minute buckets.
      */
     public synchronized AggregationResult onSample(VitalSample s) {
-        // 1. Detect abnormal events immediately
+        // 1. Detect abnormal events immediately (null when nothing changed)
         List<AbnormalEvent> abnormalEvents = detectAbnormalEvents(s);
 
         // 2. Minute-level aggregation logic
         long minuteStart = (s.timestampMs() / 60000L) * 60000L;
         if (currentMinuteStart < 0) currentMinuteStart = minuteStart;
 
-        // If we crossed a minute boundary, compute the average for the previous minute
-        if (minuteStart != currentMinuteStart && !bucket.isEmpty()) {
-            MinuteRecord rec = computeMinuteRecord(currentMinuteStart, bucket);
+        MinuteRecord rec = null;
 
-            bucket.clear();
+        // If we crossed a minute boundary, close the previous minute
+        if (minuteStart != currentMinuteStart && bucketCount > 0) {
+            rec = computeMinuteRecord(currentMinuteStart);
+            for (VitalAccumulator a : acc) a.reset();
+            bucketCount = 0;
             currentMinuteStart = minuteStart;
-            bucket.add(s);
-
-            return new AggregationResult(rec, abnormalEvents);
         }
 
-        bucket.add(s);
-        // If still in the same minute, return events only (record is null)
-        return new AggregationResult(null, abnormalEvents);
+        accumulate(s);
+
+        if (rec == null && abnormalEvents == null) return AggregationResult.EMPTY;
+        return new AggregationResult(rec, abnormalEvents == null ? Collections.emptyList() : abnormalEvents);
+    }
+
+    private void accumulate(VitalSample s) {
+        acc[VitalType.BODY_TEMPERATURE.ordinal()].add(s.bodyTemp());
+        acc[VitalType.HEART_RATE.ordinal()].add(s.heartRate());
+        acc[VitalType.RESPIRATORY_RATE.ordinal()].add(s.respiratoryRate());
+        acc[VitalType.SYSTOLIC_BP.ordinal()].add(s.systolicBP());
+        acc[VitalType.DIASTOLIC_BP.ordinal()].add(s.diastolicBP());
+        bucketCount++;
     }
 
     /**
      * Checks all vital types against the AlertEngine.
+     * Returns null (not an empty list) when no event was raised.
      */
     private List<AbnormalEvent> detectAbnormalEvents(VitalSample s) {
-        if (alertEngine == null) return Collections.emptyList();
+        if (alertEngine == null) return null;
 
-        List<AbnormalEvent> events = new ArrayList<>();
+        List<AbnormalEvent> events = null;
         long now = s.timestampMs();
 
         // Use helper method 'check' to handle logic for each vital type
-        lastTemp = check(events, now, VitalType.BODY_TEMPERATURE, s.bodyTemp(),        lastTemp);
-        lastHR   = check(events, now, VitalType.HEART_RATE,       s.heartRate(),       lastHR);
-        lastRR   = check(events, now, VitalType.RESPIRATORY_RATE, s.respiratoryRate(), lastRR);
-        lastSys  = check(events, now, VitalType.SYSTOLIC_BP,      s.systolicBP(),      lastSys);
-        lastDia  = check(events, now, VitalType.DIASTOLIC_BP,     s.diastolicBP(),     lastDia);
+        events = check(events, now, VitalType.BODY_TEMPERATURE, s.bodyTemp());
+        events = check(events, now, VitalType.HEART_RATE,       s.heartRate());
+        events = check(events, now, VitalType.RESPIRATORY_RATE, s.respiratoryRate());
+        events = check(events, now, VitalType.SYSTOLIC_BP,      s.systolicBP());
+        events = check(events, now, VitalType.DIASTOLIC_BP,     s.diastolicBP());
 
         // Optional: Check ECG if thresholds are defined
-        lastECG  = check(events, now, VitalType.ECG,              s.ecgValue(),        lastECG);
+        events = check(events, now, VitalType.ECG,              s.ecgValue());
 
         return events;
     }
@@ -85,41 +107,59 @@ public class MinuteAggregator {
     /**
      * Helper: Evaluates a value and detects state transitions.
      * This fixes the issue where upgrading from WARNING to URGENT was ignored.
+     * The event list is created on the first event only.
      */
-    private AlertLevel check(List<AbnormalEvent> events, long now, VitalType type, double val, AlertLevel lastLevel) {
+    private List<AbnormalEvent> check(List<AbnormalEvent> events, long now, VitalType type, double val) {
         AlertLevel currentLevel = alertEngine.eval(type, val);
+        AlertLevel previous = lastLevel[type.ordinal()];
+        lastLevel[type.ordinal()] = currentLevel; // Update the tracked level
 
         // Logic: Record an event whenever the alert level CHANGES.
         // This ensures we capture transitions like WARNING -> URGENT, not just NORMAL -> ABNORMAL.
-        if (currentLevel != lastLevel) {
-            // Only record if the new state is not NORMAL (i.e., it's an anomaly)
-            if (currentLevel != AlertLevel.NORMAL) {
-                String msg = type + " value " + String.format("%.2f", val) + " is " + currentLevel;
-                events.add(new AbnormalEvent(now, type, currentLevel, val, msg));
-            }
+        // Only record if the new state is not NORMAL (i.e., it's an anomaly)
+        if (currentLevel != previous && currentLevel != AlertLevel.NORMAL) {
+            if (events == null) events = new ArrayList<>(2);
+            String msg = type + " value " + String.format("%.2f", val) + " is " + currentLevel;
+            events.add(new AbnormalEvent(now, type, currentLevel, val, msg));
         }
-        return currentLevel; // Update the tracked level
+        return events;
     }
 
     /**
-     * Computes the average of all samples in the bucket.
+     * Builds the record for the finished minute from the running accumulators.
      */
-    private MinuteRecord computeMinuteRecord(long minuteStart, List<VitalSample> samples) {
-        int n = samples.size();
-
-        double temp = samples.stream().mapToDouble(VitalSample::bodyTemp).average().orElse(Double.NaN);
-        double hr   = samples.stream().mapToDouble(VitalSample::heartRate).average().orElse(Double.NaN);
-        double rr   = samples.stream().mapToDouble(VitalSample::respiratoryRate).average().orElse(Double.NaN);
-        double sys  = samples.stream().mapToDouble(VitalSample::systolicBP).average().orElse(Double.NaN);
-        double dia  = samples.stream().mapToDouble(VitalSample::diastolicBP).average().orElse(Double.NaN);
+    private MinuteRecord computeMinuteRecord(long minuteStart) {
+        int n = VitalType.values().length;
+        double[] min = new double[n];
+        double[] max = new double[n];
+        double[] sd = new double[n];
+        Arrays.fill(min, Double.NaN);
+        Arrays.fill(max, Double.NaN);
+        Arrays.fill(sd, Double.NaN);
+        for (VitalType t : AVERAGED) {
+            VitalAccumulator a = acc[t.ordinal()];
+            min[t.ordinal()] = a.min();
+            max[t.ordinal()] = a.max();
+            sd[t.ordinal()] = a.stddev();
+        }
 
-        return new MinuteRecord(minuteStart, temp, hr, rr, sys, dia, n);
+        return new MinuteRecord(minuteStart,
+                acc[VitalType.BODY_TEMPERATURE.ordinal()].mean(),
+                acc[VitalType.HEART_RATE.ordinal()].mean(),
+                acc[VitalType.RESPIRATORY_RATE.ordinal()].mean(),
+                acc[VitalType.SYSTOLIC_BP.ordinal()].mean(),
+                acc[VitalType.DIASTOLIC_BP.ordinal()].mean(),
+                bucketCount, min, max, sd);
     }
 
     /**
      * Simple POJO to hold the result of the aggregation step.
      */
     public static final class AggregationResult {
+
+        /** Shared result for a sample that closed no minute and raised no event. */
+        public static final AggregationResult EMPTY = new AggregationResult(null, Collections.emptyList());
+
         private final MinuteRecord minuteRecord;
         private final List<AbnormalEvent> abnormalEvents;
 
@@ -136,4 +176,4 @@ public class MinuteAggregator {
             return abnormalEvents;
         }
     }
-}
\ No newline at end of file
+}
@@ -1,9 +1,19 @@
 package rpm.data;
 
+import rpm.model.VitalType;
+
+import java.util.Arrays;
 import java.util.Objects;
 
+/**
+ * Aggregate of one minute of samples: the per-vital averages plus, when built by
+ * the streaming aggregator, min/max/stddev per vital (indexed by {@link VitalType}).
+ * Records built from averages only report min = max = average and stddev 0.
+ */
 public final class MinuteRecord {
 
+    private static final int VITALS = VitalType.values().length;
+
     private final long minuteStartMs;
     private final double avgTemp;
     private final double avgHR;
@@ -12,6 +22,10 @@ public final class MinuteRecord {
     private final double avgDia;
     private final int sampleCount;
 
+    private final double[] min;
+    private final double[] max;
+    private final double[] stddev;
+
     public MinuteRecord(
             long minuteStartMs,
             double avgTemp,
@@ -28,6 +42,44 @@ public final class MinuteRecord {
         this.avgSys = avgSys;
         this.avgDia = avgDia;
         this.sampleCount = sampleCount;
+
+        this.min = new double[VITALS];
+        this.max = new double[VITALS];
+        this.stddev = new double[VITALS];
+        for (VitalType t : VitalType.values()) {
+            double a = avg(t);
+            min[t.ordinal()] = a;
+            max[t.ordinal()] = a;
+            stddev[t.ordinal()] = Double.isNaN(a) ? Double.NaN : 0;
+        }
+    }
+
+    /**
+     * Full record; {@code min}, {@code max} and {@code stddev} are indexed by
+     * {@link VitalType#ordinal()} (ECG entries are ignored and may be NaN).
+     */
+    public MinuteRecord(
+            long minuteStartMs,
+            double avgTemp,
+            double avgHR,
+            double avgRR,
+            double avgSys,
+            double avgDia,
+            int sampleCount,
+            double[] min,
+            double[] max,
+            double[] stddev
+    ) {
+        this.minuteStartMs = minuteStartMs;
+        this.avgTemp = avgTemp;
+        this.avgHR = avgHR;
+        this.avgRR = avgRR;
+        this.avgSys = avgSys;
+        this.avgDia = avgDia;
+        this.sampleCount = sampleCount;
+        this.min = Arrays.copyOf(min, VITALS);
+        this.max = Arrays.copyOf(max, VITALS);
+        this.stddev = Arrays.copyOf(stddev, VITALS);
     }
 
     public long minuteStartMs() {
@@ -58,6 +110,37 @@ public final class MinuteRecord {
         return sampleCount;
     }
 
+    /** Average of {@code type}; NaN for ECG, which is not averaged. */
+    public double avg(VitalType type) {
+        switch (type) {
+            case BODY_TEMPERATURE:
+                return avgTemp;
+            case HEART_RATE:
+                return avgHR;
+            case RESPIRATORY_RATE:
+                return avgRR;
+            case SYSTOLIC_BP:
+                return avgSys;
+            case DIASTOLIC_BP:
+                return avgDia;
+            default:
+                return Double.NaN;
+        }
+    }
+
+    public double min(VitalType type) {
+        return min[type.ordinal()];
+    }
+
+    public double max(VitalType type) {
+        return max[type.ordinal()];
+    }
+
+    /** Population standard deviation of {@code type} within the minute. */
+    public double stddev(VitalType type) {
+        return stddev[type.ordinal()];
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -70,13 +153,16 @@ public final class MinuteRecord {
                 && Double.compare(other.avgRR(), avgRR) == 0
                 && Double.compare(other.avgSys(), avgSys) == 0
                 && Double.compare(other.avgDia(), avgDia) == 0
-                && sampleCount == other.sampleCount();
+                && sampleCount == other.sampleCount()
+                && Arrays.equals(min, other.min)
+                && Arrays.equals(max, other.max)
+                && Arrays.equals(stddev, other.stddev);
     }
 
 
     @Override
     public int hashCode() {
-        return Objects.hash(
+        int h = Objects.hash(
                 minuteStartMs,
                 avgTemp,
                 avgHR,
@@ -85,6 +171,9 @@ public final class MinuteRecord {
                 avgDia,
                 sampleCount
         );
+        h = 31 * h + Arrays.hashCode(min);
+        h = 31 * h + Arrays.hashCode(max);
+        return 31 * h + Arrays.hashCode(stddev);
     }
 
     @Override
@@ -97,6 +186,9 @@ public final class MinuteRecord {
                 ", avgSys=" + avgSys +
                 ", avgDia=" + avgDia +
                 ", sampleCount=" + sampleCount +
+                ", min=" + Arrays.toString(min) +
+                ", max=" + Arrays.toString(max) +
+                ", stddev=" + Arrays.toString(stddev) +
                 "]";
     }
 }
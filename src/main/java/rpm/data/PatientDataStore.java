@@ -4,19 +4,68 @@ import rpm.model.VitalSample;
 
 import java.util.List;
 
+/**
+ * Live sample buffer for one patient, backed by a {@link VitalColumnBuffer}
+ * so that buffering a sample does not retain the sample object.
+ */
 public class PatientDataStore {
-    private final RingBuffer<VitalSample> samples;
+    private final VitalColumnBuffer samples;
 
     public PatientDataStore(int maxSeconds, int sampleHz) {
         int capacity = Math.max(1, maxSeconds * sampleHz);
-        this.samples = new RingBuffer<>(capacity);
+        this.samples = new VitalColumnBuffer(capacity);
     }
 
     public void addSample(VitalSample s) {
         samples.add(s);
     }
 
+    /**
+     * All buffered samples as objects, oldest first.
+     * Allocates one object per sample; prefer {@link #window}, {@link #lastMillis}
+     * or {@link #samplesSince} for periodic refreshes.
+     */
     public List<VitalSample> getBufferedSamples() {
+        return samples.snapshot().toSamples();
+    }
+
+    /** All buffered samples as a columnar window, oldest first. */
+    public VitalWindow snapshot() {
         return samples.snapshot();
     }
+
+    /** Samples with {@code fromMs <= timestamp <= toMs}. */
+    public VitalWindow window(long fromMs, long toMs) {
+        return samples.window(fromMs, toMs);
+    }
+
+    /** The last {@code millis} of buffered data, relative to the newest sample. */
+    public VitalWindow lastMillis(long millis) {
+        return samples.lastMillis(millis);
+    }
+
+    /** Current position of the sample stream; see {@link #samplesSince(long)}. */
+    public long cursor() {
+        return samples.cursor();
+    }
+
+    /**
+     * Samples added since {@code cursor} was taken, with the cursor for the next
+     * call. Start with 0 to receive everything still buffered.
+     */
+    public VitalDelta samplesSince(long cursor) {
+        return samples.since(cursor);
+    }
+
+    public VitalSample latest() {
+        return samples.latest();
+    }
+
+    public int size() {
+        return samples.size();
+    }
+
+    public int capacity() {
+        return samples.capacity();
+    }
 }
@@ -0,0 +1,44 @@
+package rpm.data;
+
+import java.util.Objects;
+
+/**
+ * An {@link AbnormalEvent} tagged with the patient it belongs to, for code that
+ * writes many patients' events at once.
+ */
+public final class PatientEvent {
+
+    private final String patientId;
+    private final AbnormalEvent event;
+
+    public PatientEvent(String patientId, AbnormalEvent event) {
+        this.patientId = patientId;
+        this.event = event;
+    }
+
+    public String patientId() {
+        return patientId;
+    }
+
+    public AbnormalEvent event() {
+        return event;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PatientEvent)) return false;
+        PatientEvent that = (PatientEvent) o;
+        return patientId.equals(that.patientId) && event.equals(that.event);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(patientId, event);
+    }
+
+    @Override
+    public String toString() {
+        return patientId + "@" + event.timestampMs() + ":" + event.vitalType();
+    }
+}
@@ -5,28 +5,39 @@ package rpm.data;
  * <ul>
  *   <li>Latest samples for each vital sign (ring buffers for plotting).</li>
  *   <li>Minute-averaged records (used for history view and reports).</li>
+ *   <li>Rollups of those records at 1 min / 5 min / 1 h / 1 day (charts and summaries).</li>
  *   <li>Abnormal events (used for 'past abnormal' view and reports).</li>
  * </ul>
  *
  * <p>This store is in-memory. Persistence is handled separately (DAO/cloud sync).
  */
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 public class PatientHistoryStore {
 
-    // 7d * 24h * 60min = 10080 minutes
-    private final MinuteRingBuffer<MinuteRecord> minuteRecords = new MinuteRingBuffer<>(10080);
-
     // Abnormal events can be more frequent than minute records, give a larger buffer.
     // 20000 is usually enough for demos; increase if needed.
-    private final MinuteRingBuffer<AbnormalEvent> abnormalEvents = new MinuteRingBuffer<>(20000);
+    private final TimeIndexedRingBuffer<AbnormalEvent> abnormalEvents = new TimeIndexedRingBuffer<>(20000);
+
+    // also holds the minute records themselves (7 days of them)
+    private final RollupTiers rollups = new RollupTiers();
+
+    // start of the oldest minute ever added; the rollups keep everything since
+    private volatile long oldestMinuteMs = Long.MAX_VALUE;
 
     // -------- minute records --------
     public void addMinuteRecord(MinuteRecord rec) {
-        minuteRecords.add(rec);
+        rollups.add(rec);
+        if (rec.minuteStartMs() < oldestMinuteMs) oldestMinuteMs = rec.minuteStartMs();
+    }
+
+    /**
+     * Start of the oldest minute this store has seen ({@code Long.MAX_VALUE} if none);
+     * anything earlier, e.g. before the app started, is only in the database.
+     */
+    public long oldestMinuteMs() {
+        return oldestMinuteMs;
     }
 
     public List<MinuteRecord> getLast24Hours() {
@@ -36,56 +47,55 @@ public class PatientHistoryStore {
     public List<MinuteRecord> getLastHours(int hours) {
         long now = System.currentTimeMillis();
         long from = now - hours * 3600_000L;
-        return filterMinuteRecords(from, now);
+        return getMinuteRecords(from, now);
     }
 
     public List<MinuteRecord> getLastDays(int days) {
         long now = System.currentTimeMillis();
         long from = now - days * 24L * 3600_000L;
-        return filterMinuteRecords(from, now);
+        return getMinuteRecords(from, now);
     }
 
-    private List<MinuteRecord> filterMinuteRecords(long fromMs, long toMs) {
-        List<MinuteRecord> all = minuteRecords.snapshot();
-        if (all.isEmpty()) return List.of();
+    /** Minute records with {@code fromMs <= minuteStart <= toMs}, oldest first. */
+    public List<MinuteRecord> getMinuteRecords(long fromMs, long toMs) {
+        return rollups.minutes(fromMs, toMs);
+    }
 
-        List<MinuteRecord> out = new ArrayList<>();
-        for (MinuteRecord r : all) {
-            long t = r.minuteStartMs();
-            if (t >= fromMs && t <= toMs) out.add(r);
-        }
-        return out;
+    // -------- rollups --------
+
+    /**
+     * Buckets covering [fromMs, toMs] from the coarsest rollup tier that still gives
+     * {@code maxPoints} or more buckets (e.g. the chart width in pixels).
+     */
+    public List<RollupBucket> getBuckets(long fromMs, long toMs, int maxPoints) {
+        return rollups.buckets(fromMs, toMs, maxPoints);
+    }
+
+    /** Per-vital stats over [fromMs, toMs), assembled from the rollup tiers. */
+    public RollupBucket summarize(long fromMs, long toMs) {
+        return rollups.summarize(fromMs, toMs);
     }
 
     // -------- abnormal events (真实事件) --------
     public void addAbnormalEvent(AbnormalEvent e) {
-        abnormalEvents.add(e);
+        abnormalEvents.add(e.timestampMs(), e);
     }
 
     public List<AbnormalEvent> getAbnormalLastHours(int hours) {
         long now = System.currentTimeMillis();
         long from = now - hours * 3600_000L;
-        return filterAbnormal(from, now);
+        return getAbnormal(from, now);
     }
 
     public List<AbnormalEvent> getAbnormalLastDays(int days) {
         long now = System.currentTimeMillis();
         long from = now - days * 24L * 3600_000L;
-        return filterAbnormal(from, now);
+        return getAbnormal(from, now);
     }
 
-    private List<AbnormalEvent> filterAbnormal(long fromMs, long toMs) {
-        List<AbnormalEvent> all = abnormalEvents.snapshot();
-        if (all.isEmpty()) return List.of();
-
-        List<AbnormalEvent> out = new ArrayList<>();
-        for (AbnormalEvent e : all) {
-            long t = e.timestampMs();
-            if (t >= fromMs && t <= toMs) out.add(e);
-        }
-
-        Collections.reverse(out);
-        return out;
+    /** Abnormal events with {@code fromMs <= timestamp <= toMs}, newest first. */
+    public List<AbnormalEvent> getAbnormal(long fromMs, long toMs) {
+        return abnormalEvents.rangeNewestFirst(fromMs, toMs);
     }
 
     // for ui legacy compatibility
@@ -18,9 +18,9 @@ import rpm.sim.SimpleVitalSimulator;
 import rpm.sim.Simulator;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class PatientManager {
 
@@ -30,11 +30,12 @@ public class PatientManager {
     private final int maxSeconds;
     private final int sampleHz;
 
-    private final List<Patient> patients = new ArrayList<>();
-    private final Map<String, PatientDataStore> stores = new HashMap<>();
-    private final Map<String, Simulator> simulators = new HashMap<>();
-    private final Map<String, MinuteAggregator> aggregators = new HashMap<>();
-    private final Map<String, PatientHistoryStore> historyStores = new HashMap<>();
+    // copy-on-write: sampler shards read it every tick without locking
+    private volatile List<Patient> patients = List.of();
+    private final Map<String, PatientDataStore> stores = new ConcurrentHashMap<>();
+    private final Map<String, Simulator> simulators = new ConcurrentHashMap<>();
+    private final Map<String, MinuteAggregator> aggregators = new ConcurrentHashMap<>();
+    private final Map<String, PatientHistoryStore> historyStores = new ConcurrentHashMap<>();
 
     public PatientManager(List<Patient> initialPatients, int maxSeconds, int sampleHz, AlertEngine alertEngine) {
         this.alertEngine = alertEngine;
@@ -48,14 +49,15 @@ public class PatientManager {
     }
 
 
-    public synchronized List<Patient> getPatients() {
-        return List.copyOf(patients);
+    /** Immutable snapshot; the same instance is returned until a patient is added. */
+    public List<Patient> getPatients() {
+        return patients;
     }
 
-    public synchronized PatientDataStore storeOf(String patientId) { return stores.get(patientId); }
-    public synchronized Simulator simulatorOf(String patientId) { return simulators.get(patientId); }
-    public synchronized MinuteAggregator aggregatorOf(String patientId) { return aggregators.get(patientId); }
-    public synchronized PatientHistoryStore historyOf(String patientId) { return historyStores.get(patientId); }
+    public PatientDataStore storeOf(String patientId) { return stores.get(patientId); }
+    public Simulator simulatorOf(String patientId) { return simulators.get(patientId); }
+    public MinuteAggregator aggregatorOf(String patientId) { return aggregators.get(patientId); }
+    public PatientHistoryStore historyOf(String patientId) { return historyStores.get(patientId); }
 
     /** NEW: runtime add patient */
     public synchronized Patient addPatient(String id, String name, int age, String ward, String email, String emergency) {
@@ -68,7 +70,6 @@ public class PatientManager {
     }
 
     private void internalAddPatient(Patient p, int index) {
-        patients.add(p);
 
         try {
             patientDao.upsert(p);
@@ -86,5 +87,10 @@ public class PatientManager {
 
         aggregators.put(p.patientId(), new MinuteAggregator(alertEngine));
         historyStores.put(p.patientId(), new PatientHistoryStore());
+
+        // publish last, so readers never see a patient without its store/simulator
+        List<Patient> next = new ArrayList<>(patients);
+        next.add(p);
+        patients = List.copyOf(next);
     }
 }
@@ -0,0 +1,44 @@
+package rpm.data;
+
+import java.util.Objects;
+
+/**
+ * A {@link MinuteRecord} tagged with the patient it belongs to, for code that
+ * aggregates many patients at once.
+ */
+public final class PatientMinute {
+
+    private final String patientId;
+    private final MinuteRecord record;
+
+    public PatientMinute(String patientId, MinuteRecord record) {
+        this.patientId = patientId;
+        this.record = record;
+    }
+
+    public String patientId() {
+        return patientId;
+    }
+
+    public MinuteRecord record() {
+        return record;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PatientMinute)) return false;
+        PatientMinute that = (PatientMinute) o;
+        return patientId.equals(that.patientId) && record.equals(that.record);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(patientId, record);
+    }
+
+    @Override
+    public String toString() {
+        return patientId + "@" + record.minuteStartMs();
+    }
+}
@@ -0,0 +1,129 @@
+package rpm.data;
+
+import rpm.model.VitalType;
+
+/**
+ * Immutable per-vital {@link VitalStats} for one time bucket
+ * ({@code startMs <= t < startMs + widthMs}) of a rollup tier.
+ *
+ * <p>{@link #mean} weights each minute by its samples; {@link #minuteMean} is the
+ * plain average of the minute averages, as the reports have always shown it.
+ */
+public final class RollupBucket {
+
+    private static final VitalType[] VITALS = VitalType.values();
+
+    private final long startMs;
+    private final long widthMs;
+    private final int minutes;
+    private final VitalStats[] stats;   // indexed by VitalType.ordinal()
+    // per vital: sum of the minute averages and the number of minutes that had one
+    private final double[] meanSums;
+    private final int[] meanMinutes;
+
+    private RollupBucket(long startMs, long widthMs, int minutes, VitalStats[] stats,
+                         double[] meanSums, int[] meanMinutes) {
+        this.startMs = startMs;
+        this.widthMs = widthMs;
+        this.minutes = minutes;
+        this.stats = stats;
+        this.meanSums = meanSums;
+        this.meanMinutes = meanMinutes;
+    }
+
+    public static RollupBucket empty(long startMs, long widthMs) {
+        VitalStats[] s = new VitalStats[VITALS.length];
+        for (int i = 0; i < s.length; i++) s[i] = VitalStats.EMPTY;
+        return new RollupBucket(startMs, widthMs, 0, s, new double[VITALS.length], new int[VITALS.length]);
+    }
+
+    /** One-minute bucket built from a minute record, keeping its min/max/stddev. */
+    public static RollupBucket ofMinute(MinuteRecord r) {
+        int n = r.sampleCount();
+        VitalStats[] s = new VitalStats[VITALS.length];
+        double[] sums = new double[VITALS.length];
+        int[] counts = new int[VITALS.length];
+        for (VitalType t : VITALS) {
+            VitalStats v = VitalStats.ofMinute(n, r.avg(t), r.min(t), r.max(t), r.stddev(t));
+            s[t.ordinal()] = v;
+            if (!v.isEmpty()) {
+                sums[t.ordinal()] = r.avg(t);
+                counts[t.ordinal()] = 1;
+            }
+        }
+        return new RollupBucket(r.minuteStartMs(), RollupTiers.MINUTE, 1, s, sums, counts);
+    }
+
+    /** Combined stats of both buckets, keeping this bucket's start and width. */
+    public RollupBucket merge(RollupBucket o) {
+        VitalStats[] s = new VitalStats[VITALS.length];
+        double[] sums = new double[VITALS.length];
+        int[] counts = new int[VITALS.length];
+        for (int i = 0; i < s.length; i++) {
+            s[i] = stats[i].merge(o.stats[i]);
+            sums[i] = meanSums[i] + o.meanSums[i];
+            counts[i] = meanMinutes[i] + o.meanMinutes[i];
+        }
+        return new RollupBucket(startMs, widthMs, minutes + o.minutes, s, sums, counts);
+    }
+
+    /** Same stats re-labelled with another span (used when seeding a coarser tier). */
+    public RollupBucket withSpan(long startMs, long widthMs) {
+        return new RollupBucket(startMs, widthMs, minutes, stats, meanSums, meanMinutes);
+    }
+
+    public long startMs() {
+        return startMs;
+    }
+
+    public long widthMs() {
+        return widthMs;
+    }
+
+    public long endMs() {
+        return startMs + widthMs;
+    }
+
+    /** Number of minute records folded into this bucket. */
+    public int minutes() {
+        return minutes;
+    }
+
+    public boolean isEmpty() {
+        return minutes == 0;
+    }
+
+    public VitalStats stats(VitalType type) {
+        return stats[type.ordinal()];
+    }
+
+    public double mean(VitalType type) {
+        return stats[type.ordinal()].mean();
+    }
+
+    /** Unweighted mean of the minute averages of this vital, or NaN if none had one. */
+    public double minuteMean(VitalType type) {
+        int n = meanMinutes[type.ordinal()];
+        return n == 0 ? Double.NaN : meanSums[type.ordinal()] / n;
+    }
+
+    public double min(VitalType type) {
+        return stats[type.ordinal()].min();
+    }
+
+    public double max(VitalType type) {
+        return stats[type.ordinal()].max();
+    }
+
+    /** Largest per-vital sample count (all vitals are sampled together). */
+    public long sampleCount() {
+        long n = 0;
+        for (VitalStats s : stats) n = Math.max(n, s.count());
+        return n;
+    }
+
+    @Override
+    public String toString() {
+        return "RollupBucket[startMs=" + startMs + ", widthMs=" + widthMs + ", minutes=" + minutes + "]";
+    }
+}
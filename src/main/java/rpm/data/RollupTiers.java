@@ -0,0 +1,176 @@
+package rpm.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical rollups of minute records: 1 min, 5 min, 1 h and 1 day buckets
+ * (aligned to UTC), each holding per-vital {@link VitalStats}.
+ *
+ * <p>The minute tier is the ring of minute records itself; the store reads its
+ * records from here rather than keeping a copy. Every record also updates each
+ * coarser tier incrementally: the open bucket of a tier absorbs the record until
+ * the record falls in the next bucket, at which point the open bucket is closed
+ * into that tier's ring. A late record whose bucket is already closed goes into
+ * the ring as a correction under the same start, and reads merge it with that
+ * bucket. Chart queries read the
+ * coarsest tier that still gives at least one bucket per pixel, and
+ * {@link #summarize} covers a range with whole coarse buckets plus finer edges,
+ * so its cost does not grow with the retention.
+ *
+ * <p>One writer (the sampler) and any number of readers, as in
+ * {@link TimeIndexedRingBuffer}.
+ */
+public class RollupTiers {
+
+    public static final long MINUTE = 60_000L;
+    public static final long FIVE_MINUTES = 5 * MINUTE;
+    public static final long HOUR = 60 * MINUTE;
+    public static final long DAY = 24 * HOUR;
+
+    // 7 days of minutes, 30 days of 5 min, ~1 year of hours, ~10 years of days
+    private static final long[] WIDTHS = {MINUTE, FIVE_MINUTES, HOUR, DAY};
+    private static final int[] CAPACITIES = {10080, 8640, 8784, 3660};
+
+    private static final class Tier {
+        final long width;
+        final TimeIndexedRingBuffer<RollupBucket> closed;
+        volatile RollupBucket open;
+
+        Tier(long width, int capacity) {
+            this.width = width;
+            this.closed = new TimeIndexedRingBuffer<>(capacity);
+        }
+    }
+
+    private final TimeIndexedRingBuffer<MinuteRecord> minutes = new TimeIndexedRingBuffer<>(CAPACITIES[0]);
+
+    // coarse tiers only: tiers[0] is unused, level 0 reads the minute records
+    private final Tier[] tiers = new Tier[WIDTHS.length];
+
+    public RollupTiers() {
+        for (int i = 1; i < tiers.length; i++) tiers[i] = new Tier(WIDTHS[i], CAPACITIES[i]);
+    }
+
+    /**
+     * Folds one minute record into every tier. A record older than a tier's open
+     * bucket is merged into the closed bucket it belongs to, as long as the tier
+     * still holds it.
+     */
+    public synchronized void add(MinuteRecord rec) {
+        if (!minutes.add(rec.minuteStartMs(), rec)) return;
+        RollupBucket minute = RollupBucket.ofMinute(rec);
+
+        for (int i = 1; i < tiers.length; i++) {
+            Tier t = tiers[i];
+            long start = floor(rec.minuteStartMs(), t.width);
+            RollupBucket open = t.open;
+
+            if (open != null && start < open.startMs()) {
+                t.closed.add(start, minute.withSpan(start, t.width));
+                continue;
+            }
+            if (open != null && start != open.startMs()) {
+                // close first, then swap: readers drop an open bucket already seen as closed
+                t.closed.add(open.startMs(), open);
+                open = null;
+            }
+            t.open = open == null ? minute.withSpan(start, t.width) : open.merge(minute);
+        }
+    }
+
+    /** Minute records with {@code fromMs <= minuteStart <= toMs}, oldest first. */
+    public List<MinuteRecord> minutes(long fromMs, long toMs) {
+        return minutes.range(fromMs, toMs);
+    }
+
+    /**
+     * Buckets overlapping [fromMs, toMs], oldest first, from the coarsest tier whose
+     * buckets are no wider than {@code (toMs - fromMs) / maxPoints}.
+     */
+    public List<RollupBucket> buckets(long fromMs, long toMs, int maxPoints) {
+        int level = levelFor(toMs - fromMs, maxPoints);
+        return read(level, floor(fromMs, WIDTHS[level]), toMs);
+    }
+
+    /** Width of the buckets {@link #buckets} would return for this span. */
+    public long bucketWidthFor(long spanMs, int maxPoints) {
+        return WIDTHS[levelFor(spanMs, maxPoints)];
+    }
+
+    /**
+     * Stats over [fromMs, toMs) as one bucket. Whole buckets of the coarsest tier
+     * cover the middle of the range; each ragged edge is filled from the next finer
+     * tier, down to single minutes.
+     */
+    public RollupBucket summarize(long fromMs, long toMs) {
+        RollupBucket acc = RollupBucket.empty(fromMs, Math.max(0, toMs - fromMs));
+        return summarize(tiers.length - 1, fromMs, toMs, acc);
+    }
+
+    // ---------- internals ----------
+
+    private RollupBucket summarize(int level, long from, long to, RollupBucket acc) {
+        if (from >= to) return acc;
+
+        if (level == 0) {
+            for (MinuteRecord r : minutes.range(from, to - 1)) acc = acc.merge(RollupBucket.ofMinute(r));
+            return acc;
+        }
+
+        long width = WIDTHS[level];
+        long first = ceil(from, width);
+        long last = floor(to, width);
+        if (first >= last) return summarize(level - 1, from, to, acc);
+
+        for (RollupBucket b : read(level, first, last - width)) acc = acc.merge(b);
+        acc = summarize(level - 1, from, first, acc);
+        return summarize(level - 1, last, to, acc);
+    }
+
+    private int levelFor(long spanMs, int maxPoints) {
+        long perPoint = spanMs / Math.max(1, maxPoints);
+        for (int i = WIDTHS.length - 1; i > 0; i--) {
+            if (WIDTHS[i] <= perPoint) return i;
+        }
+        return 0;
+    }
+
+    /**
+     * Buckets of a tier whose start lies in [fromStart, toStart], one per start:
+     * corrections from late records are merged into the bucket they belong to.
+     */
+    private List<RollupBucket> read(int level, long fromStart, long toStart) {
+        List<RollupBucket> out = new ArrayList<>();
+        if (level == 0) {
+            for (MinuteRecord r : minutes.range(fromStart, toStart)) append(out, RollupBucket.ofMinute(r));
+            return out;
+        }
+        Tier t = tiers[level];
+        RollupBucket open = t.open;
+        for (RollupBucket b : t.closed.range(fromStart, toStart)) append(out, b);
+        if (open != null && open.startMs() >= fromStart && open.startMs() <= toStart
+                && (out.isEmpty() || out.get(out.size() - 1).startMs() < open.startMs())) {
+            out.add(open);
+        }
+        return out;
+    }
+
+    /** Adds a bucket, or merges it into the last one if they share a start. */
+    private static void append(List<RollupBucket> out, RollupBucket b) {
+        int last = out.size() - 1;
+        if (last >= 0 && out.get(last).startMs() == b.startMs()) {
+            out.set(last, out.get(last).merge(b));
+        } else {
+            out.add(b);
+        }
+    }
+
+    private static long floor(long t, long width) {
+        return Math.floorDiv(t, width) * width;
+    }
+
+    private static long ceil(long t, long width) {
+        return -Math.floorDiv(-t, width) * width;
+    }
+}
@@ -0,0 +1,164 @@
+package rpm.data;
+
+import rpm.metrics.LatencyHistogram;
+import rpm.model.Patient;
+import rpm.model.VitalSample;
+import rpm.sim.Simulator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives the per-patient sampling tick on N shard threads.
+ *
+ * <p>Each patient is pinned to one shard by its id, so a patient's simulator,
+ * store and aggregator are only ever touched by one thread and samples stay in
+ * order. A shard runs simulate -> live store -> minute aggregation -> history for
+ * its patients, then hands the result to a {@link TickListener}; anything slow
+ * (DB, network) must be pushed to an {@link AsyncStage} by the listener.
+ *
+ * <p>Every shard records how late each tick started against its fixed-rate schedule,
+ * and how long the tick took.
+ */
+public class SamplingEngine {
+
+    /** Called on the shard thread for every patient sample. Must not block. */
+    public interface TickListener {
+        void onSample(Patient patient, VitalSample sample, MinuteAggregator.AggregationResult result, long nowMs);
+    }
+
+    private final PatientManager pm;
+    private final long periodMs;
+    private final TickListener listener;
+    private final Shard[] shards;
+
+    private final LatencyHistogram lateness = new LatencyHistogram("tick-lateness");
+    private final LatencyHistogram tickTime = new LatencyHistogram("tick-duration");
+
+    public SamplingEngine(PatientManager pm, int shardCount, long periodMs, TickListener listener) {
+        if (shardCount <= 0) throw new IllegalArgumentException("shardCount must be > 0");
+        if (periodMs <= 0) throw new IllegalArgumentException("periodMs must be > 0");
+        this.pm = pm;
+        this.periodMs = periodMs;
+        this.listener = listener;
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) shards[i] = new Shard(i);
+    }
+
+    public void start() {
+        for (Shard s : shards) s.start();
+    }
+
+    /**
+     * Cancels the schedule and waits up to {@code timeoutMs} for ticks in progress to
+     * finish, so nothing is handed to the listener afterwards. Returns false on timeout.
+     */
+    public boolean shutdown(long timeoutMs) throws InterruptedException {
+        for (Shard s : shards) s.exec.shutdown();
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        boolean done = true;
+        for (Shard s : shards) {
+            long left = Math.max(0, deadline - System.currentTimeMillis());
+            done &= s.exec.awaitTermination(left, TimeUnit.MILLISECONDS);
+        }
+        return done;
+    }
+
+    public int shardCount() {
+        return shards.length;
+    }
+
+    /** Delay between each tick's scheduled and actual start, across all shards. */
+    public LatencyHistogram lateness() {
+        return lateness;
+    }
+
+    /** Time each shard spent processing one tick. */
+    public LatencyHistogram tickDuration() {
+        return tickTime;
+    }
+
+    static int shardOf(String patientId, int shardCount) {
+        return Math.floorMod(patientId.hashCode(), shardCount);
+    }
+
+    private final class Shard {
+        final int index;
+        final ScheduledExecutorService exec;
+
+        // patients owned by this shard, rebuilt when the manager's list changes
+        private List<Patient> seen = null;
+        private List<Patient> mine = List.of();
+
+        private long firstTickMs;
+        private long ticks = 0;
+
+        Shard(int index) {
+            this.index = index;
+            this.exec = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "sampler-shard-" + index);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        void start() {
+            firstTickMs = System.currentTimeMillis();
+            exec.scheduleAtFixedRate(this::tick, 0, periodMs, TimeUnit.MILLISECONDS);
+        }
+
+        private void tick() {
+            long startNs = System.nanoTime();
+            long now = System.currentTimeMillis();
+            lateness.recordMillis(now - (firstTickMs + ticks * periodMs));
+            ticks++;
+
+            for (Patient p : patients()) {
+                try {
+                    sample(p, now);
+                } catch (Exception e) {
+                    // one bad patient must not cancel the shard's schedule
+                    System.err.println("[SamplingEngine] shard " + index + " patient " + p.patientId()
+                            + " failed: " + e.getMessage());
+                }
+            }
+
+            tickTime.recordMicros((System.nanoTime() - startNs) / 1000L);
+        }
+
+        private void sample(Patient p, long now) {
+            String id = p.patientId();
+            Simulator sim = pm.simulatorOf(id);
+            PatientDataStore store = pm.storeOf(id);
+            MinuteAggregator agg = pm.aggregatorOf(id);
+            if (sim == null || store == null || agg == null) return;
+
+            VitalSample sample = sim.nextSample(now);
+            store.addSample(sample);
+
+            MinuteAggregator.AggregationResult result = agg.onSample(sample);
+
+            PatientHistoryStore history = pm.historyOf(id);
+            for (AbnormalEvent e : result.abnormalEvents()) history.addAbnormalEvent(e);
+            if (result.minuteRecord() != null) history.addMinuteRecord(result.minuteRecord());
+
+            listener.onSample(p, sample, result, now);
+        }
+
+        private List<Patient> patients() {
+            List<Patient> all = pm.getPatients();
+            if (all != seen) {
+                List<Patient> own = new ArrayList<>();
+                for (Patient p : all) {
+                    if (shardOf(p.patientId(), shards.length) == index) own.add(p);
+                }
+                mine = own;
+                seen = all;
+            }
+            return mine;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package rpm.data;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Single-writer ring buffer of items keyed by a timestamp, kept in append order.
+ *
+ * <p>Keys are stored in a parallel {@code long[]} and must not decrease. An item whose
+ * key is older than the newest one (e.g. a recomputed minute) goes to a sorted side
+ * map instead, under its own key, and reads merge it back in; one older than
+ * everything the ring still holds is rejected. Range queries binary-search the key
+ * array in place and copy only the matching items, so a query costs O(log n + k)
+ * rather than a full snapshot plus a scan.
+ *
+ * <p>The writer never waits for readers: it announces the slot it is about to
+ * overwrite ({@code claimed}), writes it, then publishes the new count
+ * ({@code published}). A reader copies from the published range and afterwards
+ * checks {@code claimed} to drop any entries the writer lapped while it was copying,
+ * so a result never contains a torn or out-of-order item.
+ */
+public class TimeIndexedRingBuffer<T> {
+
+    private final long[] keys;
+    private final Object[] items;
+
+    private volatile long claimed = 0;
+    private volatile long published = 0;
+
+    // items that arrived after a newer key, by their own key; written under this,
+    // read without locking, and never holding keys the ring has lapped
+    private final ConcurrentSkipListMap<Long, List<T>> late = new ConcurrentSkipListMap<>();
+    private volatile int lateItems;
+    private volatile long rejected;
+
+    // guarded by this (writer side only)
+    private long lastKey = Long.MIN_VALUE;
+
+    public TimeIndexedRingBuffer(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be > 0");
+        this.keys = new long[capacity];
+        this.items = new Object[capacity];
+    }
+
+    /**
+     * Adds an item; false if its key is older than anything still held (not stored).
+     * Writers are serialised with each other only; readers never take this lock.
+     */
+    public synchronized boolean add(long key, T item) {
+        long seq = published;
+        long oldest = seq >= items.length ? keys[slot(seq)] : Long.MIN_VALUE;
+        if (key < lastKey) {
+            if (key < oldest) {
+                rejected++;
+                return false;
+            }
+            List<T> same = late.get(key);
+            List<T> merged = new ArrayList<>(same == null ? 1 : same.size() + 1);
+            if (same != null) merged.addAll(same);
+            merged.add(item);
+            late.put(key, merged);
+            lateItems++;
+            return true;
+        }
+        lastKey = key;
+
+        claimed = seq + 1;
+        VarHandle.storeStoreFence();
+
+        int i = slot(seq);
+        keys[i] = key;
+        items[i] = item;
+
+        published = seq + 1;
+
+        // late items go once the ring has lapped their keys
+        if (seq >= items.length && !late.isEmpty()) {
+            long keep = keys[slot(seq + 1)];
+            Map<Long, List<T>> lapped = late.headMap(keep);
+            for (List<T> l : lapped.values()) lateItems -= l.size();
+            lapped.clear();
+        }
+        return true;
+    }
+
+    public int capacity() {
+        return items.length;
+    }
+
+    /** Items held, in the ring and beside it. */
+    public int size() {
+        return (int) Math.min(published, items.length) + lateItems;
+    }
+
+    /** Items not stored because their key was older than anything still held. */
+    public long rejected() {
+        return rejected;
+    }
+
+    /** Items with {@code fromKey <= key <= toKey}, oldest first. */
+    public List<T> range(long fromKey, long toKey) {
+        return withLate(read(fromKey, toKey, false), fromKey, toKey, false);
+    }
+
+    /** Items with {@code fromKey <= key <= toKey}, newest first. */
+    public List<T> rangeNewestFirst(long fromKey, long toKey) {
+        return withLate(read(fromKey, toKey, true), fromKey, toKey, true);
+    }
+
+    // ---------- internals ----------
+
+    private int slot(long seq) {
+        return (int) (seq % items.length);
+    }
+
+    /** Keys of the ring read, in the order of its items. */
+    private static final class Keyed<T> {
+        final long[] keys;
+        final List<T> items;
+
+        Keyed(long[] keys, List<T> items) {
+            this.keys = keys;
+            this.items = items;
+        }
+    }
+
+    /**
+     * Merges the late items in range into the ring's by key. On a tie the ring's item
+     * counts as the older one, so newest first is the exact reverse of oldest first.
+     */
+    private List<T> withLate(Keyed<T> ring, long fromKey, long toKey, boolean newestFirst) {
+        if (late.isEmpty() || fromKey > toKey) return ring.items;
+        ConcurrentNavigableMap<Long, List<T>> extra = late.subMap(fromKey, true, toKey, true);
+        if (extra.isEmpty()) return ring.items;
+        if (newestFirst) extra = extra.descendingMap();
+
+        List<T> out = new ArrayList<>(ring.items.size() + extra.size());
+        int i = 0;
+        for (Map.Entry<Long, List<T>> e : extra.entrySet()) {
+            long k = e.getKey();
+            while (i < ring.items.size() && (newestFirst ? ring.keys[i] > k : ring.keys[i] <= k)) {
+                out.add(ring.items.get(i++));
+            }
+            List<T> same = e.getValue();
+            if (newestFirst) {
+                for (int j = same.size() - 1; j >= 0; j--) out.add(same.get(j));
+            } else {
+                out.addAll(same);
+            }
+        }
+        while (i < ring.items.size()) out.add(ring.items.get(i++));
+        return out;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Keyed<T> read(long fromKey, long toKey, boolean newestFirst) {
+        while (true) {
+            long end = published;
+            if (end == 0) return new Keyed<>(new long[0], new ArrayList<>());
+            long start = Math.max(0, end - items.length);
+
+            long floorLo = gallop(fromKey, start, end, false);
+            long lo = bound(fromKey, floorLo, end, false);
+            long floorHi = gallop(toKey, start, end, true);
+            long hi = bound(toKey, floorHi, end, true);
+            if (hi < lo) hi = lo;
+
+            int n = (int) (hi - lo);
+            long[] k = new long[n];
+            Object[] tmp = new Object[n];
+            for (int j = 0; j < n; j++) {
+                int p = slot(lo + j);
+                k[j] = keys[p];
+                tmp[j] = items[p];
+            }
+
+            VarHandle.loadLoadFence();
+            long valid = claimed - items.length;
+
+            // a lapped slot holds a newer key, which can only pull the upper bound down
+            if (valid > floorHi) continue;
+
+            int skip = (int) Math.max(0, valid - lo);
+            while (skip < n && k[skip] < fromKey) skip++;
+
+            List<T> out = new ArrayList<>(Math.max(0, n - skip));
+            long[] outKeys = new long[Math.max(0, n - skip)];
+            if (newestFirst) {
+                for (int j = n - 1; j >= skip; j--) {
+                    outKeys[out.size()] = k[j];
+                    out.add((T) tmp[j]);
+                }
+            } else {
+                for (int j = skip; j < n; j++) {
+                    outKeys[out.size()] = k[j];
+                    out.add((T) tmp[j]);
+                }
+            }
+            return new Keyed<>(outKeys, out);
+        }
+    }
+
+    /**
+     * Exponential search back from {@code end}: returns the oldest sequence probed,
+     * either {@code start} or one already known to lie below the bound.
+     */
+    private long gallop(long key, long start, long end, boolean inclusive) {
+        long step = 1;
+        long p = end - step;
+        while (p > start) {
+            long v = keys[slot(p)];
+            if (inclusive ? v <= key : v < key) return p;
+            step <<= 1;
+            p = end - step;
+        }
+        return start;
+    }
+
+    /** First sequence in [lo, hi) whose key is >= key (or > key when inclusive); hi if none. */
+    private long bound(long key, long lo, long hi, boolean inclusive) {
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            long v = keys[slot(mid)];
+            if (inclusive ? v <= key : v < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+}
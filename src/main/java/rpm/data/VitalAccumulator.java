@@ -0,0 +1,59 @@
+package rpm.data;
+
+/**
+ * Mutable running count/sum/min/max/sumSq for one vital.
+ * Reused across minutes by {@link MinuteAggregator}; not thread-safe.
+ */
+public final class VitalAccumulator {
+
+    private long count;
+    private double sum;
+    private double min;
+    private double max;
+    private double sumSq;
+
+    public VitalAccumulator() {
+        reset();
+    }
+
+    public void add(double v) {
+        if (Double.isNaN(v)) return;
+        count++;
+        sum += v;
+        sumSq += v * v;
+        if (v < min) min = v;
+        if (v > max) max = v;
+    }
+
+    public void reset() {
+        count = 0;
+        sum = 0;
+        sumSq = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    /** Mean, or NaN if nothing was added. */
+    public double mean() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    public double min() {
+        return count == 0 ? Double.NaN : min;
+    }
+
+    public double max() {
+        return count == 0 ? Double.NaN : max;
+    }
+
+    /** Population standard deviation, or NaN if nothing was added. */
+    public double stddev() {
+        if (count == 0) return Double.NaN;
+        double m = sum / count;
+        return Math.sqrt(Math.max(0, sumSq / count - m * m));
+    }
+}
@@ -0,0 +1,272 @@
+package rpm.data;
+
+import rpm.model.VitalSample;
+import rpm.model.VitalType;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * Fixed-capacity ring buffer that stores vital samples column by column:
+ * one {@code long[]} for timestamps and one {@code double[]} per {@link VitalType}.
+ *
+ * <p>{@link #add} only copies primitives into the columns, so the buffer keeps no
+ * per-sample objects alive. Timestamps must not decrease (the sampler appends them
+ * that way), which lets reads find a time window by searching back from the newest
+ * sample; a sample older than the newest one is rejected rather than stored out of
+ * order. The database keeps it either way.
+ *
+ * <p>Concurrency: one writer, any number of readers, no reader locks. Uses the same
+ * claimed/published sequence scheme as {@link TimeIndexedRingBuffer}; a read that raced with the
+ * writer lapping the slots it inspected drops the lapped entries or retries.
+ */
+public class VitalColumnBuffer {
+
+    private static final VitalType[] VITALS = VitalType.values();
+
+    private final long[] ts;
+    private final double[][] cols;
+
+    private volatile long claimed = 0;
+    private volatile long published = 0;
+    private volatile long rejected;
+
+    // guarded by this (writer side only)
+    private long lastTs = Long.MIN_VALUE;
+
+    public VitalColumnBuffer(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be > 0");
+        this.ts = new long[capacity];
+        this.cols = new double[VITALS.length][capacity];
+    }
+
+    public boolean add(VitalSample s) {
+        return add(s.timestampMs(), s.bodyTemp(), s.heartRate(), s.respiratoryRate(),
+                s.systolicBP(), s.diastolicBP(), s.ecgValue());
+    }
+
+    /**
+     * Appends a sample; false if it is older than the newest one (not stored).
+     * Writers are serialised with each other only; readers never take this lock.
+     */
+    public synchronized boolean add(long timestampMs,
+                                    double bodyTemp,
+                                    double heartRate,
+                                    double respiratoryRate,
+                                    double systolicBP,
+                                    double diastolicBP,
+                                    double ecgValue) {
+        if (timestampMs < lastTs) {
+            rejected++;
+            return false;
+        }
+        lastTs = timestampMs;
+
+        long seq = published;
+        claimed = seq + 1;
+        VarHandle.storeStoreFence();
+
+        int i = slot(seq);
+        ts[i] = timestampMs;
+        cols[VitalType.BODY_TEMPERATURE.ordinal()][i] = bodyTemp;
+        cols[VitalType.HEART_RATE.ordinal()][i] = heartRate;
+        cols[VitalType.RESPIRATORY_RATE.ordinal()][i] = respiratoryRate;
+        cols[VitalType.SYSTOLIC_BP.ordinal()][i] = systolicBP;
+        cols[VitalType.DIASTOLIC_BP.ordinal()][i] = diastolicBP;
+        cols[VitalType.ECG.ordinal()][i] = ecgValue;
+
+        published = seq + 1;
+        return true;
+    }
+
+    public int capacity() {
+        return ts.length;
+    }
+
+    public int size() {
+        return (int) Math.min(published, ts.length);
+    }
+
+    /** Samples not stored because they were older than the newest one. */
+    public long rejected() {
+        return rejected;
+    }
+
+    /**
+     * Monotonic sequence number of the next sample to be written; the value to pass
+     * to {@link #since(long)} to read only what arrives from now on.
+     */
+    public long cursor() {
+        return published;
+    }
+
+    /** Newest sample, or null if nothing has been added yet. */
+    public VitalSample latest() {
+        while (true) {
+            long end = published;
+            if (end == 0) return null;
+
+            int p = slot(end - 1);
+            VitalSample s = new VitalSample(ts[p],
+                    cols[VitalType.BODY_TEMPERATURE.ordinal()][p],
+                    cols[VitalType.HEART_RATE.ordinal()][p],
+                    cols[VitalType.RESPIRATORY_RATE.ordinal()][p],
+                    cols[VitalType.SYSTOLIC_BP.ordinal()][p],
+                    cols[VitalType.DIASTOLIC_BP.ordinal()][p],
+                    cols[VitalType.ECG.ordinal()][p]);
+
+            VarHandle.loadLoadFence();
+            if (claimed - ts.length <= end - 1) return s;
+        }
+    }
+
+    /** All buffered samples, oldest first. */
+    public VitalWindow snapshot() {
+        return read(Long.MIN_VALUE, Long.MAX_VALUE, false, null);
+    }
+
+    /** Samples with {@code fromMs <= timestamp <= toMs}, oldest first. */
+    public VitalWindow window(long fromMs, long toMs) {
+        return read(fromMs, toMs, false, null);
+    }
+
+    /** The last {@code millis} of data, measured back from the newest sample. */
+    public VitalWindow lastMillis(long millis) {
+        return read(millis, Long.MAX_VALUE, true, null);
+    }
+
+    /**
+     * Like {@link #window} but copies a single vital column only
+     * (the returned window rejects reads of other vitals).
+     */
+    public VitalWindow series(VitalType type, long fromMs, long toMs) {
+        return read(fromMs, toMs, false, type);
+    }
+
+    /**
+     * Samples appended at or after {@code cursor}. Costs O(new samples), not
+     * O(capacity); a cursor older than the buffer yields a truncated delta.
+     */
+    public VitalDelta since(long cursor) {
+        while (true) {
+            long end = published;
+            long start = Math.max(0, end - ts.length);
+            long from = Math.max(start, Math.min(cursor, end));
+
+            int n = (int) (end - from);
+            long[] outTs = new long[n];
+            double[][] outCols = new double[VITALS.length][n];
+            copy(from, n, outTs, outCols);
+
+            VarHandle.loadLoadFence();
+            long valid = claimed - ts.length;
+            if (valid > end || (valid == end && n > 0)) continue;
+
+            boolean truncated = cursor < Math.max(from, valid);
+            int skip = (int) Math.max(0, valid - from);
+            if (skip == 0) {
+                VitalWindow w = n == 0 ? VitalWindow.EMPTY : new VitalWindow(outTs, outCols, n);
+                return new VitalDelta(w, end, truncated);
+            }
+
+            for (int c = 0; c < outCols.length; c++) outCols[c] = Arrays.copyOfRange(outCols[c], skip, n);
+            return new VitalDelta(new VitalWindow(Arrays.copyOfRange(outTs, skip, n), outCols, n - skip), end, truncated);
+        }
+    }
+
+    // ---------- internals ----------
+
+    private int slot(long seq) {
+        return (int) (seq % ts.length);
+    }
+
+    /**
+     * Reads a time window. When {@code relative} is set, {@code from} is a duration
+     * measured back from the newest published sample.
+     */
+    private VitalWindow read(long from, long to, boolean relative, VitalType only) {
+        while (true) {
+            long end = published;
+            if (end == 0) return VitalWindow.EMPTY;
+            long start = Math.max(0, end - ts.length);
+
+            long fromMs = relative ? ts[slot(end - 1)] - from : from;
+
+            // Both searches walk back from the newest slot; floorHi is the oldest slot
+            // the upper-bound search looked at.
+            long floorLo = gallop(fromMs, start, end, false);
+            long lo = bound(fromMs, floorLo, end, false);
+            long floorHi = gallop(to, start, end, true);
+            long hi = bound(to, floorHi, end, true);
+            if (hi < lo) hi = lo;
+
+            int n = (int) (hi - lo);
+            long[] outTs = new long[n];
+            double[][] outCols = new double[VITALS.length][];
+            for (VitalType t : VITALS) {
+                if (only == null || only == t) outCols[t.ordinal()] = new double[n];
+            }
+            copy(lo, n, outTs, outCols);
+
+            VarHandle.loadLoadFence();
+            long valid = claimed - ts.length;
+
+            // A lapped slot holds a newer timestamp, which can only make the upper
+            // bound too small; if that search touched one, read again.
+            if (valid > floorHi || relative && valid > end - 1) continue;
+
+            // Lapped entries at the front are dropped, plus anything older than
+            // fromMs that a lapped probe let into the lower bound.
+            int skip = (int) Math.max(0, valid - lo);
+            while (skip < n && outTs[skip] < fromMs) skip++;
+            if (skip == 0) return n == 0 ? VitalWindow.EMPTY : new VitalWindow(outTs, outCols, n);
+            if (skip >= n) return VitalWindow.EMPTY;
+
+            for (int c = 0; c < outCols.length; c++) {
+                if (outCols[c] != null) outCols[c] = Arrays.copyOfRange(outCols[c], skip, n);
+            }
+            return new VitalWindow(Arrays.copyOfRange(outTs, skip, n), outCols, n - skip);
+        }
+    }
+
+    /**
+     * Exponential search back from {@code end}: returns the oldest sequence probed,
+     * either {@code start} or a slot already known to lie below the bound.
+     */
+    private long gallop(long t, long start, long end, boolean inclusive) {
+        long step = 1;
+        long p = end - step;
+        while (p > start) {
+            long v = ts[slot(p)];
+            if (inclusive ? v <= t : v < t) return p;
+            step <<= 1;
+            p = end - step;
+        }
+        return start;
+    }
+
+    /** First sequence in [lo, hi) whose timestamp is >= t (or > t when inclusive); hi if none. */
+    private long bound(long t, long lo, long hi, boolean inclusive) {
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            long v = ts[slot(mid)];
+            if (inclusive ? v <= t : v < t) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private void copy(long from, int n, long[] outTs, double[][] outCols) {
+        if (n == 0) return;
+        // the sequence range maps to at most two contiguous physical segments
+        int start = slot(from);
+        int first = Math.min(n, ts.length - start);
+        System.arraycopy(ts, start, outTs, 0, first);
+        System.arraycopy(ts, 0, outTs, first, n - first);
+        for (int c = 0; c < outCols.length; c++) {
+            if (outCols[c] == null) continue;
+            System.arraycopy(cols[c], start, outCols[c], 0, first);
+            System.arraycopy(cols[c], 0, outCols[c], first, n - first);
+        }
+    }
+}
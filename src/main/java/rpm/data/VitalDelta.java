@@ -0,0 +1,40 @@
+package rpm.data;
+
+/**
+ * Result of an incremental read from a {@link VitalColumnBuffer}: the samples
+ * appended after the caller's cursor plus the cursor to pass on the next call.
+ *
+ * <p>{@link #truncated()} is set when the writer overwrote samples the caller had
+ * not read yet, so a consumer that keeps its own history should start over from
+ * {@link #samples()}.
+ */
+public final class VitalDelta {
+
+    private final VitalWindow samples;
+    private final long cursor;
+    private final boolean truncated;
+
+    VitalDelta(VitalWindow samples, long cursor, boolean truncated) {
+        this.samples = samples;
+        this.cursor = cursor;
+        this.truncated = truncated;
+    }
+
+    /** New samples, oldest first; empty if nothing arrived. */
+    public VitalWindow samples() {
+        return samples;
+    }
+
+    /** Cursor positioned after the last sample returned. */
+    public long cursor() {
+        return cursor;
+    }
+
+    public boolean truncated() {
+        return truncated;
+    }
+
+    public boolean isEmpty() {
+        return samples.isEmpty();
+    }
+}
@@ -0,0 +1,87 @@
+package rpm.data;
+
+/**
+ * Mergeable summary of one vital over a span of time:
+ * sample count, sum, min, max and sum of squares.
+ * Two summaries of adjacent spans merge into the summary of their union.
+ */
+public final class VitalStats {
+
+    public static final VitalStats EMPTY =
+            new VitalStats(0, 0, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 0);
+
+    private final long count;
+    private final double sum;
+    private final double min;
+    private final double max;
+    private final double sumSq;
+
+    public VitalStats(long count, double sum, double min, double max, double sumSq) {
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+        this.sumSq = sumSq;
+    }
+
+    /**
+     * Summary of {@code n} samples from their mean, extremes and population
+     * standard deviation (sumSq = n * (stddev^2 + mean^2)).
+     * Returns {@link #EMPTY} if there are no samples or the mean is NaN.
+     */
+    public static VitalStats ofMinute(long n, double mean, double min, double max, double stddev) {
+        if (n <= 0 || Double.isNaN(mean)) return EMPTY;
+        double sd = Double.isNaN(stddev) ? 0 : stddev;
+        return new VitalStats(n, n * mean, min, max, n * (sd * sd + mean * mean));
+    }
+
+    public VitalStats merge(VitalStats o) {
+        if (o.count == 0) return this;
+        if (count == 0) return o;
+        return new VitalStats(count + o.count, sum + o.sum,
+                Math.min(min, o.min), Math.max(max, o.max), sumSq + o.sumSq);
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public double sum() {
+        return sum;
+    }
+
+    public double sumSq() {
+        return sumSq;
+    }
+
+    /** Minimum, or NaN if empty. */
+    public double min() {
+        return count == 0 ? Double.NaN : min;
+    }
+
+    /** Maximum, or NaN if empty. */
+    public double max() {
+        return count == 0 ? Double.NaN : max;
+    }
+
+    /** Mean, or NaN if empty. */
+    public double mean() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    /** Population standard deviation, or NaN if empty. */
+    public double stddev() {
+        if (count == 0) return Double.NaN;
+        double m = sum / count;
+        return Math.sqrt(Math.max(0, sumSq / count - m * m));
+    }
+
+    @Override
+    public String toString() {
+        return "VitalStats[count=" + count + ", mean=" + mean() + ", min=" + min() + ", max=" + max() + "]";
+    }
+}
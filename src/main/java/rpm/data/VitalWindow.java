@@ -0,0 +1,125 @@
+package rpm.data;
+
+import rpm.model.VitalSample;
+import rpm.model.VitalType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read-only columnar copy of a run of samples taken from a {@link VitalColumnBuffer}.
+ *
+ * <p>Index 0 is the oldest sample. Values are read per vital with
+ * {@link #valueAt(VitalType, int)}, so callers that only plot one signal never
+ * build {@link VitalSample} objects.
+ */
+public final class VitalWindow {
+
+    static final VitalWindow EMPTY = new VitalWindow(new long[0], new double[VitalType.values().length][0], 0);
+
+    private final long[] ts;
+    private final double[][] cols;
+    private final int size;
+
+    VitalWindow(long[] ts, double[][] cols, int size) {
+        this.ts = ts;
+        this.cols = cols;
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** True if this window carries the column for {@code type}. */
+    public boolean hasVital(VitalType type) {
+        return cols[type.ordinal()] != null;
+    }
+
+    public long timestampAt(int i) {
+        checkIndex(i);
+        return ts[i];
+    }
+
+    public double valueAt(VitalType type, int i) {
+        checkIndex(i);
+        return column(type)[i];
+    }
+
+    public long firstTimestamp() {
+        return timestampAt(0);
+    }
+
+    public long lastTimestamp() {
+        return timestampAt(size - 1);
+    }
+
+    /** First index whose timestamp is >= t (size() if none). */
+    public int lowerBound(long t) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ts[mid] < t) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /** Minimum of {@code type} over indices [from, to); NaN if the range is empty. */
+    public double min(VitalType type, int from, int to) {
+        double[] c = column(type);
+        double m = Double.NaN;
+        for (int i = Math.max(0, from); i < Math.min(size, to); i++) {
+            if (Double.isNaN(m) || c[i] < m) m = c[i];
+        }
+        return m;
+    }
+
+    /** Maximum of {@code type} over indices [from, to); NaN if the range is empty. */
+    public double max(VitalType type, int from, int to) {
+        double[] c = column(type);
+        double m = Double.NaN;
+        for (int i = Math.max(0, from); i < Math.min(size, to); i++) {
+            if (Double.isNaN(m) || c[i] > m) m = c[i];
+        }
+        return m;
+    }
+
+    /** Builds a sample object for index i (requires all vital columns). */
+    public VitalSample sampleAt(int i) {
+        checkIndex(i);
+        return new VitalSample(ts[i],
+                column(VitalType.BODY_TEMPERATURE)[i],
+                column(VitalType.HEART_RATE)[i],
+                column(VitalType.RESPIRATORY_RATE)[i],
+                column(VitalType.SYSTOLIC_BP)[i],
+                column(VitalType.DIASTOLIC_BP)[i],
+                column(VitalType.ECG)[i]);
+    }
+
+    /** Newest sample in the window, or null if empty. */
+    public VitalSample latest() {
+        return size == 0 ? null : sampleAt(size - 1);
+    }
+
+    /** Materialises the window as sample objects (legacy list-based callers). */
+    public List<VitalSample> toSamples() {
+        List<VitalSample> out = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) out.add(sampleAt(i));
+        return out;
+    }
+
+    private double[] column(VitalType type) {
+        double[] c = cols[type.ordinal()];
+        if (c == null) throw new IllegalStateException("window does not contain " + type);
+        return c;
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException("index " + i + ", size " + size);
+    }
+}
@@ -0,0 +1,222 @@
+package rpm.data;
+
+import rpm.model.VitalSample;
+import rpm.model.VitalType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Minute aggregation for many patients whose samples arrive out of order, with
+ * minutes closed by a watermark rather than by the next sample.
+ *
+ * <p>{@link #add} folds a sample into the running accumulators of its patient and
+ * minute; a repeated (patient, timestamp) is ignored. {@link #advance} closes every
+ * minute that ended at or before the watermark and returns its records, so each
+ * minute is handed out exactly once.
+ *
+ * <p>What the accumulators cannot vouch for is reported for a recompute from storage
+ * instead: a sample for a minute that is already closed, a sample too far ahead to
+ * hold open (reported once its minute has closed), and the minute the aggregator was
+ * created in, whose first samples it never saw.
+ */
+public final class WatermarkMinuteAggregator {
+
+    public static final long MINUTE_MS = 60_000L;
+
+    // samples further ahead than this (clock skew) are not held open
+    private static final int MAX_OPEN_MINUTES = 10;
+
+    private static final VitalType[] AVERAGED = {
+            VitalType.BODY_TEMPERATURE, VitalType.HEART_RATE, VitalType.RESPIRATORY_RATE,
+            VitalType.SYSTOLIC_BP, VitalType.DIASTOLIC_BP
+    };
+
+    /** Output of one {@link #advance}. */
+    public static final class Closed {
+        private final List<PatientMinute> records;
+        private final List<Long> recomputeAll;
+        private final Map<Long, Set<String>> recomputePatients;
+
+        Closed(List<PatientMinute> records, List<Long> recomputeAll, Map<Long, Set<String>> recomputePatients) {
+            this.records = records;
+            this.recomputeAll = recomputeAll;
+            this.recomputePatients = recomputePatients;
+        }
+
+        /** Minutes closed by this call, complete as far as the aggregator saw. */
+        public List<PatientMinute> records() {
+            return records;
+        }
+
+        /** Minutes (start ms, ascending) to recompute for every patient. */
+        public List<Long> recomputeAll() {
+            return recomputeAll;
+        }
+
+        /** Minutes to recompute for the listed patients only; minutes in {@link #recomputeAll} are left out. */
+        public Map<Long, Set<String>> recomputePatients() {
+            return recomputePatients;
+        }
+
+        public boolean isEmpty() {
+            return records.isEmpty() && recomputeAll.isEmpty() && recomputePatients.isEmpty();
+        }
+    }
+
+    private static final class Acc {
+        final VitalAccumulator[] vitals = new VitalAccumulator[VitalType.values().length];
+        // ms offsets within the minute already counted
+        final BitSet seen = new BitSet();
+        int count;
+
+        Acc() {
+            for (VitalType t : AVERAGED) vitals[t.ordinal()] = new VitalAccumulator();
+        }
+
+        void add(VitalSample s) {
+            vitals[VitalType.BODY_TEMPERATURE.ordinal()].add(s.bodyTemp());
+            vitals[VitalType.HEART_RATE.ordinal()].add(s.heartRate());
+            vitals[VitalType.RESPIRATORY_RATE.ordinal()].add(s.respiratoryRate());
+            vitals[VitalType.SYSTOLIC_BP.ordinal()].add(s.systolicBP());
+            vitals[VitalType.DIASTOLIC_BP.ordinal()].add(s.diastolicBP());
+            count++;
+        }
+
+        MinuteRecord toRecord(long minuteStart) {
+            int n = VitalType.values().length;
+            double[] min = new double[n];
+            double[] max = new double[n];
+            double[] sd = new double[n];
+            Arrays.fill(min, Double.NaN);
+            Arrays.fill(max, Double.NaN);
+            Arrays.fill(sd, Double.NaN);
+            for (VitalType t : AVERAGED) {
+                VitalAccumulator a = vitals[t.ordinal()];
+                min[t.ordinal()] = a.min();
+                max[t.ordinal()] = a.max();
+                sd[t.ordinal()] = a.stddev();
+            }
+            return new MinuteRecord(minuteStart,
+                    vitals[VitalType.BODY_TEMPERATURE.ordinal()].mean(),
+                    vitals[VitalType.HEART_RATE.ordinal()].mean(),
+                    vitals[VitalType.RESPIRATORY_RATE.ordinal()].mean(),
+                    vitals[VitalType.SYSTOLIC_BP.ordinal()].mean(),
+                    vitals[VitalType.DIASTOLIC_BP.ordinal()].mean(),
+                    count, min, max, sd);
+        }
+    }
+
+    private final Map<String, TreeMap<Long, Acc>> open = new HashMap<>();
+    private final TreeSet<Long> recomputeAll = new TreeSet<>();
+    private final TreeMap<Long, Set<String>> recomputePatients = new TreeMap<>();
+
+    // every minute starting before this has been closed
+    private long closedBefore;
+
+    private long accepted;
+    private long duplicates;
+    private long late;
+    private long future;
+
+    /** @param startMs creation time; its minute is recomputed once it closes */
+    public WatermarkMinuteAggregator(long startMs) {
+        long first = minuteStart(startMs);
+        this.closedBefore = first + MINUTE_MS;
+        recomputeAll.add(first);
+    }
+
+    public static long minuteStart(long tsMs) {
+        return Math.floorDiv(tsMs, MINUTE_MS) * MINUTE_MS;
+    }
+
+    /** Adds one stored sample; false if it was not counted in memory (duplicate, late or too far ahead). */
+    public synchronized boolean add(String patientId, VitalSample s) {
+        long m = minuteStart(s.timestampMs());
+        if (m < closedBefore) {
+            late++;
+            if (!recomputeAll.contains(m)) recomputePatients.computeIfAbsent(m, k -> new HashSet<>()).add(patientId);
+            return false;
+        }
+        if (m >= closedBefore + MAX_OPEN_MINUTES * MINUTE_MS) {
+            // stored all the same: its minute is rebuilt from the rows once it closes
+            future++;
+            if (!recomputeAll.contains(m)) recomputePatients.computeIfAbsent(m, k -> new HashSet<>()).add(patientId);
+            return false;
+        }
+
+        Acc a = open.computeIfAbsent(patientId, k -> new TreeMap<>()).computeIfAbsent(m, k -> new Acc());
+        int offset = (int) (s.timestampMs() - m);
+        if (a.seen.get(offset)) {
+            duplicates++;
+            return false;
+        }
+        a.seen.set(offset);
+        a.add(s);
+        accepted++;
+        return true;
+    }
+
+    /**
+     * Closes every minute that ended at or before {@code watermarkMs} and returns its
+     * records, plus the closed minutes due for a recompute since the last call.
+     */
+    public synchronized Closed advance(long watermarkMs) {
+        long before = minuteStart(watermarkMs);
+
+        List<PatientMinute> records = new ArrayList<>();
+        if (before > closedBefore) {
+            for (Iterator<Map.Entry<String, TreeMap<Long, Acc>>> it = open.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<String, TreeMap<Long, Acc>> e = it.next();
+                SortedMap<Long, Acc> done = e.getValue().headMap(before);
+                for (Map.Entry<Long, Acc> m : done.entrySet()) {
+                    records.add(new PatientMinute(e.getKey(), m.getValue().toRecord(m.getKey())));
+                }
+                done.clear();
+                if (e.getValue().isEmpty()) it.remove();
+            }
+            closedBefore = before;
+        }
+
+        // only minutes that have ended by the watermark
+        List<Long> all = new ArrayList<>(recomputeAll.headSet(before));
+        recomputeAll.headSet(before).clear();
+        SortedMap<Long, Set<String>> duePatients = recomputePatients.headMap(before);
+        Map<Long, Set<String>> patients = new TreeMap<>(duePatients);
+        duePatients.clear();
+        return new Closed(records, all, patients);
+    }
+
+    /**
+     * Every minute starting before this is closed and has no recompute pending; the
+     * caller has written everything {@link #advance} returned up to here.
+     */
+    public synchronized long completedBefore() {
+        long m = closedBefore;
+        if (!recomputeAll.isEmpty()) m = Math.min(m, recomputeAll.first());
+        if (!recomputePatients.isEmpty()) m = Math.min(m, recomputePatients.firstKey());
+        return m;
+    }
+
+    /** Minutes with at least one open accumulator. */
+    public synchronized int openMinutes() {
+        int n = 0;
+        for (TreeMap<Long, Acc> m : open.values()) n += m.size();
+        return n;
+    }
+
+    public synchronized long accepted() { return accepted; }
+    public synchronized long duplicates() { return duplicates; }
+    public synchronized long late() { return late; }
+    public synchronized long future() { return future; }
+}
@@ -4,10 +4,29 @@ import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 
 import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.SQLException;
 
 public final class Db {
 
+    /**
+     * Connections in the Hikari pool ({@code RPM_DB_POOL_SIZE}, default 5); background
+     * jobs size their parallelism from it.
+     */
+    public static final int POOL_SIZE = envInt("RPM_DB_POOL_SIZE", 5, 2, 100);
+
+    /**
+     * PgJDBC {@code prepareThreshold} ({@code RPM_DB_PREPARE_THRESHOLD}): executions of
+     * an SQL string on a connection before it becomes a named server-side statement,
+     * parsed and planned once. The driver keys its statement cache by SQL text, so a
+     * DAO that prepares per call still reuses it on the same pooled connection. 0 turns
+     * server-side preparing off.
+     */
+    public static final int PREPARE_THRESHOLD = envInt("RPM_DB_PREPARE_THRESHOLD", 1, 0, 1000);
+
+    /** SQL strings per connection in the driver's statement cache ({@code RPM_DB_STATEMENT_CACHE}). */
+    public static final int STATEMENT_CACHE_QUERIES = envInt("RPM_DB_STATEMENT_CACHE", 256, 0, 10_000);
+
     private static volatile HikariDataSource ds;
 
     private Db() {}
@@ -34,26 +53,14 @@ public final class Db {
                 throw new SQLException("Missing PG* env vars. Is Postgres service bound to this app?");
             }
 
-            String host = System.getenv("PGHOST");
-            String port = System.getenv("PGPORT");
-            String db   = System.getenv("PGDATABASE");
-            String user = System.getenv("PGUSER");
-            String pass = System.getenv("PGPASSWORD");
-
-            String jdbcUrl = "jdbc:postgresql://" + host + ":" + port + "/" + db
-                    + "?sslmode=require"
-                    + "&connectTimeout=5"
-                    + "&socketTimeout=10"
-                    + "&tcpKeepAlive=true";
-
             HikariConfig cfg = new HikariConfig();
             cfg.setDriverClassName("org.postgresql.Driver");
 
-            cfg.setJdbcUrl(jdbcUrl);
-            cfg.setUsername(user);
-            cfg.setPassword(pass);
+            cfg.setJdbcUrl(jdbcUrl(PREPARE_THRESHOLD));
+            cfg.setUsername(System.getenv("PGUSER"));
+            cfg.setPassword(System.getenv("PGPASSWORD"));
 
-            cfg.setMaximumPoolSize(5);
+            cfg.setMaximumPoolSize(POOL_SIZE);
             cfg.setMinimumIdle(0);
 
             cfg.setConnectionTimeout(5000);
@@ -69,10 +76,52 @@ public final class Db {
         }
     }
 
+    private static String jdbcUrl(int prepareThreshold) {
+        return connectionUrl()
+                // lets the driver send a JDBC batch of INSERTs as multi-row statements
+                + "&reWriteBatchedInserts=true"
+                + "&prepareThreshold=" + prepareThreshold
+                + "&preparedStatementCacheQueries=" + STATEMENT_CACHE_QUERIES;
+    }
+
+    /** Where and how to connect, with the driver's defaults for everything else. */
+    private static String connectionUrl() {
+        String host = System.getenv("PGHOST");
+        String port = System.getenv("PGPORT");
+        String db   = System.getenv("PGDATABASE");
+
+        return "jdbc:postgresql://" + host + ":" + port + "/" + db
+                + "?sslmode=require"
+                + "&connectTimeout=5"
+                + "&socketTimeout=10"
+                + "&tcpKeepAlive=true";
+    }
+
+    private static int envInt(String name, int def, int min, int max) {
+        String v = System.getenv(name);
+        if (v == null || v.isBlank()) return def;
+        try {
+            return Math.max(min, Math.min(max, Integer.parseInt(v.trim())));
+        } catch (NumberFormatException e) {
+            System.err.println("[Db] ignoring " + name + "=" + v + ", using " + def);
+            return def;
+        }
+    }
+
     public static Connection getConnection() throws SQLException {
         return dataSource().getConnection();
     }
 
+    /**
+     * A connection outside the pool with the driver's default statement settings
+     * rather than the pool's, for comparing against. The caller closes it.
+     */
+    static Connection unpooled() throws SQLException {
+        if (!hasPgEnv()) throw new SQLException("Missing PG* env vars. Is Postgres service bound to this app?");
+        return DriverManager.getConnection(connectionUrl(),
+                System.getenv("PGUSER"), System.getenv("PGPASSWORD"));
+    }
+
     public static void close() {
         HikariDataSource tmp = ds;
         ds = null;
@@ -1,6 +1,7 @@
 package rpm.db;
 
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.Statement;
 
 public final class DbInit {
@@ -23,19 +24,62 @@ public final class DbInit {
                             ")"
             );
 
-            // vital_samples
+            // vital_samples: daily range partitions on ts_ms, so retention drops whole
+            // days (see VitalPartitions); a pre-partitioning table is kept as a partition
+            long now = System.currentTimeMillis();
+            c.setAutoCommit(false);
+            try {
+                VitalPartitions.createParent(c,
+                        "patient_id TEXT NOT NULL," +
+                                "ts_ms BIGINT NOT NULL," +
+                                // keep names consistent with VitalSampleDao / API payload
+                                "body_temp DOUBLE PRECISION," +
+                                "heart_rate DOUBLE PRECISION," +
+                                "respiratory_rate DOUBLE PRECISION," +
+                                "systolic_bp DOUBLE PRECISION," +
+                                "diastolic_bp DOUBLE PRECISION," +
+                                "ecg_value DOUBLE PRECISION," +
+                                "PRIMARY KEY (patient_id, ts_ms)",
+                        now
+                );
+                c.commit();
+            } catch (Exception e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+            // all-patient time-range scans (set-based minute catch-up); rows arrive in
+            // roughly ts order, so a BRIN index stays tiny. Created on the parent, it is
+            // built on every partition.
+            st.executeUpdate("CREATE INDEX IF NOT EXISTS vital_samples_ts_brin ON vital_samples USING BRIN (ts_ms)");
+            VitalPartitions.ensure(c, now);
+
+            // vital_chunks: closed minutes of vital_samples, compressed per patient
+            // (see VitalChunkDao); first/last ts let range scans skip whole chunks
             st.executeUpdate(
-                    "CREATE TABLE IF NOT EXISTS vital_samples (" +
+                    "CREATE TABLE IF NOT EXISTS vital_chunks (" +
                             "patient_id TEXT NOT NULL," +
-                            "ts_ms BIGINT NOT NULL," +
-                            // keep names consistent with VitalSampleDao / API payload
-                            "body_temp DOUBLE PRECISION," +
-                            "heart_rate DOUBLE PRECISION," +
-                            "respiratory_rate DOUBLE PRECISION," +
-                            "systolic_bp DOUBLE PRECISION," +
-                            "diastolic_bp DOUBLE PRECISION," +
-                            "ecg_value DOUBLE PRECISION," +
-                            "PRIMARY KEY (patient_id, ts_ms)" +
+                            "chunk_start_ms BIGINT NOT NULL," +
+                            "first_ts_ms BIGINT NOT NULL," +
+                            "last_ts_ms BIGINT NOT NULL," +
+                            "sample_count INT NOT NULL," +
+                            "data BYTEA NOT NULL," +
+                            "PRIMARY KEY (patient_id, chunk_start_ms)" +
+                            ")"
+            );
+            // chunks are already compressed: keep TOAST from trying again
+            st.executeUpdate("ALTER TABLE vital_chunks ALTER COLUMN data SET STORAGE EXTERNAL");
+            // retention deletes by time across all patients
+            st.executeUpdate("CREATE INDEX IF NOT EXISTS vital_chunks_start_brin ON vital_chunks USING BRIN (chunk_start_ms)");
+
+            // aggregation_watermarks: per background job, everything before
+            // completed_before_ms is written (see MinuteAggregationService)
+            st.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS aggregation_watermarks (" +
+                            "job TEXT PRIMARY KEY," +
+                            "completed_before_ms BIGINT NOT NULL," +
+                            "updated_at_ms BIGINT NOT NULL" +
                             ")"
             );
 
@@ -55,7 +99,7 @@ public final class DbInit {
             );
 
             // abnormal_events: keep names consistent with AbnormalEventDao / API
-            // Use a composite PK so we can safely 'insert if not exists' without duplicates.
+            // The composite PK lets inserts skip duplicates with ON CONFLICT DO NOTHING.
             st.executeUpdate(
                     "CREATE TABLE IF NOT EXISTS abnormal_events (" +
                             "patient_id TEXT NOT NULL," +
@@ -67,6 +111,46 @@ public final class DbInit {
                             "PRIMARY KEY (patient_id, timestamp_ms, vital_type)" +
                             ")"
             );
+            // inserts rely on that key for ON CONFLICT; a table from before it existed
+            // is de-duplicated once and given it
+            st.executeUpdate(
+                    "DO $$ BEGIN " +
+                            "IF NOT EXISTS (SELECT 1 FROM pg_constraint " +
+                            "WHERE conrelid = 'abnormal_events'::regclass AND contype = 'p') THEN " +
+                            "DELETE FROM abnormal_events a USING abnormal_events b " +
+                            "WHERE a.ctid < b.ctid AND a.patient_id = b.patient_id " +
+                            "AND a.timestamp_ms = b.timestamp_ms AND a.vital_type = b.vital_type; " +
+                            "ALTER TABLE abnormal_events ADD PRIMARY KEY (patient_id, timestamp_ms, vital_type); " +
+                            "END IF; END $$"
+            );
+
+            // patient_keys: INT surrogate per patient_id (interned by PatientDao.key).
+            // minute_averages and abnormal_events gain it next to the TEXT id, and
+            // abnormal_events SMALLINT codes next to the enum names. Writers fill both;
+            // reads move over once PatientKeyMigration has keyed the older rows.
+            st.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS patient_keys (" +
+                            "patient_key SERIAL PRIMARY KEY," +
+                            "patient_id TEXT NOT NULL UNIQUE" +
+                            ")"
+            );
+            st.executeUpdate("ALTER TABLE minute_averages ADD COLUMN IF NOT EXISTS patient_key INT");
+            st.executeUpdate("ALTER TABLE abnormal_events " +
+                    "ADD COLUMN IF NOT EXISTS patient_key INT, " +
+                    "ADD COLUMN IF NOT EXISTS vital_code SMALLINT, " +
+                    "ADD COLUMN IF NOT EXISTS level_code SMALLINT");
+
+            // schema_migrations: data migrations that have completed
+            st.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS schema_migrations (" +
+                            "name TEXT PRIMARY KEY," +
+                            "completed_at_ms BIGINT NOT NULL" +
+                            ")"
+            );
+            try (ResultSet rs = st.executeQuery(
+                    "SELECT 1 FROM schema_migrations WHERE name = '" + SchemaLayout.PATIENT_KEYS + "'")) {
+                SchemaLayout.usePatientKeys(rs.next());
+            }
         }
     }
 }
@@ -0,0 +1,62 @@
+package rpm.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One pooled connection plus the statements prepared on it, for code that runs the
+ * same SQL many times in a row (e.g. a loop over patients or minutes).
+ *
+ * <p>{@link #statement} prepares an SQL string once per session and hands the same
+ * {@link PreparedStatement} back on later calls, so a hot loop neither re-prepares
+ * nor re-parses. Everything is closed with the session. Not thread-safe: one thread
+ * per session, like the connection itself.
+ */
+public final class DbSession implements AutoCloseable {
+
+    private final Connection c;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+    public DbSession(Connection c) {
+        this.c = c;
+    }
+
+    /** A session on a connection borrowed from {@link Db}. */
+    public static DbSession open() throws SQLException {
+        return new DbSession(Db.getConnection());
+    }
+
+    public Connection connection() {
+        return c;
+    }
+
+    /**
+     * The statement for {@code sql} on this session's connection, prepared on first
+     * use. Parameters left from the previous use are cleared; do not close it.
+     */
+    public PreparedStatement statement(String sql) throws SQLException {
+        PreparedStatement ps = statements.get(sql);
+        if (ps == null) {
+            ps = c.prepareStatement(sql);
+            statements.put(sql, ps);
+        } else {
+            ps.clearParameters();
+        }
+        return ps;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            for (PreparedStatement ps : statements.values()) {
+                try { ps.close(); } catch (SQLException ignored) {}
+            }
+            statements.clear();
+        } finally {
+            c.close();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package rpm.db;
+
+import rpm.metrics.LatencyHistogram;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide timing and row counts per named query, for the health page.
+ *
+ * <p>DAOs wrap the execute of their hot statements:
+ * <pre>
+ *   long t0 = System.nanoTime();
+ *   int n = ps.executeUpdate();
+ *   QueryMetrics.record("abnormal.insertAll", t0, n);
+ * </pre>
+ * Names are a fixed set of constants, so the map stays small.
+ */
+public final class QueryMetrics {
+
+    private static final class Stats {
+        final LatencyHistogram latency;
+        final LongAdder rows = new LongAdder();
+
+        Stats(String name) {
+            this.latency = new LatencyHistogram(name);
+        }
+    }
+
+    private static final Map<String, Stats> STATS = new ConcurrentHashMap<>();
+
+    private QueryMetrics() {}
+
+    /** One execution of {@code name} that started at {@code startNanos} and touched {@code rows} rows. */
+    public static void record(String name, long startNanos, long rows) {
+        Stats s = STATS.computeIfAbsent(name, Stats::new);
+        s.latency.recordMicros((System.nanoTime() - startNanos) / 1000);
+        if (rows > 0) s.rows.add(rows);
+    }
+
+    public static long count(String name) {
+        Stats s = STATS.get(name);
+        return s == null ? 0 : s.latency.count();
+    }
+
+    public static long rows(String name) {
+        Stats s = STATS.get(name);
+        return s == null ? 0 : s.rows.sum();
+    }
+
+    /** One line per query, sorted by name. */
+    public static String summary() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Stats> e : new TreeMap<>(STATS).entrySet()) {
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(e.getValue().latency.summary()).append(" rows=").append(e.getValue().rows.sum());
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,28 @@
+package rpm.db;
+
+/**
+ * Which layout the DAOs read while the integer patient keys are being introduced.
+ *
+ * <p>Writers always fill both: the TEXT {@code patient_id} / enum names and the
+ * {@code patient_key} / SMALLINT codes. Reads stay on the TEXT columns until every
+ * existing row has been given its keys (see {@code PatientKeyMigration}), then switch
+ * to the keyed indexes for good.
+ */
+public final class SchemaLayout {
+
+    /** {@code schema_migrations} entry written once the backfill is complete. */
+    public static final String PATIENT_KEYS = "patient_keys";
+
+    private static volatile boolean patientKeys;
+
+    private SchemaLayout() {}
+
+    /** True once reads may filter on {@code patient_key} and decode the codes. */
+    public static boolean patientKeys() {
+        return patientKeys;
+    }
+
+    public static void usePatientKeys(boolean on) {
+        patientKeys = on;
+    }
+}
@@ -0,0 +1,207 @@
+package rpm.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Daily range partitions of {@code vital_samples} on {@code ts_ms} (UTC days).
+ *
+ * <p>Each day is its own table {@code vital_samples_pYYYYMMDD}, created a few days
+ * ahead, so expired data goes with a {@code DROP TABLE} instead of a {@code DELETE}
+ * scan. Rows outside every daily partition (very late or far-future samples) land in
+ * {@code vital_samples_default}. A table from before partitioning stays attached as
+ * {@code vital_samples_legacy}, covering everything up to its last day (today at
+ * the latest), and is dropped like a day once all of it has expired.
+ */
+public final class VitalPartitions {
+
+    public static final long DAY_MS = 24 * 3_600_000L;
+    /** Days created ahead of today, so writes never wait for the maintenance job. */
+    public static final int PRECREATE_DAYS = 3;
+
+    static final String PARENT = "vital_samples";
+    static final String DEFAULT_PARTITION = PARENT + "_default";
+    static final String LEGACY_PARTITION = PARENT + "_legacy";
+
+    private static final DateTimeFormatter DAY = DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneOffset.UTC);
+    private static final Pattern UPPER_BOUND = Pattern.compile("TO \\('?(-?\\d+|MAXVALUE)'?\\)");
+
+    private static final String PARTITIONS_SQL =
+            "SELECT c.relname, pg_get_expr(c.relpartbound, c.oid) " +
+                    "FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+                    "WHERE i.inhparent = '" + PARENT + "'::regclass";
+
+    private VitalPartitions() {}
+
+    /** UTC midnight at or before {@code ms}. */
+    public static long dayStart(long ms) {
+        return Math.floorDiv(ms, DAY_MS) * DAY_MS;
+    }
+
+    /** Name of the partition for the UTC day starting at {@code dayStartMs}. */
+    static String partitionName(long dayStartMs) {
+        return PARENT + "_p" + DAY.format(Instant.ofEpochMilli(dayStartMs));
+    }
+
+    /**
+     * Upper bound of a partition from its {@code pg_get_expr(relpartbound)} text,
+     * e.g. {@code FOR VALUES FROM (MINVALUE) TO (1700006400000)}; {@code Long.MAX_VALUE}
+     * for MAXVALUE and for the default partition, which never expires as a whole.
+     */
+    static long upperBound(String bound) {
+        if (bound == null) return Long.MAX_VALUE;
+        Matcher m = UPPER_BOUND.matcher(bound);
+        if (!m.find() || m.group(1).equals("MAXVALUE")) return Long.MAX_VALUE;
+        return Long.parseLong(m.group(1));
+    }
+
+    // ---------- schema ----------
+
+    /**
+     * Creates the partitioned table, or turns an existing plain {@code vital_samples}
+     * into its legacy partition. {@code columns} is the column and key list of
+     * {@code CREATE TABLE}. The legacy partition ends with the day of its newest row
+     * but no later than the day of {@code nowMs}; rows past that (clock skew, bad
+     * device timestamps) move to the default partition, so a far-future sample cannot
+     * stretch the legacy range over days that should get their own partitions.
+     * Call with autocommit off; the caller commits.
+     */
+    static void createParent(Connection c, String columns, long nowMs) throws SQLException {
+        String kind = null;
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery(
+                     "SELECT relkind FROM pg_class WHERE oid = to_regclass('" + PARENT + "')")) {
+            if (rs.next()) kind = rs.getString(1);
+        }
+        if ("p".equals(kind)) return;
+
+        try (Statement st = c.createStatement()) {
+            long legacyEnd = 0;
+            if (kind != null) {
+                // free the names the partitioned table and its indexes will use
+                st.executeUpdate("ALTER TABLE " + PARENT + " RENAME TO " + LEGACY_PARTITION);
+                st.executeUpdate("ALTER TABLE " + LEGACY_PARTITION + " RENAME CONSTRAINT "
+                        + PARENT + "_pkey TO " + LEGACY_PARTITION + "_pkey");
+                st.executeUpdate("ALTER INDEX IF EXISTS " + PARENT + "_ts_brin RENAME TO " + LEGACY_PARTITION + "_ts_brin");
+                try (ResultSet rs = st.executeQuery("SELECT MAX(ts_ms) FROM " + LEGACY_PARTITION)) {
+                    if (rs.next() && rs.getObject(1) != null) {
+                        legacyEnd = Math.min(dayStart(rs.getLong(1)), dayStart(nowMs)) + DAY_MS;
+                    }
+                }
+            }
+
+            st.executeUpdate("CREATE TABLE " + PARENT + " (" + columns + ") PARTITION BY RANGE (ts_ms)");
+            st.executeUpdate("CREATE TABLE IF NOT EXISTS " + DEFAULT_PARTITION + " PARTITION OF " + PARENT + " DEFAULT");
+            if (kind != null) {
+                legacyEnd = Math.max(legacyEnd, 1);
+                String beyond = " WHERE ts_ms >= " + legacyEnd;
+                st.executeUpdate("INSERT INTO " + DEFAULT_PARTITION + " SELECT * FROM " + LEGACY_PARTITION + beyond);
+                st.executeUpdate("DELETE FROM " + LEGACY_PARTITION + beyond);
+                // one scan to validate the bound; daily partitions start where it ends
+                st.executeUpdate("ALTER TABLE " + PARENT + " ATTACH PARTITION " + LEGACY_PARTITION
+                        + " FOR VALUES FROM (MINVALUE) TO (" + legacyEnd + ")");
+            }
+        }
+    }
+
+    // ---------- maintenance ----------
+
+    /**
+     * Makes sure the partitions for yesterday through {@code PRECREATE_DAYS} after
+     * {@code nowMs} exist; days already covered (e.g. by the legacy partition) are
+     * skipped. Returns the partitions created.
+     */
+    public static List<String> ensure(Connection c, long nowMs) throws SQLException {
+        long covered = coveredUntil(c);
+        List<String> created = new ArrayList<>();
+        long today = dayStart(nowMs);
+        for (long day = today - DAY_MS; day <= today + PRECREATE_DAYS * DAY_MS; day += DAY_MS) {
+            if (day < covered) continue;
+            if (create(c, day)) created.add(partitionName(day));
+        }
+        return created;
+    }
+
+    /**
+     * Drops every partition whose range ends at or before {@code cutoffMs} and deletes
+     * the expired rows of the default partition. Returns the partitions dropped.
+     */
+    public static List<String> dropExpired(Connection c, long cutoffMs) throws SQLException {
+        List<String> dropped = new ArrayList<>();
+        try (Statement st = c.createStatement()) {
+            for (String[] p : partitions(c)) {
+                if (upperBound(p[1]) > cutoffMs) continue;
+                st.executeUpdate("DROP TABLE IF EXISTS " + p[0]);
+                dropped.add(p[0]);
+            }
+        }
+        try (PreparedStatement ps = c.prepareStatement("DELETE FROM " + DEFAULT_PARTITION + " WHERE ts_ms < ?")) {
+            ps.setLong(1, cutoffMs);
+            ps.executeUpdate();
+        }
+        return dropped;
+    }
+
+    /** Highest upper bound below MAXVALUE among the range partitions; 0 if there are none. */
+    private static long coveredUntil(Connection c) throws SQLException {
+        long covered = 0;
+        for (String[] p : partitions(c)) {
+            long upper = upperBound(p[1]);
+            if (upper != Long.MAX_VALUE) covered = Math.max(covered, upper);
+        }
+        return covered;
+    }
+
+    /** (name, bound expression) of every partition. */
+    private static List<String[]> partitions(Connection c) throws SQLException {
+        List<String[]> out = new ArrayList<>();
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery(PARTITIONS_SQL)) {
+            while (rs.next()) out.add(new String[]{rs.getString(1), rs.getString(2)});
+        }
+        return out;
+    }
+
+    /**
+     * Creates one day's partition, moving any rows the default partition already holds
+     * for it, since Postgres refuses the new bound while they are there. Returns false
+     * if it already exists.
+     */
+    private static boolean create(Connection c, long dayStartMs) throws SQLException {
+        String name = partitionName(dayStartMs);
+        long endMs = dayStartMs + DAY_MS;
+        boolean auto = c.getAutoCommit();
+        c.setAutoCommit(false);
+        try (Statement st = c.createStatement()) {
+            try (ResultSet rs = st.executeQuery("SELECT to_regclass('" + name + "')")) {
+                if (rs.next() && rs.getString(1) != null) {
+                    c.rollback();
+                    return false;
+                }
+            }
+            st.executeUpdate("CREATE TABLE " + name + " (LIKE " + PARENT + " INCLUDING DEFAULTS INCLUDING STORAGE)");
+            String range = " WHERE ts_ms >= " + dayStartMs + " AND ts_ms < " + endMs;
+            st.executeUpdate("INSERT INTO " + name + " SELECT * FROM " + DEFAULT_PARTITION + range);
+            st.executeUpdate("DELETE FROM " + DEFAULT_PARTITION + range);
+            st.executeUpdate("ALTER TABLE " + PARENT + " ATTACH PARTITION " + name
+                    + " FOR VALUES FROM (" + dayStartMs + ") TO (" + endMs + ")");
+            c.commit();
+            return true;
+        } catch (SQLException e) {
+            try { c.rollback(); } catch (Exception ignored) {}
+            throw e;
+        } finally {
+            try { c.setAutoCommit(auto); } catch (Exception ignored) {}
+        }
+    }
+}
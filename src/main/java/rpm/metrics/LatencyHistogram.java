@@ -0,0 +1,107 @@
+package rpm.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative durations in microseconds.
+ *
+ * <p>Values fall into power-of-two buckets ([0,1], (1,2], (2,4], ...), so recording is
+ * a couple of atomic increments and percentiles are reported as the upper bound of
+ * the bucket that contains them (at most 2x the true value). Safe to record from
+ * many threads while another thread reads or resets.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public void recordMicros(long micros) {
+        long v = Math.max(0, micros);
+        counts.incrementAndGet(bucketOf(v));
+        total.increment();
+        sum.add(v);
+        long m;
+        while (v > (m = max.get()) && !max.compareAndSet(m, v)) {
+            // retry until we win or someone recorded a larger value
+        }
+    }
+
+    public void recordMillis(long millis) {
+        recordMicros(millis * 1000L);
+    }
+
+    public long count() {
+        return total.sum();
+    }
+
+    public long maxMicros() {
+        return max.get();
+    }
+
+    public double meanMicros() {
+        long n = total.sum();
+        return n == 0 ? 0 : sum.sum() / (double) n;
+    }
+
+    /**
+     * Upper bound of the bucket holding the {@code p}-th percentile (0 < p <= 100),
+     * capped at the observed maximum; 0 if nothing was recorded.
+     */
+    public long percentileMicros(double p) {
+        long n = 0;
+        long[] snap = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snap[i] = counts.get(i);
+            n += snap[i];
+        }
+        if (n == 0) return 0;
+
+        long rank = (long) Math.ceil(n * Math.min(100, Math.max(0, p)) / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snap[i];
+            if (seen >= Math.max(1, rank)) return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    /** Clears all counts (e.g. after each periodic log line). */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        total.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    /** One-line summary in milliseconds, for logs. */
+    public String summary() {
+        return String.format("%s n=%d mean=%.2fms p50<=%.2fms p99<=%.2fms p99.9<=%.2fms max=%.2fms",
+                name, count(), meanMicros() / 1000.0,
+                percentileMicros(50) / 1000.0, percentileMicros(99) / 1000.0,
+                percentileMicros(99.9) / 1000.0, maxMicros() / 1000.0);
+    }
+
+    private static int bucketOf(long v) {
+        // bucket i holds (2^(i-1), 2^i]; bucket 0 holds 0 and 1
+        return v <= 1 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(v - 1));
+    }
+
+    private static long upperBound(int bucket) {
+        return bucket >= 62 ? Long.MAX_VALUE : 1L << bucket;
+    }
+}
@@ -0,0 +1,6 @@
+/**
+ * Runtime metrics.
+
+ Lock-free counters and histograms that background pipelines update and log periodically.
+ */
+package rpm.metrics;
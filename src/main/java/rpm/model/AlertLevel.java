@@ -1,5 +1,23 @@
 package rpm.model;
 
 public enum AlertLevel {
-    NORMAL, WARNING, URGENT
+    NORMAL(0), WARNING(1), URGENT(2);
+
+    private final short code;
+
+    AlertLevel(int code) {
+        this.code = (short) code;
+    }
+
+    /** Stored SMALLINT code; fixed per constant, unlike the ordinal. */
+    public short code() {
+        return code;
+    }
+
+    public static AlertLevel fromCode(int code) {
+        for (AlertLevel l : values()) {
+            if (l.code == code) return l;
+        }
+        throw new IllegalArgumentException("unknown alert level code " + code);
+    }
 }
@@ -0,0 +1,44 @@
+package rpm.model;
+
+import java.util.Objects;
+
+/**
+ * A vital sample tagged with the patient it belongs to; the unit of work for
+ * batched persistence.
+ */
+public final class PatientSample {
+
+    private final String patientId;
+    private final VitalSample sample;
+
+    public PatientSample(String patientId, VitalSample sample) {
+        this.patientId = Objects.requireNonNull(patientId, "patientId");
+        this.sample = Objects.requireNonNull(sample, "sample");
+    }
+
+    public String patientId() {
+        return patientId;
+    }
+
+    public VitalSample sample() {
+        return sample;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PatientSample)) return false;
+        PatientSample that = (PatientSample) o;
+        return patientId.equals(that.patientId) && sample.equals(that.sample);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(patientId, sample);
+    }
+
+    @Override
+    public String toString() {
+        return "PatientSample{patientId='" + patientId + "', sample=" + sample + '}';
+    }
+}
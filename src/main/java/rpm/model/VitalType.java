@@ -1,10 +1,33 @@
 package rpm.model;
 
 public enum VitalType {
-    BODY_TEMPERATURE,
-    HEART_RATE,
-    RESPIRATORY_RATE,
-    SYSTOLIC_BP,
-    DIASTOLIC_BP,
-    ECG
+    BODY_TEMPERATURE(1),
+    HEART_RATE(2),
+    RESPIRATORY_RATE(3),
+    SYSTOLIC_BP(4),
+    DIASTOLIC_BP(5),
+    ECG(6);
+
+    private static final VitalType[] BY_CODE = new VitalType[7];
+
+    static {
+        for (VitalType t : values()) BY_CODE[t.code] = t;
+    }
+
+    private final short code;
+
+    VitalType(int code) {
+        this.code = (short) code;
+    }
+
+    /** Stored SMALLINT code; fixed per constant, unlike the ordinal. */
+    public short code() {
+        return code;
+    }
+
+    public static VitalType fromCode(int code) {
+        VitalType t = code > 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+        if (t == null) throw new IllegalArgumentException("unknown vital code " + code);
+        return t;
+    }
 }
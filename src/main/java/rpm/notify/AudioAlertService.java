@@ -38,15 +38,17 @@ public class AudioAlertService {
         this.heartbeatEnabled = heartbeatEnabled;
     }
 
+    // called from every sampler shard thread, hence synchronized
+
     /** Call on logout to stop immediate “carry over” beeps */
-    public void reset() {
+    public synchronized void reset() {
         nextBeatMs = 0;
         lastAbnormalBeepMs = 0;
         suppressHeartbeatUntilMs = 0;
     }
 
     /** WARNING/URGENT: alarm sound only (distinct from heartbeat) */
-    public void onAbnormalEvents(List<AbnormalEvent> events, long nowMs) {
+    public synchronized void onAbnormalEvents(List<AbnormalEvent> events, long nowMs) {
         if (!enabled) return;
         if (events == null || events.isEmpty()) return;
 
@@ -75,7 +77,7 @@ public class AudioAlertService {
     }
 
     /** Normal: heartbeat only (distinct) */
-    public void onHeartRate(double hrBpm, long nowMs) {
+    public synchronized void onHeartRate(double hrBpm, long nowMs) {
         if (!enabled || !heartbeatEnabled) return;
 
         // suppressed while alarm is playing
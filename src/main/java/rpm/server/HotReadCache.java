@@ -0,0 +1,294 @@
+package rpm.server;
+
+import rpm.dao.AbnormalEventDao;
+import rpm.dao.MinuteAverageDao;
+import rpm.dao.VitalSampleDao;
+import rpm.data.AbnormalEvent;
+import rpm.data.MinuteRecord;
+import rpm.data.PatientMinute;
+import rpm.model.PatientSample;
+import rpm.model.VitalSample;
+
+import javax.servlet.ServletContext;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-patient cache behind the "latest" read APIs: the newest vital sample, the last
+ * {@code minutesPerPatient} minute averages and the last {@code eventsPerPatient}
+ * abnormal events.
+ *
+ * <p>A patient enters the cache on its first read, which loads from Postgres; from
+ * then on every write path (vital writer, minute aggregation, ingest servlets) pushes
+ * what it stored, so reads no longer need a connection. Writes never add patients:
+ * only reads decide what is hot, and at most {@code maxPatients} are kept, the least
+ * recently read evicted first. A writer that cannot say what it stored calls
+ * {@link #invalidate} instead.
+ *
+ * <p>A load and a concurrent write are merged, the write winning for the same key,
+ * so a load that read the table just before a write cannot hide it.
+ */
+public final class HotReadCache {
+
+    public static final int DEFAULT_MAX_PATIENTS = 1000;
+    public static final int DEFAULT_MINUTES = 60;
+    public static final int DEFAULT_EVENTS = 50;
+
+    private static final class PatientState {
+        VitalSample latest;
+        boolean latestLoaded;
+
+        final TreeMap<Long, MinuteRecord> minutes = new TreeMap<>();
+        boolean minutesLoaded;
+        // true while the table holds nothing older than the cached minutes
+        boolean minutesComplete;
+
+        // newest first; one per (timestamp, vital type), like the table
+        final List<AbnormalEvent> events = new ArrayList<>();
+        boolean eventsLoaded;
+        boolean eventsComplete;
+    }
+
+    private final VitalSampleDao vitalDao;
+    private final MinuteAverageDao minuteDao;
+    private final AbnormalEventDao abnormalDao;
+    private final int maxPatients;
+    private final int minutesPerPatient;
+    private final int eventsPerPatient;
+
+    // lookups for writes, which must not count as use
+    private final Map<String, PatientState> entries = new ConcurrentHashMap<>();
+    // read order; guarded by itself
+    private final LinkedHashMap<String, PatientState> lru;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public HotReadCache(VitalSampleDao vitalDao, MinuteAverageDao minuteDao, AbnormalEventDao abnormalDao) {
+        this(vitalDao, minuteDao, abnormalDao, DEFAULT_MAX_PATIENTS, DEFAULT_MINUTES, DEFAULT_EVENTS);
+    }
+
+    public HotReadCache(VitalSampleDao vitalDao, MinuteAverageDao minuteDao, AbnormalEventDao abnormalDao,
+                        int maxPatients, int minutesPerPatient, int eventsPerPatient) {
+        if (maxPatients <= 0) throw new IllegalArgumentException("maxPatients must be > 0");
+        if (minutesPerPatient <= 0) throw new IllegalArgumentException("minutesPerPatient must be > 0");
+        if (eventsPerPatient <= 0) throw new IllegalArgumentException("eventsPerPatient must be > 0");
+        this.vitalDao = vitalDao;
+        this.minuteDao = minuteDao;
+        this.abnormalDao = abnormalDao;
+        this.maxPatients = maxPatients;
+        this.minutesPerPatient = minutesPerPatient;
+        this.eventsPerPatient = eventsPerPatient;
+        this.lru = new LinkedHashMap<String, PatientState>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PatientState> eldest) {
+                if (size() <= HotReadCache.this.maxPatients) return false;
+                entries.remove(eldest.getKey(), eldest.getValue());
+                evictions.incrementAndGet();
+                return true;
+            }
+        };
+    }
+
+    /** The cache the bootstrap listener registered in {@code ctx}; null when it did not start one. */
+    public static HotReadCache from(ServletContext ctx) {
+        Object o = ctx.getAttribute(ServerBootstrapListener.CTX_READ_CACHE);
+        return o instanceof HotReadCache ? (HotReadCache) o : null;
+    }
+
+    // ---------- reads ----------
+
+    /** Newest stored sample of the patient, or null if there is none. */
+    public VitalSample latestSample(String patientId) {
+        PatientState e = touch(patientId);
+        synchronized (e) {
+            if (e.latestLoaded) {
+                hits.incrementAndGet();
+                return e.latest;
+            }
+        }
+        misses.incrementAndGet();
+        // the DAO reports a failed query as empty, so an empty answer is not cached
+        List<VitalSample> loaded = vitalDao.latest(patientId, 1);
+        synchronized (e) {
+            if (loaded.isEmpty()) return e.latest;
+            putLatest(e, loaded.get(0));
+            e.latestLoaded = true;
+            return e.latest;
+        }
+    }
+
+    /** Up to {@code limit} minute averages, newest first, like {@link MinuteAverageDao#latest}. */
+    public List<MinuteRecord> latestMinutes(String patientId, int limit) throws SQLException {
+        PatientState e = touch(patientId);
+        synchronized (e) {
+            if (e.minutesLoaded && (limit <= e.minutes.size() || e.minutesComplete)) {
+                hits.incrementAndGet();
+                return newestMinutes(e, limit);
+            }
+        }
+        misses.incrementAndGet();
+        // a longer history than the cache keeps goes straight to the table
+        if (limit > minutesPerPatient) return minuteDao.latest(patientId, limit);
+
+        List<MinuteRecord> loaded = minuteDao.latest(patientId, minutesPerPatient);
+        synchronized (e) {
+            for (MinuteRecord r : loaded) e.minutes.putIfAbsent(r.minuteStartMs(), r);
+            e.minutesComplete = loaded.size() < minutesPerPatient;
+            trimMinutes(e);
+            e.minutesLoaded = true;
+            return newestMinutes(e, limit);
+        }
+    }
+
+    /** Up to {@code limit} abnormal events, newest first, like {@link AbnormalEventDao#latest}. */
+    public List<AbnormalEvent> latestEvents(String patientId, int limit) throws SQLException {
+        PatientState e = touch(patientId);
+        synchronized (e) {
+            if (e.eventsLoaded && (limit <= e.events.size() || e.eventsComplete)) {
+                hits.incrementAndGet();
+                return new ArrayList<>(e.events.subList(0, Math.min(limit, e.events.size())));
+            }
+        }
+        misses.incrementAndGet();
+        if (limit > eventsPerPatient) return abnormalDao.latest(patientId, limit);
+
+        List<AbnormalEvent> loaded = abnormalDao.latest(patientId, eventsPerPatient);
+        synchronized (e) {
+            for (AbnormalEvent ev : loaded) addEvent(e, ev);
+            e.eventsComplete = loaded.size() < eventsPerPatient;
+            trimEvents(e);
+            e.eventsLoaded = true;
+            return new ArrayList<>(e.events.subList(0, Math.min(limit, e.events.size())));
+        }
+    }
+
+    // ---------- write-through ----------
+
+    /** Samples the vital writer has stored; fits {@link VitalSampleWriter#onWritten}. */
+    public void samplesWritten(List<PatientSample> rows) {
+        for (PatientSample row : rows) {
+            PatientState e = entries.get(row.patientId());
+            if (e == null) continue;
+            synchronized (e) {
+                putLatest(e, row.sample());
+            }
+        }
+    }
+
+    /** A minute average that was upserted. */
+    public void minuteWritten(String patientId, MinuteRecord r) {
+        PatientState e = entries.get(patientId);
+        if (e == null) return;
+        synchronized (e) {
+            e.minutes.put(r.minuteStartMs(), r);
+            trimMinutes(e);
+        }
+    }
+
+    public void minutesWritten(List<PatientMinute> rows) {
+        for (PatientMinute pm : rows) minuteWritten(pm.patientId(), pm.record());
+    }
+
+    /** An abnormal event that was inserted (or already existed). */
+    public void eventWritten(String patientId, AbnormalEvent ev) {
+        PatientState e = entries.get(patientId);
+        if (e == null) return;
+        synchronized (e) {
+            addEvent(e, ev);
+            trimEvents(e);
+        }
+    }
+
+    /** Drops what is cached for the patient; the next read loads it again. */
+    public void invalidate(String patientId) {
+        synchronized (lru) {
+            lru.remove(patientId);
+            entries.remove(patientId);
+        }
+    }
+
+    // ---------- metrics ----------
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long hits() { return hits.get(); }
+    public long misses() { return misses.get(); }
+    public long evictions() { return evictions.get(); }
+
+    public String summary() {
+        return "patients=" + size() + "/" + maxPatients
+                + " hits=" + hits.get()
+                + " misses=" + misses.get()
+                + " evictions=" + evictions.get();
+    }
+
+    // ---------- internals ----------
+
+    private PatientState touch(String patientId) {
+        synchronized (lru) {
+            PatientState e = lru.get(patientId);
+            if (e == null) {
+                e = new PatientState();
+                entries.put(patientId, e);
+                lru.put(patientId, e);
+            }
+            return e;
+        }
+    }
+
+    private static void putLatest(PatientState e, VitalSample s) {
+        if (e.latest == null || s.timestampMs() >= e.latest.timestampMs()) e.latest = s;
+    }
+
+    private void trimMinutes(PatientState e) {
+        while (e.minutes.size() > minutesPerPatient) {
+            e.minutes.pollFirstEntry();
+            e.minutesComplete = false;
+        }
+    }
+
+    private static List<MinuteRecord> newestMinutes(PatientState e, int limit) {
+        List<MinuteRecord> out = new ArrayList<>(Math.min(limit, e.minutes.size()));
+        NavigableMap<Long, MinuteRecord> desc = e.minutes.descendingMap();
+        for (MinuteRecord r : desc.values()) {
+            if (out.size() >= limit) break;
+            out.add(r);
+        }
+        return out;
+    }
+
+    /**
+     * Inserts in the table's newest-first order (timestamp, then vital code, both
+     * descending); an existing (timestamp, type) is kept, as the table does.
+     */
+    private static void addEvent(PatientState e, AbnormalEvent ev) {
+        int i = 0;
+        for (; i < e.events.size(); i++) {
+            AbnormalEvent cur = e.events.get(i);
+            if (cur.timestampMs() < ev.timestampMs()) break;
+            if (cur.timestampMs() > ev.timestampMs()) continue;
+            int c = Short.compare(cur.vitalType().code(), ev.vitalType().code());
+            if (c == 0) return;
+            if (c < 0) break;
+        }
+        e.events.add(i, ev);
+    }
+
+    private void trimEvents(PatientState e) {
+        while (e.events.size() > eventsPerPatient) {
+            e.events.remove(e.events.size() - 1);
+            e.eventsComplete = false;
+        }
+    }
+}
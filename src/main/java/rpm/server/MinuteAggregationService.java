@@ -2,34 +2,159 @@ package rpm.server;
 
 import rpm.alert.AlertEngine;
 import rpm.dao.AbnormalEventDao;
+import rpm.dao.AggregationWatermarkDao;
 import rpm.dao.MinuteAverageDao;
+import rpm.dao.PatientDao;
 import rpm.dao.VitalSampleDao;
+import rpm.dao.VitalSampleVisitor;
 import rpm.data.AbnormalEvent;
 import rpm.data.MinuteRecord;
+import rpm.data.PatientEvent;
+import rpm.data.PatientMinute;
+import rpm.data.WatermarkMinuteAggregator;
+import rpm.db.Db;
+import rpm.metrics.LatencyHistogram;
 import rpm.model.AlertLevel;
+import rpm.model.PatientSample;
 import rpm.model.VitalType;
-import rpm.model.VitalSample;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Server-side minute averages and abnormal events, computed incrementally.
+ *
+ * <p>Stored samples are fed in by {@link VitalSampleWriter#onWritten} via
+ * {@link #accept}; a {@link WatermarkMinuteAggregator} keeps the open minutes in
+ * memory. Every few seconds the watermark moves to {@code now - GRACE_MS} and each
+ * minute behind it is written exactly once.
+ *
+ * <p>Writes fan out over a pool sized to the Hikari pool: patients are split across
+ * the workers, each worker holds one connection, and each patient's minute upserts
+ * and abnormal events commit together in one transaction.
+ *
+ * <p>Minutes the accumulators cannot vouch for (the one the service started in, and
+ * any whose flush or catch-up write failed) are recomputed for all patients with a
+ * single set-based {@code INSERT ... SELECT ... GROUP BY} over vital_samples. A late
+ * sample recomputes only its own patient-minute, from rows and chunks alike, and a
+ * failed late minute is retried the same way: it is behind the watermark, so the
+ * compactor may already have moved its rows into vital_chunks. A failed minute stays
+ * queued, and holds the watermark back, until it is written.
+ *
+ * <p>The minute before which everything is written is persisted as a watermark. On
+ * start-up the minutes between the saved watermark and now (a restart or outage) are
+ * queued for the same recompute, which then runs in chunks of consecutive minutes on
+ * a small pool, a few chunks at a time. {@link #completedBeforeMs()} also holds back
+ * {@link VitalChunkCompactor}, so those rows are still in vital_samples when read.
+ */
 public final class MinuteAggregationService {
 
-    private final VitalSampleDao vitalDao;
-    private final MinuteAverageDao minuteDao;
-    private final AbnormalEventDao abnormalDao;
-    private final List<String> patientIds;
+    /** How long a minute stays open after it ends, for samples still in the writer queue. */
+    public static final long GRACE_MS = 10_000L;
+    private static final long TICK_MS = 5_000L;
+    private static final int MAX_SAMPLES_PER_MINUTE = 5000;
+
+    /** Name of this job's row in aggregation_watermarks. */
+    public static final String WATERMARK_JOB = "minute_averages";
+    // a gap longer than this after a restart is not backfilled automatically
+    private static final long MAX_BACKFILL_MS = 24 * 60 * 60_000L;
+    // one set-based statement covers at most this many consecutive minutes
+    private static final int CHUNK_MINUTES = 10;
+    // per tick, so fresh minutes are not held up behind a long backfill
+    private static final int MAX_CHUNKS_PER_TICK = 32;
+
+    /** Everything the service reads and writes; the database outside of tests. */
+    interface Store {
+        /** The saved watermark, or {@link AggregationWatermarkDao#NONE}. */
+        long loadWatermark() throws SQLException;
+
+        void saveWatermark(long completedBeforeMs) throws SQLException;
+
+        /** Recomputes and upserts every patient's minutes starting in {@code [fromMs, toMs)}. */
+        List<PatientMinute> aggregate(long fromMs, long toMs) throws SQLException;
+
+        /** Re-reads one patient-minute; null if it has no samples. */
+        PatientMinute recompute(String patientId, long minuteStartMs) throws SQLException;
+
+        /** A writer holding one connection, for one pool worker. */
+        Writer writer(boolean upsert) throws SQLException;
+    }
+
+    /** Per-patient transactions on one connection. */
+    interface Writer extends AutoCloseable {
+        /**
+         * Commits the patient's minute upserts (when the writer upserts) and events
+         * together, or rolls both back and throws.
+         */
+        void write(String patientId, List<MinuteRecord> minutes, List<PatientEvent> events) throws SQLException;
+
+        @Override
+        void close() throws SQLException;
+    }
+
+    private final Store store;
+    private final WatermarkMinuteAggregator aggregator;
+    private final long startMinute;
+    // leave pool connections for the writer and the read API
+    private final int parallelism = Math.max(1, Db.POOL_SIZE - 2);
 
     // Reuse the same thresholds on server-side to produce abnormal instance records.
     private final AlertEngine alertEngine = new AlertEngine();
 
+    // owned by the aggregation thread
+    private final TreeSet<Long> catchUp = new TreeSet<>();
+    // late patient-minutes whose recompute or write failed, retried per patient
+    private final TreeMap<Long, Set<String>> lateRetry = new TreeMap<>();
+    private boolean watermarkLoaded;
+    private long savedWatermark = AggregationWatermarkDao.NONE;
+
+    // 0 until the saved watermark is known, which keeps the compactor idle
+    private volatile long completedBeforeMs;
+    private volatile int pendingMinutes;
+    private volatile long backfillTotal;
+    private volatile long backfillStartedMs;
+
+    private final AtomicLong flushedMinutes = new AtomicLong();
+    private final AtomicLong recomputedMinutes = new AtomicLong();
+    private final AtomicLong backfilledMinutes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private final LatencyHistogram runDuration = new LatencyHistogram("minute-agg-run");
+    private final LatencyHistogram flushDuration = new LatencyHistogram("minute-agg-flush");
+    private final LatencyHistogram catchUpDuration = new LatencyHistogram("minute-agg-catch-up");
+
     private ScheduledExecutorService exec;
+    // catch-up statements and per-patient writes
+    private ExecutorService pool;
+    private volatile HotReadCache cache;
+
+    public MinuteAggregationService(VitalSampleDao vitalDao, MinuteAverageDao minuteDao) {
+        this(vitalDao, minuteDao, new AggregationWatermarkDao());
+    }
 
-    public MinuteAggregationService(VitalSampleDao vitalDao, MinuteAverageDao minuteDao, List<String> patientIds) {
-        this.vitalDao = vitalDao;
-        this.minuteDao = minuteDao;
-        this.abnormalDao = new AbnormalEventDao();
-        this.patientIds = patientIds;
+    public MinuteAggregationService(VitalSampleDao vitalDao, MinuteAverageDao minuteDao,
+                                    AggregationWatermarkDao watermarkDao) {
+        this(new DbStore(WATERMARK_JOB, vitalDao, minuteDao, watermarkDao), System.currentTimeMillis());
+    }
+
+    /** @param nowMs start time: its minute is recomputed, and a backfill runs up to it */
+    MinuteAggregationService(Store store, long nowMs) {
+        this.store = store;
+        this.aggregator = new WatermarkMinuteAggregator(nowMs);
+        this.startMinute = WatermarkMinuteAggregator.minuteStart(nowMs);
     }
 
     public void start() {
@@ -40,75 +165,545 @@ public final class MinuteAggregationService {
             return t;
         });
 
-        exec.scheduleAtFixedRate(this::safeRun, 5, 10, TimeUnit.SECONDS);
+        AtomicLong n = new AtomicLong();
+        pool = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "minute-worker-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        exec.scheduleAtFixedRate(this::safeRun, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
     }
 
     public void stop() {
         if (exec != null) exec.shutdownNow();
+        if (pool != null) pool.shutdownNow();
         exec = null;
+        pool = null;
+    }
+
+    /** Folds a batch of stored samples into the open minutes. */
+    public void accept(List<PatientSample> rows) {
+        for (PatientSample row : rows) aggregator.add(row.patientId(), row.sample());
     }
 
     private void safeRun() {
-        try { aggregateLastFullMinute(); } catch (Exception ignored) {}
-    }
-
-    private void aggregateLastFullMinute() {
-        long now = System.currentTimeMillis();
-        long currentMinuteStart = (now / 60000L) * 60000L;
-        long minuteStart = currentMinuteStart - 60000L;
-        long minuteEnd = currentMinuteStart - 1;
-
-        for (String pid : patientIds) {
-            List<VitalSample> samples = vitalDao.range(pid, minuteStart, minuteEnd, 5000);
-            if (samples == null || samples.isEmpty()) continue;
-
-            double sumT=0, sumHr=0, sumRr=0, sumSys=0, sumDia=0;
-            for (VitalSample s : samples) {
-                sumT += s.bodyTemp();
-                sumHr += s.heartRate();
-                sumRr += s.respiratoryRate();
-                sumSys += s.systolicBP();
-                sumDia += s.diastolicBP();
+        try { runOnce(System.currentTimeMillis()); } catch (Exception ignored) {}
+    }
+
+    /** Closes the minutes behind {@code nowMs - GRACE_MS} and writes them. */
+    void runOnce(long nowMs) {
+        long t0 = System.nanoTime();
+        if (!watermarkLoaded) loadWatermark(nowMs);
+
+        WatermarkMinuteAggregator.Closed closed = aggregator.advance(nowMs - GRACE_MS);
+
+        List<PatientMinute> records = closed.records();
+        if (!records.isEmpty()) {
+            long f0 = System.nanoTime();
+            List<PatientMinute> failed = writePerPatient(records, true);
+            flushedMinutes.addAndGet(records.size() - failed.size());
+            // the accumulators are gone; rebuild those minutes from the rows
+            requeue(failed);
+            flushDuration.recordMicros((System.nanoTime() - f0) / 1000);
+        }
+
+        catchUp.addAll(closed.recomputeAll());
+        Map<Long, Set<String>> late = new TreeMap<>(lateRetry);
+        lateRetry.clear();
+        for (Map.Entry<Long, Set<String>> e : closed.recomputePatients().entrySet()) {
+            late.merge(e.getKey(), e.getValue(), (a, b) -> {
+                Set<String> all = new HashSet<>(a);
+                all.addAll(b);
+                return all;
+            });
+        }
+        recomputeLate(late);
+        if (!catchUp.isEmpty()) {
+            long c0 = System.nanoTime();
+            runCatchUp();
+            catchUpDuration.recordMicros((System.nanoTime() - c0) / 1000);
+        }
+        saveWatermark(nowMs);
+        runDuration.recordMicros((System.nanoTime() - t0) / 1000);
+    }
+
+    /**
+     * Reads the saved watermark once and queues the minutes from there up to the
+     * start minute, which the aggregator already reports. Retried every tick until
+     * the database answers.
+     */
+    private void loadWatermark(long nowMs) {
+        long saved;
+        try {
+            saved = store.loadWatermark();
+        } catch (Exception e) {
+            logFailure("loading the watermark", e);
+            return;
+        }
+        watermarkLoaded = true;
+        savedWatermark = saved;
+        if (saved == AggregationWatermarkDao.NONE || saved >= startMinute) return;
+
+        long from = Math.max(saved, WatermarkMinuteAggregator.minuteStart(startMinute - MAX_BACKFILL_MS));
+        if (from > saved) {
+            System.err.println("[MinuteAggregationService] gap since " + saved
+                    + " exceeds " + MAX_BACKFILL_MS / 3_600_000 + "h; backfilling from " + from);
+        }
+        for (long m = from; m < startMinute; m += WatermarkMinuteAggregator.MINUTE_MS) catchUp.add(m);
+        backfillTotal = (startMinute - from) / WatermarkMinuteAggregator.MINUTE_MS;
+        backfillStartedMs = nowMs;
+        System.out.println("[MinuteAggregationService] backfilling " + backfillTotal + " minutes since " + from);
+    }
+
+    /**
+     * Recomputes the oldest catch-up minutes, one statement per run of at most
+     * CHUNK_MINUTES consecutive minutes, up to {@code parallelism} statements at once.
+     */
+    private void runCatchUp() {
+        if (catchUp.isEmpty()) return;
+
+        List<long[]> chunks = new ArrayList<>();
+        Iterator<Long> it = catchUp.iterator();
+        long from = it.next();
+        long to = from + WatermarkMinuteAggregator.MINUTE_MS;
+        while (chunks.size() < MAX_CHUNKS_PER_TICK) {
+            Long next = it.hasNext() ? it.next() : null;
+            if (next != null && next == to && (to - from) / WatermarkMinuteAggregator.MINUTE_MS < CHUNK_MINUTES) {
+                to += WatermarkMinuteAggregator.MINUTE_MS;
+                continue;
+            }
+            chunks.add(new long[]{from, to});
+            if (next == null) break;
+            from = next;
+            to = next + WatermarkMinuteAggregator.MINUTE_MS;
+        }
+
+        List<Callable<List<PatientMinute>>> tasks = new ArrayList<>(chunks.size());
+        for (long[] c : chunks) tasks.add(() -> store.aggregate(c[0], c[1]));
+        List<Future<List<PatientMinute>>> results = runAll(tasks);
+
+        List<PatientMinute> written = new ArrayList<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            long[] c = chunks.get(i);
+            try {
+                written.addAll(results.get(i).get());
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                logFailure("catch-up of " + c[0] + ".." + c[1], cause(e));
+                continue; // stays queued for the next tick
+            }
+            Set<Long> done = catchUp.subSet(c[0], c[1]);
+            if (c[1] <= startMinute) backfilledMinutes.addAndGet(done.size());
+            done.clear();
+        }
+        recomputedMinutes.addAndGet(written.size());
+        HotReadCache c = cache;
+        if (c != null) c.minutesWritten(written);
+        // the averages are in; the events go out per patient like a flush, and a
+        // minute whose events failed is recomputed again
+        requeue(writePerPatient(written, false));
+    }
+
+    /**
+     * Late data: re-reads each listed patient-minute in parallel, then writes the
+     * results. A patient-minute whose read or write fails is retried the same way on
+     * the next tick, and holds the watermark back until it is written.
+     */
+    private void recomputeLate(Map<Long, Set<String>> late) {
+        List<Callable<PatientMinute>> tasks = new ArrayList<>();
+        List<String> pids = new ArrayList<>();
+        List<Long> minutes = new ArrayList<>();
+        for (Map.Entry<Long, Set<String>> e : late.entrySet()) {
+            if (catchUp.contains(e.getKey())) continue;
+            for (String pid : e.getValue()) {
+                tasks.add(() -> store.recompute(pid, e.getKey()));
+                pids.add(pid);
+                minutes.add(e.getKey());
+            }
+        }
+        if (tasks.isEmpty()) return;
+
+        List<PatientMinute> records = new ArrayList<>();
+        List<Future<PatientMinute>> results = runAll(tasks);
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                PatientMinute pm = results.get(i).get();
+                if (pm != null) records.add(pm);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                for (int j = 0; j < pids.size(); j++) retryLate(pids.get(j), minutes.get(j));
+                return;
+            } catch (Exception e) {
+                logFailure("late recompute", cause(e));
+                retryLate(pids.get(i), minutes.get(i));
+            }
+        }
+        List<PatientMinute> failed = writePerPatient(records, true);
+        recomputedMinutes.addAndGet(records.size() - failed.size());
+        for (PatientMinute pm : failed) retryLate(pm.patientId(), pm.record().minuteStartMs());
+    }
+
+    /** Queues the minutes of failed writes for a set-based recompute. */
+    private void requeue(List<PatientMinute> failed) {
+        for (PatientMinute pm : failed) catchUp.add(pm.record().minuteStartMs());
+    }
+
+    /** Queues a failed late patient-minute for another per-patient recompute. */
+    private void retryLate(String patientId, long minuteStartMs) {
+        lateRetry.computeIfAbsent(minuteStartMs, k -> new HashSet<>()).add(patientId);
+    }
+
+    // ---------- per-patient writes ----------
+
+    /**
+     * Writes {@code rows} grouped by patient: one transaction per patient holding its
+     * minute upserts (if {@code upsert}) and abnormal events, patients spread over
+     * the pool with one connection per worker. Returns the rows of failed patients.
+     */
+    private List<PatientMinute> writePerPatient(List<PatientMinute> rows, boolean upsert) {
+        List<PatientMinute> failed = new ArrayList<>();
+        if (rows.isEmpty()) return failed;
+
+        Map<String, List<MinuteRecord>> byPatient = new LinkedHashMap<>();
+        for (PatientMinute pm : rows) {
+            byPatient.computeIfAbsent(pm.patientId(), k -> new ArrayList<>()).add(pm.record());
+        }
+
+        int workers = Math.min(parallelism, byPatient.size());
+        List<List<Map.Entry<String, List<MinuteRecord>>>> parts = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) parts.add(new ArrayList<>());
+        int i = 0;
+        for (Map.Entry<String, List<MinuteRecord>> e : byPatient.entrySet()) parts.get(i++ % workers).add(e);
+
+        List<Callable<List<PatientMinute>>> tasks = new ArrayList<>(workers);
+        for (List<Map.Entry<String, List<MinuteRecord>>> part : parts) tasks.add(() -> writePartition(part, upsert));
+        List<Future<List<PatientMinute>>> results = runAll(tasks);
+        for (int p = 0; p < workers; p++) {
+            try {
+                failed.addAll(results.get(p).get());
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                addAll(failed, parts.get(p));
+            } catch (Exception e) {
+                logFailure("minute write", cause(e));
+                addAll(failed, parts.get(p));
+            }
+        }
+        return failed;
+    }
+
+    private List<PatientMinute> writePartition(List<Map.Entry<String, List<MinuteRecord>>> patients, boolean upsert) {
+        List<PatientMinute> failed = new ArrayList<>();
+        int committed = 0;
+        try (Writer w = store.writer(upsert)) {
+            for (Map.Entry<String, List<MinuteRecord>> e : patients) {
+                String pid = e.getKey();
+                try {
+                    List<AbnormalEvent> events = new ArrayList<>(0);
+                    List<PatientEvent> rows = new ArrayList<>(0);
+                    for (MinuteRecord r : e.getValue()) {
+                        for (AbnormalEvent ev : abnormalEvents(r)) {
+                            events.add(ev);
+                            rows.add(new PatientEvent(pid, ev));
+                        }
+                    }
+                    w.write(pid, e.getValue(), rows);
+                    cacheWritten(pid, upsert ? e.getValue() : null, events);
+                } catch (SQLException ex) {
+                    logFailure("minute write for " + pid, ex);
+                    addAll(failed, e);
+                }
+                committed++;
+            }
+        } catch (SQLException ex) {
+            // the connection itself is gone: nothing after the last commit is written
+            logFailure("minute write", ex);
+            for (Map.Entry<String, List<MinuteRecord>> e : patients.subList(committed, patients.size())) addAll(failed, e);
+        }
+        return failed;
+    }
+
+    private void cacheWritten(String patientId, List<MinuteRecord> minutes, List<AbnormalEvent> events) {
+        HotReadCache c = cache;
+        if (c == null) return;
+        if (minutes != null) for (MinuteRecord r : minutes) c.minuteWritten(patientId, r);
+        for (AbnormalEvent ev : events) c.eventWritten(patientId, ev);
+    }
+
+    private static void addAll(List<PatientMinute> out, List<Map.Entry<String, List<MinuteRecord>>> patients) {
+        for (Map.Entry<String, List<MinuteRecord>> e : patients) addAll(out, e);
+    }
+
+    private static void addAll(List<PatientMinute> out, Map.Entry<String, List<MinuteRecord>> patient) {
+        for (MinuteRecord r : patient.getValue()) out.add(new PatientMinute(patient.getKey(), r));
+    }
+
+    /** Runs the tasks on the pool, or inline when there is one task or no pool. */
+    private <T> List<Future<T>> runAll(List<Callable<T>> tasks) {
+        List<Future<T>> out = new ArrayList<>(tasks.size());
+        ExecutorService p = pool;
+        for (Callable<T> task : tasks) {
+            if (p == null || tasks.size() == 1) {
+                FutureTask<T> f = new FutureTask<>(task);
+                f.run();
+                out.add(f);
+            } else {
+                out.add(p.submit(task));
             }
-            int n = samples.size();
+        }
+        return out;
+    }
+
+    private static Exception cause(Exception e) {
+        return e instanceof ExecutionException && e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    }
+
+    /** Publishes the new watermark and persists it when it moved. */
+    private void saveWatermark(long nowMs) {
+        long wm = aggregator.completedBefore();
+        if (!catchUp.isEmpty()) wm = Math.min(wm, catchUp.first());
+        if (!lateRetry.isEmpty()) wm = Math.min(wm, lateRetry.firstKey());
+        pendingMinutes = catchUp.size() + lateRetry.size();
+        if (!watermarkLoaded) return; // a smaller saved value must not be overwritten
+
+        completedBeforeMs = wm;
+        if (backfillStartedMs > 0 && wm >= startMinute) {
+            System.out.println("[MinuteAggregationService] backfill of " + backfillTotal + " minutes done in "
+                    + (nowMs - backfillStartedMs) + " ms");
+            backfillStartedMs = 0;
+        }
+        if (wm <= savedWatermark) return;
+        try {
+            store.saveWatermark(wm);
+            savedWatermark = wm;
+        } catch (Exception e) {
+            logFailure("saving the watermark", e);
+        }
+    }
+
+    /**
+     * The DAOs, with the watermark in the aggregation_watermarks row of {@code job}.
+     * Without PG env nothing is written and reads come back empty.
+     */
+    static final class DbStore implements Store {
+        private final String job;
+        private final VitalSampleDao vitalDao;
+        private final MinuteAverageDao minuteDao;
+        private final AggregationWatermarkDao watermarkDao;
+        private final AbnormalEventDao abnormalDao = new AbnormalEventDao();
+        private final PatientDao patients = new PatientDao();
+
+        DbStore(String job, VitalSampleDao vitalDao, MinuteAverageDao minuteDao, AggregationWatermarkDao watermarkDao) {
+            this.job = job;
+            this.vitalDao = vitalDao;
+            this.minuteDao = minuteDao;
+            this.watermarkDao = watermarkDao;
+        }
+
+        @Override
+        public long loadWatermark() throws SQLException {
+            return watermarkDao.load(job);
+        }
+
+        @Override
+        public void saveWatermark(long completedBeforeMs) throws SQLException {
+            watermarkDao.save(job, completedBeforeMs);
+        }
+
+        @Override
+        public List<PatientMinute> aggregate(long fromMs, long toMs) throws SQLException {
+            return minuteDao.aggregateFromSamples(fromMs, toMs);
+        }
+
+        /** From rows and compacted chunks alike. */
+        @Override
+        public PatientMinute recompute(String patientId, long minuteStart) throws SQLException {
+            Sums sums = new Sums(minuteStart);
+            // a failure is thrown: a partial minute would be a wrong average
+            vitalDao.scan(patientId, minuteStart, minuteStart + WatermarkMinuteAggregator.MINUTE_MS - 1,
+                    MAX_SAMPLES_PER_MINUTE, sums);
+            int n = sums.n;
+            if (n == 0) return null;
 
             MinuteRecord r = new MinuteRecord(
                     minuteStart,
-                    sumT / n,
-                    sumHr / n,
-                    sumRr / n,
-                    sumSys / n,
-                    sumDia / n,
+                    sums.t / n,
+                    sums.hr / n,
+                    sums.rr / n,
+                    sums.sys / n,
+                    sums.dia / n,
                     n
             );
+            return new PatientMinute(patientId, r);
+        }
 
-            try {
-                minuteDao.upsert(pid, r);
-            } catch (Exception ignored) {}
+        @Override
+        public Writer writer(boolean upsert) throws SQLException {
+            if (!Db.hasPgEnv()) return new Writer() {
+                @Override
+                public void write(String patientId, List<MinuteRecord> minutes, List<PatientEvent> events) {}
 
-            persistAbnormalForMinute(pid, r);
+                @Override
+                public void close() {}
+            };
+            return new DbWriter(Db.getConnection(), upsert);
+        }
+
+        private final class DbWriter implements Writer {
+            private final Connection c;
+            private final PreparedStatement up;
+
+            DbWriter(Connection c, boolean upsert) throws SQLException {
+                this.c = c;
+                try {
+                    this.up = upsert ? minuteDao.prepareUpsert(c) : null;
+                } catch (SQLException e) {
+                    c.close();
+                    throw e;
+                }
+            }
+
+            @Override
+            public void write(String patientId, List<MinuteRecord> minutes, List<PatientEvent> events) throws SQLException {
+                // keys first, committed on their own: the transaction then finds them cached
+                Set<String> ids = new HashSet<>();
+                ids.add(patientId);
+                for (PatientEvent e : events) ids.add(e.patientId());
+                patients.internAll(c, ids);
+
+                c.setAutoCommit(false);
+                try {
+                    if (up != null) {
+                        for (MinuteRecord r : minutes) minuteDao.addUpsert(up, patientId, r);
+                        up.executeBatch();
+                    }
+                    abnormalDao.insertAll(c, events);
+                    c.commit();
+                } catch (SQLException e) {
+                    try {
+                        c.rollback();
+                        if (up != null) up.clearBatch();
+                    } catch (Exception ignored) {}
+                    throw e;
+                } finally {
+                    c.setAutoCommit(true);
+                }
+            }
+
+            @Override
+            public void close() throws SQLException {
+                try {
+                    if (up != null) up.close();
+                } finally {
+                    c.close();
+                }
+            }
         }
     }
 
-    private void persistAbnormalForMinute(String patientId, MinuteRecord r) {
+    private static final class Sums implements VitalSampleVisitor {
+        final long minuteStart;
+        // a late row can repeat a timestamp that is already in the chunk
+        final BitSet seen = new BitSet();
+        double t, hr, rr, sys, dia;
+        int n;
+
+        Sums(long minuteStart) {
+            this.minuteStart = minuteStart;
+        }
+
+        @Override
+        public void visit(long ts, double temp, double heartRate, double respRate, double systolic, double diastolic, double ecg) {
+            int offset = (int) (ts - minuteStart);
+            if (seen.get(offset)) return;
+            seen.set(offset);
+            t += temp;
+            hr += heartRate;
+            rr += respRate;
+            sys += systolic;
+            dia += diastolic;
+            n++;
+        }
+    }
+
+    /** Pushes every minute and abnormal event this service writes into {@code cache}. */
+    public void setReadCache(HotReadCache cache) {
+        this.cache = cache;
+    }
+
+    public WatermarkMinuteAggregator aggregator() {
+        return aggregator;
+    }
+
+    /**
+     * Every minute before this has its minute_averages and abnormal_events rows;
+     * 0 until the saved watermark has been read.
+     */
+    public long completedBeforeMs() {
+        return completedBeforeMs;
+    }
+
+    /** How far the written minutes trail {@code nowMs}; large until a backfill finishes. */
+    public long lagMs(long nowMs) {
+        long wm = completedBeforeMs;
+        return wm == 0 ? -1 : Math.max(0, nowMs - wm);
+    }
+
+    /** Minutes queued for a set-based recompute or a per-patient retry. */
+    public int pendingMinutes() {
+        return pendingMinutes;
+    }
+
+    /** Wall time of whole aggregation runs. */
+    public LatencyHistogram runDuration() { return runDuration; }
+    /** Wall time of writing the minutes a run closed. */
+    public LatencyHistogram flushDuration() { return flushDuration; }
+    /** Wall time of the set-based recompute part of a run. */
+    public LatencyHistogram catchUpDuration() { return catchUpDuration; }
+
+    public long backfilledMinutes() { return backfilledMinutes.get(); }
+    public long backfillTotal() { return backfillTotal; }
+
+    public String summary() {
+        return "watermark=" + completedBeforeMs
+                + " lagMs=" + lagMs(System.currentTimeMillis())
+                + " backfill=" + backfilledMinutes.get() + "/" + backfillTotal
+                + " pending=" + pendingMinutes
+                + " open=" + aggregator.openMinutes()
+                + " flushed=" + flushedMinutes.get()
+                + " recomputed=" + recomputedMinutes.get()
+                + " late=" + aggregator.late()
+                + " duplicates=" + aggregator.duplicates()
+                + " failures=" + failures.get();
+    }
+
+    private void logFailure(String what, Exception e) {
+        // do not spam logs
+        if (failures.incrementAndGet() % 100 == 1) {
+            System.err.println("[MinuteAggregationService] " + what + " failed: " + e.getMessage());
+        }
+    }
+
+    private List<AbnormalEvent> abnormalEvents(MinuteRecord r) {
         long ts = r.minuteStartMs();
+        List<AbnormalEvent> out = new ArrayList<>(0);
 
-        recordIfAbnormal(patientId, ts, VitalType.BODY_TEMPERATURE, r.avgTemp(), "avgTemp");
-        recordIfAbnormal(patientId, ts, VitalType.HEART_RATE,       r.avgHR(),   "avgHR");
-        recordIfAbnormal(patientId, ts, VitalType.RESPIRATORY_RATE, r.avgRR(),   "avgRR");
-        recordIfAbnormal(patientId, ts, VitalType.SYSTOLIC_BP,      r.avgSys(),  "avgSys");
-        recordIfAbnormal(patientId, ts, VitalType.DIASTOLIC_BP,     r.avgDia(),  "avgDia");
+        addIfAbnormal(out, ts, VitalType.BODY_TEMPERATURE, r.avgTemp(), "avgTemp");
+        addIfAbnormal(out, ts, VitalType.HEART_RATE,       r.avgHR(),   "avgHR");
+        addIfAbnormal(out, ts, VitalType.RESPIRATORY_RATE, r.avgRR(),   "avgRR");
+        addIfAbnormal(out, ts, VitalType.SYSTOLIC_BP,      r.avgSys(),  "avgSys");
+        addIfAbnormal(out, ts, VitalType.DIASTOLIC_BP,     r.avgDia(),  "avgDia");
+        return out;
     }
 
-    private void recordIfAbnormal(String patientId, long ts, VitalType type, double value, String label) {
+    private void addIfAbnormal(List<AbnormalEvent> out, long ts, VitalType type, double value, String label) {
         AlertLevel level = alertEngine.eval(type, value);
         if (level == null || level == AlertLevel.NORMAL) return;
 
         String msg = label + " out of range (" + String.format("%.2f", value) + ")";
-
-        try {
-            abnormalDao.insert(patientId, new AbnormalEvent(ts, type, level, value, msg));
-        } catch (Exception ignored) {
-        }
+        out.add(new AbnormalEvent(ts, type, level, value, msg));
     }
 }
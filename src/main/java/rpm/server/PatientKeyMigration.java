@@ -0,0 +1,150 @@
+package rpm.server;
+
+import rpm.dao.AbnormalEventDao;
+import rpm.db.Db;
+import rpm.db.SchemaLayout;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background backfill of the integer patient keys and SMALLINT codes into the rows of
+ * {@code minute_averages} and {@code abnormal_events} written before they existed.
+ *
+ * <p>Rows are keyed in small batches found through partial indexes on the unkeyed
+ * rows, so writers are never blocked for long. Once a pass finds nothing left, the
+ * keyed read indexes are built concurrently, the migration is recorded in
+ * {@code schema_migrations} and {@link SchemaLayout} switches the reads over. All
+ * running instances must already write both layouts when it starts.
+ */
+public final class PatientKeyMigration {
+
+    private static final long PERIOD_MS = 5_000L;
+    private static final int BATCH = 5_000;
+    private static final int MAX_BATCHES_PER_RUN = 20;
+
+    private static final String[] PREPARE_SQL = {
+            "CREATE INDEX CONCURRENTLY IF NOT EXISTS minute_averages_unkeyed " +
+                    "ON minute_averages (patient_id) WHERE patient_key IS NULL",
+            "CREATE INDEX CONCURRENTLY IF NOT EXISTS abnormal_events_unkeyed " +
+                    "ON abnormal_events (patient_id) WHERE patient_key IS NULL"
+    };
+
+    // every unkeyed patient gets its key first, so the joins below always match
+    private static final String INTERN_SQL =
+            "INSERT INTO patient_keys (patient_id) " +
+                    "SELECT patient_id FROM minute_averages WHERE patient_key IS NULL " +
+                    "UNION SELECT patient_id FROM abnormal_events WHERE patient_key IS NULL " +
+                    "ON CONFLICT (patient_id) DO NOTHING";
+
+    private static final String KEY_MINUTES_SQL =
+            "UPDATE minute_averages m SET patient_key = k.patient_key " +
+                    "FROM patient_keys k WHERE k.patient_id = m.patient_id AND m.ctid IN (" +
+                    "SELECT ctid FROM minute_averages WHERE patient_key IS NULL LIMIT ?)";
+
+    private static final String KEY_EVENTS_SQL =
+            "UPDATE abnormal_events e SET patient_key = k.patient_key, " +
+                    "vital_code = " + AbnormalEventDao.vitalCodeOf("e.vital_type") + ", " +
+                    "level_code = " + AbnormalEventDao.levelCodeOf("e.level") + " " +
+                    "FROM patient_keys k WHERE k.patient_id = e.patient_id AND e.ctid IN (" +
+                    "SELECT ctid FROM abnormal_events WHERE patient_key IS NULL LIMIT ?)";
+
+    private static final String[] FINISH_SQL = {
+            "CREATE INDEX CONCURRENTLY IF NOT EXISTS minute_averages_key_start " +
+                    "ON minute_averages (patient_key, minute_start_ms)",
+            "CREATE INDEX CONCURRENTLY IF NOT EXISTS abnormal_events_key_ts " +
+                    "ON abnormal_events (patient_key, timestamp_ms)",
+            "DROP INDEX CONCURRENTLY IF EXISTS minute_averages_unkeyed",
+            "DROP INDEX CONCURRENTLY IF EXISTS abnormal_events_unkeyed",
+            "INSERT INTO schema_migrations (name, completed_at_ms) " +
+                    "VALUES ('" + SchemaLayout.PATIENT_KEYS + "', (extract(epoch FROM now()) * 1000)::bigint) " +
+                    "ON CONFLICT (name) DO NOTHING"
+    };
+
+    private final AtomicLong minutesKeyed = new AtomicLong();
+    private final AtomicLong eventsKeyed = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private volatile boolean prepared;
+    private ScheduledExecutorService exec;
+
+    public void start() {
+        if (exec != null || SchemaLayout.patientKeys()) return;
+        exec = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "patient-key-migration");
+            t.setDaemon(true);
+            return t;
+        });
+        exec.scheduleWithFixedDelay(this::safeRun, PERIOD_MS, PERIOD_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (exec != null) exec.shutdownNow();
+        exec = null;
+    }
+
+    private void safeRun() {
+        try {
+            if (runOnce() && exec != null) exec.shutdown();
+        } catch (SQLException | RuntimeException e) {
+            // do not spam logs
+            if (failures.incrementAndGet() % 100 == 1) {
+                System.err.println("[PatientKeyMigration] " + e.getMessage());
+            }
+        }
+    }
+
+    /** One bounded slice of the backfill; true once the migration is complete. */
+    boolean runOnce() throws SQLException {
+        if (SchemaLayout.patientKeys()) return true;
+
+        // CONCURRENTLY index builds need autocommit, which pooled connections have
+        try (Connection c = Db.getConnection();
+             Statement st = c.createStatement()) {
+
+            if (!prepared) {
+                for (String sql : PREPARE_SQL) st.executeUpdate(sql);
+                prepared = true;
+            }
+
+            st.executeUpdate(INTERN_SQL);
+            int minutes = keyBatches(c, KEY_MINUTES_SQL);
+            int events = keyBatches(c, KEY_EVENTS_SQL);
+            minutesKeyed.addAndGet(minutes);
+            eventsKeyed.addAndGet(events);
+            if (minutes + events > 0) return false;
+
+            for (String sql : FINISH_SQL) st.executeUpdate(sql);
+        }
+        SchemaLayout.usePatientKeys(true);
+        System.out.println("[PatientKeyMigration] complete: " + summary() + "; reads use patient_key");
+        return true;
+    }
+
+    /** Runs the batch update until a batch comes back short; returns rows keyed. */
+    private static int keyBatches(Connection c, String sql) throws SQLException {
+        int total = 0;
+        try (PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setInt(1, BATCH);
+            for (int i = 0; i < MAX_BATCHES_PER_RUN; i++) {
+                int n = ps.executeUpdate();
+                total += n;
+                if (n < BATCH) break;
+            }
+        }
+        return total;
+    }
+
+    public String summary() {
+        return "done=" + SchemaLayout.patientKeys()
+                + " minutesKeyed=" + minutesKeyed.get()
+                + " eventsKeyed=" + eventsKeyed.get()
+                + " failures=" + failures.get();
+    }
+}
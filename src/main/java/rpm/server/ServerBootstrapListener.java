@@ -9,6 +9,7 @@ package rpm.server;
  * <p>Entry point is configured in {@code WEB-INF/web.xml}.
  */
 
+import rpm.config.ConfigStore;
 import rpm.dao.PatientDao;
 import rpm.db.Db;
 import rpm.db.DbInit;
@@ -18,6 +19,7 @@ import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 import javax.servlet.annotation.WebListener;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -27,6 +29,11 @@ public class ServerBootstrapListener implements ServletContextListener {
     public static final String CTX_MINUTE_AGG = "rpm.minute.agg";
     public static final String CTX_SIM_REGISTRY = "rpm.sim.registry";
     public static final String CTX_SIM_SERVICE  = "rpm.sim.service";
+    public static final String CTX_VITAL_WRITER = "rpm.vital.writer";
+    public static final String CTX_CHUNK_COMPACTOR = "rpm.vital.chunks";
+    public static final String CTX_READ_CACHE = "rpm.read.cache";
+    public static final String CTX_VITAL_RETENTION = "rpm.vital.retention";
+    public static final String CTX_KEY_MIGRATION = "rpm.patient.keys";
 
     /**
      * Server-side simulator should be OFF by default on cloud.
@@ -37,6 +44,12 @@ public class ServerBootstrapListener implements ServletContextListener {
         return v != null && (v.equalsIgnoreCase("1") || v.equalsIgnoreCase("true") || v.equalsIgnoreCase("yes"));
     }
 
+    /** Compression of closed minutes into vital_chunks is ON unless RPM_VITAL_CHUNKS=0. */
+    private static boolean vitalChunksEnabled() {
+        String v = System.getenv("RPM_VITAL_CHUNKS");
+        return v == null || !(v.equalsIgnoreCase("0") || v.equalsIgnoreCase("false") || v.equalsIgnoreCase("no"));
+    }
+
     @Override
     public void contextInitialized(ServletContextEvent sce) {
         ServletContext ctx = sce.getServletContext();
@@ -52,6 +65,11 @@ public class ServerBootstrapListener implements ServletContextListener {
 
             DbInit.init();
 
+            // keys the rows written before patient_key existed; no-op once done
+            PatientKeyMigration keyMigration = new PatientKeyMigration();
+            keyMigration.start();
+            ctx.setAttribute(CTX_KEY_MIGRATION, keyMigration);
+
             List<Patient> patients = seedPatients();
 
             registry.ensurePatients(patients);
@@ -59,22 +77,55 @@ public class ServerBootstrapListener implements ServletContextListener {
             List<String> patientIds = new ArrayList<>();
             for (Patient p : patients) patientIds.add(p.patientId());
 
+            // Batched vital_samples writer shared by the ingest servlet and the simulator
+            // RPM_VITAL_WRITE_MODE=copy switches batches to COPY + staging-table merge
+            VitalSampleWriter writer = new VitalSampleWriter(
+                    VitalSampleWriter.Mode.parse(System.getenv("RPM_VITAL_WRITE_MODE")));
+            writer.start();
+            ctx.setAttribute(CTX_VITAL_WRITER, writer);
+
+            // Hot per-patient cache for the "latest" read APIs, kept current by every writer
+            HotReadCache cache = new HotReadCache(
+                    new rpm.dao.VitalSampleDao(),
+                    new rpm.dao.MinuteAverageDao(),
+                    new rpm.dao.AbnormalEventDao()
+            );
+            writer.onWritten(cache::samplesWritten);
+            ctx.setAttribute(CTX_READ_CACHE, cache);
+
             // Server-side simulator OFF by default
             if (serverSimEnabled()) {
-                ServerSimulationService sim = new ServerSimulationService(registry, patientIds);
+                ServerSimulationService sim = new ServerSimulationService(registry, patientIds, writer);
                 sim.start(5);
                 ctx.setAttribute(CTX_SIM_SERVICE, sim);
             }
 
-            // Minute aggregation ON (needed to compute minute_averages + abnormal_events)
+            // Minute aggregation ON (needed to compute minute_averages + abnormal_events),
+            // fed incrementally with every batch the writer stores
             MinuteAggregationService agg = new MinuteAggregationService(
                     new rpm.dao.VitalSampleDao(),
-                    new rpm.dao.MinuteAverageDao(),
-                    patientIds
+                    new rpm.dao.MinuteAverageDao()
             );
+            writer.onWritten(agg::accept);
+            agg.setReadCache(cache);
             agg.start();
             ctx.setAttribute(CTX_MINUTE_AGG, agg);
 
+            if (vitalChunksEnabled()) {
+                // only minutes the aggregation (including a backfill) is done with
+                VitalChunkCompactor compactor = new VitalChunkCompactor(new rpm.dao.VitalChunkDao(),
+                        VitalChunkCompactor.DEFAULT_DELAY_MS, agg::completedBeforeMs);
+                compactor.start();
+                ctx.setAttribute(CTX_CHUNK_COMPACTOR, compactor);
+            }
+
+            // daily vital_samples partitions ahead of time; expired days dropped per
+            // vitalsRetentionDays (same system.properties as the desktop admin screen)
+            VitalRetentionService retention = new VitalRetentionService(
+                    new ConfigStore(Paths.get("data", "system.properties")), new rpm.dao.VitalChunkDao());
+            retention.start();
+            ctx.setAttribute(CTX_VITAL_RETENTION, retention);
+
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -85,14 +136,36 @@ public class ServerBootstrapListener implements ServletContextListener {
         ServletContext ctx = sce.getServletContext();
         if (ctx == null) return;
 
+        // producers first, then the writer's final flush, then the aggregator that
+        // consumes the flushed batches
+        Object o = ctx.getAttribute(CTX_SIM_SERVICE);
+        if (o instanceof ServerSimulationService) {
+            try { ((ServerSimulationService) o).stop(); } catch (Exception ignored) {}
+        }
+
+        Object w = ctx.getAttribute(CTX_VITAL_WRITER);
+        if (w instanceof VitalSampleWriter) {
+            try { ((VitalSampleWriter) w).stop(5000); } catch (Exception ignored) {}
+        }
+
         Object a = ctx.getAttribute(CTX_MINUTE_AGG);
         if (a instanceof MinuteAggregationService) {
             try { ((MinuteAggregationService) a).stop(); } catch (Exception ignored) {}
         }
 
-        Object o = ctx.getAttribute(CTX_SIM_SERVICE);
-        if (o instanceof ServerSimulationService) {
-            try { ((ServerSimulationService) o).stop(); } catch (Exception ignored) {}
+        Object km = ctx.getAttribute(CTX_KEY_MIGRATION);
+        if (km instanceof PatientKeyMigration) {
+            try { ((PatientKeyMigration) km).stop(); } catch (Exception ignored) {}
+        }
+
+        Object vr = ctx.getAttribute(CTX_VITAL_RETENTION);
+        if (vr instanceof VitalRetentionService) {
+            try { ((VitalRetentionService) vr).stop(); } catch (Exception ignored) {}
+        }
+
+        Object cc = ctx.getAttribute(CTX_CHUNK_COMPACTOR);
+        if (cc instanceof VitalChunkCompactor) {
+            try { ((VitalChunkCompactor) cc).stop(); } catch (Exception ignored) {}
         }
     }
 
@@ -12,18 +12,27 @@ import java.util.concurrent.TimeUnit;
 /**
  * Periodically generates vital samples on the server and persists them to DB.
  * Only intended to run when Postgres is bound (PG* env vars exist).
+ *
+ * <p>Samples go through the shared {@link VitalSampleWriter} when one is given;
+ * a tick never waits on the database, and samples the writer cannot take are dropped.
  */
 public final class ServerSimulationService {
 
     private final SimulationRegistry registry;
     private final List<String> patientIds;
+    private final VitalSampleWriter writer;
     private final VitalSampleDao vitalDao = new VitalSampleDao();
 
     private ScheduledExecutorService scheduler;
 
     public ServerSimulationService(SimulationRegistry registry, List<String> patientIds) {
+        this(registry, patientIds, null);
+    }
+
+    public ServerSimulationService(SimulationRegistry registry, List<String> patientIds, VitalSampleWriter writer) {
         this.registry = registry;
         this.patientIds = patientIds;
+        this.writer = writer;
     }
 
     public void start(int hz) {
@@ -47,6 +56,11 @@ public final class ServerSimulationService {
 
                 VitalSample sample = sim.nextSample(now);
 
+                if (writer != null) {
+                    writer.offer(pid, sample);
+                    continue;
+                }
+
                 try {
                     vitalDao.insert(pid, sample);
                 } catch (Exception ignored) {
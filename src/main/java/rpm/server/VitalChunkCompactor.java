@@ -0,0 +1,143 @@
+package rpm.server;
+
+import rpm.dao.VitalChunkDao;
+import rpm.db.DbSession;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Background job that moves closed minutes of raw vitals from {@code vital_samples}
+ * into compressed {@code vital_chunks} rows.
+ *
+ * <p>The patients come from vital_samples itself: every patient with rows in a closed
+ * minute, seeded or uploaded by a client, is compacted.
+ *
+ * <p>Minutes younger than {@code delayMs} are left alone, so late samples and the
+ * minute aggregation still hit plain rows. A late sample for an already compacted
+ * minute is merged into its chunk on a later run. An optional {@code safeBeforeMs}
+ * bound (the minute aggregation watermark) keeps rows in place until they have been
+ * aggregated, however long that takes.
+ */
+public final class VitalChunkCompactor {
+
+    public static final long DEFAULT_DELAY_MS = 5 * 60_000L;
+    private static final long PERIOD_MS = 60_000L;
+    // per patient and run, so a large backlog is worked off gradually
+    private static final int MAX_CHUNKS_PER_RUN = 60;
+    private static final int PATIENTS_PER_PAGE = 500;
+
+    private final VitalChunkDao dao;
+    private final long delayMs;
+    private final LongSupplier safeBeforeMs;
+
+    private final AtomicLong chunks = new AtomicLong();
+    private final AtomicLong samples = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private ScheduledExecutorService exec;
+
+    public VitalChunkCompactor(VitalChunkDao dao) {
+        this(dao, DEFAULT_DELAY_MS);
+    }
+
+    public VitalChunkCompactor(VitalChunkDao dao, long delayMs) {
+        this(dao, delayMs, () -> Long.MAX_VALUE);
+    }
+
+    public VitalChunkCompactor(VitalChunkDao dao, long delayMs, LongSupplier safeBeforeMs) {
+        if (delayMs < VitalChunkDao.CHUNK_MS) throw new IllegalArgumentException("delayMs must be >= " + VitalChunkDao.CHUNK_MS);
+        this.dao = dao;
+        this.delayMs = delayMs;
+        this.safeBeforeMs = safeBeforeMs;
+    }
+
+    public void start() {
+        if (exec != null) return;
+        exec = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "vital-chunk-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        exec.scheduleWithFixedDelay(this::safeRun, 30_000, PERIOD_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (exec != null) exec.shutdownNow();
+        exec = null;
+    }
+
+    private void safeRun() {
+        try { runOnce(System.currentTimeMillis()); } catch (Exception ignored) {}
+    }
+
+    /**
+     * Compacts every pending minute that closed before {@code nowMs - delayMs} and
+     * before the safe bound; returns rows moved.
+     */
+    int runOnce(long nowMs) {
+        long cutoff = VitalChunkDao.chunkStart(Math.min(nowMs - delayMs, safeBeforeMs.getAsLong()));
+        int movedChunks = 0;
+        int movedRows = 0;
+        // one session for the whole run, so each statement is prepared once; replaced
+        // after a failure in case the connection is what broke
+        DbSession s = null;
+        try {
+            String after = "";
+            while (true) {
+                List<String> page;
+                try {
+                    if (s == null) s = DbSession.open();
+                    page = dao.pendingPatients(s, cutoff, after, PATIENTS_PER_PAGE);
+                } catch (SQLException | RuntimeException e) {
+                    logFailure("pending patients", e);
+                    break;
+                }
+                for (String pid : page) {
+                    try {
+                        if (s == null) s = DbSession.open();
+                        for (long start : dao.pendingChunks(s, pid, cutoff, MAX_CHUNKS_PER_RUN)) {
+                            movedRows += dao.compact(s, pid, start);
+                            movedChunks++;
+                        }
+                    } catch (SQLException | RuntimeException e) {
+                        logFailure(pid, e);
+                        closeQuietly(s);
+                        s = null;
+                    }
+                }
+                if (page.size() < PATIENTS_PER_PAGE) break;
+                after = page.get(page.size() - 1);
+            }
+        } finally {
+            closeQuietly(s);
+        }
+        chunks.addAndGet(movedChunks);
+        samples.addAndGet(movedRows);
+        if (movedChunks > 0) {
+            System.out.println("[VitalChunkCompactor] compacted " + movedChunks + " minutes (" + movedRows + " samples)");
+        }
+        return movedRows;
+    }
+
+    private void logFailure(String what, Exception e) {
+        // do not spam logs
+        if (failures.incrementAndGet() % 100 == 1) {
+            System.err.println("[VitalChunkCompactor] " + what + ": " + e.getMessage());
+        }
+    }
+
+    private static void closeQuietly(DbSession s) {
+        if (s == null) return;
+        try { s.close(); } catch (Exception ignored) {}
+    }
+
+    public String summary() {
+        return "chunks=" + chunks.get() + " samples=" + samples.get() + " failures=" + failures.get();
+    }
+}
@@ -0,0 +1,104 @@
+package rpm.server;
+
+import rpm.config.ConfigStore;
+import rpm.dao.VitalChunkDao;
+import rpm.db.Db;
+import rpm.db.VitalPartitions;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background job that keeps the daily {@code vital_samples} partitions ahead of the
+ * clock and enforces {@code SystemConfig.vitalsRetentionDays}: expired partitions are
+ * dropped whole, expired {@code vital_chunks} rows deleted in batches.
+ *
+ * <p>The retention is re-read from the config store on every run, so a change in the
+ * admin screen applies within the hour. ECG shares rows and chunks with the other
+ * vitals, so it is kept as long as they are.
+ */
+public final class VitalRetentionService {
+
+    private static final long PERIOD_MS = 3_600_000L;
+    private static final int CHUNK_DELETE_BATCH = 10_000;
+
+    private final ConfigStore config;
+    private final VitalChunkDao chunks;
+
+    private final AtomicLong partitionsCreated = new AtomicLong();
+    private final AtomicLong partitionsDropped = new AtomicLong();
+    private final AtomicLong chunksDeleted = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private ScheduledExecutorService exec;
+
+    public VitalRetentionService(ConfigStore config, VitalChunkDao chunks) {
+        this.config = config;
+        this.chunks = chunks;
+    }
+
+    public void start() {
+        if (exec != null) return;
+        exec = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "vital-retention");
+            t.setDaemon(true);
+            return t;
+        });
+        exec.scheduleWithFixedDelay(this::safeRun, 60_000, PERIOD_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (exec != null) exec.shutdownNow();
+        exec = null;
+    }
+
+    private void safeRun() {
+        try {
+            runOnce(System.currentTimeMillis());
+        } catch (SQLException | RuntimeException e) {
+            // do not spam logs
+            if (failures.incrementAndGet() % 100 == 1) {
+                System.err.println("[VitalRetention] " + e.getMessage());
+            }
+        }
+    }
+
+    void runOnce(long nowMs) throws SQLException {
+        int days = config.loadOrDefault().vitalsRetentionDays;
+        try (Connection c = Db.getConnection()) {
+            List<String> created = VitalPartitions.ensure(c, nowMs);
+            partitionsCreated.addAndGet(created.size());
+            if (days <= 0) return;
+
+            // whole days only: a partition goes once its last sample has expired
+            long cutoff = VitalPartitions.dayStart(nowMs - days * VitalPartitions.DAY_MS);
+            List<String> dropped = VitalPartitions.dropExpired(c, cutoff);
+            partitionsDropped.addAndGet(dropped.size());
+
+            int deleted = 0;
+            int n;
+            do {
+                n = chunks.deleteBefore(c, cutoff, CHUNK_DELETE_BATCH);
+                deleted += n;
+            } while (n == CHUNK_DELETE_BATCH);
+            chunksDeleted.addAndGet(deleted);
+
+            if (!created.isEmpty() || !dropped.isEmpty() || deleted > 0) {
+                System.out.println("[VitalRetention] created=" + created + " dropped=" + dropped
+                        + " chunksDeleted=" + deleted + " (retention " + days + " days)");
+            }
+        }
+    }
+
+    public String summary() {
+        return "partitionsCreated=" + partitionsCreated.get()
+                + " partitionsDropped=" + partitionsDropped.get()
+                + " chunksDeleted=" + chunksDeleted.get()
+                + " failures=" + failures.get();
+    }
+}
@@ -0,0 +1,356 @@
+package rpm.server;
+
+import rpm.dao.VitalCopyBuffer;
+import rpm.dao.VitalSampleDao;
+import rpm.db.Db;
+import rpm.metrics.LatencyHistogram;
+import rpm.model.PatientSample;
+import rpm.model.VitalSample;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Background writer that persists vital samples in JDBC batches.
+ *
+ * <p>Producers {@link #offer} samples into a bounded queue. One daemon thread drains
+ * it into batches of up to {@code batchSize} rows, waiting at most {@code lingerMs}
+ * after the first row for the batch to fill. Each batch is one round trip on a
+ * connection and prepared statement that the writer keeps between batches, so a
+ * steady stream uses a single pooled connection instead of one per sample.
+ *
+ * <p>Backpressure: when the queue is full, {@link #offer} returns false rather than
+ * growing memory; callers decide whether to drop (simulation) or reject (HTTP 503).
+ *
+ * <p>{@link Mode#COPY} sends each batch through {@code COPY} and a staging-table merge
+ * instead of a JDBC batch; it costs an extra statement per batch but moves far more
+ * rows per second once batches are large.
+ *
+ * <p>{@link #onWritten} lets consumers such as {@link MinuteAggregationService} and
+ * {@link HotReadCache} see the rows of every batch after they are stored, without
+ * reading them back. Rows the database skipped as duplicates are left out, so a
+ * resend cannot count twice or overwrite what was stored first.
+ */
+public final class VitalSampleWriter {
+
+    /** How a batch reaches the database. */
+    public enum Mode {
+        /** Reused prepared INSERT, executed as a JDBC batch. */
+        BATCH,
+        /** COPY into a temp table, then INSERT ... SELECT ... ON CONFLICT DO NOTHING. */
+        COPY;
+
+        /** Parses a config value, falling back to BATCH for anything unrecognised. */
+        public static Mode parse(String v) {
+            return v != null && v.trim().equalsIgnoreCase("copy") ? COPY : BATCH;
+        }
+    }
+
+    public static final int DEFAULT_CAPACITY = 50_000;
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final long DEFAULT_LINGER_MS = 50;
+
+    // hand the connection back to the pool before Hikari's max lifetime (5 min)
+    private static final long MAX_CONNECTION_AGE_MS = 4 * 60_000L;
+    private static final long IDLE_POLL_MS = 500;
+
+    /** Where batches go; the database outside of tests. Called on the worker thread only. */
+    interface Sink {
+        /** Stores the batch, setting bit {@code i} of {@code inserted} for each new row (not a duplicate). */
+        void write(List<PatientSample> batch, BitSet inserted) throws Exception;
+
+        /** Releases any connection, after a failure or once the queue runs dry. */
+        void reset();
+    }
+
+    private final Mode mode;
+    private final Sink sink;
+    private final BlockingQueue<PatientSample> queue;
+    private final int batchSize;
+    private final long lingerNanos;
+    private final Thread worker;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong droppedBatches = new AtomicLong();
+    private final LatencyHistogram batchLatency = new LatencyHistogram("vital-batch");
+
+    private volatile boolean running = true;
+    private final List<Consumer<List<PatientSample>>> onWritten = new CopyOnWriteArrayList<>();
+
+    public VitalSampleWriter() {
+        this(Mode.BATCH);
+    }
+
+    public VitalSampleWriter(Mode mode) {
+        this(mode, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE, DEFAULT_LINGER_MS);
+    }
+
+    public VitalSampleWriter(Mode mode, int capacity, int batchSize, long lingerMs) {
+        this(mode == null ? Mode.BATCH : mode, new DbSink(mode == null ? Mode.BATCH : mode), capacity, batchSize, lingerMs);
+    }
+
+    VitalSampleWriter(Mode mode, Sink sink, int capacity, int batchSize, long lingerMs) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be > 0");
+        if (batchSize <= 0) throw new IllegalArgumentException("batchSize must be > 0");
+        if (lingerMs < 0) throw new IllegalArgumentException("lingerMs must be >= 0");
+        this.mode = mode;
+        this.sink = sink;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMs);
+        this.worker = new Thread(this::loop, "vital-batch-writer");
+        this.worker.setDaemon(true);
+    }
+
+    public void start() {
+        worker.start();
+    }
+
+    /** Queues a sample without blocking; false if the writer is full or stopped. */
+    public boolean offer(String patientId, VitalSample sample) {
+        return count(running && queue.offer(new PatientSample(patientId, sample)));
+    }
+
+    /** Like {@link #offer(String, VitalSample)} but waits up to {@code timeoutMs} for room. */
+    public boolean offer(String patientId, VitalSample sample, long timeoutMs) {
+        boolean ok = false;
+        try {
+            ok = running && queue.offer(new PatientSample(patientId, sample), timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        return count(ok);
+    }
+
+    /**
+     * Queues {@code rows} in order, waiting up to {@code timeoutMs} in total for room.
+     * Returns how many were accepted; rows after the first one that did not fit are
+     * not queued, so the caller can resume from {@code rows.get(result)}.
+     */
+    public int offerAll(List<PatientSample> rows, long timeoutMs) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        int n = 0;
+        try {
+            for (PatientSample row : rows) {
+                if (!running || !queue.offer(row, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) break;
+                n++;
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        accepted.addAndGet(n);
+        rejected.addAndGet(rows.size() - n);
+        return n;
+    }
+
+    /**
+     * Adds a listener called on the writer thread with the rows of each batch that
+     * were inserted, once stored; duplicates of stored rows are not passed on. The
+     * list is reused afterwards, so the listener must not keep it.
+     */
+    public void onWritten(Consumer<List<PatientSample>> listener) {
+        onWritten.add(listener);
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    public int depth() {
+        return queue.size();
+    }
+
+    public long accepted() { return accepted.get(); }
+    public long rejected() { return rejected.get(); }
+    public long written() { return written.get(); }
+    public long batches() { return batches.get(); }
+    public long failed() { return failed.get(); }
+    /** Batches given up on after the retry; their rows are counted in {@link #failed}. */
+    public long droppedBatches() { return droppedBatches.get(); }
+
+    public LatencyHistogram batchLatency() {
+        return batchLatency;
+    }
+
+    public String summary() {
+        return "mode=" + mode
+                + " queued=" + depth()
+                + " accepted=" + accepted()
+                + " rejected=" + rejected()
+                + " written=" + written()
+                + " batches=" + batches()
+                + " failed=" + failed()
+                + " droppedBatches=" + droppedBatches()
+                + " " + batchLatency.summary();
+    }
+
+    /**
+     * Stops accepting samples, flushes what is already queued (waiting up to
+     * {@code timeoutMs}) and releases the connection.
+     */
+    public void stop(long timeoutMs) {
+        running = false;
+        try {
+            worker.join(Math.max(1, timeoutMs));
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        if (worker.isAlive()) worker.interrupt();
+    }
+
+    // ---------- worker ----------
+
+    private boolean count(boolean ok) {
+        (ok ? accepted : rejected).incrementAndGet();
+        return ok;
+    }
+
+    private void loop() {
+        List<PatientSample> batch = new ArrayList<>(batchSize);
+        List<PatientSample> stored = new ArrayList<>(batchSize);
+        BitSet inserted = new BitSet(batchSize);
+        try {
+            while (running || !queue.isEmpty()) {
+                PatientSample first = queue.poll(IDLE_POLL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    // nothing arriving: give the connection back to the pool
+                    sink.reset();
+                    continue;
+                }
+
+                batch.add(first);
+                fill(batch);
+                flush(batch, inserted, stored);
+                batch.clear();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } finally {
+            sink.reset();
+        }
+    }
+
+    /** Tops the batch up to batchSize, waiting no longer than the linger time. */
+    private void fill(List<PatientSample> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + lingerNanos;
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            if (batch.size() >= batchSize || !running) return;
+
+            long wait = deadline - System.nanoTime();
+            if (wait <= 0) return;
+            PatientSample next = queue.poll(wait, TimeUnit.NANOSECONDS);
+            if (next == null) return;
+            batch.add(next);
+        }
+    }
+
+    private void flush(List<PatientSample> batch, BitSet inserted, List<PatientSample> stored) {
+        long t0 = System.nanoTime();
+        // one retry on a fresh connection covers a connection the server dropped
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                sink.write(batch, inserted);
+                written.addAndGet(batch.size());
+                batches.incrementAndGet();
+                batchLatency.recordMicros((System.nanoTime() - t0) / 1000);
+                if (inserted.cardinality() == batch.size()) {
+                    notifyWritten(batch);
+                } else {
+                    stored.clear();
+                    for (int i = inserted.nextSetBit(0); i >= 0; i = inserted.nextSetBit(i + 1)) stored.add(batch.get(i));
+                    if (!stored.isEmpty()) notifyWritten(stored);
+                }
+                return;
+            } catch (Exception e) {
+                sink.reset();
+                if (attempt == 1) {
+                    long lost = failed.addAndGet(batch.size());
+                    long dropped = droppedBatches.incrementAndGet();
+                    // do not spam stack traces; the totals are in summary() and /health
+                    if (dropped % 100 == 1) {
+                        System.err.println("[VitalSampleWriter] dropped a batch of " + batch.size()
+                                + " after a retry (" + dropped + " batches, " + lost + " samples so far): "
+                                + e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    private void notifyWritten(List<PatientSample> batch) {
+        for (Consumer<List<PatientSample>> l : onWritten) {
+            try {
+                l.accept(batch);
+            } catch (RuntimeException e) {
+                System.err.println("[VitalSampleWriter] listener failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /** JDBC batch or COPY on a connection kept between batches. */
+    private static final class DbSink implements Sink {
+        private final VitalSampleDao dao = new VitalSampleDao();
+        private final Mode mode;
+        private final VitalCopyBuffer copyBuffer;
+
+        private Connection conn;
+        private PreparedStatement ps;
+        private long connOpenedMs;
+
+        DbSink(Mode mode) {
+            this.mode = mode;
+            this.copyBuffer = mode == Mode.COPY ? new VitalCopyBuffer() : null;
+        }
+
+        @Override
+        public void write(List<PatientSample> batch, BitSet inserted) throws Exception {
+            if (mode == Mode.COPY) {
+                dao.copyBatch(connection(), batch, copyBuffer, inserted);
+            } else {
+                dao.insertBatch(statement(), batch, inserted);
+            }
+        }
+
+        private Connection connection() throws Exception {
+            long now = System.currentTimeMillis();
+            if (conn != null && now - connOpenedMs > MAX_CONNECTION_AGE_MS) reset();
+            if (conn == null) {
+                conn = Db.getConnection();
+                connOpenedMs = now;
+            }
+            return conn;
+        }
+
+        private PreparedStatement statement() throws Exception {
+            Connection c = connection();
+            if (ps == null) ps = dao.prepareTrackedBatchInsert(c);
+            return ps;
+        }
+
+        @Override
+        public void reset() {
+            if (ps != null) {
+                try { ps.close(); } catch (Exception ignored) {}
+                ps = null;
+            }
+            if (conn != null) {
+                try { conn.close(); } catch (Exception ignored) {}
+                conn = null;
+            }
+        }
+    }
+}
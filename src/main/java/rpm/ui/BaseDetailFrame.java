@@ -1,15 +1,15 @@
 package rpm.ui;
 
 import rpm.alert.AlertEngine;
+import rpm.data.PatientDataStore;
 import rpm.data.PatientManager;
+import rpm.data.VitalDelta;
 import rpm.model.Patient;
-import rpm.model.VitalSample;
 import rpm.model.VitalType;
 import rpm.sim.Simulator;
 
 import javax.swing.*;
 import java.awt.*;
-import java.util.List;
 
 public abstract class BaseDetailFrame extends JFrame {
 
@@ -19,17 +19,20 @@ public abstract class BaseDetailFrame extends JFrame {
     protected final JFrame overviewFrame;
     protected final JFrame loginFrame;
 
-    private final VitalChartPanel tempPanel = VitalChartPanel.forVital("Body Temp (°C)", VitalType.BODY_TEMPERATURE, VitalSample::bodyTemp);
-    private final VitalChartPanel hrPanel   = VitalChartPanel.forVital("Heart Rate (bpm)", VitalType.HEART_RATE, VitalSample::heartRate);
-    private final VitalChartPanel rrPanel   = VitalChartPanel.forVital("Resp Rate (rpm)", VitalType.RESPIRATORY_RATE, VitalSample::respiratoryRate);
-    private final VitalChartPanel sysPanel  = VitalChartPanel.forVital("Systolic BP (mmHg)", VitalType.SYSTOLIC_BP, VitalSample::systolicBP);
-    private final VitalChartPanel diaPanel  = VitalChartPanel.forVital("Diastolic BP (mmHg)", VitalType.DIASTOLIC_BP, VitalSample::diastolicBP);
+    private final VitalChartPanel tempPanel = VitalChartPanel.forVital("Body Temp (°C)", VitalType.BODY_TEMPERATURE);
+    private final VitalChartPanel hrPanel   = VitalChartPanel.forVital("Heart Rate (bpm)", VitalType.HEART_RATE);
+    private final VitalChartPanel rrPanel   = VitalChartPanel.forVital("Resp Rate (rpm)", VitalType.RESPIRATORY_RATE);
+    private final VitalChartPanel sysPanel  = VitalChartPanel.forVital("Systolic BP (mmHg)", VitalType.SYSTOLIC_BP);
+    private final VitalChartPanel diaPanel  = VitalChartPanel.forVital("Diastolic BP (mmHg)", VitalType.DIASTOLIC_BP);
     private final EcgChartPanel ecgPanel    = new EcgChartPanel();
 
     // Table + Latest panels
     private final VitalTablePanel tablePanel = new VitalTablePanel();
     private final LatestReadingsPanel latestPanel = new LatestReadingsPanel();
 
+    // position in the patient's sample stream; each refresh reads only what came after it
+    private long cursor = 0;
+
     public BaseDetailFrame(String title,
                            PatientManager pm,
                            AlertEngine alertEngine,
@@ -87,6 +90,9 @@ public abstract class BaseDetailFrame extends JFrame {
         chartsGrid.add(sysPanel);
         chartsGrid.add(diaPanel);
 
+        PatientDataStore store = pm.storeOf(patient.patientId());
+        tablePanel.onSettingsChanged(() -> tablePanel.setSamples(store.snapshot(), alertEngine));
+
         JTabbedPane tabs = new JTabbedPane();
         tabs.addTab("Charts", wrap(chartsGrid));
         tabs.addTab("Table", tablePanel);
@@ -143,21 +149,21 @@ public abstract class BaseDetailFrame extends JFrame {
     }
 
     private void refresh() {
-        List<VitalSample> all = pm.storeOf(patient.patientId()).getBufferedSamples();
-        if (all.isEmpty()) return;
+        VitalDelta delta = pm.storeOf(patient.patientId()).samplesSince(cursor);
+        cursor = delta.cursor();
+        if (delta.isEmpty() && !delta.truncated()) return;
 
         // Charts
-        tempPanel.updateData(all, alertEngine);
-        hrPanel.updateData(all, alertEngine);
-        rrPanel.updateData(all, alertEngine);
-        sysPanel.updateData(all, alertEngine);
-        diaPanel.updateData(all, alertEngine);
-        ecgPanel.updateData(all);
+        tempPanel.append(delta, alertEngine);
+        hrPanel.append(delta, alertEngine);
+        rrPanel.append(delta, alertEngine);
+        sysPanel.append(delta, alertEngine);
+        diaPanel.append(delta, alertEngine);
+        ecgPanel.append(delta);
 
         // Latest + Table
-        VitalSample latest = all.get(all.size() - 1);
-        latestPanel.update(latest, alertEngine);
-        tablePanel.setSamples(all, alertEngine);
+        latestPanel.append(delta, alertEngine);
+        tablePanel.append(delta, alertEngine);
     }
 
     protected void goBack() {
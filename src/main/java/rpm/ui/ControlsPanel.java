@@ -8,11 +8,14 @@ import java.util.function.Consumer;
 
 public class ControlsPanel extends JPanel {
 
+    /** Widest chart window the slider offers; live charts keep this much history. */
+    public static final int MAX_WINDOW_SECONDS = 300;
+
     private Consumer<Integer> windowSecondsListener = s -> {};
     private Consumer<SimulationMode> modeListener = m -> {};
     private Consumer<Double> hrBaseListener = bpm -> {};
 
-    private final JSlider windowSlider = new JSlider(10, 300, 30);
+    private final JSlider windowSlider = new JSlider(10, MAX_WINDOW_SECONDS, 30);
     private final JComboBox<SimulationMode> modeBox = new JComboBox<>(SimulationMode.values());
     private final JSpinner hrBaseSpinner = new JSpinner(new SpinnerNumberModel(75.0, 30.0, 200.0, 1.0));
 
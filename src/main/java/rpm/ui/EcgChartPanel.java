@@ -1,14 +1,15 @@
 package rpm.ui;
 
-import rpm.model.VitalSample;
+import rpm.data.VitalDelta;
+import rpm.data.VitalWindow;
+import rpm.model.VitalType;
 
 import javax.swing.*;
 import java.awt.*;
-import java.util.List;
 
 public class EcgChartPanel extends JPanel {
 
-    private List<VitalSample> data = List.of();
+    private final LiveSeries data = new LiveSeries(ControlsPanel.MAX_WINDOW_SECONDS * 1000L);
     private int windowSeconds = 10;
 
     public EcgChartPanel() {
@@ -22,9 +23,14 @@ public class EcgChartPanel extends JPanel {
         repaint();
     }
 
-    public void updateData(List<VitalSample> all) {
-        this.data = all;
-        repaint();
+    /** Adds the samples from an incremental read; a truncated delta restarts the trace. */
+    public void append(VitalDelta delta) {
+        if (delta.truncated()) data.clear();
+        VitalWindow w = delta.samples();
+        for (int i = 0; i < w.size(); i++) {
+            data.append(w.timestampAt(i), w.valueAt(VitalType.ECG, i));
+        }
+        if (!w.isEmpty()) repaint();
     }
 
     @Override
@@ -37,18 +43,18 @@ public class EcgChartPanel extends JPanel {
 
         if (data.isEmpty()) return;
 
-        long latestT = data.get(data.size() - 1).timestampMs();
+        long latestT = data.lastTime();
         long startT = latestT - windowSeconds * 1000L;
 
-        List<VitalSample> win = data.stream()
-                .filter(s -> s.timestampMs() >= startT)
-                .collect(java.util.stream.Collectors.toList());
-
+        int first = data.lowerBound(startT);
+        if (data.size() - first < 2) return;
 
-        if (win.size() < 2) return;
-
-        double min = win.stream().mapToDouble(VitalSample::ecgValue).min().orElse(-1);
-        double max = win.stream().mapToDouble(VitalSample::ecgValue).max().orElse(1);
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = first; i < data.size(); i++) {
+            min = Math.min(min, data.valueAt(i));
+            max = Math.max(max, data.valueAt(i));
+        }
         if (Math.abs(max - min) < 1e-9) max = min + 1;
 
         int padLeft = 40, padRight = 10, padTop = 30, padBottom = 20;
@@ -61,9 +67,9 @@ public class EcgChartPanel extends JPanel {
         g2.drawRect(padLeft, padTop, w - padLeft - padRight, h - padTop - padBottom);
 
         int prevX = -1, prevY = -1;
-        for (VitalSample s : win) {
-            double v = s.ecgValue();
-            double tx = (s.timestampMs() - startT) / (double) (windowSeconds * 1000L);
+        for (int i = first; i < data.size(); i++) {
+            double v = data.valueAt(i);
+            double tx = (data.timeAt(i) - startT) / (double) (windowSeconds * 1000L);
             double ty = (v - min) / (max - min);
 
             int x = padLeft + (int) (tx * (w - padLeft - padRight));
@@ -1,6 +1,7 @@
 package rpm.ui;
 
 import rpm.alert.AlertEngine;
+import rpm.data.VitalDelta;
 import rpm.model.AlertLevel;
 import rpm.model.VitalSample;
 import rpm.model.VitalType;
@@ -44,6 +45,11 @@ public class LatestReadingsPanel extends JPanel {
         return p;
     }
 
+    /** Shows the newest sample of an incremental read; nothing changes if it is empty. */
+    public void append(VitalDelta delta, AlertEngine alertEngine) {
+        if (!delta.isEmpty()) update(delta.samples().latest(), alertEngine);
+    }
+
     public void update(VitalSample s, AlertEngine alertEngine) {
         updatedLabel.setText("Updated: " + fmt.format(new Date(s.timestampMs())));
 
@@ -0,0 +1,82 @@
+package rpm.ui;
+
+/**
+ * Rolling (timestamp, value) series kept by a live chart between refreshes.
+ * New points are appended from each incremental read and points older than
+ * the retention span are dropped, so a refresh never re-reads the whole buffer.
+ */
+final class LiveSeries {
+
+    private final long retainMs;
+
+    private long[] ts = new long[256];
+    private double[] vals = new double[256];
+    private int head = 0;   // index of the oldest point
+    private int size = 0;
+
+    LiveSeries(long retainMs) {
+        this.retainMs = retainMs;
+    }
+
+    void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    void append(long t, double v) {
+        if (size == ts.length) grow();
+        int i = (head + size) % ts.length;
+        ts[i] = t;
+        vals[i] = v;
+        size++;
+
+        long cutoff = t - retainMs;
+        while (size > 0 && ts[head] < cutoff) {
+            head = (head + 1) % ts.length;
+            size--;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    long timeAt(int i) {
+        return ts[(head + i) % ts.length];
+    }
+
+    double valueAt(int i) {
+        return vals[(head + i) % vals.length];
+    }
+
+    long lastTime() {
+        return timeAt(size - 1);
+    }
+
+    /** First index whose timestamp is >= t (size() if none). */
+    int lowerBound(long t) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timeAt(mid) < t) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private void grow() {
+        long[] nts = new long[ts.length * 2];
+        double[] nvals = new double[vals.length * 2];
+        for (int k = 0; k < size; k++) {
+            nts[k] = timeAt(k);
+            nvals[k] = valueAt(k);
+        }
+        ts = nts;
+        vals = nvals;
+        head = 0;
+    }
+}
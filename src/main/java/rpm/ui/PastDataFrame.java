@@ -1,8 +1,9 @@
 package rpm.ui;
 
 import rpm.alert.AlertEngine;
-import rpm.data.MinuteRecord;
 import rpm.data.PatientHistoryStore;
+import rpm.data.RollupBucket;
+import rpm.data.RollupTiers;
 import rpm.model.Patient;
 import rpm.model.VitalType;
 
@@ -21,9 +22,9 @@ public class PastDataFrame extends JFrame {
     private final AlertEngine alertEngine;
 
     private final PastVitalChartPanel chart;
-    private final JLabel selectedInfo = new JLabel("Select a minute…");
+    private final JLabel selectedInfo = new JLabel("Select a point…");
 
-    private List<MinuteRecord> records = List.of();
+    private List<RollupBucket> records = List.of();
 
     private final JComboBox<String> rangeBox = new JComboBox<>(new String[]{
             "Last 24 Hours", "Last 72 Hours", "Last 7 Days"
@@ -69,7 +70,7 @@ public class PastDataFrame extends JFrame {
 
         JPanel bottom = new JPanel(new BorderLayout(10, 10));
         bottom.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
-        bottom.add(new JLabel("Select minute (0 = oldest, rightmost = latest):"), BorderLayout.NORTH);
+        bottom.add(new JLabel("Select point (0 = oldest, rightmost = latest):"), BorderLayout.NORTH);
         bottom.add(minuteSlider, BorderLayout.CENTER);
         bottom.add(selectedInfo, BorderLayout.SOUTH);
 
@@ -95,18 +96,24 @@ public class PastDataFrame extends JFrame {
     private void reload() {
         int idx = rangeBox.getSelectedIndex();
 
+        long now = System.currentTimeMillis();
+        long hours = idx == 0 ? 24 : idx == 1 ? 72 : 7 * 24;
+        long from = now - hours * 3600_000L;
+
+        // one bucket per pixel at most; wider ranges come from coarser rollups
+        int points = Math.max(100, chart.getWidth() > 0 ? chart.getWidth() : chart.getPreferredSize().width);
+        records = history.getBuckets(from, now, points);
+        String res = resolutionLabel(records.isEmpty() ? RollupTiers.MINUTE : records.get(0).widthMs());
+
         if (idx == 0) {
-            records = history.getLastHours(24);
             setTitle("Past Vital Data (24h) - " + patient.patientId());
-            chart.setRangeLabel("Last 24 hours (minute averages)");
+            chart.setRangeLabel("Last 24 hours (" + res + " averages)");
         } else if (idx == 1) {
-            records = history.getLastHours(72);
             setTitle("Past Vital Data (72h) - " + patient.patientId());
-            chart.setRangeLabel("Last 72 hours (minute averages)");
+            chart.setRangeLabel("Last 72 hours (" + res + " averages)");
         } else {
-            records = history.getLastDays(7);
             setTitle("Past Vital Data (7d) - " + patient.patientId());
-            chart.setRangeLabel("Last 7 days (minute averages)");
+            chart.setRangeLabel("Last 7 days (" + res + " averages)");
         }
 
         if (records.isEmpty()) {
@@ -132,22 +139,22 @@ public class PastDataFrame extends JFrame {
         int idx = vitalBox.getSelectedIndex();
         switch (idx) {
             case 0:
-                chart.setVital(VitalType.BODY_TEMPERATURE, MinuteRecord::avgTemp);
+                chart.setVital(VitalType.BODY_TEMPERATURE);
                 break;
             case 1:
-                chart.setVital(VitalType.HEART_RATE, MinuteRecord::avgHR);
+                chart.setVital(VitalType.HEART_RATE);
                 break;
             case 2:
-                chart.setVital(VitalType.RESPIRATORY_RATE, MinuteRecord::avgRR);
+                chart.setVital(VitalType.RESPIRATORY_RATE);
                 break;
             case 3:
-                chart.setVital(VitalType.SYSTOLIC_BP, MinuteRecord::avgSys);
+                chart.setVital(VitalType.SYSTOLIC_BP);
                 break;
             case 4:
-                chart.setVital(VitalType.DIASTOLIC_BP, MinuteRecord::avgDia);
+                chart.setVital(VitalType.DIASTOLIC_BP);
                 break;
             default:
-                chart.setVital(VitalType.HEART_RATE, MinuteRecord::avgHR);
+                chart.setVital(VitalType.HEART_RATE);
                 break;
         }
         chart.repaint();
@@ -161,14 +168,24 @@ public class PastDataFrame extends JFrame {
 
         chart.setSelectedIndex(i);
 
-        MinuteRecord r = records.get(i);
-        String time = Instant.ofEpochMilli(r.minuteStartMs())
+        RollupBucket r = records.get(i);
+        String time = Instant.ofEpochMilli(r.startMs())
                 .atZone(ZoneId.systemDefault())
                 .format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm"));
 
         selectedInfo.setText(String.format(
-                "Minute: %s | Temp=%.2f°C, HR=%.1f bpm, RR=%.1f rpm, Sys=%.1f, Dia=%.1f (n=%d)",
-                time, r.avgTemp(), r.avgHR(), r.avgRR(), r.avgSys(), r.avgDia(), r.sampleCount()
+                "%s (%s): Temp=%.2f°C, HR=%.1f bpm, RR=%.1f rpm, Sys=%.1f, Dia=%.1f (n=%d)",
+                time, resolutionLabel(r.widthMs()),
+                r.mean(VitalType.BODY_TEMPERATURE), r.mean(VitalType.HEART_RATE),
+                r.mean(VitalType.RESPIRATORY_RATE), r.mean(VitalType.SYSTOLIC_BP),
+                r.mean(VitalType.DIASTOLIC_BP), r.sampleCount()
         ));
     }
+
+    private static String resolutionLabel(long widthMs) {
+        if (widthMs >= RollupTiers.DAY) return "1 day";
+        if (widthMs >= RollupTiers.HOUR) return "1 h";
+        if (widthMs >= RollupTiers.FIVE_MINUTES) return "5 min";
+        return "1 min";
+    }
 }
@@ -1,22 +1,20 @@
 package rpm.ui;
 
 import rpm.alert.AlertEngine;
-import rpm.data.MinuteRecord;
+import rpm.data.RollupBucket;
 import rpm.model.AlertLevel;
 import rpm.model.VitalType;
 
 import javax.swing.*;
 import java.awt.*;
 import java.util.List;
-import java.util.function.ToDoubleFunction;
 
 public class PastVitalChartPanel extends JPanel {
 
-    private List<MinuteRecord> data = List.of();
+    private List<RollupBucket> data = List.of();
     private int selectedIndex = -1;
 
     private VitalType vitalType = VitalType.HEART_RATE;
-    private ToDoubleFunction<MinuteRecord> extractor = MinuteRecord::avgHR;
 
     private final AlertEngine alertEngine;
 
@@ -29,14 +27,13 @@ public class PastVitalChartPanel extends JPanel {
         setBackground(Color.WHITE);
     }
 
-    public void setVital(VitalType type, ToDoubleFunction<MinuteRecord> ex) {
+    public void setVital(VitalType type) {
         this.vitalType = type;
-        this.extractor = ex;
         repaint();
     }
 
-    public void setData(List<MinuteRecord> recs) {
-        this.data = recs;
+    public void setData(List<RollupBucket> buckets) {
+        this.data = buckets;
         repaint();
     }
 
@@ -72,17 +69,37 @@ public class PastVitalChartPanel extends JPanel {
         g2.setColor(Color.BLACK);
         g2.drawRect(padL, padT, plotW, plotH);
 
-        // min/max
-        double min = data.stream().mapToDouble(extractor).min().orElse(0);
-        double max = data.stream().mapToDouble(extractor).max().orElse(1);
+        // min/max over the bucket extremes, so the range band fits
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (RollupBucket b : data) {
+            if (b.stats(vitalType).isEmpty()) continue;
+            min = Math.min(min, b.min(vitalType));
+            max = Math.max(max, b.max(vitalType));
+        }
+        if (min > max) return;
         if (Math.abs(max - min) < 1e-9) max = min + 1;
 
-        // polyline + abnormal markers
+        // min..max band per bucket (wider buckets only; a minute has min == max)
         int n = data.size();
+        g2.setColor(new Color(190, 200, 225));
+        for (int i = 0; i < n; i++) {
+            RollupBucket b = data.get(i);
+            if (b.stats(vitalType).isEmpty()) continue;
+            double tx = (n <= 1) ? 0 : (i / (double) (n - 1));
+            int x = padL + (int) (tx * plotW);
+            int yLo = padT + (int) ((1 - (b.min(vitalType) - min) / (max - min)) * plotH);
+            int yHi = padT + (int) ((1 - (b.max(vitalType) - min) / (max - min)) * plotH);
+            if (yLo != yHi) g2.drawLine(x, yLo, x, yHi);
+        }
+
+        // mean polyline + abnormal markers
         int prevX = -1, prevY = -1;
 
         for (int i = 0; i < n; i++) {
-            double v = extractor.applyAsDouble(data.get(i));
+            RollupBucket b = data.get(i);
+            if (b.stats(vitalType).isEmpty()) continue;
+            double v = b.mean(vitalType);
             double tx = (n <= 1) ? 0 : (i / (double) (n - 1));
             double ty = (v - min) / (max - min);
 
@@ -102,9 +119,9 @@ public class PastVitalChartPanel extends JPanel {
             prevY = y;
         }
 
-        // selected minute highlight
-        if (selectedIndex >= 0 && selectedIndex < n) {
-            double v = extractor.applyAsDouble(data.get(selectedIndex));
+        // selected bucket highlight
+        if (selectedIndex >= 0 && selectedIndex < n && !data.get(selectedIndex).stats(vitalType).isEmpty()) {
+            double v = data.get(selectedIndex).mean(vitalType);
             double tx = (n <= 1) ? 0 : (selectedIndex / (double) (n - 1));
             double ty = (v - min) / (max - min);
 
@@ -2,6 +2,7 @@ package rpm.ui;
 
 import rpm.alert.AlertEngine;
 import rpm.data.PatientManager;
+import rpm.data.VitalDelta;
 import rpm.model.AlertLevel;
 import rpm.model.Patient;
 import rpm.model.VitalSample;
@@ -9,7 +10,6 @@ import rpm.model.VitalType;
 
 import javax.swing.*;
 import java.awt.*;
-import java.util.List;
 
 public class PatientTilePanel extends JPanel {
 
@@ -22,6 +22,8 @@ public class PatientTilePanel extends JPanel {
     private final JLabel title = new JLabel();
     private final JLabel status = new JLabel();
 
+    private long cursor = 0;
+
     public PatientTilePanel(Patient patient, PatientManager pm, AlertEngine alertEngine) {
         this.patient = patient;
         this.pm = pm;
@@ -64,12 +66,14 @@ public class PatientTilePanel extends JPanel {
     }
 
     private void refresh() {
-        List<VitalSample> all = pm.storeOf(patient.patientId()).getBufferedSamples();
-        if (all.isEmpty()) return;
+        // only the samples added since the last refresh are read
+        VitalDelta delta = pm.storeOf(patient.patientId()).samplesSince(cursor);
+        cursor = delta.cursor();
+        if (delta.isEmpty()) return;
 
-        ecgPanel.updateData(all);
+        ecgPanel.append(delta);
 
-        VitalSample last = all.get(all.size() - 1);
+        VitalSample last = delta.samples().latest();
         AlertLevel worst = worstLevel(last);
 
         status.setText("Status: " + worst);
@@ -6,10 +6,12 @@ import rpm.dao.MinuteAverageDao;
 import rpm.data.AbnormalEvent;
 import rpm.data.MinuteRecord;
 import rpm.data.PatientHistoryStore;
+import rpm.data.RollupBucket;
 import rpm.model.Patient;
 import rpm.client.CloudReportClient;
 import rpm.config.ConfigStore;
 import rpm.model.AlertLevel;
+import rpm.model.VitalType;
 
 import java.nio.file.Paths;
 
@@ -32,6 +34,7 @@ public class ReportFrame extends JFrame {
 
     private static final long serialVersionUID = 1L;
     private final Patient patient;
+    private final PatientHistoryStore history;
     private final JFrame back;
 
     private final JTextArea textArea = new JTextArea();
@@ -45,7 +48,7 @@ public class ReportFrame extends JFrame {
 
     public ReportFrame(Patient patient, PatientHistoryStore history, AlertEngine alertEngine, JFrame back) {
         this.patient = Objects.requireNonNull(patient);
-        Objects.requireNonNull(history); // kept for API compatibility / future use
+        this.history = Objects.requireNonNull(history);
         Objects.requireNonNull(alertEngine); // kept for API compatibility / future use
         this.back = back;
 
@@ -123,15 +126,23 @@ public class ReportFrame extends JFrame {
                 } catch (Exception cloudEx) {
                     System.err.println("[ReportFrame] cloud report failed: " + cloudEx.getMessage());
 
-                    // ===== 2) Fallback: local DB =====
+                    // ===== 2) Fallback: local rollups, then local DB =====
                     try {
-                        MinuteAverageDao minuteDao = new MinuteAverageDao();
                         AbnormalEventDao abnormalDao = new AbnormalEventDao();
 
-                        List<MinuteRecord> minutes = minuteDao.latest(patient.patientId(), 2000);
+                        // the rollups only go back to the start of this session; older
+                        // minutes of the window come from the DB
+                        long inMemoryFrom = Math.max(from, Math.min(now, history.oldestMinuteMs()));
+                        RollupBucket summary = history.summarize(inMemoryFrom, now);
+                        if (from < inMemoryFrom) {
+                            MinuteAverageDao minuteDao = new MinuteAverageDao();
+                            for (MinuteRecord m : minuteDao.range(patient.patientId(), from, inMemoryFrom - 1)) {
+                                summary = summary.merge(RollupBucket.ofMinute(m));
+                            }
+                        }
                         List<AbnormalEvent> abns = abnormalDao.latest(patient.patientId(), 2000);
 
-                        return buildTextReport(patient, from, now, minutes, abns)
+                        return buildTextReport(patient, from, now, summary, abns)
                                 + "\n\n[Note] Cloud report failed, showing local DB report fallback.\n"
                                 + "Cloud error: " + cloudEx.getMessage() + "\n";
 
@@ -167,7 +178,7 @@ public class ReportFrame extends JFrame {
             Patient p,
             long fromMs,
             long toMs,
-            List<MinuteRecord> minutes,
+            RollupBucket summary,
             List<AbnormalEvent> abns
     ) {
         DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
@@ -182,31 +193,18 @@ public class ReportFrame extends JFrame {
                 .append("  ->  ")
                 .append(fmt.format(Instant.ofEpochMilli(toMs))).append("\n\n");
 
-        // ---- Minute averages summary (filter by time window)
-        double sumT = 0, sumHR = 0, sumRR = 0, sumSys = 0, sumDia = 0;
-        int count = 0;
-
-        for (MinuteRecord m : minutes) {
-            long t = m.minuteStartMs();
-            if (t < fromMs || t > toMs) continue;
-            sumT += m.avgTemp();
-            sumHR += m.avgHR();
-            sumRR += m.avgRR();
-            sumSys += m.avgSys();
-            sumDia += m.avgDia();
-            count++;
-        }
-
+        // ---- Minute averages summary (already restricted to the window);
+        // each minute counts once, however many samples it had
         sb.append("---- Minute Averages ----\n");
-        if (count == 0) {
+        if (summary.isEmpty()) {
             sb.append("No minute averages in this window.\n\n");
         } else {
-            sb.append("Minutes recorded: ").append(count).append("\n");
-            sb.append(String.format("Avg Temp: %.2f\n", sumT / count));
-            sb.append(String.format("Avg HR  : %.2f\n", sumHR / count));
-            sb.append(String.format("Avg RR  : %.2f\n", sumRR / count));
-            sb.append(String.format("Avg SYS : %.2f\n", sumSys / count));
-            sb.append(String.format("Avg DIA : %.2f\n\n", sumDia / count));
+            sb.append("Minutes recorded: ").append(summary.minutes()).append("\n");
+            sb.append(String.format("Avg Temp: %.2f\n", summary.minuteMean(VitalType.BODY_TEMPERATURE)));
+            sb.append(String.format("Avg HR  : %.2f\n", summary.minuteMean(VitalType.HEART_RATE)));
+            sb.append(String.format("Avg RR  : %.2f\n", summary.minuteMean(VitalType.RESPIRATORY_RATE)));
+            sb.append(String.format("Avg SYS : %.2f\n", summary.minuteMean(VitalType.SYSTOLIC_BP)));
+            sb.append(String.format("Avg DIA : %.2f\n\n", summary.minuteMean(VitalType.DIASTOLIC_BP)));
         }
 
         // ---- Abnormal events list (filter by time window)
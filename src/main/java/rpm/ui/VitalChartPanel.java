@@ -1,26 +1,23 @@
 package rpm.ui;
 
 import rpm.alert.AlertEngine;
+import rpm.data.VitalDelta;
+import rpm.data.VitalWindow;
 import rpm.model.AlertLevel;
-import rpm.model.VitalSample;
 import rpm.model.VitalType;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.util.List;
-import java.util.function.ToDoubleFunction;
-import java.util.stream.Collectors;
 
 public class VitalChartPanel extends JPanel {
 
     private final String title;
     private final VitalType vitalType;
-    private final ToDoubleFunction<VitalSample> extractor;
 
-    // live state (updated by updateData)
-    private List<VitalSample> data = List.of();
+    // live state (appended by append)
+    private LiveSeries data = new LiveSeries(ControlsPanel.MAX_WINDOW_SECONDS * 1000L);
     private int windowSeconds = 30;
 
     private AlertLevel currentLevel = AlertLevel.NORMAL;
@@ -29,14 +26,13 @@ public class VitalChartPanel extends JPanel {
     // render style
     private final boolean largeMode;
 
-    public static VitalChartPanel forVital(String title, VitalType type, ToDoubleFunction<VitalSample> extractor) {
-        return new VitalChartPanel(title, type, extractor, false);
+    public static VitalChartPanel forVital(String title, VitalType type) {
+        return new VitalChartPanel(title, type, false);
     }
 
-    private VitalChartPanel(String title, VitalType vitalType, ToDoubleFunction<VitalSample> extractor, boolean largeMode) {
+    private VitalChartPanel(String title, VitalType vitalType, boolean largeMode) {
         this.title = title;
         this.vitalType = vitalType;
-        this.extractor = extractor;
         this.largeMode = largeMode;
 
         setBackground(Color.WHITE);
@@ -64,12 +60,16 @@ public class VitalChartPanel extends JPanel {
         repaint();
     }
 
-    public void updateData(List<VitalSample> all, AlertEngine alertEngine) {
-        this.data = all;
-        if (all == null || all.isEmpty()) return;
+    /** Adds the samples from an incremental read; a truncated delta restarts the series. */
+    public void append(VitalDelta delta, AlertEngine alertEngine) {
+        if (delta.truncated()) data.clear();
+        VitalWindow w = delta.samples();
+        if (w.isEmpty()) return;
 
-        VitalSample last = all.get(all.size() - 1);
-        this.latestValue = extractor.applyAsDouble(last);
+        for (int i = 0; i < w.size(); i++) {
+            data.append(w.timestampAt(i), w.valueAt(vitalType, i));
+        }
+        this.latestValue = w.valueAt(vitalType, w.size() - 1);
         this.currentLevel = alertEngine.eval(vitalType, latestValue);
         repaint();
     }
@@ -77,7 +77,7 @@ public class VitalChartPanel extends JPanel {
     //  Zoom logic
 
     private VitalChartPanel createZoomedCopy() {
-        VitalChartPanel big = new VitalChartPanel(title, vitalType, extractor, true);
+        VitalChartPanel big = new VitalChartPanel(title, vitalType, true);
         copyStateTo(big);
         return big;
     }
@@ -172,25 +172,26 @@ public class VitalChartPanel extends JPanel {
         g2.drawString(String.format("Latest: %.2f (%s)", latestValue, currentLevel),
                 10, largeMode ? 55 : 36);
 
-        if (data == null || data.isEmpty()) {
+        if (data.isEmpty()) {
             g2.dispose();
             return;
         }
 
-        long latestT = data.get(data.size() - 1).timestampMs();
+        long latestT = data.lastTime();
         long startT = latestT - windowSeconds * 1000L;
 
-        List<VitalSample> win = data.stream()
-                .filter(s -> s.timestampMs() >= startT)
-                .collect(Collectors.toList());
-
-        if (win.size() < 2) {
+        int first = data.lowerBound(startT);
+        if (data.size() - first < 2) {
             g2.dispose();
             return;
         }
 
-        double min = win.stream().mapToDouble(extractor).min().orElse(0);
-        double max = win.stream().mapToDouble(extractor).max().orElse(1);
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = first; i < data.size(); i++) {
+            min = Math.min(min, data.valueAt(i));
+            max = Math.max(max, data.valueAt(i));
+        }
         if (Math.abs(max - min) < 1e-9) max = min + 1;
 
         // expand range so the signal doesn't touch top/bottom ("headroom")
@@ -284,9 +285,9 @@ public class VitalChartPanel extends JPanel {
         g2.setStroke(new BasicStroke(largeMode ? 2.0f : 1.0f));
 
         int prevX = -1, prevY = -1;
-        for (VitalSample s : win) {
-            double v = extractor.applyAsDouble(s);
-            double tx = (s.timestampMs() - startT) / (double) (windowSeconds * 1000L);
+        for (int i = first; i < data.size(); i++) {
+            double v = data.valueAt(i);
+            double tx = (data.timeAt(i) - startT) / (double) (windowSeconds * 1000L);
 
             // use expanded range plotMin/plotMax
             double ty = (v - plotMin) / (plotMax - plotMin);
@@ -1,6 +1,8 @@
 package rpm.ui;
 
 import rpm.alert.AlertEngine;
+import rpm.data.VitalDelta;
+import rpm.data.VitalWindow;
 import rpm.model.AlertLevel;
 import rpm.model.VitalSample;
 import rpm.model.VitalType;
@@ -10,7 +12,6 @@ import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.List;
 
 public class VitalTablePanel extends JPanel {
 
@@ -20,6 +21,8 @@ public class VitalTablePanel extends JPanel {
     private final JCheckBox abnormalOnly;
     private final JLabel info;
 
+    private Runnable settingsListener = () -> {};
+
     private final SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 
     public VitalTablePanel() {
@@ -35,6 +38,10 @@ public class VitalTablePanel extends JPanel {
         abnormalOnly = new JCheckBox("Abnormal only");
         top.add(abnormalOnly);
 
+        // page size / filter changes need the rows rebuilt from the full buffer
+        pageSizeSpinner.addChangeListener(e -> settingsListener.run());
+        abnormalOnly.addActionListener(e -> settingsListener.run());
+
         JButton refreshBtn = new JButton("Refresh");
         top.add(refreshBtn);
 
@@ -60,7 +67,13 @@ public class VitalTablePanel extends JPanel {
         add(new JScrollPane(table), BorderLayout.CENTER);
     }
 
-    public void setSamples(List<VitalSample> all, AlertEngine alertEngine) {
+    /** Called when the page size or filter changes; the owner should call {@link #setSamples}. */
+    public void onSettingsChanged(Runnable listener) {
+        this.settingsListener = listener;
+    }
+
+    /** Rebuilds the table from a full window of samples. */
+    public void setSamples(VitalWindow all, AlertEngine alertEngine) {
         int pageSize = (Integer) pageSizeSpinner.getValue();
         boolean onlyAbn = abnormalOnly.isSelected();
 
@@ -69,25 +82,53 @@ public class VitalTablePanel extends JPanel {
         // newest first
         int shown = 0;
         for (int i = all.size() - 1; i >= 0 && shown < pageSize; i--) {
-            VitalSample s = all.get(i);
+            Object[] row = toRow(all.sampleAt(i), alertEngine, onlyAbn);
+            if (row == null) continue;
 
-            AlertLevel status = worstStatus(alertEngine, s);
-            if (onlyAbn && status == AlertLevel.NORMAL) continue;
+            model.addRow(row);
+            shown++;
+        }
 
-            model.addRow(new Object[] {
-                    fmt.format(new Date(s.timestampMs())),
-                    String.format("%.2f", s.bodyTemp()),
-                    String.format("%.2f", s.heartRate()),
-                    String.format("%.2f", s.respiratoryRate()),
-                    String.format("%.0f/%.0f", s.systolicBP(), s.diastolicBP()),
-                    status.toString()
-            });
+        info.setText("Showing " + shown + " record(s) (newest first)");
+    }
 
-            shown++;
+    /**
+     * Adds the rows for an incremental read at the top and drops the oldest rows
+     * beyond the page size. A truncated delta rebuilds the table instead.
+     */
+    public void append(VitalDelta delta, AlertEngine alertEngine) {
+        if (delta.truncated()) {
+            setSamples(delta.samples(), alertEngine);
+            return;
         }
+        VitalWindow w = delta.samples();
+        if (w.isEmpty()) return;
 
+        int pageSize = (Integer) pageSizeSpinner.getValue();
+        boolean onlyAbn = abnormalOnly.isSelected();
 
-        info.setText("Showing " + shown + " record(s) (newest first)");
+        // only the newest pageSize samples can end up on the page
+        for (int i = Math.max(0, w.size() - pageSize); i < w.size(); i++) {
+            Object[] row = toRow(w.sampleAt(i), alertEngine, onlyAbn);
+            if (row != null) model.insertRow(0, row);
+        }
+        while (model.getRowCount() > pageSize) model.removeRow(model.getRowCount() - 1);
+
+        info.setText("Showing " + model.getRowCount() + " record(s) (newest first)");
+    }
+
+    private Object[] toRow(VitalSample s, AlertEngine alertEngine, boolean onlyAbn) {
+        AlertLevel status = worstStatus(alertEngine, s);
+        if (onlyAbn && status == AlertLevel.NORMAL) return null;
+
+        return new Object[] {
+                fmt.format(new Date(s.timestampMs())),
+                String.format("%.2f", s.bodyTemp()),
+                String.format("%.2f", s.heartRate()),
+                String.format("%.2f", s.respiratoryRate()),
+                String.format("%.0f/%.0f", s.systolicBP(), s.diastolicBP()),
+                status.toString()
+        };
     }
 
     private AlertLevel worstStatus(AlertEngine alertEngine, VitalSample s) {
@@ -3,6 +3,8 @@ package rpm.web;
 import com.google.gson.Gson;
 import rpm.dao.AbnormalEventDao;
 import rpm.data.AbnormalEvent;
+import rpm.model.VitalType;
+import rpm.server.HotReadCache;
 
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -17,32 +19,63 @@ import java.util.List;
 @WebServlet(urlPatterns = {"/api/abnormal/latest", "/api/abnormal"})
 public class AbnormalApiServlet extends HttpServlet {
 
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
     private final AbnormalEventDao abnormalDao = new AbnormalEventDao();
     private final Gson gson = new Gson();
 
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
-        // GET /api/abnormal/latest?patientId=...&limit=...
+        // GET /api/abnormal/latest?patientId=...&limit=...[&cursor=...]
+        // newest first; a full page sets X-Next-Cursor, passed back as cursor for the older events
         resp.setCharacterEncoding("utf-8");
         resp.setContentType("application/json; charset=utf-8");
 
         String patientId = req.getParameter("patientId");
         String limitStr = req.getParameter("limit");
 
-        int limit = 50;
-        if (limitStr != null) {
-            try { limit = Integer.parseInt(limitStr); } catch (Exception ignored) {}
-        }
-
         if (patientId == null || patientId.isBlank()) {
             resp.setStatus(400);
             resp.getWriter().write(gson.toJson(new ErrorMsg("BAD_REQUEST", "patientId is required")));
             return;
         }
 
+        int limit = 50;
+        if (limitStr != null) {
+            try {
+                limit = Integer.parseInt(limitStr.trim());
+            } catch (NumberFormatException e) {
+                resp.setStatus(400);
+                resp.getWriter().write(gson.toJson(new ErrorMsg("BAD_REQUEST", "limit must be int")));
+                return;
+            }
+        }
+        if (limit <= 0) limit = 50;
+
+        String cursor = req.getParameter("cursor");
         try {
-            List<AbnormalEvent> events = abnormalDao.latest(patientId.trim(), limit);
+            String pid = patientId.trim();
+            List<AbnormalEvent> events;
+            if (cursor != null) {
+                // keyset paging: "<timestampMs>:<vitalType>" of the last event of the previous page
+                int sep = cursor.indexOf(':');
+                if (sep < 0) throw new IllegalArgumentException("cursor must be <timestampMs>:<vitalType>");
+                events = abnormalDao.before(pid, Long.parseLong(cursor.substring(0, sep)),
+                        VitalType.valueOf(cursor.substring(sep + 1)), limit);
+            } else {
+                HotReadCache cache = HotReadCache.from(getServletContext());
+                events = cache != null ? cache.latestEvents(pid, limit) : abnormalDao.latest(pid, limit);
+            }
+            if (events.size() == limit) {
+                // a full page may be followed by more (or by an empty page); the body
+                // stays a bare array, so the continuation goes in a header
+                AbnormalEvent lastEvent = events.get(limit - 1);
+                resp.setHeader(NEXT_CURSOR_HEADER, lastEvent.timestampMs() + ":" + lastEvent.vitalType().name());
+            }
             resp.getWriter().write(gson.toJson(events));
+        } catch (IllegalArgumentException e) {
+            resp.setStatus(400);
+            resp.getWriter().write(gson.toJson(new ErrorMsg("BAD_REQUEST", e.getMessage())));
         } catch (Exception e) {
             resp.setStatus(500);
             resp.getWriter().write(gson.toJson(new ErrorMsg("ABNORMAL_API_ERROR", e.getMessage())));
@@ -72,6 +105,8 @@ public class AbnormalApiServlet extends HttpServlet {
             );
 
             abnormalDao.insert(msg.patientId.trim(), e);
+            HotReadCache cache = HotReadCache.from(getServletContext());
+            if (cache != null) cache.eventWritten(msg.patientId.trim(), e);
 
             resp.getWriter().write(gson.toJson(new OkMsg(true)));
         } catch (Exception e) {
@@ -0,0 +1,138 @@
+package rpm.web;
+
+/**
+ * Bulk ingestion endpoint for abnormal events: a JSON array (or NDJSON) of the
+ * objects accepted by {@code POST /api/abnormal}, optionally gzip-encoded.
+ *
+ * <p>As for minutes, the body is checked as a whole first: invalid rows are reported
+ * and skipped, and a malformed or too long body stores nothing.
+ */
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import rpm.dao.AbnormalEventDao;
+import rpm.data.AbnormalEvent;
+import rpm.data.PatientEvent;
+import rpm.model.AlertLevel;
+import rpm.model.VitalType;
+import rpm.server.HotReadCache;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+@WebServlet(urlPatterns = {"/api/abnormal/batch"})
+public class AbnormalBatchIngestServlet extends HttpServlet {
+
+    private static final int MAX_ROWS = 10_000;
+    private static final int MAX_ERRORS = 100;
+
+    private final Gson gson = new Gson();
+    private final AbnormalEventDao dao = new AbnormalEventDao();
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setCharacterEncoding("utf-8");
+        resp.setContentType("application/json; charset=utf-8");
+
+        if (!RequestBodies.isSupportedEncoding(req.getHeader("Content-Encoding"))) {
+            reply(resp, 415, new Result().finish("UNSUPPORTED_ENCODING", "use gzip or identity"));
+            return;
+        }
+
+        Result out = new Result();
+        // valid rows go to the table in one statement once the body has been read
+        List<PatientEvent> pending = new ArrayList<>();
+        try (JsonArrayStream<AbnormalApiServlet.PostMsg> in = new JsonArrayStream<>(gson, RequestBodies.reader(req), AbnormalApiServlet.PostMsg.class)) {
+            while (in.hasNext()) {
+                if (out.rows >= MAX_ROWS) {
+                    reply(resp, 413, out.reject("TOO_MANY_ROWS",
+                            "at most " + MAX_ROWS + " rows per request; nothing was stored"));
+                    return;
+                }
+
+                AbnormalApiServlet.PostMsg m = in.next();
+                int row = out.rows++;
+                if (m == null || m.patientId == null || m.patientId.isBlank()) {
+                    out.invalid(row, "patientId is required");
+                } else {
+                    AbnormalEvent e;
+                    try {
+                        e = new AbnormalEvent(m.timestampMs, VitalType.valueOf(m.vitalType),
+                                AlertLevel.valueOf(m.level), m.value, m.message);
+                    } catch (IllegalArgumentException | NullPointerException bad) {
+                        out.invalid(row, "unknown vitalType or level");
+                        continue;
+                    }
+                    pending.add(new PatientEvent(m.patientId.trim(), e));
+                    out.accepted++;
+                }
+            }
+        } catch (IOException | IllegalStateException | JsonParseException e) {
+            reply(resp, 400, out.reject("BAD_REQUEST",
+                    "malformed JSON near row " + out.rows + ", nothing was stored: " + e.getMessage()));
+            return;
+        } catch (Exception e) {
+            reply(resp, 500, out.finish("ABNORMAL_INGEST_ERROR", e.getMessage()));
+            return;
+        }
+
+        try {
+            out.inserted = dao.insertAll(pending);
+            out.duplicates = pending.size() - out.inserted;
+        } catch (Exception e) {
+            reply(resp, 500, out.finish("ABNORMAL_INGEST_ERROR", e.getMessage()));
+            return;
+        }
+        HotReadCache cache = HotReadCache.from(getServletContext());
+        if (cache != null) {
+            for (PatientEvent pe : pending) cache.eventWritten(pe.patientId(), pe.event());
+        }
+
+        reply(resp, 200, out.finish("OK", "accepted"));
+    }
+
+    private void reply(HttpServletResponse resp, int status, Result body) throws IOException {
+        resp.setStatus(status);
+        resp.getWriter().write(gson.toJson(body));
+    }
+
+    static final class Result {
+        String code;
+        String message;
+        int rows;
+        int accepted;
+        int invalid;
+        // of the accepted rows: new ones, and ones the table already held
+        int inserted;
+        int duplicates;
+        List<RowError> errors = new ArrayList<>();
+
+        void invalid(int row, String message) {
+            invalid++;
+            if (errors.size() < MAX_ERRORS) errors.add(new RowError(row, message));
+        }
+
+        Result finish(String code, String message) {
+            this.code = code;
+            this.message = message;
+            return this;
+        }
+
+        /** The whole body was refused: no row was accepted, whatever it held. */
+        Result reject(String code, String message) {
+            accepted = 0;
+            return finish(code, message);
+        }
+    }
+
+    static final class RowError {
+        int row;
+        String message;
+        RowError(int row, String message) { this.row = row; this.message = message; }
+    }
+}
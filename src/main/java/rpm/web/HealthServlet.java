@@ -1,6 +1,13 @@
 package rpm.web;
 
 import rpm.db.Db;
+import rpm.db.QueryMetrics;
+import rpm.server.HotReadCache;
+import rpm.server.MinuteAggregationService;
+import rpm.server.PatientKeyMigration;
+import rpm.server.ServerBootstrapListener;
+import rpm.server.VitalRetentionService;
+import rpm.server.VitalSampleWriter;
 
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -55,6 +62,40 @@ public class HealthServlet extends HttpServlet {
         resp.getWriter().println("pg.user=" + user);
         resp.getWriter().println("pg.pwLen=" + (pass == null ? 0 : pass.length()));
 
+        // aggregation progress: watermark, lag and any backfill under way
+        Object agg = getServletContext().getAttribute(ServerBootstrapListener.CTX_MINUTE_AGG);
+        if (agg instanceof MinuteAggregationService) {
+            MinuteAggregationService m = (MinuteAggregationService) agg;
+            resp.getWriter().println("minute_agg: " + m.summary());
+            resp.getWriter().println("minute_agg: " + m.runDuration().summary());
+            resp.getWriter().println("minute_agg: " + m.flushDuration().summary());
+            resp.getWriter().println("minute_agg: " + m.catchUpDuration().summary());
+        }
+        // rows acknowledged but not stored show up as failed / droppedBatches
+        Object writer = getServletContext().getAttribute(ServerBootstrapListener.CTX_VITAL_WRITER);
+        if (writer instanceof VitalSampleWriter) {
+            resp.getWriter().println("vital_writer: " + ((VitalSampleWriter) writer).summary());
+        }
+        Object cache = getServletContext().getAttribute(ServerBootstrapListener.CTX_READ_CACHE);
+        if (cache instanceof HotReadCache) {
+            resp.getWriter().println("read_cache: " + ((HotReadCache) cache).summary());
+        }
+        Object retention = getServletContext().getAttribute(ServerBootstrapListener.CTX_VITAL_RETENTION);
+        if (retention instanceof VitalRetentionService) {
+            resp.getWriter().println("retention: " + ((VitalRetentionService) retention).summary());
+        }
+        Object keys = getServletContext().getAttribute(ServerBootstrapListener.CTX_KEY_MIGRATION);
+        if (keys instanceof PatientKeyMigration) {
+            resp.getWriter().println("patient_keys: " + ((PatientKeyMigration) keys).summary());
+        }
+
+        // pool settings and per-query timings since startup
+        resp.getWriter().println("db.pool=" + Db.POOL_SIZE + " prepareThreshold=" + Db.PREPARE_THRESHOLD
+                + " statementCache=" + Db.STATEMENT_CACHE_QUERIES);
+        for (String line : QueryMetrics.summary().split("\n")) {
+            if (!line.isEmpty()) resp.getWriter().println("query: " + line);
+        }
+
         try (Connection c = Db.getConnection()) {
             boolean connected = (c != null && !c.isClosed());
             resp.getWriter().println("db=" + (connected ? "CONNECTED" : "DISCONNECTED"));
@@ -0,0 +1,60 @@
+package rpm.web;
+
+import com.google.gson.Gson;
+import com.google.gson.Strictness;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads a JSON array (or NDJSON) body one element at a time, binding each element
+ * with Gson. The generic counterpart of {@link VitalJsonStream} for the
+ * lower-volume bulk endpoints.
+ */
+final class JsonArrayStream<T> implements Closeable {
+
+    private final Gson gson;
+    private final Class<T> type;
+    private final JsonReader reader;
+    private boolean array;
+    private boolean empty;
+
+    JsonArrayStream(Gson gson, Reader in, Class<T> type) throws IOException {
+        this.gson = gson;
+        this.type = type;
+        this.reader = new JsonReader(in);
+        this.reader.setStrictness(Strictness.LENIENT);
+        try {
+            if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                array = true;
+            }
+        } catch (EOFException e) {
+            empty = true;
+        }
+    }
+
+    boolean hasNext() throws IOException {
+        if (empty) return false;
+        if (array) {
+            if (reader.hasNext()) return true;
+            reader.endArray();
+            array = false;
+        }
+        return reader.peek() != JsonToken.END_DOCUMENT;
+    }
+
+    /** Next element; a JSON {@code null} element yields null. */
+    T next() {
+        return gson.fromJson(reader, type);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,81 @@
+package rpm.web;
+
+import com.google.gson.Strictness;
+import com.google.gson.stream.JsonWriter;
+import rpm.data.MinuteRecord;
+import rpm.model.VitalSample;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Streamed JSON bodies for the read APIs.
+ *
+ * <p>Rows are written to a {@link JsonWriter} on the response writer as the DAO
+ * reads them. No Content-Length is set, so once the response buffer fills the
+ * container sends the body chunked.
+ */
+final class JsonResponses {
+
+    private JsonResponses() {}
+
+    static JsonWriter open(HttpServletResponse resp) throws IOException {
+        resp.setContentType("application/json; charset=utf-8");
+        JsonWriter w = new JsonWriter(resp.getWriter());
+        // vitals may be NaN; written as before rather than rejected
+        w.setStrictness(Strictness.LENIENT);
+        return w;
+    }
+
+    /**
+     * Reports a failed read: a 500 with an error body if nothing has gone out yet,
+     * otherwise the body simply ends early, which clients see as truncated JSON.
+     */
+    static void fail(HttpServletResponse resp, String message) throws IOException {
+        if (resp.isCommitted()) return;
+        resp.resetBuffer();
+        resp.setStatus(500);
+        JsonWriter w = new JsonWriter(resp.getWriter());
+        w.beginObject().name("error").value(message == null ? "" : message).endObject();
+        w.flush();
+    }
+
+    static void sample(JsonWriter w, long ts, double temp, double hr, double rr, double sys, double dia, double ecg) {
+        try {
+            w.beginObject();
+            w.name("tsMs").value(ts);
+            w.name("temp").value(temp);
+            w.name("hr").value(hr);
+            w.name("rr").value(rr);
+            w.name("sys").value(sys);
+            w.name("dia").value(dia);
+            w.name("ecg").value(ecg);
+            w.endObject();
+        } catch (IOException e) {
+            // the DAO callbacks cannot throw IOException
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static void sample(JsonWriter w, VitalSample s) {
+        sample(w, s.timestampMs(), s.bodyTemp(), s.heartRate(), s.respiratoryRate(),
+                s.systolicBP(), s.diastolicBP(), s.ecgValue());
+    }
+
+    static void minute(JsonWriter w, MinuteRecord r) {
+        try {
+            w.beginObject();
+            w.name("minuteStartMs").value(r.minuteStartMs());
+            w.name("avgTemp").value(r.avgTemp());
+            w.name("avgHr").value(r.avgHR());
+            w.name("avgRr").value(r.avgRR());
+            w.name("avgSys").value(r.avgSys());
+            w.name("avgDia").value(r.avgDia());
+            w.name("n").value(r.sampleCount());
+            w.endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
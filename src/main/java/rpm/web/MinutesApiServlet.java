@@ -1,15 +1,15 @@
 package rpm.web;
 
+import com.google.gson.stream.JsonWriter;
 import rpm.dao.MinuteAverageDao;
-import rpm.data.MinuteRecord;
 
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.sql.SQLException;
-import java.util.List;
 
 @WebServlet(urlPatterns = {"/api/minutes/range"})
 public class MinutesApiServlet extends HttpServlet {
@@ -40,42 +40,65 @@ public class MinutesApiServlet extends HttpServlet {
             return;
         }
 
-        final List<MinuteRecord> list;
-        try {
-            list = dao.range(patientId, fromMs, toMs);
-        } catch (SQLException e) {
-            resp.setStatus(500);
-            resp.getWriter().write("{\"error\":\"db error: " + escape(e.getMessage()) + "\"}");
-            return;
+        // unbounded unless the caller asks; rows are streamed, not collected
+        int limit = Integer.MAX_VALUE;
+        String limitStr = req.getParameter("limit");
+        if (limitStr != null) {
+            try {
+                limit = Math.max(1, Integer.parseInt(limitStr.trim()));
+            } catch (NumberFormatException e) {
+                resp.setStatus(400);
+                resp.getWriter().write("{\"error\":\"limit must be int\"}");
+                return;
+            }
         }
 
-        StringBuilder sb = new StringBuilder();
-        sb.append("{\"patientId\":\"").append(escape(patientId)).append("\",");
-        sb.append("\"fromMs\":").append(fromMs).append(",");
-        sb.append("\"toMs\":").append(toMs).append(",");
-        sb.append("\"minutes\":[");
-
-        for (int i = 0; i < list.size(); i++) {
-            MinuteRecord r = list.get(i);
-            if (i > 0) sb.append(",");
-
-            sb.append("{");
-            sb.append("\"minuteStartMs\":").append(r.minuteStartMs()).append(",");
-            sb.append("\"avgTemp\":").append(r.avgTemp()).append(",");
-            sb.append("\"avgHr\":").append(r.avgHR()).append(",");
-            sb.append("\"avgRr\":").append(r.avgRR()).append(",");
-            sb.append("\"avgSys\":").append(r.avgSys()).append(",");
-            sb.append("\"avgDia\":").append(r.avgDia()).append(",");
-            sb.append("\"n\":").append(r.sampleCount());
-            sb.append("}");
+        // keyset paging: the nextCursor of the previous page, i.e. the last minuteStartMs it held
+        long startMs = fromMs;
+        String cursor = req.getParameter("cursor");
+        if (cursor != null) {
+            long after;
+            try {
+                after = Long.parseLong(cursor.trim());
+            } catch (NumberFormatException e) {
+                resp.setStatus(400);
+                resp.getWriter().write("{\"error\":\"cursor must be long\"}");
+                return;
+            }
+            // no minute follows it, and + 1 would wrap to the start
+            if (after == Long.MAX_VALUE) {
+                resp.setStatus(400);
+                resp.getWriter().write("{\"error\":\"cursor out of range\"}");
+                return;
+            }
+            startMs = Math.max(fromMs, after + 1);
         }
 
-        sb.append("]}");
-        resp.getWriter().write(sb.toString());
-    }
-
-    private static String escape(String s) {
-        if (s == null) return "";
-        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+        JsonWriter w = JsonResponses.open(resp);
+        w.beginObject();
+        w.name("patientId").value(patientId);
+        w.name("fromMs").value(fromMs);
+        w.name("toMs").value(toMs);
+        w.name("minutes").beginArray();
+        long[] last = {-1, 0}; // last minuteStartMs written, minutes written
+        int pageLimit = limit;
+        try {
+            // one row beyond the page only tells that there is a next one
+            int read = dao.stream(patientId, startMs, toMs, limit == Integer.MAX_VALUE ? limit : limit + 1, r -> {
+                if (last[1] == pageLimit) return;
+                JsonResponses.minute(w, r);
+                last[0] = r.minuteStartMs();
+                last[1]++;
+            });
+            if (read <= limit) last[0] = -1;
+        } catch (SQLException | UncheckedIOException e) {
+            JsonResponses.fail(resp, "db error: " + e.getMessage());
+            return;
+        }
+        w.endArray();
+        w.name("nextCursor");
+        if (last[0] >= 0) w.value(last[0]); else w.nullValue();
+        w.endObject();
+        w.flush();
     }
 }
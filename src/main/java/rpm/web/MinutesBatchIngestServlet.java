@@ -0,0 +1,157 @@
+package rpm.web;
+
+/**
+ * Bulk ingestion endpoint for minute averages: a JSON array (or NDJSON) of the
+ * objects accepted by {@code POST /api/minutes}, optionally gzip-encoded.
+ *
+ * <p>The whole body is read and checked before anything is written: rows that fail
+ * validation are reported by index and skipped, and the rest are upserted as one
+ * JDBC batch. A body that is malformed or too long is rejected as a whole (400 or
+ * 413) with nothing stored, so the client can fix it and re-send all of it.
+ */
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import rpm.dao.MinuteAverageDao;
+import rpm.data.MinuteRecord;
+import rpm.data.PatientMinute;
+import rpm.server.HotReadCache;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+@WebServlet(urlPatterns = {"/api/minutes/batch"})
+public class MinutesBatchIngestServlet extends HttpServlet {
+
+    private static final int MAX_ROWS = 10_000;
+    private static final int MAX_ERRORS = 100;
+
+    /** Where the valid rows go; {@link MinuteAverageDao#upsertAll} outside of tests. */
+    interface Sink {
+        void upsertAll(List<PatientMinute> rows) throws Exception;
+    }
+
+    private final Gson gson = new Gson();
+    private final Sink sink;
+
+    public MinutesBatchIngestServlet() {
+        this.sink = new MinuteAverageDao()::upsertAll;
+    }
+
+    MinutesBatchIngestServlet(Sink sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setCharacterEncoding("utf-8");
+        resp.setContentType("application/json; charset=utf-8");
+
+        if (!RequestBodies.isSupportedEncoding(req.getHeader("Content-Encoding"))) {
+            reply(resp, 415, new Result().finish("UNSUPPORTED_ENCODING", "use gzip or identity"));
+            return;
+        }
+
+        Result out = new Result();
+        List<PatientMinute> valid = new ArrayList<>();
+        try (JsonArrayStream<MinuteMsg> in = new JsonArrayStream<>(gson, RequestBodies.reader(req), MinuteMsg.class)) {
+            while (in.hasNext()) {
+                if (out.rows >= MAX_ROWS) {
+                    reply(resp, 413, out.reject("TOO_MANY_ROWS",
+                            "at most " + MAX_ROWS + " rows per request; nothing was stored"));
+                    return;
+                }
+
+                MinuteMsg m = in.next();
+                int row = out.rows++;
+                if (m == null || m.patientId == null || m.patientId.isBlank()) {
+                    out.invalid(row, "patientId is required");
+                } else if (m.minuteStartMs <= 0) {
+                    out.invalid(row, "minuteStartMs must be > 0");
+                } else {
+                    MinuteRecord r = new MinuteRecord(
+                            m.minuteStartMs, m.avgTemp, m.avgHR, m.avgRR, m.avgSys, m.avgDia, m.sampleCount);
+                    valid.add(new PatientMinute(m.patientId.trim(), r));
+                    out.accepted++;
+                }
+            }
+        } catch (IOException | IllegalStateException | JsonParseException e) {
+            reply(resp, 400, out.reject("BAD_REQUEST",
+                    "malformed JSON near row " + out.rows + ", nothing was stored: " + e.getMessage()));
+            return;
+        } catch (Exception e) {
+            reply(resp, 500, out.finish("MINUTES_API_ERROR", e.getMessage()));
+            return;
+        }
+
+        try {
+            store(valid);
+        } catch (Exception e) {
+            reply(resp, 500, out.finish("MINUTES_API_ERROR", e.getMessage()));
+            return;
+        }
+
+        reply(resp, 200, out.finish("OK", "accepted"));
+    }
+
+    /** One batched upsert, then the hot cache. */
+    private void store(List<PatientMinute> rows) throws Exception {
+        sink.upsertAll(rows);
+        HotReadCache cache = HotReadCache.from(getServletContext());
+        if (cache == null) return;
+        for (PatientMinute row : rows) cache.minuteWritten(row.patientId(), row.record());
+    }
+
+    private void reply(HttpServletResponse resp, int status, Result body) throws IOException {
+        resp.setStatus(status);
+        resp.getWriter().write(gson.toJson(body));
+    }
+
+    static final class MinuteMsg {
+        String patientId;
+        long minuteStartMs;
+        double avgTemp;
+        double avgHR;
+        double avgRR;
+        double avgSys;
+        double avgDia;
+        int sampleCount;
+    }
+
+    static final class Result {
+        String code;
+        String message;
+        int rows;
+        int accepted;
+        int invalid;
+        List<RowError> errors = new ArrayList<>();
+
+        void invalid(int row, String message) {
+            invalid++;
+            if (errors.size() < MAX_ERRORS) errors.add(new RowError(row, message));
+        }
+
+        Result finish(String code, String message) {
+            this.code = code;
+            this.message = message;
+            return this;
+        }
+
+        /** The whole body was refused: no row was accepted, whatever it held. */
+        Result reject(String code, String message) {
+            accepted = 0;
+            return finish(code, message);
+        }
+    }
+
+    static final class RowError {
+        int row;
+        String message;
+        RowError(int row, String message) { this.row = row; this.message = message; }
+    }
+}
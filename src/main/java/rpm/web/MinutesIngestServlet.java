@@ -4,6 +4,7 @@ import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import rpm.dao.MinuteAverageDao;
 import rpm.data.MinuteRecord;
+import rpm.server.HotReadCache;
 
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -69,6 +70,8 @@ public class MinutesIngestServlet extends HttpServlet {
             );
 
             dao.upsert(patientId, r);
+            HotReadCache cache = HotReadCache.from(getServletContext());
+            if (cache != null) cache.minuteWritten(patientId, r);
 
             resp.setStatus(200);
             resp.getWriter().write("{\"ok\":true}");
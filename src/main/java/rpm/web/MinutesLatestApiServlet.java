@@ -6,8 +6,10 @@ package rpm.web;
  * <p>Example: {@code GET /api/minutes/latest?patientId=P001&limit=1000}
  */
 
+import com.google.gson.stream.JsonWriter;
 import rpm.dao.MinuteAverageDao;
 import rpm.data.MinuteRecord;
+import rpm.server.HotReadCache;
 
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -48,34 +50,23 @@ public class MinutesLatestApiServlet extends HttpServlet {
 
         List<MinuteRecord> list;
         try {
-            list = dao.latest(patientId, limit);
+            HotReadCache cache = HotReadCache.from(getServletContext());
+            list = cache != null ? cache.latestMinutes(patientId, limit) : dao.latest(patientId, limit);
         } catch (SQLException e) {
             resp.setStatus(500);
             resp.getWriter().write("{\"error\":\"MinuteAverageDao.latest failed: " + escape(e.getMessage()) + "\"}");
             return;
         }
 
-        StringBuilder sb = new StringBuilder();
-        sb.append("{\"patientId\":\"").append(escape(patientId)).append("\",");
-        sb.append("\"limit\":").append(limit).append(",");
-        sb.append("\"minutes\":[");
-
-        for (int i = 0; i < list.size(); i++) {
-            MinuteRecord m = list.get(i);
-            if (i > 0) sb.append(",");
-            sb.append("{");
-            sb.append("\"minuteStartMs\":").append(m.minuteStartMs()).append(",");
-            sb.append("\"avgTemp\":").append(m.avgTemp()).append(",");
-            sb.append("\"avgHr\":").append(m.avgHR()).append(",");
-            sb.append("\"avgRr\":").append(m.avgRR()).append(",");
-            sb.append("\"avgSys\":").append(m.avgSys()).append(",");
-            sb.append("\"avgDia\":").append(m.avgDia()).append(",");
-            sb.append("\"n\":").append(m.sampleCount());
-            sb.append("}");
-        }
-
-        sb.append("]}");
-        resp.getWriter().write(sb.toString());
+        JsonWriter w = JsonResponses.open(resp);
+        w.beginObject();
+        w.name("patientId").value(patientId);
+        w.name("limit").value(limit);
+        w.name("minutes").beginArray();
+        for (MinuteRecord m : list) JsonResponses.minute(w, m);
+        w.endArray();
+        w.endObject();
+        w.flush();
     }
 
     private static String escape(String s) {
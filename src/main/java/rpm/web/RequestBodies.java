@@ -0,0 +1,46 @@
+package rpm.web;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Request body helpers shared by the ingest servlets.
+ */
+final class RequestBodies {
+
+    private RequestBodies() {}
+
+    /**
+     * UTF-8 reader over the request body, transparently inflating it when the client
+     * sent {@code Content-Encoding: gzip} (as the bulk sync client does).
+     */
+    static BufferedReader reader(HttpServletRequest req) throws IOException {
+        return new BufferedReader(new InputStreamReader(stream(req), StandardCharsets.UTF_8), 16 * 1024);
+    }
+
+    /** Raw request body, inflated when sent with {@code Content-Encoding: gzip}. */
+    static InputStream stream(HttpServletRequest req) throws IOException {
+        InputStream in = req.getInputStream();
+        if (isGzip(req.getHeader("Content-Encoding"))) {
+            in = new GZIPInputStream(in, 16 * 1024);
+        }
+        return in;
+    }
+
+    /** True for encodings this server can inflate; anything else should get a 415. */
+    static boolean isSupportedEncoding(String contentEncoding) {
+        return contentEncoding == null
+                || contentEncoding.isBlank()
+                || contentEncoding.trim().equalsIgnoreCase("identity")
+                || isGzip(contentEncoding);
+    }
+
+    private static boolean isGzip(String contentEncoding) {
+        return contentEncoding != null && contentEncoding.trim().equalsIgnoreCase("gzip");
+    }
+}
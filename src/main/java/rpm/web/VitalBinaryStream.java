@@ -0,0 +1,47 @@
+package rpm.web;
+
+import rpm.codec.VitalBatchCodec;
+import rpm.codec.VitalBatchReader;
+import rpm.model.PatientSample;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link VitalRowSource} over a {@value VitalBatchCodec#CONTENT_TYPE} body.
+ */
+final class VitalBinaryStream implements VitalRowSource {
+
+    private final VitalBatchReader reader;
+    // a row has been decoded by hasNext() and not yet returned
+    private boolean ahead;
+    private boolean done;
+
+    VitalBinaryStream(InputStream in) {
+        this.reader = VitalBatchCodec.reader(in);
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        if (!ahead && !done) {
+            ahead = reader.next();
+            done = !ahead;
+        }
+        return ahead;
+    }
+
+    @Override
+    public PatientSample next() throws IOException {
+        if (!hasNext()) throw new NoSuchElementException();
+        ahead = false;
+        String patientId = reader.patientId();
+        if (patientId.isBlank()) throw new IllegalArgumentException("patientId is required");
+        return new PatientSample(patientId.trim(), reader.sample());
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
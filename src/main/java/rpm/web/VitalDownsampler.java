@@ -0,0 +1,99 @@
+package rpm.web;
+
+import rpm.dao.VitalSampleVisitor;
+import rpm.model.VitalType;
+
+/**
+ * Min/max-per-bucket downsampling of a timestamp-ordered sample stream.
+ *
+ * <p>{@code [fromMs, toMs]} is cut into {@code maxPoints / 2} equal time buckets; of
+ * the samples in each bucket only the two holding the lowest and the highest value
+ * of {@code series} are passed on, in timestamp order (one if they are the same).
+ * Peaks therefore survive however far a range is reduced, and only the current
+ * bucket is held in memory. Call {@link #finish} after the last sample.
+ */
+final class VitalDownsampler implements VitalSampleVisitor {
+
+    private final long fromMs;
+    private final long bucketMs;
+    private final int series;
+    private final VitalSampleVisitor out;
+
+    private long bucket = Long.MIN_VALUE;
+    // [ts, temp, hr, rr, sys, dia, ecg]; ts kept as double is exact for epoch millis
+    private final double[] min = new double[7];
+    private final double[] max = new double[7];
+    private int emitted;
+
+    VitalDownsampler(long fromMs, long toMs, int maxPoints, VitalType series, VitalSampleVisitor out) {
+        if (maxPoints < 2) throw new IllegalArgumentException("maxPoints must be >= 2");
+        if (toMs < fromMs) throw new IllegalArgumentException("toMs must be >= fromMs");
+        long buckets = maxPoints / 2;
+        long span = toMs - fromMs + 1;
+        this.fromMs = fromMs;
+        this.bucketMs = Math.max(1, (span + buckets - 1) / buckets);
+        this.series = 1 + series.ordinal();
+        this.out = out;
+    }
+
+    @Override
+    public void visit(long ts, double temp, double hr, double rr, double sys, double dia, double ecg) {
+        long b = Math.floorDiv(ts - fromMs, bucketMs);
+        if (b != bucket) {
+            flush();
+            bucket = b;
+            set(min, ts, temp, hr, rr, sys, dia, ecg);
+            set(max, ts, temp, hr, rr, sys, dia, ecg);
+            return;
+        }
+        double v = value(temp, hr, rr, sys, dia, ecg);
+        if (v < min[series]) set(min, ts, temp, hr, rr, sys, dia, ecg);
+        if (v > max[series]) set(max, ts, temp, hr, rr, sys, dia, ecg);
+    }
+
+    /** Emits the last bucket; returns the number of samples passed on. */
+    int finish() {
+        flush();
+        bucket = Long.MIN_VALUE;
+        return emitted;
+    }
+
+    private void flush() {
+        if (bucket == Long.MIN_VALUE) return;
+        if (min[0] == max[0]) {
+            emit(min);
+        } else if (min[0] < max[0]) {
+            emit(min);
+            emit(max);
+        } else {
+            emit(max);
+            emit(min);
+        }
+    }
+
+    private void emit(double[] s) {
+        out.visit((long) s[0], s[1], s[2], s[3], s[4], s[5], s[6]);
+        emitted++;
+    }
+
+    private double value(double temp, double hr, double rr, double sys, double dia, double ecg) {
+        switch (series) {
+            case 1: return temp;
+            case 2: return hr;
+            case 3: return rr;
+            case 4: return sys;
+            case 5: return dia;
+            default: return ecg;
+        }
+    }
+
+    private static void set(double[] s, long ts, double temp, double hr, double rr, double sys, double dia, double ecg) {
+        s[0] = ts;
+        s[1] = temp;
+        s[2] = hr;
+        s[3] = rr;
+        s[4] = sys;
+        s[5] = dia;
+        s[6] = ecg;
+    }
+}
@@ -0,0 +1,134 @@
+package rpm.web;
+
+import com.google.gson.Strictness;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import rpm.model.PatientSample;
+import rpm.model.VitalSample;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Pull parser for bulk vital uploads: either one JSON array of sample objects or
+ * NDJSON (one object per line). Objects are read field by field straight from the
+ * request reader, so the body is never held in memory as a whole.
+ *
+ * <p>Field names match the single-sample endpoint ({@code patientId},
+ * {@code timestampMs}, {@code bodyTemp}, ...); unknown fields are skipped.
+ */
+final class VitalJsonStream implements VitalRowSource {
+
+    private final JsonReader reader;
+    private final long defaultTimestampMs;
+    private boolean array;
+    private boolean empty;
+
+    VitalJsonStream(Reader in, long defaultTimestampMs) throws IOException {
+        this.reader = new JsonReader(in);
+        // lenient mode accepts several top-level values in a row, i.e. NDJSON
+        this.reader.setStrictness(Strictness.LENIENT);
+        this.defaultTimestampMs = defaultTimestampMs;
+        try {
+            if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                array = true;
+            }
+        } catch (EOFException e) {
+            // JsonReader only reports END_DOCUMENT after a value; a blank body has none
+            empty = true;
+        }
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        if (empty) return false;
+        if (array) {
+            if (reader.hasNext()) return true;
+            reader.endArray();
+            array = false;
+        }
+        return reader.peek() != JsonToken.END_DOCUMENT;
+    }
+
+    /**
+     * Reads the next sample object. A row without a patientId is consumed completely
+     * and then reported with {@link IllegalArgumentException}, so the caller can skip
+     * it and carry on; malformed JSON surfaces as an {@link IOException} or
+     * {@link IllegalStateException}.
+     */
+    @Override
+    public PatientSample next() throws IOException {
+        String patientId = null;
+        long ts = defaultTimestampMs;
+        double temp = 0, hr = 0, rr = 0, sys = 0, dia = 0, ecg = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "patientId":       patientId = text(); break;
+                case "timestampMs":     ts = longValue(ts); break;
+                case "bodyTemp":        temp = doubleValue(0); break;
+                case "heartRate":       hr = doubleValue(0); break;
+                case "respiratoryRate": rr = doubleValue(0); break;
+                case "systolicBP":      sys = doubleValue(0); break;
+                case "diastolicBP":     dia = doubleValue(0); break;
+                case "ecgValue":        ecg = doubleValue(0); break;
+                default:                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (patientId == null || patientId.isBlank()) {
+            throw new IllegalArgumentException("patientId is required");
+        }
+        return new PatientSample(patientId.trim(), new VitalSample(ts, temp, hr, rr, sys, dia, ecg));
+    }
+
+    // Values of the wrong type fall back to the default (as in VitalsIngestServlet)
+    // and are always consumed, so one bad field cannot desynchronise the stream.
+
+    private String text() throws IOException {
+        JsonToken t = reader.peek();
+        if (t == JsonToken.STRING || t == JsonToken.NUMBER) return reader.nextString();
+        reader.skipValue();
+        return null;
+    }
+
+    private long longValue(long def) throws IOException {
+        String s = text();
+        if (s == null) return def;
+        try {
+            return Long.parseLong(s.trim());
+        } catch (NumberFormatException e) {
+            try {
+                return (long) Double.parseDouble(s.trim());
+            } catch (NumberFormatException e2) {
+                return def;
+            }
+        }
+    }
+
+    private double doubleValue(double def) throws IOException {
+        JsonToken t = reader.peek();
+        if (t == JsonToken.NUMBER) return reader.nextDouble();
+        String s = text();
+        if (s == null) return def;
+        try {
+            return Double.parseDouble(s.trim());
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
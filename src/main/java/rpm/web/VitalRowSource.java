@@ -0,0 +1,20 @@
+package rpm.web;
+
+import rpm.model.PatientSample;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Rows of a bulk vital upload, independent of the wire format.
+ *
+ * <p>{@link #next()} reports a row it could read but not accept (e.g. no patientId)
+ * with {@link IllegalArgumentException} after consuming it; malformed input surfaces
+ * as an {@link IOException} or {@link IllegalStateException}.
+ */
+interface VitalRowSource extends Closeable {
+
+    boolean hasNext() throws IOException;
+
+    PatientSample next() throws IOException;
+}
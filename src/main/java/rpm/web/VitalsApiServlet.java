@@ -1,19 +1,43 @@
 package rpm.web;
 
+import com.google.gson.stream.JsonWriter;
 import rpm.dao.VitalSampleDao;
+import rpm.dao.VitalSampleVisitor;
 import rpm.model.VitalSample;
+import rpm.model.VitalType;
+import rpm.server.HotReadCache;
 
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.SQLException;
 import java.util.List;
 
 @WebServlet(urlPatterns = {"/api/vitals/*"})
 public class VitalsApiServlet extends HttpServlet {
 
+    // /range: rows per response unless ?limit= asks for more (streamed, so a large cap is cheap)
+    private static final int DEFAULT_RANGE_LIMIT = 1000;
+    private static final int MAX_RANGE_LIMIT = 5_000_000;
+
+    /** Where range reads come from; {@link VitalSampleDao#stream} outside of tests. */
+    interface Source {
+        int stream(String patientId, long fromMs, long toMs, int limit, VitalSampleVisitor v) throws SQLException;
+    }
+
     private final VitalSampleDao dao = new VitalSampleDao();
+    private final Source source;
+
+    public VitalsApiServlet() {
+        this.source = dao::stream;
+    }
+
+    VitalsApiServlet(Source source) {
+        this.source = source;
+    }
 
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
@@ -52,13 +76,20 @@ public class VitalsApiServlet extends HttpServlet {
 
 
         long now = System.currentTimeMillis();
-        List<VitalSample> samples = dao.range(patientId, now - 10_000, now, 1);
-        if (samples.isEmpty()) {
+        VitalSample s;
+        HotReadCache cache = HotReadCache.from(getServletContext());
+        if (cache != null) {
+            s = cache.latestSample(patientId);
+        } else {
+            List<VitalSample> samples = dao.range(patientId, now - 10_000, now, 1);
+            s = samples.isEmpty() ? null : samples.get(samples.size() - 1);
+        }
+        // only a sample from the last 10 s counts as "latest"
+        if (s == null || s.timestampMs() < now - 10_000) {
             resp.getWriter().write("{\"patientId\":\"" + escape(patientId) + "\",\"sample\":null}");
             return;
         }
 
-        VitalSample s = samples.get(samples.size() - 1);
         resp.getWriter().write(sampleJson(patientId, s));
     }
 
@@ -78,33 +109,110 @@ public class VitalsApiServlet extends HttpServlet {
             return;
         }
 
-        long fromMs = Long.parseLong(fromMsStr);
-        long toMs = Long.parseLong(toMsStr);
-
-        List<VitalSample> samples = dao.range(patientId, fromMs, toMs, 1000);
-
-        StringBuilder sb = new StringBuilder();
-        sb.append("{\"patientId\":\"").append(escape(patientId)).append("\",");
-        sb.append("\"fromMs\":").append(fromMs).append(",");
-        sb.append("\"toMs\":").append(toMs).append(",");
-        sb.append("\"samples\":[");
-
-        for (int i = 0; i < samples.size(); i++) {
-            VitalSample s = samples.get(i);
-            sb.append("{")
-                    .append("\"tsMs\":").append(s.timestampMs()).append(",")
-                    .append("\"temp\":").append(s.bodyTemp()).append(",")
-                    .append("\"hr\":").append(s.heartRate()).append(",")
-                    .append("\"rr\":").append(s.respiratoryRate()).append(",")
-                    .append("\"sys\":").append(s.systolicBP()).append(",")
-                    .append("\"dia\":").append(s.diastolicBP()).append(",")
-                    .append("\"ecg\":").append(s.ecgValue())
-                    .append("}");
-            if (i < samples.size() - 1) sb.append(",");
+        long fromMs, toMs;
+        try {
+            fromMs = Long.parseLong(fromMsStr.trim());
+            toMs = Long.parseLong(toMsStr.trim());
+        } catch (NumberFormatException e) {
+            resp.setStatus(400);
+            resp.getWriter().write("{\"error\":\"fromMs/toMs must be long\"}");
+            return;
         }
+        int limit;
+        try {
+            limit = parseLimit(req.getParameter("limit"));
+        } catch (NumberFormatException e) {
+            resp.setStatus(400);
+            resp.getWriter().write("{\"error\":\"limit must be int\"}");
+            return;
+        }
+
+        // keyset paging: the nextCursor of the previous page, i.e. the last tsMs it held
+        long startMs = fromMs;
+        String cursor = req.getParameter("cursor");
+        if (cursor != null) {
+            long after;
+            try {
+                after = Long.parseLong(cursor.trim());
+            } catch (NumberFormatException e) {
+                resp.setStatus(400);
+                resp.getWriter().write("{\"error\":\"cursor must be long\"}");
+                return;
+            }
+            // no timestamp follows it, and + 1 would wrap to the start
+            if (after == Long.MAX_VALUE) {
+                resp.setStatus(400);
+                resp.getWriter().write("{\"error\":\"cursor out of range\"}");
+                return;
+            }
+            startMs = Math.max(fromMs, after + 1);
+        }
+
+        int maxPoints = 0;
+        String maxPointsStr = req.getParameter("maxPoints");
+        if (maxPointsStr != null) {
+            try {
+                maxPoints = Integer.parseInt(maxPointsStr.trim());
+            } catch (NumberFormatException e) {
+                resp.setStatus(400);
+                resp.getWriter().write("{\"error\":\"maxPoints must be int\"}");
+                return;
+            }
+        }
+
+        VitalType series = VitalType.HEART_RATE;
+        String seriesStr = req.getParameter("series");
+        if (seriesStr != null) {
+            try {
+                series = VitalType.valueOf(seriesStr.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                resp.setStatus(400);
+                resp.getWriter().write("{\"error\":\"unknown series\"}");
+                return;
+            }
+        }
+
+        // rows go out as they are read: a long export neither waits nor buffers
+        JsonWriter w = JsonResponses.open(resp);
+        w.beginObject();
+        w.name("patientId").value(patientId);
+        w.name("fromMs").value(fromMs);
+        w.name("toMs").value(toMs);
+        w.name("samples").beginArray();
+        long[] last = {-1, 0}; // last tsMs written, samples written
+        try {
+            VitalSampleVisitor page = (ts, temp, hr, rr, sys, dia, ecg) -> {
+                // one row beyond the page only tells that there is a next one
+                if (last[1] == limit) return;
+                JsonResponses.sample(w, ts, temp, hr, rr, sys, dia, ecg);
+                last[0] = ts;
+                last[1]++;
+            };
+            if (maxPoints > 0 && startMs <= toMs) {
+                // a chart of the whole range: every row is read, at most maxPoints are sent
+                VitalDownsampler down = new VitalDownsampler(startMs, toMs, Math.max(2, maxPoints), series,
+                        (ts, temp, hr, rr, sys, dia, ecg) -> JsonResponses.sample(w, ts, temp, hr, rr, sys, dia, ecg));
+                source.stream(patientId, startMs, toMs, Integer.MAX_VALUE, down);
+                down.finish();
+            } else if (source.stream(patientId, startMs, toMs, limit + 1, page) <= limit) {
+                last[0] = -1;
+            }
+        } catch (SQLException | UncheckedIOException e) {
+            JsonResponses.fail(resp, e.getMessage());
+            return;
+        }
+        w.endArray();
+        w.name("nextCursor");
+        if (last[0] >= 0) w.value(last[0]); else w.nullValue();
+        w.endObject();
+        w.flush();
+    }
 
-        sb.append("]}");
-        resp.getWriter().write(sb.toString());
+    /** The default when absent or not positive, capped; throws if it is not a number. */
+    private static int parseLimit(String v) {
+        if (v == null) return DEFAULT_RANGE_LIMIT;
+        int n = Integer.parseInt(v.trim());
+        return n <= 0 ? DEFAULT_RANGE_LIMIT : Math.min(n, MAX_RANGE_LIMIT);
     }
 
     private String sampleJson(String patientId, VitalSample s) {
@@ -0,0 +1,230 @@
+package rpm.web;
+
+/**
+ * Bulk ingestion endpoint for raw vital samples: many samples, for any number of
+ * patients, in one POST.
+ *
+ * <p>The body is either a JSON array of sample objects or NDJSON (one object per
+ * line), with the same fields as {@code POST /api/vitals}, optionally sent with
+ * {@code Content-Encoding: gzip}, or the compact binary format of
+ * {@link VitalBatchCodec} when the Content-Type is {@value VitalBatchCodec#CONTENT_TYPE}.
+ * Any other Content-Type gets 415, which tells the sync client to fall back to JSON.
+ * It is parsed as a stream
+ * and handed to the batch writer every {@value #BATCH_ROWS} rows; the response
+ * acknowledges each batch with the row range it covered.
+ *
+ * <p>If the writer stays full (or, without a writer, the database write fails), the
+ * request stops early with 503 and
+ * {@code resumeFromRow}; re-sending from that row is safe because duplicate
+ * (patientId, timestampMs) rows are ignored.
+ */
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import rpm.codec.VitalBatchCodec;
+import rpm.dao.VitalSampleDao;
+import rpm.db.Db;
+import rpm.model.PatientSample;
+import rpm.server.ServerBootstrapListener;
+import rpm.server.VitalSampleWriter;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+@WebServlet(urlPatterns = {"/api/vitals/batch"})
+public class VitalsBatchIngestServlet extends HttpServlet {
+
+    static final int BATCH_ROWS = 500;
+    static final int MAX_ROWS = 100_000;
+    private static final int MAX_ERRORS = 100;
+    private static final long OFFER_TIMEOUT_MS = 200;
+
+    private final VitalSampleDao vitalDao = new VitalSampleDao();
+    private final Gson gson = new Gson();
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setCharacterEncoding("utf-8");
+        resp.setContentType("application/json; charset=utf-8");
+
+        if (!RequestBodies.isSupportedEncoding(req.getHeader("Content-Encoding"))) {
+            resp.setStatus(415);
+            resp.getWriter().write(gson.toJson(new BatchResult().finish("UNSUPPORTED_ENCODING", "use gzip or identity", null)));
+            return;
+        }
+        if (!isSupportedType(req.getContentType())) {
+            resp.setStatus(415);
+            resp.getWriter().write(gson.toJson(new BatchResult().finish("UNSUPPORTED_MEDIA_TYPE",
+                    "use application/json, application/x-ndjson or " + VitalBatchCodec.CONTENT_TYPE, null)));
+            return;
+        }
+
+        VitalSampleWriter writer = writer();
+        BatchResult out = new BatchResult();
+        List<PatientSample> pending = new ArrayList<>(BATCH_ROWS);
+        int firstRow = 0;
+
+        try (VitalRowSource in = VitalBatchCodec.isBinary(req.getContentType())
+                ? new VitalBinaryStream(RequestBodies.stream(req))
+                : new VitalJsonStream(RequestBodies.reader(req), System.currentTimeMillis())) {
+            while (in.hasNext()) {
+                if (out.rows >= MAX_ROWS) {
+                    int resume = submit(writer, pending, firstRow, out) ? out.rows : firstRow;
+                    reply(resp, 413, out.finish("TOO_MANY_ROWS", "at most " + MAX_ROWS + " rows per request", resume));
+                    return;
+                }
+
+                try {
+                    pending.add(in.next());
+                } catch (IllegalArgumentException bad) {
+                    out.invalid(out.rows, bad.getMessage());
+                }
+                out.rows++;
+
+                if (pending.size() >= BATCH_ROWS) {
+                    if (!submit(writer, pending, firstRow, out)) {
+                        busy(resp, writer, out, firstRow);
+                        return;
+                    }
+                    firstRow = out.rows;
+                }
+            }
+
+            if (!submit(writer, pending, firstRow, out)) {
+                busy(resp, writer, out, firstRow);
+                return;
+            }
+        } catch (IOException | IllegalStateException | JsonParseException e) {
+            // malformed body: batches already acknowledged stay accepted
+            reply(resp, 400, out.finish("BAD_REQUEST", "malformed body near row " + out.rows + ": " + e.getMessage(), firstRow));
+            return;
+        } catch (Exception e) {
+            reply(resp, 500, out.finish("VITALS_INGEST_ERROR", e.getMessage(), firstRow));
+            return;
+        }
+
+        if (out.rows == 0) {
+            reply(resp, 400, out.finish("BAD_REQUEST", "at least one sample is required", null));
+        } else if (out.accepted == 0) {
+            reply(resp, 400, out.finish("BAD_REQUEST", "no valid samples", null));
+        } else {
+            reply(resp, 200, out.finish("OK", "accepted", null));
+        }
+    }
+
+    /** JSON or NDJSON (also assumed when no type is sent), or the binary format. */
+    static boolean isSupportedType(String contentType) {
+        if (contentType == null || contentType.isBlank() || VitalBatchCodec.isBinary(contentType)) return true;
+        int semi = contentType.indexOf(';');
+        String type = (semi < 0 ? contentType : contentType.substring(0, semi)).trim();
+        return type.equalsIgnoreCase("application/json")
+                || type.equalsIgnoreCase("application/x-ndjson")
+                || type.equalsIgnoreCase("application/ndjson");
+    }
+
+    /**
+     * Hands one batch (rows {@code firstRow .. out.rows-1}) to the writer, or inserts it
+     * directly when no writer is running, and records its acknowledgement.
+     * Returns false if the writer could not take all of it or the insert failed.
+     */
+    private boolean submit(VitalSampleWriter writer, List<PatientSample> pending, int firstRow, BatchResult out) {
+        if (pending.isEmpty()) return true;
+
+        int accepted;
+        String status;
+        if (writer != null) {
+            accepted = writer.offerAll(pending, OFFER_TIMEOUT_MS);
+            status = accepted == pending.size() ? "QUEUED" : "REJECTED";
+        } else {
+            try {
+                store(pending);
+                accepted = pending.size();
+                status = "STORED";
+            } catch (SQLException e) {
+                System.err.println("[VitalsBatchIngest] insert failed: " + e.getMessage());
+                accepted = 0;
+                status = "FAILED";
+            }
+        }
+
+        out.batches.add(new BatchAck(out.batches.size(), firstRow, out.rows - firstRow, accepted, status));
+        out.accepted += accepted;
+        boolean complete = accepted == pending.size();
+        pending.clear();
+        return complete;
+    }
+
+    /** One JDBC batch on its own connection; throws rather than acknowledging rows it did not store. */
+    private void store(List<PatientSample> rows) throws SQLException {
+        if (!Db.hasPgEnv()) throw new SQLException("database not configured");
+        try (Connection c = Db.getConnection();
+             PreparedStatement ps = vitalDao.prepareBatchInsert(c)) {
+            vitalDao.insertBatch(ps, rows);
+        }
+    }
+
+    private void busy(HttpServletResponse resp, VitalSampleWriter writer, BatchResult out, int firstRow) throws IOException {
+        resp.setHeader("Retry-After", "1");
+        reply(resp, 503, writer != null
+                ? out.finish("BUSY", "vital writer queue is full", firstRow)
+                : out.finish("STORE_UNAVAILABLE", "vital samples could not be stored", firstRow));
+    }
+
+    private VitalSampleWriter writer() {
+        Object o = getServletContext().getAttribute(ServerBootstrapListener.CTX_VITAL_WRITER);
+        return o instanceof VitalSampleWriter ? (VitalSampleWriter) o : null;
+    }
+
+    private void reply(HttpServletResponse resp, int status, BatchResult body) throws IOException {
+        resp.setStatus(status);
+        resp.getWriter().write(gson.toJson(body));
+    }
+
+    static class BatchResult {
+        String code;
+        String message;
+        int rows;
+        int accepted;
+        int invalid;
+        Integer resumeFromRow;
+        List<BatchAck> batches = new ArrayList<>();
+        List<RowError> errors = new ArrayList<>();
+
+        void invalid(int row, String message) {
+            invalid++;
+            if (errors.size() < MAX_ERRORS) errors.add(new RowError(row, message));
+        }
+
+        BatchResult finish(String code, String message, Integer resumeFromRow) {
+            this.code = code;
+            this.message = message;
+            this.resumeFromRow = resumeFromRow;
+            return this;
+        }
+    }
+
+    static class BatchAck {
+        int index;
+        int firstRow;
+        int rows;
+        int accepted;
+        String status;
+        BatchAck(int index, int firstRow, int rows, int accepted, String status) {
+            this.index = index; this.firstRow = firstRow; this.rows = rows; this.accepted = accepted; this.status = status;
+        }
+    }
+
+    static class RowError {
+        int row;
+        String message;
+        RowError(int row, String message) { this.row = row; this.message = message; }
+    }
+}
@@ -4,20 +4,28 @@ package rpm.web;
  * Cloud ingestion endpoint for raw vital samples posted from clients.
  *
  * <p>This is typically called by the sync service rather than manually.
+ *
+ * <p>When the bootstrap listener has started a {@link VitalSampleWriter}, samples are
+ * queued for batched insertion and answered with 202 "accepted": the write is not
+ * confirmed yet, and a batch the writer gives up on shows in its counters on /health.
+ * A full queue is answered with 503 so the client backs off. Without a writer each
+ * sample is inserted directly and answered with 201 "inserted".
  */
 
 import com.google.gson.Gson;
-import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import rpm.codec.VitalBatchCodec;
 import rpm.dao.VitalSampleDao;
+import rpm.model.PatientSample;
 import rpm.model.VitalSample;
+import rpm.server.ServerBootstrapListener;
+import rpm.server.VitalSampleWriter;
 
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.util.stream.Collectors;
 
 @WebServlet(urlPatterns = {"/api/vitals"})
 public class VitalsIngestServlet extends HttpServlet {
@@ -25,69 +33,67 @@ public class VitalsIngestServlet extends HttpServlet {
     private final VitalSampleDao vitalDao = new VitalSampleDao();
     private final Gson gson = new Gson();
 
+    /** How long a request may wait for room in the writer queue before getting 503. */
+    private static final long OFFER_TIMEOUT_MS = 100;
+
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         resp.setCharacterEncoding("utf-8");
         resp.setContentType("application/json; charset=utf-8");
 
-        try {
-            String body;
-            try (BufferedReader br = req.getReader()) {
-                body = br.lines().collect(Collectors.joining("\n"));
-            }
+        if (VitalBatchCodec.isBinary(req.getContentType())) {
+            resp.setStatus(415);
+            resp.getWriter().write(gson.toJson(new ErrorMsg("UNSUPPORTED_MEDIA_TYPE",
+                    VitalBatchCodec.CONTENT_TYPE + " is accepted by /api/vitals/batch only")));
+            return;
+        }
 
-            if (body == null || body.isBlank()) {
+        try {
+            // streamed field by field into the sample, no JSON tree in between
+            PatientSample row;
+            try (VitalJsonStream in = new VitalJsonStream(req.getReader(), System.currentTimeMillis())) {
+                if (!in.hasNext()) {
+                    resp.setStatus(400);
+                    resp.getWriter().write(gson.toJson(new ErrorMsg("BAD_REQUEST", "JSON body is required")));
+                    return;
+                }
+                row = in.next();
+            } catch (IllegalArgumentException missingId) {
                 resp.setStatus(400);
-                resp.getWriter().write(gson.toJson(new ErrorMsg("BAD_REQUEST", "JSON body is required")));
+                resp.getWriter().write(gson.toJson(new ErrorMsg("BAD_REQUEST", "patientId is required")));
                 return;
-            }
-
-            JsonObject jo = gson.fromJson(body, JsonObject.class);
-
-            String patientId = getString(jo, "patientId");
-            if (patientId == null || patientId.isBlank()) {
+            } catch (IOException | IllegalStateException | JsonParseException malformed) {
                 resp.setStatus(400);
-                resp.getWriter().write(gson.toJson(new ErrorMsg("BAD_REQUEST", "patientId is required")));
+                resp.getWriter().write(gson.toJson(new ErrorMsg("BAD_REQUEST", "malformed JSON: " + malformed.getMessage())));
                 return;
             }
 
-            long ts = getLong(jo, "timestampMs", System.currentTimeMillis());
-            double temp = getDouble(jo, "bodyTemp", 0);
-            double hr = getDouble(jo, "heartRate", 0);
-            double rr = getDouble(jo, "respiratoryRate", 0);
-            double sys = getDouble(jo, "systolicBP", 0);
-            double dia = getDouble(jo, "diastolicBP", 0);
-            double ecg = getDouble(jo, "ecgValue", 0);
-
-            VitalSample s = new VitalSample(ts, temp, hr, rr, sys, dia, ecg);
-            vitalDao.insert(patientId.trim(), s);
-
-            resp.setStatus(201);
-            resp.getWriter().write(gson.toJson(new OkMsg("OK", "inserted", patientId.trim(), ts)));
+            String patientId = row.patientId();
+            VitalSample s = row.sample();
+            long ts = s.timestampMs();
+
+            VitalSampleWriter writer = writer();
+            if (writer == null) {
+                vitalDao.insert(patientId, s);
+                resp.setStatus(201);
+                resp.getWriter().write(gson.toJson(new OkMsg("OK", "inserted", patientId, ts)));
+            } else if (writer.offer(patientId, s, OFFER_TIMEOUT_MS)) {
+                resp.setStatus(202);
+                resp.getWriter().write(gson.toJson(new OkMsg("OK", "accepted", patientId, ts)));
+            } else {
+                resp.setStatus(503);
+                resp.setHeader("Retry-After", "1");
+                resp.getWriter().write(gson.toJson(new ErrorMsg("BUSY", "vital writer queue is full")));
+            }
         } catch (Exception e) {
             resp.setStatus(500);
             resp.getWriter().write(gson.toJson(new ErrorMsg("VITALS_INGEST_ERROR", e.getMessage())));
         }
     }
 
-    private static String getString(JsonObject jo, String key) {
-        return (jo != null && jo.has(key) && !jo.get(key).isJsonNull()) ? jo.get(key).getAsString() : null;
-    }
-
-    private static long getLong(JsonObject jo, String key, long def) {
-        try {
-            return (jo != null && jo.has(key) && !jo.get(key).isJsonNull()) ? jo.get(key).getAsLong() : def;
-        } catch (Exception e) {
-            return def;
-        }
-    }
-
-    private static double getDouble(JsonObject jo, String key, double def) {
-        try {
-            return (jo != null && jo.has(key) && !jo.get(key).isJsonNull()) ? jo.get(key).getAsDouble() : def;
-        } catch (Exception e) {
-            return def;
-        }
+    private VitalSampleWriter writer() {
+        Object o = getServletContext().getAttribute(ServerBootstrapListener.CTX_VITAL_WRITER);
+        return o instanceof VitalSampleWriter ? (VitalSampleWriter) o : null;
     }
 
     static class ErrorMsg {
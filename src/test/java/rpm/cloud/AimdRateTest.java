@@ -0,0 +1,37 @@
+package rpm.cloud;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for AimdRate.
+ * Verifies the multiplicative back-off, the additive recovery and the rate bounds.
+ */
+class AimdRateTest {
+
+    @Test
+    void testFailuresHalveRateDownToMinimum() {
+        AimdRate r = new AimdRate(1, 8, 1, 0.5, 100);
+        assertEquals(125, r.periodMs());
+
+        r.onFailure();
+        assertEquals(4, r.rate(), 1e-9);
+        for (int i = 0; i < 10; i++) r.onFailure();
+        assertEquals(1, r.rate(), 1e-9);
+        assertTrue(r.errorRate() > 0.5);
+    }
+
+    @Test
+    void testSlowSuccessBacksOffAndFastSuccessRecovers() {
+        AimdRate r = new AimdRate(1, 8, 1, 0.5, 100);
+        r.onSuccess(500);
+        assertEquals(4, r.rate(), 1e-9);
+
+        r.onSuccess(20);
+        r.onSuccess(20);
+        assertEquals(6, r.rate(), 1e-9);
+        for (int i = 0; i < 10; i++) r.onSuccess(20);
+        assertEquals(8, r.rate(), 1e-9);
+    }
+}
@@ -0,0 +1,364 @@
+package rpm.cloud;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import rpm.codec.VitalBatchCodec;
+import rpm.codec.VitalBatchReader;
+import rpm.data.AbnormalEvent;
+import rpm.model.AlertLevel;
+import rpm.model.VitalSample;
+import rpm.model.VitalType;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for CloudSyncService.
+ * Verifies the gzip batch payload, the bulk / single-post transport and outbox
+ * spill-and-replay across a restart, items of unanswered posts kept at shutdown,
+ * lane weighting and priority under a vital backlog, and congestion back-off,
+ * against a local HTTP stub.
+ */
+class CloudSyncServiceTest {
+
+    private HttpServer server;
+    private CloudSyncService sync;
+    private Path outboxDir;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (sync != null) sync.shutdown();
+        if (server != null) server.stop(0);
+        if (outboxDir != null) {
+            try (Stream<Path> files = Files.walk(outboxDir)) {
+                for (Path p : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    private static JsonArray gunzip(InputStream in) throws IOException {
+        try (InputStreamReader r = new InputStreamReader(new GZIPInputStream(in), StandardCharsets.UTF_8)) {
+            return JsonParser.parseReader(r).getAsJsonArray();
+        }
+    }
+
+    /** Rows in a bulk body, binary or gzip JSON depending on its Content-Type. */
+    private static int rows(HttpExchange ex, byte[] body) throws IOException {
+        if (VitalBatchCodec.isBinary(ex.getRequestHeaders().getFirst("Content-Type"))) {
+            int n = 0;
+            VitalBatchReader r = VitalBatchCodec.reader(new ByteArrayInputStream(body));
+            while (r.next()) n++;
+            return n;
+        }
+        return gunzip(new ByteArrayInputStream(body)).size();
+    }
+
+    private String startServer(boolean bulk, List<String> requests, List<Integer> batchSizes) throws IOException {
+        return startServer(bulk, true, requests, batchSizes);
+    }
+
+    private String startServer(boolean bulk, boolean binary, List<String> requests, List<Integer> batchSizes) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/vitals", ex -> {
+            String path = ex.getRequestURI().getPath();
+            requests.add(path);
+            byte[] body = ex.getRequestBody().readAllBytes();
+            int code = 200;
+            if (path.endsWith("/batch")) {
+                boolean isBinary = VitalBatchCodec.isBinary(ex.getRequestHeaders().getFirst("Content-Type"));
+                if (!bulk) {
+                    code = 404;
+                } else if (isBinary ? !binary : !"gzip".equals(ex.getRequestHeaders().getFirst("Content-Encoding"))) {
+                    code = 415;
+                } else {
+                    batchSizes.add(rows(ex, body));
+                }
+            }
+            ex.sendResponseHeaders(code, -1);
+            ex.close();
+        });
+        server.start();
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private static void awaitCondition(java.util.function.BooleanSupplier done) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!done.getAsBoolean() && System.nanoTime() < deadline) Thread.sleep(10);
+    }
+
+    @Test
+    void testGzipPayloadIsJsonArray() throws IOException {
+        List<CloudSyncService.Item> items = List.of(
+                CloudSyncService.Item.vital("P001", new VitalSample(1000, 36.6, 72, 16, 120, 80, Double.NaN)),
+                CloudSyncService.Item.vital("P002", new VitalSample(1000, 37.1, 88, 18, 125, 82, 0.1)));
+
+        JsonArray arr = gunzip(new ByteArrayInputStream(CloudSyncService.gzip(items)));
+        assertEquals(2, arr.size());
+        assertEquals("P002", arr.get(1).getAsJsonObject().get("patientId").getAsString());
+        assertEquals(88, arr.get(1).getAsJsonObject().get("heartRate").getAsDouble(), 1e-9);
+    }
+
+    @Test
+    void testItemsAreRoutedToPriorityLanes() {
+        AbnormalEvent urgent = new AbnormalEvent(1000, VitalType.HEART_RATE, AlertLevel.URGENT, 150, "HR high");
+        AbnormalEvent normal = new AbnormalEvent(1000, VitalType.HEART_RATE, AlertLevel.NORMAL, 80, "back to normal");
+
+        assertEquals(CloudSyncService.Lane.ALERT, CloudSyncService.Item.abnormal("P001", urgent).lane());
+        assertEquals(CloudSyncService.Lane.MINUTE, CloudSyncService.Item.abnormal("P001", normal).lane());
+        assertEquals(CloudSyncService.Lane.VITAL,
+                CloudSyncService.Item.vital("P001", new VitalSample(1000, 36.6, 72, 16, 120, 80, 0)).lane());
+    }
+
+    @Test
+    void testVitalsAreSentInBatches() throws Exception {
+        List<String> requests = new CopyOnWriteArrayList<>();
+        List<Integer> sizes = new CopyOnWriteArrayList<>();
+        String base = startServer(true, requests, sizes);
+
+        sync = new CloudSyncService(true, base, 2000, 0, 1000, 100, 200, 2);
+        for (int i = 0; i < 250; i++) sync.enqueueVital("P" + (1000 + i), new VitalSample(i, 36.6, 70, 16, 120, 80, 0));
+
+        awaitCondition(() -> sync.sentItems() == 250);
+        assertEquals(250, sync.sentItems());
+        assertEquals(250, sizes.stream().mapToInt(Integer::intValue).sum());
+        assertTrue(requests.size() <= 5, "expected a handful of bulk requests, got " + requests.size());
+        assertTrue(sizes.stream().allMatch(n -> n <= 100));
+    }
+
+    @Test
+    void testFallsBackToJsonWhenBinaryIsRejected() throws Exception {
+        List<String> requests = new CopyOnWriteArrayList<>();
+        List<Integer> sizes = new CopyOnWriteArrayList<>();
+        String base = startServer(true, false, requests, sizes);
+
+        sync = new CloudSyncService(true, base, 2000, 0, 1000, 100, 50, 2);
+        for (int i = 0; i < 30; i++) sync.enqueueVital("P" + (1000 + i), new VitalSample(i, 36.6, 70, 16, 120, 80, 0));
+
+        awaitCondition(() -> sync.sentItems() == 30);
+        assertEquals(30, sync.sentItems());
+        assertEquals(30, sizes.stream().mapToInt(Integer::intValue).sum());
+        assertTrue(requests.stream().allMatch(p -> p.endsWith("/batch")));
+    }
+
+    @Test
+    void testBadRequestFailsOnlyThatBatchAndKeepsBinary() throws Exception {
+        List<String> types = new CopyOnWriteArrayList<>();
+        AtomicBoolean rejectNext = new AtomicBoolean(true);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/vitals", ex -> {
+            ex.getRequestBody().readAllBytes();
+            types.add(ex.getRequestHeaders().getFirst("Content-Type"));
+            ex.sendResponseHeaders(rejectNext.getAndSet(false) ? 400 : 200, -1);
+            ex.close();
+        });
+        server.start();
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        sync = new CloudSyncService(true, base, 2000, 0, 1000, 100, 50, 1);
+        for (int i = 0; i < 10; i++) sync.enqueueVital("P" + (1000 + i), new VitalSample(i, 36.6, 70, 16, 120, 80, 0));
+        awaitCondition(() -> sync.failedItems() == 10);
+        assertEquals(10, sync.failedItems());
+
+        for (int i = 0; i < 10; i++) sync.enqueueVital("P" + (2000 + i), new VitalSample(i, 36.6, 70, 16, 120, 80, 0));
+        awaitCondition(() -> sync.sentItems() == 10);
+        assertEquals(10, sync.sentItems());
+        assertTrue(types.stream().allMatch(VitalBatchCodec::isBinary), "still binary after a 400: " + types);
+    }
+
+    @Test
+    void testFallsBackToSinglePostsWithoutBulkEndpoint() throws Exception {
+        List<String> requests = new CopyOnWriteArrayList<>();
+        String base = startServer(false, requests, new CopyOnWriteArrayList<>());
+
+        sync = new CloudSyncService(true, base, 2000, 0, 1000, 100, 50, 2);
+        for (int i = 0; i < 3; i++) sync.enqueueVital("P" + (1000 + i), new VitalSample(i, 36.6, 70, 16, 120, 80, 0));
+
+        awaitCondition(() -> sync.sentItems() == 3);
+        assertEquals(3, requests.stream().filter("/api/vitals"::equals).count());
+        assertEquals(1, requests.stream().filter(p -> p.endsWith("/batch")).count());
+    }
+
+    @Test
+    void testOutageSpillsToDiskAndReplaysAfterRestart() throws Exception {
+        AtomicBoolean up = new AtomicBoolean(false);
+        List<String> delivered = new CopyOnWriteArrayList<>();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api", ex -> {
+            byte[] body = ex.getRequestBody().readAllBytes();
+            if (!up.get()) {
+                ex.sendResponseHeaders(503, -1);
+            } else {
+                for (int i = 0; i < rows(ex, body); i++) {
+                    delivered.add(ex.getRequestURI().getPath());
+                }
+                ex.sendResponseHeaders(200, -1);
+            }
+            ex.close();
+        });
+        server.start();
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+        outboxDir = Files.createTempDirectory("cloud-outbox-test");
+
+        // first run: cloud is down, everything ends up in the outbox
+        CloudOutbox outbox = new CloudOutbox(outboxDir, 64 * 1024, SegmentLog.FsyncPolicy.ALWAYS, 0, 1 << 20);
+        sync = new CloudSyncService(true, base, 2000, 0, 1000, 100, 20, 2, outbox);
+        for (int i = 0; i < 20; i++) sync.enqueueVital("P" + (100 + i), new VitalSample(i, 36.6, 70, 16, 120, 80, 0));
+        for (int i = 0; i < 5; i++) {
+            sync.enqueueAbnormal("P001", new AbnormalEvent(i, VitalType.HEART_RATE, AlertLevel.URGENT, 150, "HR high"));
+        }
+        awaitCondition(() -> outbox.spilled() == 25);
+        assertEquals(25, outbox.spilled());
+        assertEquals(0, sync.sentItems());
+        sync.shutdown();
+
+        // second run against the same directory, cloud back up
+        up.set(true);
+        CloudOutbox reopened = new CloudOutbox(outboxDir, 64 * 1024, SegmentLog.FsyncPolicy.ALWAYS, 0, 1 << 20);
+        assertFalse(reopened.isEmpty());
+        sync = new CloudSyncService(true, base, 2000, 0, 1000, 100, 20, 2, reopened);
+
+        awaitCondition(() -> sync.sentItems() == 25);
+        assertEquals(25, sync.sentItems());
+        assertEquals(25, delivered.size());
+        // abnormal events are replayed before the throttled vitals
+        assertEquals(List.of("/api/abnormal/batch"), delivered.subList(0, 5).stream().distinct().collect(Collectors.toList()));
+        awaitCondition(reopened::isEmpty);
+        assertTrue(reopened.isEmpty());
+    }
+
+    @Test
+    void testShutdownKeepsItemsOfUnansweredRequests() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        List<String> log = new CopyOnWriteArrayList<>();
+        String base = startGatedServer(gate, log);
+        outboxDir = Files.createTempDirectory("cloud-outbox-test");
+        try {
+            CloudOutbox outbox = new CloudOutbox(outboxDir, 64 * 1024, SegmentLog.FsyncPolicy.ALWAYS, 0, 1 << 20);
+            sync = new CloudSyncService(true, base, 300, 0, 1000, 100, 0, 1, outbox);
+            // one post the stub never answers, one batch waiting for its send slot
+            blockWorker(log);
+            sync.shutdown();
+            sync = null;
+
+            CloudOutbox reopened = new CloudOutbox(outboxDir, 64 * 1024, SegmentLog.FsyncPolicy.ALWAYS, 0, 1 << 20);
+            try {
+                CloudOutbox.Replay r = reopened.next(100);
+                assertNotNull(r);
+                assertEquals(List.of("P000", "P001"), r.items.stream().map(it -> it.patientId).sorted()
+                        .collect(Collectors.toList()));
+            } finally {
+                reopened.close();
+            }
+        } finally {
+            gate.countDown();
+        }
+    }
+
+    /**
+     * Stub that records "path rows" per bulk request and holds the first request
+     * until {@code gate} opens, so items pile up in the lanes meanwhile.
+     */
+    private String startGatedServer(CountDownLatch gate, List<String> log) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api", ex -> {
+            byte[] body = ex.getRequestBody().readAllBytes();
+            try {
+                gate.await();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            log.add(ex.getRequestURI().getPath() + " " + rows(ex, body));
+            ex.sendResponseHeaders(200, -1);
+            ex.close();
+        });
+        server.start();
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /** Parks the worker: one request stuck at the stub, the next batch waiting for a send slot. */
+    private void blockWorker(List<String> log) throws InterruptedException {
+        sync.enqueueVital("P0", new VitalSample(0, 36.6, 70, 16, 120, 80, 0));
+        awaitCondition(() -> sync.queueDepth() == 0);
+        Thread.sleep(100);
+        sync.enqueueVital("P1", new VitalSample(0, 36.6, 70, 16, 120, 80, 0));
+        awaitCondition(() -> sync.queueDepth() == 0);
+        assertTrue(log.isEmpty());
+    }
+
+    @Test
+    void testAlertsOvertakeVitalBacklogWithoutStarvingIt() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        List<String> log = new CopyOnWriteArrayList<>();
+        String base = startGatedServer(gate, log);
+        try {
+            sync = new CloudSyncService(true, base, 5000, 0, 10_000, 100, 0, 1);
+            blockWorker(log);
+
+            // vitals first: a FIFO queue would send all of them before any alarm
+            for (int i = 0; i < 1000; i++) sync.enqueueVital("P" + (1000 + i), new VitalSample(i, 36.6, 70, 16, 120, 80, 0));
+            for (int i = 0; i < 200; i++) {
+                sync.enqueueAbnormal("P001", new AbnormalEvent(i, VitalType.HEART_RATE, AlertLevel.URGENT, 150, "HR high"));
+            }
+            assertEquals(1000, sync.laneDepth(CloudSyncService.Lane.VITAL));
+            assertEquals(200, sync.laneDepth(CloudSyncService.Lane.ALERT));
+        } finally {
+            gate.countDown();
+        }
+
+        awaitCondition(() -> sync.sentItems() == 1202);
+        assertEquals(1202, sync.sentItems());
+        // batches of 100: alert share 61 + vital share 7, the remaining 32 by priority
+        assertEquals(List.of(
+                "/api/vitals/batch 1", "/api/vitals/batch 1",
+                "/api/abnormal/batch 93", "/api/vitals/batch 7",
+                "/api/abnormal/batch 93", "/api/vitals/batch 7",
+                "/api/abnormal/batch 14", "/api/vitals/batch 86"), log.subList(0, 8));
+        assertEquals(0, sync.laneDropped(CloudSyncService.Lane.VITAL));
+    }
+
+    @Test
+    void testStandingVitalBacklogSlowsRateOncePerRoundTrip() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        List<String> log = new CopyOnWriteArrayList<>();
+        String base = startGatedServer(gate, log);
+        try {
+            // 10 ms period: at most 16 halvings' worth of slowdown, floor 160 ms
+            sync = new CloudSyncService(true, base, 5000, 10, 100, 100, 0, 1);
+            blockWorker(log);
+            assertEquals(10, sync.vitalPeriodMs());
+
+            for (int i = 0; i < 80; i++) sync.enqueueVital("P" + (1000 + i), new VitalSample(i, 36.6, 70, 16, 120, 80, 0));
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < 50; i++) sync.checkVitalCongestion(now);
+            assertEquals(20, sync.vitalPeriodMs());
+
+            sync.checkVitalCongestion(now + 50);
+            assertEquals(20, sync.vitalPeriodMs());
+            sync.checkVitalCongestion(now + 100);
+            assertEquals(40, sync.vitalPeriodMs());
+        } finally {
+            gate.countDown();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package rpm.codec;
+
+import com.google.gson.Gson;
+import org.junit.jupiter.api.Test;
+import rpm.model.PatientSample;
+import rpm.model.VitalSample;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for VitalBatchCodec.
+ * Verifies the lossless round trip (readings at device resolution as scaled integers,
+ * anything else through the XOR fallback), corrupt input and the size against JSON.
+ */
+class VitalBatchCodecTest {
+
+    private static List<PatientSample> simulated(int patients, int seconds) {
+        Random rnd = new Random(42);
+        List<PatientSample> rows = new ArrayList<>();
+        for (int t = 0; t < seconds; t++) {
+            for (int p = 0; p < patients; p++) {
+                double phase = t * 0.2 + p;
+                rows.add(new PatientSample(String.format("P%03d", p + 1), new VitalSample(
+                        1_700_000_000_000L + t * 1000L + rnd.nextInt(3),
+                        37.0 + 0.05 * Math.sin(phase / 3) + rnd.nextGaussian() * 0.03,
+                        75 + 5 * Math.sin(phase) + rnd.nextGaussian() * 1.5,
+                        16 + 1.5 * Math.sin(phase / 2) + rnd.nextGaussian() * 0.4,
+                        120 + 8 * Math.sin(phase / 4) + rnd.nextGaussian() * 2.0,
+                        80 + 5 * Math.sin(phase / 4) + rnd.nextGaussian() * 1.5,
+                        Math.sin(phase * 7) * 0.8)));
+            }
+        }
+        return rows;
+    }
+
+    /** The same readings rounded to each column's resolution, as a device reports them. */
+    private static List<PatientSample> atDeviceResolution(List<PatientSample> rows) {
+        List<PatientSample> out = new ArrayList<>(rows.size());
+        for (PatientSample r : rows) {
+            double[] v = new double[VitalBatchCodec.COLUMNS];
+            for (int c = 0; c < v.length; c++) {
+                long scale = VitalBatchCodec.SCALE[c];
+                v[c] = Math.round(VitalBatchCodec.value(r.sample(), c) * scale) / (double) scale;
+            }
+            out.add(new PatientSample(r.patientId(),
+                    new VitalSample(r.sample().timestampMs(), v[0], v[1], v[2], v[3], v[4], v[5])));
+        }
+        return out;
+    }
+
+    private static void assertSameRows(List<PatientSample> rows, List<PatientSample> back) {
+        assertEquals(rows.size(), back.size());
+        // grouped by patient, input order kept within each patient
+        List<PatientSample> sorted = new ArrayList<>(rows);
+        sorted.sort((a, b) -> a.patientId().compareTo(b.patientId()));
+        for (int i = 0; i < sorted.size(); i++) {
+            VitalSample want = sorted.get(i).sample();
+            VitalSample got = back.get(i).sample();
+            assertEquals(sorted.get(i).patientId(), back.get(i).patientId());
+            assertEquals(want.timestampMs(), got.timestampMs());
+            for (int c = 0; c < VitalBatchCodec.COLUMNS; c++) {
+                assertEquals(Double.doubleToLongBits(VitalBatchCodec.value(want, c)),
+                        Double.doubleToLongBits(VitalBatchCodec.value(got, c)), "row " + i + " column " + c);
+            }
+        }
+    }
+
+    private static List<PatientSample> decode(byte[] body) throws IOException {
+        List<PatientSample> out = new ArrayList<>();
+        VitalBatchReader r = VitalBatchCodec.reader(new ByteArrayInputStream(body));
+        while (r.next()) out.add(new PatientSample(r.patientId(), r.sample()));
+        return out;
+    }
+
+    @Test
+    void testRoundTripIsExact() throws IOException {
+        // full-precision values go through the XOR fallback
+        List<PatientSample> raw = simulated(3, 50);
+        assertSameRows(raw, decode(VitalBatchCodec.encode(raw)));
+
+        // device readings go as scaled integers and still come back bit for bit
+        List<PatientSample> device = atDeviceResolution(raw);
+        byte[] body = VitalBatchCodec.encode(device);
+        assertSameRows(device, decode(body));
+        assertTrue(body.length * 3 < VitalBatchCodec.encode(raw).length);
+    }
+
+    @Test
+    void testNonFiniteColumnIsExact() throws IOException {
+        List<PatientSample> rows = Arrays.asList(
+                new PatientSample("P001", new VitalSample(1000, 36.61234, 72, 16, 120, 80, Double.NaN)),
+                new PatientSample("P001", new VitalSample(2000, 36.7, 73, 16, 121, 81, 0.123456789)));
+        List<PatientSample> back = decode(VitalBatchCodec.encode(rows));
+
+        assertTrue(Double.isNaN(back.get(0).sample().ecgValue()));
+        assertEquals(0.123456789, back.get(1).sample().ecgValue(), 0);
+        // not a multiple of 0.01, so sent exactly rather than rounded
+        assertEquals(36.61234, back.get(0).sample().bodyTemp(), 0);
+    }
+
+    @Test
+    void testEmptyAndCorruptBodies() throws IOException {
+        assertTrue(decode(VitalBatchCodec.encode(new ArrayList<>())).isEmpty());
+
+        byte[] body = VitalBatchCodec.encode(simulated(1, 10));
+        assertThrows(IOException.class, () -> decode(Arrays.copyOf(body, body.length / 2)));
+        assertThrows(IOException.class, () -> decode("[{}]".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void testDeviceReadingsAreFarSmallerThanJson() {
+        List<PatientSample> rows = atDeviceResolution(simulated(8, 60));
+        Gson gson = new Gson();
+        int json = 0;
+        for (PatientSample r : rows) {
+            VitalSample s = r.sample();
+            json += gson.toJson(new Object[]{r.patientId(), s.timestampMs(), s.bodyTemp(), s.heartRate(),
+                    s.respiratoryRate(), s.systolicBP(), s.diastolicBP(), s.ecgValue()}).length();
+        }
+        int binary = VitalBatchCodec.encode(rows).length;
+        // the same readings, so JSON gets the short decimals too: still 5x, and under 9 bytes a row
+        assertTrue(binary * 5 <= json, "binary=" + binary + " json=" + json);
+        assertTrue(binary <= rows.size() * 9, "binary=" + binary + " rows=" + rows.size());
+    }
+
+    @Test
+    void testContentTypeMatchIgnoresParameters() {
+        assertTrue(VitalBatchCodec.isBinary("application/x-rpm-vitals"));
+        assertTrue(VitalBatchCodec.isBinary("Application/X-RPM-Vitals; v=1"));
+        assertFalse(VitalBatchCodec.isBinary("application/json"));
+        assertFalse(VitalBatchCodec.isBinary(null));
+    }
+}
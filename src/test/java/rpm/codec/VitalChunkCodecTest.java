@@ -0,0 +1,121 @@
+package rpm.codec;
+
+import org.junit.jupiter.api.Test;
+import rpm.model.VitalSample;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for VitalChunkWriter / VitalChunkReader.
+ * Verifies a lossless round trip (irregular timestamps, repeated and non-finite
+ * values) and the compressed size of a minute at device resolution.
+ */
+class VitalChunkCodecTest {
+
+    private static List<VitalSample> minuteAt5Hz(long start, Random rnd) {
+        List<VitalSample> out = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            double phase = i * 0.2;
+            out.add(new VitalSample(start + i * 200L + rnd.nextInt(5),
+                    37.0 + 0.05 * Math.sin(phase / 3) + rnd.nextGaussian() * 0.03,
+                    75 + 5 * Math.sin(phase) + rnd.nextGaussian() * 1.5,
+                    16 + 1.5 * Math.sin(phase / 2) + rnd.nextGaussian() * 0.4,
+                    120 + 8 * Math.sin(phase / 4) + rnd.nextGaussian() * 2.0,
+                    80 + 5 * Math.sin(phase / 4) + rnd.nextGaussian() * 1.5,
+                    Math.sin(phase * 7) * 0.8));
+        }
+        return out;
+    }
+
+    private static List<VitalSample> roundTrip(List<VitalSample> in) {
+        VitalChunkWriter w = new VitalChunkWriter(in.size());
+        for (VitalSample s : in) w.append(s);
+        VitalChunkReader r = new VitalChunkReader(w.toByteArray());
+        assertEquals(in.size(), r.count());
+        List<VitalSample> out = new ArrayList<>();
+        while (r.next()) out.add(r.sample());
+        return out;
+    }
+
+    @Test
+    void testSimulatedMinuteRoundTripsExactly() {
+        List<VitalSample> in = minuteAt5Hz(1_700_000_000_000L, new Random(7));
+        assertEquals(in, roundTrip(in));
+    }
+
+    @Test
+    void testIrregularAndSpecialValuesRoundTrip() {
+        List<VitalSample> in = new ArrayList<>();
+        in.add(new VitalSample(-5, 0, -0.0, 1e300, Double.MIN_VALUE, 80, Double.NaN));
+        in.add(new VitalSample(-5, 0, -0.0, 1e300, Double.MIN_VALUE, 80, Double.NaN));
+        in.add(new VitalSample(1000, 36.6, 72, Double.POSITIVE_INFINITY, 120, 80, 0.5));
+        in.add(new VitalSample(999, 36.6, 72, 16, 120, 80, -0.5));
+        in.add(new VitalSample(Long.MAX_VALUE / 2, 36.7, 73, 16, 121, 81, 0.25));
+        in.add(new VitalSample(Long.MIN_VALUE / 2, 36.7, 73, 16, 121, 81, 0.25));
+
+        List<VitalSample> out = roundTrip(in);
+        assertEquals(in.size(), out.size());
+        for (int i = 0; i < in.size(); i++) {
+            assertEquals(in.get(i).timestampMs(), out.get(i).timestampMs());
+            for (int c = 0; c < VitalBatchCodec.COLUMNS; c++) {
+                assertEquals(Double.doubleToLongBits(VitalBatchCodec.value(in.get(i), c)),
+                        Double.doubleToLongBits(VitalBatchCodec.value(out.get(i), c)));
+            }
+        }
+    }
+
+    @Test
+    void testEmptyChunk() {
+        assertTrue(roundTrip(new ArrayList<>()).isEmpty());
+    }
+
+    /**
+     * A minute at 5 Hz as a bedside monitor reports it: the simulator's signals rounded
+     * to 0.1 °C, 1 bpm, 1 breath/min, 1 mmHg and 0.01 mV.
+     */
+    private static List<VitalSample> deviceMinute(long start, Random rnd) {
+        List<VitalSample> out = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            double phase = i * 0.2;
+            double t = (phase % (2 * Math.PI)) / (2 * Math.PI);
+            double spike = Math.exp(-Math.pow((t - 0.5) * 20, 2));
+            if (spike < 0.01) spike = 0;
+            out.add(new VitalSample(start + i * 200L,
+                    Math.round((37.0 + 0.05 * Math.sin(phase / 3) + rnd.nextGaussian() * 0.03) * 10) / 10.0,
+                    Math.round(75 + 5 * Math.sin(phase) + rnd.nextGaussian() * 1.5),
+                    Math.round(16 + 1.5 * Math.sin(phase / 2) + rnd.nextGaussian() * 0.4),
+                    Math.round(120 + 8 * Math.sin(phase / 4) + rnd.nextGaussian() * 2.0),
+                    Math.round(80 + 5 * Math.sin(phase / 4) + rnd.nextGaussian() * 1.5),
+                    Math.round((spike * 2.0 - 0.5 + rnd.nextGaussian() * 0.05) * 100) / 100.0));
+        }
+        return out;
+    }
+
+    @Test
+    void testDeviceMinuteIsAnOrderOfMagnitudeBelowRows() {
+        List<VitalSample> in = deviceMinute(1_700_000_000_000L, new Random(11));
+        VitalChunkWriter w = new VitalChunkWriter(in.size());
+        for (VitalSample s : in) w.append(s);
+        assertEquals(in, roundTrip(in));
+
+        // what one vital_samples row costs: heap tuple header 24, patient id 8 (padded),
+        // seven columns 56, line pointer 4; primary key entry 8 + 8 + 8, line pointer 4
+        int rowBytes = 24 + 8 + 56 + 4 + 8 + 8 + 8 + 4;
+        int rows = in.size() * rowBytes;
+        int columns = in.size() * 7 * 8;
+        // the noisy ECG column is over half of what is left, which keeps this just short of 10x
+        assertTrue(w.size() * 8 <= rows, "chunk " + w.size() + " vs rows " + rows);
+        assertTrue(w.size() * 4 <= columns, "chunk " + w.size() + " vs raw columns " + columns);
+    }
+
+    @Test
+    void testCorruptChunkIsRejected() {
+        assertThrows(IllegalStateException.class, () -> new VitalChunkReader(new byte[]{9, 0, 0, 0, 1}));
+        VitalChunkReader r = new VitalChunkReader(new byte[]{1, 0, 0, 0, 3, 0});
+        assertThrows(IllegalStateException.class, r::next);
+    }
+}
@@ -0,0 +1,107 @@
+package rpm.dao;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import rpm.data.AbnormalEvent;
+import rpm.data.PatientEvent;
+import rpm.db.Db;
+import rpm.db.DbInit;
+import rpm.db.PgTestRows;
+import rpm.model.AlertLevel;
+import rpm.model.VitalType;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * {@link AbnormalEventDao#insertAll} bursts with keys repeated within the burst and
+ * across bursts: the returned count is the rows that were new, and every stored row
+ * carries both layouts.
+ *
+ * <p>Needs a reachable PostgreSQL (PG* env vars, e.g. a local or throwaway
+ * container instance); skipped otherwise. Rows use a unique patient id prefix
+ * and are deleted afterwards.
+ */
+class AbnormalEventDaoTest {
+
+    private static final long T0 = 1_700_000_000_000L;
+
+    private final AbnormalEventDao dao = new AbnormalEventDao();
+    private final PgTestRows testRows = new PgTestRows();
+    private final String prefix = testRows.prefix();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        assumeTrue(Db.hasPgEnv(), "PostgreSQL not configured");
+        DbInit.init();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        testRows.deleteFrom("abnormal_events", "patient_keys");
+    }
+
+    private static PatientEvent event(String pid, long ts, VitalType type, AlertLevel level) {
+        return new PatientEvent(pid, new AbnormalEvent(ts, type, level, 150, type + " " + level));
+    }
+
+    private long stored(String sql) throws Exception {
+        try (Connection c = Db.getConnection();
+             PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setString(1, prefix + "%");
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    @Test
+    void testBurstCountsOnlyNewEvents() throws Exception {
+        String a = prefix + "a";
+        String b = prefix + "b";
+        List<PatientEvent> burst = new ArrayList<>(List.of(
+                event(a, T0, VitalType.HEART_RATE, AlertLevel.WARNING),
+                // the same key again, e.g. a re-evaluation that escalated
+                event(a, T0, VitalType.HEART_RATE, AlertLevel.URGENT),
+                // same instant, other vital: its own event
+                event(a, T0, VitalType.SYSTOLIC_BP, AlertLevel.WARNING),
+                event(a, T0 + 1_000, VitalType.HEART_RATE, AlertLevel.URGENT),
+                // another patient with a key that patient a also has
+                event(b, T0, VitalType.HEART_RATE, AlertLevel.WARNING),
+                event(b, T0, VitalType.HEART_RATE, AlertLevel.WARNING)
+        ));
+
+        assertEquals(4, dao.insertAll(burst));
+        assertEquals(4, stored("SELECT COUNT(*) FROM abnormal_events WHERE patient_id LIKE ?"));
+
+        // a resend of the whole burst is all duplicates
+        assertEquals(0, dao.insertAll(burst));
+
+        // old and new mixed: only the new one counts
+        burst.add(event(a, T0 + 2_000, VitalType.RESPIRATORY_RATE, AlertLevel.URGENT));
+        assertEquals(1, dao.insertAll(burst));
+        assertEquals(0, dao.insertAll(List.of()));
+        assertEquals(5, stored("SELECT COUNT(*) FROM abnormal_events WHERE patient_id LIKE ?"));
+
+        // both layouts filled, and the codes agree with the names
+        assertEquals(0, stored("SELECT COUNT(*) FROM abnormal_events e LEFT JOIN patient_keys k " +
+                "ON k.patient_key = e.patient_key WHERE e.patient_id LIKE ? " +
+                "AND (k.patient_id IS DISTINCT FROM e.patient_id " +
+                "OR e.vital_code IS DISTINCT FROM " + AbnormalEventDao.vitalCodeOf("e.vital_type") + " " +
+                "OR e.level_code IS DISTINCT FROM " + AbnormalEventDao.levelCodeOf("e.level") + ")"));
+
+        List<AbnormalEvent> latest = dao.latest(a, 10);
+        assertEquals(4, latest.size());
+        assertEquals(T0 + 2_000, latest.get(0).timestampMs());
+        assertEquals(VitalType.RESPIRATORY_RATE, latest.get(0).vitalType());
+        assertEquals(1, dao.latest(b, 10).size());
+    }
+}
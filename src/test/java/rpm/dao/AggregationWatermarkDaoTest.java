@@ -0,0 +1,56 @@
+package rpm.dao;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import rpm.db.Db;
+import rpm.db.DbInit;
+import rpm.db.PgTestRows;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Unit tests for AggregationWatermarkDao.
+ * Verifies NONE for an unknown job, the save/load round trip, and that a saved
+ * watermark never moves backwards.
+ *
+ * <p>Needs a reachable PostgreSQL (PG* env vars, e.g. a local or throwaway
+ * container instance); skipped otherwise. Uses its own job name and deletes it
+ * afterwards.
+ */
+class AggregationWatermarkDaoTest {
+
+    private final AggregationWatermarkDao dao = new AggregationWatermarkDao();
+    private final PgTestRows testRows = new PgTestRows();
+    private final String job = testRows.id("job");
+
+    @BeforeEach
+    void setUp() throws Exception {
+        assumeTrue(Db.hasPgEnv(), "PostgreSQL not configured");
+        DbInit.init();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        testRows.deleteWatermark(job);
+    }
+
+    @Test
+    void testUnknownJobHasNoWatermark() throws Exception {
+        assertEquals(AggregationWatermarkDao.NONE, dao.load(job));
+    }
+
+    @Test
+    void testSavedWatermarkOnlyMovesForward() throws Exception {
+        dao.save(job, 120_000);
+        assertEquals(120_000, dao.load(job));
+
+        dao.save(job, 180_000);
+        assertEquals(180_000, dao.load(job));
+
+        // e.g. a second instance that is behind
+        dao.save(job, 60_000);
+        assertEquals(180_000, dao.load(job));
+    }
+}
@@ -0,0 +1,180 @@
+package rpm.dao;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import rpm.db.Db;
+import rpm.db.DbInit;
+import rpm.db.PgTestRows;
+import rpm.db.DbSession;
+import rpm.model.PatientSample;
+import rpm.model.VitalSample;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Round trip through {@link VitalChunkDao#compact} and the reads that combine
+ * vital_chunks with vital_samples, including rows that arrive again for a minute
+ * that was already compacted, and the ordered merge (and its limit) in
+ * {@link VitalSampleDao#stream}.
+ *
+ * <p>Needs a reachable PostgreSQL (PG* env vars, e.g. a local or throwaway
+ * container instance); skipped otherwise. Rows use a unique patient id prefix
+ * and are deleted afterwards.
+ */
+class VitalChunkDaoTest {
+
+    private static final int MINUTES = 3;
+    private static final int SAMPLES_PER_MINUTE = 60;
+
+    private final VitalChunkDao chunks = new VitalChunkDao();
+    private final VitalSampleDao samples = new VitalSampleDao();
+    private final PgTestRows testRows = new PgTestRows();
+    private final String pid = testRows.id("chunks");
+
+    @BeforeEach
+    void setUp() throws Exception {
+        assumeTrue(Db.hasPgEnv(), "PostgreSQL not configured");
+        DbInit.init();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        testRows.deleteFrom("vital_samples", "vital_chunks");
+    }
+
+    private static VitalSample sample(long ts, double hr) {
+        return new VitalSample(ts, 36.8, hr, 16, 120, 80, Math.sin(ts / 1000.0));
+    }
+
+    private static List<VitalSample> minutes() {
+        List<VitalSample> out = new ArrayList<>();
+        for (int m = 0; m < MINUTES; m++) {
+            for (int i = 0; i < SAMPLES_PER_MINUTE; i++) {
+                out.add(sample(m * VitalChunkDao.CHUNK_MS + i * 1000L, 70 + i % 30));
+            }
+        }
+        return out;
+    }
+
+    private void insert(List<VitalSample> rows) throws Exception {
+        List<PatientSample> batch = new ArrayList<>(rows.size());
+        for (VitalSample s : rows) batch.add(new PatientSample(pid, s));
+        try (Connection c = Db.getConnection()) {
+            samples.copyBatch(c, batch, new VitalCopyBuffer());
+        }
+    }
+
+    private List<VitalSample> scanAll() throws Exception {
+        List<VitalSample> out = new ArrayList<>();
+        samples.scan(pid, 0, Long.MAX_VALUE, 10_000,
+                (ts, temp, hr, rr, sys, dia, ecg) -> out.add(new VitalSample(ts, temp, hr, rr, sys, dia, ecg)));
+        out.sort((a, b) -> Long.compare(a.timestampMs(), b.timestampMs()));
+        return out;
+    }
+
+    @Test
+    void testCompactedMinutesReadBackUnchanged() throws Exception {
+        List<VitalSample> expected = minutes();
+        insert(expected);
+
+        try (DbSession s = DbSession.open()) {
+            assertEquals(List.of(0L, VitalChunkDao.CHUNK_MS, 2 * VitalChunkDao.CHUNK_MS),
+                    chunks.pendingChunks(s, pid, Long.MAX_VALUE, 10));
+            // the last minute stays open, as the compactor would leave it
+            assertEquals(SAMPLES_PER_MINUTE, chunks.compact(s, pid, 0));
+            assertEquals(SAMPLES_PER_MINUTE, chunks.compact(s, pid, VitalChunkDao.CHUNK_MS));
+            assertEquals(0, chunks.compact(s, pid, VitalChunkDao.CHUNK_MS));
+            assertEquals(List.of(2 * VitalChunkDao.CHUNK_MS), chunks.pendingChunks(s, pid, Long.MAX_VALUE, 10));
+        }
+
+        // chunks then rows, each in order, and exactly the samples that went in
+        assertEquals(expected, samples.range(pid, 0, Long.MAX_VALUE, 10_000));
+        assertEquals(expected, scanAll());
+        assertEquals(expected.subList(30, 150), samples.range(pid, 30_000, 149_000, 10_000));
+
+        List<VitalSample> latest = samples.latest(pid, 100);
+        assertEquals(100, latest.size());
+        for (int i = 0; i < 100; i++) assertEquals(expected.get(expected.size() - 1 - i), latest.get(i));
+    }
+
+    @Test
+    void testRowsArrivingAfterCompactionAreMergedIn() throws Exception {
+        List<VitalSample> original = minutes().subList(0, SAMPLES_PER_MINUTE);
+        insert(original);
+        try (DbSession s = DbSession.open()) {
+            assertEquals(SAMPLES_PER_MINUTE, chunks.compact(s, pid, 0));
+        }
+
+        // a late resend: ten timestamps the chunk already holds (other values) and five new ones
+        List<VitalSample> late = new ArrayList<>();
+        for (int i = 0; i < 10; i++) late.add(sample(i * 1000L, 999));
+        for (int i = 0; i < 5; i++) late.add(sample(i * 1000L + 500, 80));
+        insert(late);
+
+        List<VitalSample> expected = new ArrayList<>(original);
+        expected.addAll(late.subList(10, 15));
+        expected.sort((a, b) -> Long.compare(a.timestampMs(), b.timestampMs()));
+
+        // before compacting again: the chunk wins the shared timestamps
+        assertEquals(expected, samples.range(pid, 0, Long.MAX_VALUE, 10_000));
+
+        try (DbSession s = DbSession.open()) {
+            assertEquals(List.of(0L), chunks.pendingChunks(s, pid, Long.MAX_VALUE, 10));
+            assertEquals(15, chunks.compact(s, pid, 0));
+            assertTrue(chunks.pendingChunks(s, pid, Long.MAX_VALUE, 10).isEmpty());
+        }
+
+        // after: one chunk with the union, still holding the first values
+        assertEquals(expected, samples.range(pid, 0, Long.MAX_VALUE, 10_000));
+        assertEquals(expected, scanAll());
+        assertTrue(expected.stream().noneMatch(v -> v.heartRate() == 999));
+    }
+
+    private List<VitalSample> stream(long fromMs, long toMs, int limit) throws Exception {
+        List<VitalSample> out = new ArrayList<>();
+        int n = samples.stream(pid, fromMs, toMs, limit,
+                (ts, temp, hr, rr, sys, dia, ecg) -> out.add(new VitalSample(ts, temp, hr, rr, sys, dia, ecg)));
+        assertEquals(out.size(), n);
+        return out;
+    }
+
+    @Test
+    void testStreamMergesChunksAndRowsInOrderUpToTheLimit() throws Exception {
+        // minute 0 compacted, then rows interleaved with it (two on its timestamps) and in minute 1
+        List<VitalSample> compacted = new ArrayList<>();
+        for (int i = 0; i < 10; i++) compacted.add(sample(i * 1000L, 70 + i));
+        insert(compacted);
+        try (DbSession s = DbSession.open()) {
+            assertEquals(10, chunks.compact(s, pid, 0));
+        }
+        List<VitalSample> rows = List.of(
+                sample(0, 999), sample(2_500, 80), sample(5_000, 999), sample(9_500, 81),
+                sample(VitalChunkDao.CHUNK_MS, 82), sample(VitalChunkDao.CHUNK_MS + 1000, 83));
+        insert(rows);
+
+        List<VitalSample> expected = new ArrayList<>(compacted);
+        expected.add(rows.get(1));
+        expected.add(rows.get(3));
+        expected.addAll(rows.subList(4, 6));
+        expected.sort((a, b) -> Long.compare(a.timestampMs(), b.timestampMs()));
+        assertEquals(14, expected.size());
+
+        // the chunk wins each shared timestamp, which counts once
+        assertEquals(expected, stream(0, Long.MAX_VALUE, 100));
+        assertTrue(stream(0, Long.MAX_VALUE, 100).stream().noneMatch(v -> v.heartRate() == 999));
+
+        // the limit counts rows from both sources together, wherever it falls
+        for (int limit = 1; limit <= expected.size(); limit++) {
+            assertEquals(expected.subList(0, limit), stream(0, Long.MAX_VALUE, limit), "limit " + limit);
+        }
+
+        // bounds are inclusive on both sides and apply to chunk samples and rows alike
+        assertEquals(expected.subList(2, 13), stream(2_000, VitalChunkDao.CHUNK_MS, 100));
+    }
+}
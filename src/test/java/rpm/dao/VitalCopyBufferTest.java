@@ -0,0 +1,56 @@
+package rpm.dao;
+
+import org.junit.jupiter.api.Test;
+import rpm.model.VitalSample;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for VitalCopyBuffer.
+ * Verifies the CSV rows sent to COPY: column order, quoting and buffer reuse.
+ */
+class VitalCopyBufferTest {
+
+    private static String text(VitalCopyBuffer buf) {
+        return new String(buf.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testRowsFollowCopyColumnOrder() {
+        VitalCopyBuffer buf = new VitalCopyBuffer(8);
+        buf.append("P001", new VitalSample(1000, 36.5, 72, 16, 120, 80, -0.25));
+        buf.append("P002", new VitalSample(1200, 37.0, 90.5, 18, 130, 85, 0.0));
+
+        assertEquals(2, buf.rows());
+        assertEquals("P001,1000,36.5,72.0,16.0,120.0,80.0,-0.25\n"
+                + "P002,1200,37.0,90.5,18.0,130.0,85.0,0.0\n", text(buf));
+    }
+
+    @Test
+    void testQuotesOnlyWhenNeeded() {
+        VitalCopyBuffer buf = new VitalCopyBuffer();
+        buf.append("Ward \"A\",7", new VitalSample(1, 0, 0, 0, 0, 0, Double.NaN));
+        buf.append("", new VitalSample(2, 0, 0, 0, 0, 0, 0));
+
+        String[] lines = text(buf).split("\n");
+        assertEquals("\"Ward \"\"A\"\",7\",1,0.0,0.0,0.0,0.0,0.0,NaN", lines[0]);
+        // an empty id must stay an empty string, not NULL
+        assertTrue(lines[1].startsWith("\"\",2,"));
+    }
+
+    @Test
+    void testResetReusesBuffer() {
+        VitalCopyBuffer buf = new VitalCopyBuffer();
+        buf.append("P001", new VitalSample(1, 1, 1, 1, 1, 1, 1));
+        assertFalse(buf.isEmpty());
+
+        buf.reset();
+        assertTrue(buf.isEmpty());
+        assertEquals(0, buf.size());
+
+        buf.append("P009", new VitalSample(9, 1, 1, 1, 1, 1, 1));
+        assertTrue(text(buf).startsWith("P009,9,"));
+    }
+}
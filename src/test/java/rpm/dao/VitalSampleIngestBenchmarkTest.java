@@ -0,0 +1,123 @@
+package rpm.dao;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import rpm.db.Db;
+import rpm.db.DbInit;
+import rpm.db.PgTestRows;
+import rpm.model.PatientSample;
+import rpm.model.VitalSample;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Compares the per-row, JDBC batch and COPY ingest paths of VitalSampleDao.
+ *
+ * <p>Needs a reachable PostgreSQL (PG* env vars, e.g. a local or throwaway
+ * container instance); skipped otherwise. Rows use a unique patient id prefix
+ * and are deleted afterwards.
+ */
+class VitalSampleIngestBenchmarkTest {
+
+    private static final int SINGLE_ROWS = 500;
+    private static final int BULK_ROWS = 20_000;
+
+    private final VitalSampleDao dao = new VitalSampleDao();
+    private final PgTestRows testRows = new PgTestRows();
+    private final String prefix = testRows.prefix();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        assumeTrue(Db.hasPgEnv(), "PostgreSQL not configured");
+        DbInit.init();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        testRows.deleteFrom("vital_samples");
+    }
+
+    private List<PatientSample> rows(String path, int n) {
+        List<PatientSample> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            String pid = prefix + path + "-" + (i % 8);
+            out.add(new PatientSample(pid, new VitalSample(i, 36.8, 70 + i % 30, 16, 120, 80, Math.sin(i))));
+        }
+        return out;
+    }
+
+    private long count(String path) throws Exception {
+        try (Connection c = Db.getConnection();
+             PreparedStatement ps = c.prepareStatement("SELECT COUNT(*) FROM vital_samples WHERE patient_id LIKE ?")) {
+            ps.setString(1, prefix + path + "-%");
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    private static void report(TestReporter reporter, String path, int n, long nanos) {
+        double secs = nanos / 1e9;
+        reporter.publishEntry("ingest-bench " + path,
+                String.format("%d rows in %.1f ms -> %,.0f rows/s", n, nanos / 1e6, n / Math.max(secs, 1e-9)));
+    }
+
+    @Test
+    void testComparePerRowBatchAndCopy(TestReporter reporter) throws Exception {
+        List<PatientSample> single = rows("row", SINGLE_ROWS);
+        long t0 = System.nanoTime();
+        for (PatientSample r : single) dao.insert(r.patientId(), r.sample());
+        report(reporter, "row", SINGLE_ROWS, System.nanoTime() - t0);
+        assertEquals(SINGLE_ROWS, count("row"));
+
+        List<PatientSample> batched = rows("batch", BULK_ROWS);
+        t0 = System.nanoTime();
+        try (Connection c = Db.getConnection();
+             PreparedStatement ps = dao.prepareBatchInsert(c)) {
+            for (int i = 0; i < batched.size(); i += 1000) {
+                dao.insertBatch(ps, batched.subList(i, Math.min(batched.size(), i + 1000)));
+            }
+        }
+        report(reporter, "batch", BULK_ROWS, System.nanoTime() - t0);
+        assertEquals(BULK_ROWS, count("batch"));
+
+        List<PatientSample> copied = rows("copy", BULK_ROWS);
+        VitalCopyBuffer buf = new VitalCopyBuffer();
+        t0 = System.nanoTime();
+        int inserted = 0;
+        try (Connection c = Db.getConnection()) {
+            for (int i = 0; i < copied.size(); i += 5000) {
+                inserted += dao.copyBatch(c, copied.subList(i, Math.min(copied.size(), i + 5000)), buf);
+            }
+        }
+        report(reporter, "copy", BULK_ROWS, System.nanoTime() - t0);
+        assertEquals(BULK_ROWS, inserted);
+        assertEquals(BULK_ROWS, count("copy"));
+    }
+
+    @Test
+    void testCopyMergeSkipsExistingRows() throws Exception {
+        List<PatientSample> first = rows("dup", 100);
+        VitalCopyBuffer buf = new VitalCopyBuffer();
+
+        try (Connection c = Db.getConnection()) {
+            assertEquals(100, dao.copyBatch(c, first, buf));
+
+            // half already stored, half new: only the new half is inserted
+            List<PatientSample> overlap = new ArrayList<>(first.subList(50, 100));
+            overlap.addAll(rows("dup", 150).subList(100, 150));
+            assertEquals(50, dao.copyBatch(c, overlap, buf));
+        }
+        assertEquals(150, count("dup"));
+    }
+}
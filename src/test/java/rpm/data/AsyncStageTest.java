@@ -0,0 +1,110 @@
+package rpm.data;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for AsyncStage.
+ * Verifies ordering, dropping when full, failure counting, draining on shutdown, and
+ * that a submit racing shutdown either runs or is counted as dropped.
+ */
+class AsyncStageTest {
+
+    @Test
+    void testRunsTasksInOrderAndCountsFailures() throws Exception {
+        AsyncStage stage = new AsyncStage("test-stage", 100);
+        List<Integer> ran = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final int n = i;
+            assertTrue(stage.submit(() -> {
+                if (n == 5) throw new IllegalStateException("boom");
+                ran.add(n);
+            }));
+        }
+
+        assertTrue(stage.shutdown(5000));
+        assertEquals(List.of(0, 1, 2, 3, 4, 6, 7, 8, 9), ran);
+        assertEquals(10, stage.submitted());
+        assertEquals(1, stage.failed());
+        assertEquals(0, stage.dropped());
+    }
+
+    @Test
+    void testDropsWhenFull() throws Exception {
+        AsyncStage stage = new AsyncStage("test-stage", 2);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        // occupy the worker, then fill the queue
+        assertTrue(stage.submit(() -> {
+            started.countDown();
+            release.await();
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(stage.submit(() -> {}));
+        assertTrue(stage.submit(() -> {}));
+        assertFalse(stage.submit(() -> {}), "queue is full");
+        assertEquals(1, stage.dropped());
+
+        release.countDown();
+        assertTrue(stage.shutdown(5000));
+        assertEquals(0, stage.depth());
+    }
+
+    @Test
+    void testShutdownDrainsQueuedTasksAndRejectsNewOnes() throws Exception {
+        AsyncStage stage = new AsyncStage("test-stage", 1000);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> ran = new CopyOnWriteArrayList<>();
+
+        stage.submit(release::await);
+        for (int i = 0; i < 500; i++) {
+            final int n = i;
+            stage.submit(() -> ran.add(n));
+        }
+        release.countDown();
+
+        assertTrue(stage.shutdown(5000));
+        assertEquals(500, ran.size(), "everything queued before shutdown runs");
+        assertFalse(stage.submit(() -> ran.add(-1)));
+        assertEquals(1, stage.dropped());
+    }
+
+    @Test
+    void testShutdownTimesOutOnAStuckTask() throws Exception {
+        AsyncStage stage = new AsyncStage("test-stage", 10);
+        CountDownLatch never = new CountDownLatch(1);
+        stage.submit(never::await);
+        stage.submit(() -> {});
+
+        assertFalse(stage.shutdown(100));
+        assertEquals(1, stage.dropped(), "the task still queued is counted as dropped");
+    }
+
+    @Test
+    void testSubmitRacingShutdownIsRunOrDropped() throws Exception {
+        for (int round = 0; round < 10; round++) {
+            AsyncStage stage = new AsyncStage("test-stage", 10_000);
+            AtomicLong ran = new AtomicLong();
+            CountDownLatch go = new CountDownLatch(1);
+            Thread submitter = new Thread(() -> {
+                go.countDown();
+                for (int i = 0; i < 2_000; i++) stage.submit(ran::incrementAndGet);
+            });
+            submitter.start();
+            go.await();
+            assertTrue(stage.shutdown(5000));
+            submitter.join();
+
+            assertEquals(stage.submitted(), ran.get(), "round " + round);
+            assertEquals(2_000, stage.submitted() + stage.dropped(), "round " + round);
+        }
+    }
+}
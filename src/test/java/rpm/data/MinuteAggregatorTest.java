@@ -0,0 +1,44 @@
+package rpm.data;
+
+import org.junit.jupiter.api.Test;
+import rpm.alert.AlertEngine;
+import rpm.model.VitalSample;
+import rpm.model.VitalType;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for MinuteAggregator.
+ * Verifies the streamed minute statistics and the shared empty result.
+ */
+class MinuteAggregatorTest {
+
+    private static VitalSample sample(long ts, double hr) {
+        return new VitalSample(ts, 36.8, hr, 16, 118, 78, 0.0);
+    }
+
+    @Test
+    void testMinuteRecordCarriesSpread() {
+        MinuteAggregator agg = new MinuteAggregator(new AlertEngine());
+
+        assertSame(MinuteAggregator.AggregationResult.EMPTY, agg.onSample(sample(0, 70)));
+        assertSame(MinuteAggregator.AggregationResult.EMPTY, agg.onSample(sample(20_000, 80)));
+        assertSame(MinuteAggregator.AggregationResult.EMPTY, agg.onSample(sample(40_000, 90)));
+
+        // first sample of the next minute closes the previous one
+        MinuteRecord r = agg.onSample(sample(60_000, 75)).minuteRecord();
+        assertNotNull(r);
+        assertEquals(0, r.minuteStartMs());
+        assertEquals(3, r.sampleCount());
+        assertEquals(80.0, r.avgHR(), 1e-9);
+        assertEquals(70.0, r.min(VitalType.HEART_RATE), 1e-9);
+        assertEquals(90.0, r.max(VitalType.HEART_RATE), 1e-9);
+        assertEquals(Math.sqrt(200.0 / 3), r.stddev(VitalType.HEART_RATE), 1e-9);
+        assertEquals(0.0, r.stddev(VitalType.BODY_TEMPERATURE), 1e-9);
+
+        // the rollup bucket keeps the exact spread
+        RollupBucket b = RollupBucket.ofMinute(r);
+        assertEquals(70.0, b.min(VitalType.HEART_RATE), 1e-9);
+        assertEquals(Math.sqrt(200.0 / 3), b.stats(VitalType.HEART_RATE).stddev(), 1e-9);
+    }
+}
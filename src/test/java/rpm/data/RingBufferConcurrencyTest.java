@@ -0,0 +1,133 @@
+package rpm.data;
+
+import org.junit.jupiter.api.Test;
+import rpm.model.VitalSample;
+import rpm.model.VitalType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Stress tests for the lock-free ring buffers.
+ * One writer and 32 readers run concurrently; every read must be a run of
+ * consecutive, fully written entries.
+ */
+class RingBufferConcurrencyTest {
+
+    private static final int READERS = 32;
+    private static final long RUN_MS = 1000;
+
+    /** Value of vital {@code c} for the sample written at sequence {@code i}. */
+    private static double value(long i, int c) {
+        return i * 10.0 + c;
+    }
+
+    @Test
+    void testColumnBufferReadsAreNeverTorn() throws Exception {
+        VitalColumnBuffer buf = new VitalColumnBuffer(256);
+
+        runConcurrently(
+                i -> buf.add(i, value(i, 0), value(i, 1), value(i, 2), value(i, 3), value(i, 4), value(i, 5)),
+                r -> {
+                    checkWindow(buf.snapshot());
+                    checkWindow(buf.lastMillis(50));
+                    VitalWindow all = buf.snapshot();
+                    if (!all.isEmpty()) {
+                        long mid = (all.firstTimestamp() + all.lastTimestamp()) / 2;
+                        VitalWindow w = buf.window(mid, mid + 20);
+                        checkWindow(w);
+                        if (!w.isEmpty()) assertTrue(w.firstTimestamp() >= mid && w.lastTimestamp() <= mid + 20);
+                    }
+                    VitalSample s = buf.latest();
+                    if (s != null) assertEquals(value(s.timestampMs(), 1), s.heartRate());
+                });
+    }
+
+    @Test
+    void testSinceSurvivesBeingLappedBeforeItReadsClaimed() throws Exception {
+        // A caller that is up to date copies nothing. If the writer laps the whole
+        // buffer before that empty copy is checked, the valid start lies past the end
+        // of the copy and the read must retry rather than fail.
+        VitalColumnBuffer buf = new VitalColumnBuffer(1);
+        runConcurrently(
+                i -> buf.add(i, value(i, 0), value(i, 1), value(i, 2), value(i, 3), value(i, 4), value(i, 5)),
+                r -> {
+                    VitalDelta d = buf.since(buf.cursor());
+                    assertTrue(d.samples().size() <= buf.capacity());
+                    checkWindow(d.samples());
+                });
+    }
+
+    @Test
+    void testTimeIndexedRangesAreConsecutive() throws Exception {
+        TimeIndexedRingBuffer<Long> buf = new TimeIndexedRingBuffer<>(128);
+        runConcurrently(i -> buf.add(i, i), r -> {
+            checkConsecutive(buf.range(Long.MIN_VALUE, Long.MAX_VALUE), buf.capacity());
+            List<Long> recent = buf.range(0, Long.MAX_VALUE);
+            if (!recent.isEmpty()) {
+                long mid = recent.get(recent.size() / 2);
+                List<Long> w = buf.range(mid, mid + 10);
+                checkConsecutive(w, buf.capacity());
+                for (long v : w) assertTrue(v >= mid && v <= mid + 10);
+            }
+        });
+    }
+
+    // ---------- helpers ----------
+
+    private static void checkWindow(VitalWindow w) {
+        for (int k = 0; k < w.size(); k++) {
+            long t = w.timestampAt(k);
+            if (k > 0) assertEquals(w.timestampAt(k - 1) + 1, t, "timestamps must be consecutive");
+            for (VitalType type : VitalType.values()) {
+                assertEquals(value(t, type.ordinal()), w.valueAt(type, k), "torn read at t=" + t);
+            }
+        }
+    }
+
+    private static void checkConsecutive(List<Long> items, int capacity) {
+        assertTrue(items.size() <= capacity);
+        for (int k = 1; k < items.size(); k++) {
+            assertEquals(items.get(k - 1) + 1, (long) items.get(k), "items must be consecutive");
+        }
+    }
+
+    private interface Writer { void write(long i); }
+    private interface Reader { void read(int readerId); }
+
+    private static void runConcurrently(Writer writer, Reader reader) throws Exception {
+        AtomicBoolean stop = new AtomicBoolean(false);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread w = new Thread(() -> {
+            long i = 0;
+            while (!stop.get()) writer.write(i++);
+        }, "ring-writer");
+
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < READERS; r++) {
+            final int id = r;
+            readers.add(new Thread(() -> {
+                try {
+                    while (!stop.get()) reader.read(id);
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                    stop.set(true);
+                }
+            }, "ring-reader-" + r));
+        }
+
+        w.start();
+        for (Thread t : readers) t.start();
+        Thread.sleep(RUN_MS);
+        stop.set(true);
+        w.join();
+        for (Thread t : readers) t.join();
+
+        if (failure.get() != null) fail("reader saw an inconsistent buffer", failure.get());
+    }
+}
@@ -0,0 +1,112 @@
+package rpm.data;
+
+import org.junit.jupiter.api.Test;
+import rpm.model.VitalType;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for RollupTiers.
+ * Verifies tier selection by point budget, that summaries match a direct scan, that
+ * late minutes reach every tier, and the two means a bucket reports.
+ */
+class RollupTiersTest {
+
+    private static final long MIN = RollupTiers.MINUTE;
+
+    private static MinuteRecord minute(long i) {
+        double hr = 60 + (i % 37);
+        return new MinuteRecord(i * MIN, 36.5, hr, 14, 120, 80, 300);
+    }
+
+    @Test
+    void testBucketsUseCoarsestTierWithinBudget() {
+        RollupTiers tiers = new RollupTiers();
+        for (long i = 0; i < 3 * 24 * 60; i++) tiers.add(minute(i));
+
+        long to = 3 * RollupTiers.DAY;
+        // 3 days over 800 px: 5.4 min per point -> 5 min buckets
+        List<RollupBucket> b = tiers.buckets(0, to, 800);
+        assertEquals(RollupTiers.FIVE_MINUTES, b.get(0).widthMs());
+        assertEquals(3 * 24 * 12, b.size());
+        assertEquals(5, b.get(0).minutes());
+
+        // 3 days over 50 px -> hourly
+        assertEquals(RollupTiers.HOUR, tiers.buckets(0, to, 50).get(0).widthMs());
+        // a short range stays at minute resolution
+        assertEquals(MIN, tiers.buckets(0, 30 * MIN, 800).get(0).widthMs());
+    }
+
+    @Test
+    void testSummarizeMatchesDirectScan() {
+        RollupTiers tiers = new RollupTiers();
+        int total = 3 * 24 * 60 + 17;
+        for (long i = 0; i < total; i++) tiers.add(minute(i));
+
+        long from = 123 * MIN + 1;   // ragged on both ends
+        long to = 2 * RollupTiers.DAY + 95 * MIN;
+        RollupBucket s = tiers.summarize(from, to);
+
+        double sum = 0, min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+        int n = 0;
+        for (long i = 0; i < total; i++) {
+            long t = i * MIN;
+            if (t < from || t >= to) continue;
+            double hr = minute(i).avgHR();
+            sum += hr;
+            min = Math.min(min, hr);
+            max = Math.max(max, hr);
+            n++;
+        }
+
+        assertEquals(n, s.minutes());
+        assertEquals(sum / n, s.mean(VitalType.HEART_RATE), 1e-9);
+        assertEquals(min, s.min(VitalType.HEART_RATE), 1e-9);
+        assertEquals(max, s.max(VitalType.HEART_RATE), 1e-9);
+        assertTrue(s.stats(VitalType.ECG).isEmpty());
+    }
+
+    @Test
+    void testLateMinuteIsMergedIntoClosedCoarseBuckets() {
+        RollupTiers tiers = new RollupTiers();
+        for (long i = 0; i < 2 * 60; i++) {
+            if (i != 7) tiers.add(minute(i));
+        }
+        // minute 7 arrives after its 5 min bucket and its hour have closed
+        tiers.add(minute(7));
+
+        assertEquals(minute(7), tiers.minutes(7 * MIN, 7 * MIN).get(0));
+        assertEquals(2 * 60, tiers.minutes(0, 2 * RollupTiers.HOUR).size());
+
+        List<RollupBucket> five = tiers.buckets(0, RollupTiers.HOUR, 12);
+        assertEquals(RollupTiers.FIVE_MINUTES, five.get(0).widthMs());
+        assertEquals(13, five.size());
+        assertEquals(RollupTiers.FIVE_MINUTES, five.get(1).startMs());
+        assertEquals(5, five.get(1).minutes());
+
+        List<RollupBucket> hours = tiers.buckets(0, 2 * RollupTiers.HOUR - 1, 1);
+        assertEquals(RollupTiers.HOUR, hours.get(0).widthMs());
+        assertEquals(2, hours.size());
+        assertEquals(60, hours.get(0).minutes());
+
+        RollupBucket all = tiers.summarize(0, 2 * RollupTiers.HOUR);
+        assertEquals(2 * 60, all.minutes());
+    }
+
+    @Test
+    void testMinuteMeanIgnoresSampleCounts() {
+        RollupTiers tiers = new RollupTiers();
+        tiers.add(new MinuteRecord(0, 36.5, 60, 14, 120, 80, 10));
+        tiers.add(new MinuteRecord(MIN, 36.5, 90, 14, 120, 80, 50));
+
+        RollupBucket s = tiers.summarize(0, 2 * MIN);
+
+        // what the reports show: each minute once
+        assertEquals(75, s.minuteMean(VitalType.HEART_RATE), 1e-9);
+        // what the charts show: each sample once
+        assertEquals((60 * 10 + 90 * 50) / 60.0, s.mean(VitalType.HEART_RATE), 1e-9);
+        assertTrue(Double.isNaN(s.minuteMean(VitalType.ECG)));
+    }
+}
@@ -0,0 +1,116 @@
+package rpm.data;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import rpm.alert.AlertEngine;
+import rpm.db.PgTestRows;
+import rpm.model.Patient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for SamplingEngine: shard pinning, per-patient ordering, and a 1,000-patient
+ * run in which every tick samples all of a shard's patients.
+ *
+ * <p>PatientManager also upserts each patient when PG* env vars are set; those rows
+ * use a unique id prefix and are deleted afterwards.
+ */
+class SamplingEngineTest {
+
+    private final PgTestRows testRows = new PgTestRows();
+    private final String prefix = testRows.prefix();
+
+    @AfterEach
+    void tearDown() throws Exception {
+        testRows.deleteFrom("patients");
+    }
+
+    private PatientManager patients(int n) {
+        List<Patient> list = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            list.add(new Patient(prefix + i, "Patient " + i, 40, "Ward A", "p" + i + "@test.com", "999"));
+        }
+        return new PatientManager(list, 10, 5, new AlertEngine());
+    }
+
+    @Test
+    void testShardOfIsStableAndInRange() {
+        for (int i = 0; i < 1000; i++) {
+            int s = SamplingEngine.shardOf("P" + i, 7);
+            assertTrue(s >= 0 && s < 7);
+            assertEquals(s, SamplingEngine.shardOf("P" + i, 7));
+        }
+    }
+
+    @Test
+    void testEachPatientStaysOnOneShardInOrder() throws Exception {
+        PatientManager pm = patients(50);
+        Map<String, String> threadOf = new ConcurrentHashMap<>();
+        Map<String, Long> lastTs = new ConcurrentHashMap<>();
+        AtomicLong errors = new AtomicLong();
+
+        SamplingEngine engine = new SamplingEngine(pm, 4, 20, (p, sample, result, now) -> {
+            String t = Thread.currentThread().getName();
+            if (!t.equals(threadOf.computeIfAbsent(p.patientId(), k -> t))) errors.incrementAndGet();
+            Long prev = lastTs.put(p.patientId(), sample.timestampMs());
+            if (prev != null && prev > sample.timestampMs()) errors.incrementAndGet();
+        });
+        engine.start();
+        Thread.sleep(500);
+        assertTrue(engine.shutdown(5000));
+
+        assertEquals(50, threadOf.size(), "every patient was sampled");
+        assertEquals(0, errors.get(), "a patient moved shards or went back in time");
+        for (Map.Entry<String, String> e : threadOf.entrySet()) {
+            assertEquals("sampler-shard-" + SamplingEngine.shardOf(e.getKey(), 4), e.getValue());
+        }
+    }
+
+    @Test
+    void testThousandPatientsAreSampledWholeTickByTick() throws Exception {
+        final int n = 1000;
+        final int shards = 4;
+        final int minTicks = 5;
+        PatientManager pm = patients(n);
+        Map<String, AtomicLong> perPatient = new ConcurrentHashMap<>();
+        Map<String, Long> lastTs = new ConcurrentHashMap<>();
+        AtomicLong errors = new AtomicLong();
+
+        SamplingEngine engine = new SamplingEngine(pm, shards, 20, (p, sample, result, now) -> {
+            perPatient.computeIfAbsent(p.patientId(), k -> new AtomicLong()).incrementAndGet();
+            Long prev = lastTs.put(p.patientId(), sample.timestampMs());
+            if (prev != null && prev > sample.timestampMs()) errors.incrementAndGet();
+        });
+        engine.start();
+        // wait for ticks, not for time: each patient gets minTicks samples, however slow the machine
+        for (int i = 0; i < 600 && perPatient.values().stream().filter(c -> c.get() >= minTicks).count() < n; i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(engine.shutdown(10_000));
+
+        assertEquals(n, perPatient.size(), "every patient was sampled");
+        assertEquals(0, errors.get(), "a patient went back in time");
+
+        // a tick samples all of its shard's patients, so they all have the same count
+        long[] perShard = new long[shards];
+        for (Map.Entry<String, AtomicLong> e : perPatient.entrySet()) {
+            long c = e.getValue().get();
+            assertTrue(c >= minTicks, e.getKey() + " got " + c);
+            int s = SamplingEngine.shardOf(e.getKey(), shards);
+            if (perShard[s] == 0) perShard[s] = c;
+            assertEquals(perShard[s], c, "patients of shard " + s);
+        }
+
+        // every tick was timed, once for its lateness and once for its duration
+        long ticks = 0;
+        for (long c : perShard) ticks += c;
+        assertTrue(engine.lateness().count() >= ticks);
+        assertEquals(engine.lateness().count(), engine.tickDuration().count());
+    }
+}
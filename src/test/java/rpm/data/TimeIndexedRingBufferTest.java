@@ -0,0 +1,71 @@
+package rpm.data;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for TimeIndexedRingBuffer.
+ * Verifies range lookups after wrap-around, newest-first order, and late items read
+ * back under their own keys until the ring laps them.
+ */
+class TimeIndexedRingBufferTest {
+
+    @Test
+    void testRangeAfterWrap() {
+        TimeIndexedRingBuffer<String> buf = new TimeIndexedRingBuffer<>(10);
+        for (long t = 0; t < 25; t++) buf.add(t * 60_000L, "m" + t);
+
+        // buffer now holds m15..m24
+        assertEquals(List.of("m18", "m19", "m20"), buf.range(18 * 60_000L, 20 * 60_000L));
+        assertEquals(10, buf.range(0, Long.MAX_VALUE).size());
+        assertEquals("m15", buf.range(0, Long.MAX_VALUE).get(0));
+        assertTrue(buf.range(30 * 60_000L, 40 * 60_000L).isEmpty());
+        assertTrue(buf.range(0, 5 * 60_000L).isEmpty());
+    }
+
+    @Test
+    void testNewestFirst() {
+        TimeIndexedRingBuffer<Integer> buf = new TimeIndexedRingBuffer<>(8);
+        for (int i = 1; i <= 5; i++) buf.add(i * 1000L, i);
+
+        assertEquals(List.of(4, 3, 2), buf.rangeNewestFirst(2000, 4000));
+    }
+
+    @Test
+    void testLateItemKeepsItsOwnKey() {
+        TimeIndexedRingBuffer<String> buf = new TimeIndexedRingBuffer<>(8);
+        buf.add(1000, "a");
+        buf.add(3000, "b");
+        assertTrue(buf.add(2000, "late"));
+        // an equal key is not late
+        buf.add(3000, "b2");
+        assertTrue(buf.add(1000, "late1"));
+        buf.add(4000, "c");
+
+        assertEquals(List.of("b", "b2"), buf.range(2500, 3500));
+        assertEquals(List.of("late"), buf.range(1500, 2500));
+        assertEquals(List.of("a", "late1", "late", "b", "b2", "c"), buf.range(0, Long.MAX_VALUE));
+        assertEquals(List.of("c", "b2", "b", "late", "late1", "a"), buf.rangeNewestFirst(0, Long.MAX_VALUE));
+        assertEquals(6, buf.size());
+    }
+
+    @Test
+    void testLateItemsGoWhenTheRingLapsThem() {
+        TimeIndexedRingBuffer<String> buf = new TimeIndexedRingBuffer<>(4);
+        for (long t = 1; t <= 4; t++) buf.add(t * 1000, "m" + t);
+        assertTrue(buf.add(2500, "late"));
+
+        // older than anything held: rejected, not filed under another key
+        buf.add(5000, "m5");
+        assertFalse(buf.add(1500, "too late"));
+        assertEquals(1, buf.rejected());
+        assertEquals(List.of("m2", "late", "m3", "m4", "m5"), buf.range(0, Long.MAX_VALUE));
+
+        buf.add(6000, "m6");
+        assertEquals(List.of("m3", "m4", "m5", "m6"), buf.range(0, Long.MAX_VALUE));
+        assertEquals(4, buf.size());
+    }
+}
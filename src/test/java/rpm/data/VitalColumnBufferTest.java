@@ -0,0 +1,109 @@
+package rpm.data;
+
+import org.junit.jupiter.api.Test;
+import rpm.model.VitalSample;
+import rpm.model.VitalType;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for VitalColumnBuffer.
+ * Verifies ring wrap-around, time-window lookups, rejected late samples, per-vital
+ * series and cursor reads.
+ */
+class VitalColumnBufferTest {
+
+    private static VitalSample sample(long ts) {
+        return new VitalSample(ts, 36.0 + ts, 70 + ts, 14 + ts, 120 + ts, 80 + ts, ts / 10.0);
+    }
+
+    @Test
+    void testSnapshotKeepsNewestAfterWrap() {
+        VitalColumnBuffer buf = new VitalColumnBuffer(5);
+        for (long t = 1; t <= 8; t++) buf.add(sample(t));
+
+        VitalWindow all = buf.snapshot();
+        assertEquals(5, all.size());
+        assertEquals(4, all.firstTimestamp(), "Oldest kept sample should be t=4");
+        assertEquals(8, all.lastTimestamp());
+        assertEquals(sample(8), buf.latest());
+
+        List<VitalSample> list = all.toSamples();
+        assertEquals(sample(4), list.get(0));
+        assertEquals(sample(8), list.get(4));
+    }
+
+    @Test
+    void testWindowByTimestamp() {
+        VitalColumnBuffer buf = new VitalColumnBuffer(10);
+        for (long t = 0; t < 25; t++) buf.add(sample(t * 100));
+
+        // buffer now holds t = 1500..2400
+        VitalWindow w = buf.window(1800, 2100);
+        assertEquals(4, w.size());
+        assertEquals(1800, w.firstTimestamp());
+        assertEquals(2100, w.lastTimestamp());
+        assertEquals(70 + 1900, w.valueAt(VitalType.HEART_RATE, 1), 1e-9);
+
+        // lastMillis is measured back from the newest sample (2400)
+        VitalWindow tail = buf.lastMillis(250);
+        assertEquals(3, tail.size());
+        assertEquals(2200, tail.firstTimestamp());
+
+        assertTrue(buf.window(5000, 6000).isEmpty());
+    }
+
+    @Test
+    void testLateSampleIsRejected() {
+        VitalColumnBuffer buf = new VitalColumnBuffer(10);
+        for (long t = 1; t <= 5; t++) assertTrue(buf.add(sample(t * 100)));
+        assertFalse(buf.add(sample(250)));
+        assertTrue(buf.add(sample(500)));
+        assertEquals(1, buf.rejected());
+
+        // the windows still find every sample by its own timestamp
+        assertEquals(2, buf.window(200, 300).size());
+        assertEquals(List.of(sample(100), sample(200), sample(300), sample(400), sample(500), sample(500)),
+                buf.snapshot().toSamples());
+    }
+
+    @Test
+    void testSeriesCopiesSingleColumn() {
+        VitalColumnBuffer buf = new VitalColumnBuffer(4);
+        for (long t = 1; t <= 4; t++) buf.add(sample(t));
+
+        VitalWindow ecg = buf.series(VitalType.ECG, 0, Long.MAX_VALUE);
+        assertEquals(4, ecg.size());
+        assertTrue(ecg.hasVital(VitalType.ECG));
+        assertFalse(ecg.hasVital(VitalType.HEART_RATE));
+        assertEquals(0.4, ecg.valueAt(VitalType.ECG, 3), 1e-9);
+        assertEquals(0.1, ecg.min(VitalType.ECG, 0, ecg.size()), 1e-9);
+        assertThrows(IllegalStateException.class, () -> ecg.valueAt(VitalType.HEART_RATE, 0));
+    }
+
+    @Test
+    void testSinceReturnsOnlyNewSamples() {
+        VitalColumnBuffer buf = new VitalColumnBuffer(5);
+        for (long t = 1; t <= 3; t++) buf.add(sample(t));
+
+        VitalDelta first = buf.since(0);
+        assertEquals(3, first.samples().size());
+        assertFalse(first.truncated());
+        assertEquals(3, first.cursor());
+
+        buf.add(sample(4));
+        VitalDelta next = buf.since(first.cursor());
+        assertEquals(1, next.samples().size());
+        assertEquals(sample(4), next.samples().latest());
+        assertTrue(buf.since(next.cursor()).isEmpty());
+
+        // falling more than a full buffer behind reports the gap
+        for (long t = 5; t <= 12; t++) buf.add(sample(t));
+        VitalDelta behind = buf.since(next.cursor());
+        assertTrue(behind.truncated());
+        assertEquals(5, behind.samples().size());
+        assertEquals(8, behind.samples().firstTimestamp());
+    }
+}
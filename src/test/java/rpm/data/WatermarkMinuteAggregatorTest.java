@@ -0,0 +1,105 @@
+package rpm.data;
+
+import org.junit.jupiter.api.Test;
+import rpm.model.VitalSample;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for WatermarkMinuteAggregator.
+ * Verifies out-of-order input, exactly-once flushing, duplicates, the minutes
+ * reported for a recompute, and completedBefore holding back for pending recomputes.
+ */
+class WatermarkMinuteAggregatorTest {
+
+    private static final long T0 = 1_700_000_040_000L; // a minute boundary
+    private static final long M = WatermarkMinuteAggregator.MINUTE_MS;
+
+    private static VitalSample sample(long ts, double hr) {
+        return new VitalSample(ts, 36.8, hr, 16, 118, 78, 0.0);
+    }
+
+    @Test
+    void testMinutesCloseOnceBehindTheWatermark() {
+        WatermarkMinuteAggregator agg = new WatermarkMinuteAggregator(T0 + 5_000);
+
+        // interleaved patients and minutes, out of order
+        assertTrue(agg.add("P1", sample(T0 + M + 30_000, 80)));
+        assertTrue(agg.add("P2", sample(T0 + 2 * M + 1_000, 60)));
+        assertTrue(agg.add("P1", sample(T0 + M + 10_000, 70)));
+        assertFalse(agg.add("P1", sample(T0 + M + 10_000, 70)));
+        assertEquals(1, agg.duplicates());
+
+        // the start minute is recomputed, never flushed from memory
+        WatermarkMinuteAggregator.Closed c = agg.advance(T0 + M + 59_999);
+        assertTrue(c.records().isEmpty());
+        assertEquals(Collections.singletonList(T0), c.recomputeAll());
+
+        c = agg.advance(T0 + 2 * M + 5_000);
+        List<PatientMinute> records = c.records();
+        assertEquals(1, records.size());
+        assertEquals("P1", records.get(0).patientId());
+        MinuteRecord r = records.get(0).record();
+        assertEquals(T0 + M, r.minuteStartMs());
+        assertEquals(2, r.sampleCount());
+        assertEquals(75.0, r.avgHR(), 1e-9);
+        assertTrue(c.recomputeAll().isEmpty());
+
+        // same watermark again: nothing is handed out twice
+        assertTrue(agg.advance(T0 + 2 * M + 5_000).isEmpty());
+        assertEquals(1, agg.openMinutes());
+    }
+
+    @Test
+    void testLateAndFutureSamples() {
+        WatermarkMinuteAggregator agg = new WatermarkMinuteAggregator(T0);
+        agg.advance(T0 + 3 * M);
+
+        assertFalse(agg.add("P1", sample(T0 + M + 1, 70)));
+        assertFalse(agg.add("P1", sample(T0 + 60 * M, 70)));
+        assertEquals(1, agg.late());
+        assertEquals(1, agg.future());
+
+        WatermarkMinuteAggregator.Closed c = agg.advance(T0 + 3 * M);
+        assertTrue(c.records().isEmpty());
+        assertEquals(Collections.singleton("P1"), c.recomputePatients().get(T0 + M));
+        assertTrue(agg.advance(T0 + 3 * M).isEmpty());
+
+        // the future minute is owed a recompute, handed out only once it has closed
+        assertTrue(agg.advance(T0 + 58 * M).isEmpty());
+        assertTrue(agg.add("P2", sample(T0 + 60 * M + 2_000, 72)));
+        assertTrue(agg.advance(T0 + 60 * M + 30_000).recomputePatients().isEmpty());
+        c = agg.advance(T0 + 61 * M);
+        assertEquals(1, c.records().size());
+        assertEquals(Collections.singleton("P1"), c.recomputePatients().get(T0 + 60 * M));
+        assertEquals(T0 + 61 * M, agg.completedBefore());
+    }
+
+    @Test
+    void testCompletedBeforeWaitsForPendingRecomputes() {
+        WatermarkMinuteAggregator agg = new WatermarkMinuteAggregator(T0 + 5_000);
+        // the start minute is owed a recompute, even once it is closed
+        assertEquals(T0, agg.completedBefore());
+        agg.add("P1", sample(T0 + M + 1_000, 70));
+        assertEquals(T0, agg.completedBefore());
+
+        // handed out by advance: the caller owns it from here
+        WatermarkMinuteAggregator.Closed c = agg.advance(T0 + 3 * M);
+        assertEquals(Collections.singletonList(T0), c.recomputeAll());
+        assertEquals(1, c.records().size());
+        assertEquals(T0 + 3 * M, agg.completedBefore());
+
+        // a late sample pulls it back to its minute until the next advance
+        assertFalse(agg.add("P2", sample(T0 + M + 2_000, 70)));
+        assertEquals(T0 + M, agg.completedBefore());
+        agg.advance(T0 + 3 * M);
+        assertEquals(T0 + 3 * M, agg.completedBefore());
+
+        // open minutes do not hold it back: they are not closed yet
+        agg.add("P1", sample(T0 + 3 * M + 1_000, 70));
+        assertEquals(T0 + 3 * M, agg.completedBefore());
+    }
+}
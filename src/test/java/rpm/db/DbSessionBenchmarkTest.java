@@ -0,0 +1,162 @@
+package rpm.db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import rpm.dao.VitalChunkDao;
+import rpm.dao.VitalCopyBuffer;
+import rpm.dao.VitalSampleDao;
+import rpm.model.PatientSample;
+import rpm.model.VitalSample;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Times a statement prepared per call, on a connection with the driver's default
+ * settings, against one pooled {@link DbSession} holding its statements, on a point
+ * query and on chunk compaction. The timings are published as report entries, not
+ * asserted; the tests check that both paths return the same results.
+ *
+ * <p>Needs a reachable PostgreSQL (PG* env vars, e.g. a local or throwaway
+ * container instance); skipped otherwise. Rows use a unique patient id prefix
+ * and are deleted afterwards.
+ */
+class DbSessionBenchmarkTest {
+
+    private static final int QUERIES = 2_000;
+    private static final int MINUTES = 200;
+    private static final int SAMPLES_PER_MINUTE = 60;
+    private static final int ROUNDS = 3;
+
+    private static final String COUNT_SQL =
+            "SELECT COUNT(*) FROM vital_samples WHERE patient_id = ? AND ts_ms >= ? AND ts_ms < ?";
+
+    private final PgTestRows testRows = new PgTestRows();
+    private final String prefix = testRows.prefix();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        assumeTrue(Db.hasPgEnv(), "PostgreSQL not configured");
+        DbInit.init();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        testRows.deleteFrom("vital_samples", "vital_chunks");
+    }
+
+    private void load(String pid) throws Exception {
+        List<PatientSample> rows = new ArrayList<>(MINUTES * SAMPLES_PER_MINUTE);
+        for (int m = 0; m < MINUTES; m++) {
+            for (int i = 0; i < SAMPLES_PER_MINUTE; i++) {
+                long ts = m * VitalChunkDao.CHUNK_MS + i * 1000L;
+                rows.add(new PatientSample(pid, new VitalSample(ts, 36.8, 70 + i % 30, 16, 120, 80, Math.sin(i))));
+            }
+        }
+        try (Connection c = Db.getConnection()) {
+            assertEquals(rows.size(), new VitalSampleDao().copyBatch(c, rows, new VitalCopyBuffer()));
+        }
+    }
+
+    private static void report(TestReporter reporter, String path, int n, String unit, long nanos) {
+        reporter.publishEntry("session-bench " + path,
+                String.format("%d %s in %.1f ms, %.1f us each", n, unit, nanos / 1e6, nanos / 1e3 / n));
+    }
+
+    @Test
+    void testSessionReusesStatements() throws Exception {
+        try (DbSession s = DbSession.open()) {
+            PreparedStatement first = s.statement(COUNT_SQL);
+            first.setString(1, prefix + "none");
+            assertSame(first, s.statement(COUNT_SQL));
+            assertNotSame(first, s.statement("SELECT 1"));
+        }
+    }
+
+    @Test
+    void testComparePointQueries(TestReporter reporter) throws Exception {
+        String pid = prefix + "q";
+        load(pid);
+
+        long perCallBest = Long.MAX_VALUE;
+        long heldBest = Long.MAX_VALUE;
+        long perCall = 0;
+        long held = 0;
+        try (Connection base = Db.unpooled()) {
+            // the first round warms up both paths; the best round of each is compared
+            for (int round = 0; round < ROUNDS; round++) {
+                long t0 = System.nanoTime();
+                for (int i = 0; i < QUERIES; i++) {
+                    try (PreparedStatement ps = base.prepareStatement(COUNT_SQL)) {
+                        perCall += count(ps, pid, i);
+                    }
+                }
+                perCallBest = Math.min(perCallBest, System.nanoTime() - t0);
+
+                t0 = System.nanoTime();
+                try (DbSession s = DbSession.open()) {
+                    for (int i = 0; i < QUERIES; i++) held += count(s.statement(COUNT_SQL), pid, i);
+                }
+                heldBest = Math.min(heldBest, System.nanoTime() - t0);
+            }
+        }
+        report(reporter, "per-call", QUERIES, "queries", perCallBest);
+        report(reporter, "session", QUERIES, "queries", heldBest);
+
+        assertEquals(perCall, held);
+    }
+
+    private static long count(PreparedStatement ps, String pid, int i) throws Exception {
+        long start = (i % MINUTES) * VitalChunkDao.CHUNK_MS;
+        ps.setString(1, pid);
+        ps.setLong(2, start);
+        ps.setLong(3, start + VitalChunkDao.CHUNK_MS);
+        try (ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    @Test
+    void testCompareCompaction(TestReporter reporter) throws Exception {
+        VitalChunkDao dao = new VitalChunkDao();
+        String perCallPid = prefix + "c1";
+        String sessionPid = prefix + "c2";
+        load(perCallPid);
+        load(sessionPid);
+        long before = QueryMetrics.count("chunks.compact");
+
+        long t0 = System.nanoTime();
+        int perCall = 0;
+        try (Connection base = Db.unpooled()) {
+            for (int m = 0; m < MINUTES; m++) {
+                // a fresh session per minute, so every statement is prepared again; not
+                // closed, since that would close base: its statements go with the connection
+                DbSession s = new DbSession(base);
+                perCall += dao.compact(s, perCallPid, m * VitalChunkDao.CHUNK_MS);
+            }
+        }
+        report(reporter, "compact/per-call", MINUTES, "minutes", System.nanoTime() - t0);
+
+        t0 = System.nanoTime();
+        int held = 0;
+        try (DbSession s = DbSession.open()) {
+            for (long start : dao.pendingChunks(s, sessionPid, Long.MAX_VALUE, MINUTES)) {
+                held += dao.compact(s, sessionPid, start);
+            }
+        }
+        report(reporter, "compact/session", MINUTES, "minutes", System.nanoTime() - t0);
+
+        assertEquals(MINUTES * SAMPLES_PER_MINUTE, perCall);
+        assertEquals(perCall, held);
+        assertEquals(before + 2 * MINUTES, QueryMetrics.count("chunks.compact"));
+    }
+}
@@ -0,0 +1,52 @@
+package rpm.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Ids for the rows a PostgreSQL test writes, and their clean-up. Every id starts with
+ * a prefix unique to this instance ({@code BENCH-<nanoTime>-}), so tests can share a
+ * database with each other and with live data and still delete exactly their own rows.
+ */
+public final class PgTestRows {
+
+    private final String prefix = "BENCH-" + System.nanoTime() + "-";
+
+    /** The prefix of every id of this instance. */
+    public String prefix() {
+        return prefix;
+    }
+
+    /** An id under the prefix, e.g. a patient id or an aggregation job name. */
+    public String id(Object suffix) {
+        return prefix + suffix;
+    }
+
+    /**
+     * Deletes the rows whose patient_id has the prefix from each table, in order.
+     * Does nothing without PG* env vars, so it is safe in an {@code @AfterEach} of a
+     * skipped test.
+     */
+    public void deleteFrom(String... tables) throws SQLException {
+        if (!Db.hasPgEnv()) return;
+        try (Connection c = Db.getConnection()) {
+            for (String table : tables) {
+                try (PreparedStatement ps = c.prepareStatement("DELETE FROM " + table + " WHERE patient_id LIKE ?")) {
+                    ps.setString(1, prefix + "%");
+                    ps.executeUpdate();
+                }
+            }
+        }
+    }
+
+    /** Deletes the watermark of an aggregation job named with {@link #id}. */
+    public void deleteWatermark(String job) throws SQLException {
+        if (!Db.hasPgEnv()) return;
+        try (Connection c = Db.getConnection();
+             PreparedStatement ps = c.prepareStatement("DELETE FROM aggregation_watermarks WHERE job = ?")) {
+            ps.setString(1, job);
+            ps.executeUpdate();
+        }
+    }
+}
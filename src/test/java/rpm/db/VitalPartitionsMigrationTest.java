@@ -0,0 +1,149 @@
+package rpm.db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * {@link VitalPartitions#createParent}, {@link VitalPartitions#ensure} and
+ * {@link VitalPartitions#dropExpired} on a plain pre-partitioning table, including a
+ * far-future row that must not stretch the legacy partition.
+ *
+ * <p>Needs a reachable PostgreSQL (PG* env vars, e.g. a local or throwaway
+ * container instance); skipped otherwise. Runs in its own schema, set as the
+ * search_path of one connection, and drops it afterwards.
+ */
+class VitalPartitionsMigrationTest {
+
+    private static final long D = VitalPartitions.DAY_MS;
+    private static final long NOW = 1_700_000_000_000L; // 2023-11-14T22:13:20Z
+    private static final long TODAY = VitalPartitions.dayStart(NOW);
+
+    private static final String COLUMNS =
+            "patient_id TEXT NOT NULL, ts_ms BIGINT NOT NULL, body_temp DOUBLE PRECISION, " +
+                    "heart_rate DOUBLE PRECISION, respiratory_rate DOUBLE PRECISION, systolic_bp DOUBLE PRECISION, " +
+                    "diastolic_bp DOUBLE PRECISION, ecg_value DOUBLE PRECISION, PRIMARY KEY (patient_id, ts_ms)";
+
+    private final String schema = "bench_parts_" + System.nanoTime();
+    private Connection c;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        assumeTrue(Db.hasPgEnv(), "PostgreSQL not configured");
+        c = Db.getConnection();
+        try (Statement st = c.createStatement()) {
+            st.executeUpdate("CREATE SCHEMA " + schema);
+            st.execute("SET search_path TO " + schema);
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (c == null) return;
+        try (Statement st = c.createStatement()) {
+            st.execute("RESET search_path");
+            st.executeUpdate("DROP SCHEMA IF EXISTS " + schema + " CASCADE");
+        } finally {
+            c.close();
+        }
+    }
+
+    private void createParent() throws Exception {
+        c.setAutoCommit(false);
+        try {
+            VitalPartitions.createParent(c, COLUMNS, NOW);
+            c.commit();
+        } finally {
+            c.setAutoCommit(true);
+        }
+    }
+
+    private void insert(String table, long... timestamps) throws Exception {
+        try (PreparedStatement ps = c.prepareStatement(
+                "INSERT INTO " + table + " (patient_id, ts_ms, heart_rate) VALUES ('P001', ?, 72)")) {
+            for (long ts : timestamps) {
+                ps.setLong(1, ts);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    private List<Long> timestamps(String table) throws Exception {
+        List<Long> out = new ArrayList<>();
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT ts_ms FROM " + table + " ORDER BY ts_ms")) {
+            while (rs.next()) out.add(rs.getLong(1));
+        }
+        return out;
+    }
+
+    private List<String> partitions() throws Exception {
+        List<String> out = new ArrayList<>();
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid "
+                     + "WHERE i.inhparent = 'vital_samples'::regclass ORDER BY c.relname")) {
+            while (rs.next()) out.add(rs.getString(1));
+        }
+        return out;
+    }
+
+    private static String day(long dayStartMs) {
+        return VitalPartitions.partitionName(dayStartMs);
+    }
+
+    @Test
+    void testFreshParentHasOnlyTheDefaultPartition() throws Exception {
+        createParent();
+        createParent();
+        assertEquals(List.of("vital_samples_default"), partitions());
+
+        assertEquals(List.of(day(TODAY - D), day(TODAY), day(TODAY + D), day(TODAY + 2 * D), day(TODAY + 3 * D)),
+                VitalPartitions.ensure(c, NOW));
+        assertTrue(VitalPartitions.ensure(c, NOW).isEmpty());
+    }
+
+    @Test
+    void testLegacyTableEndsTodayAndLaterRowsGoToDefault() throws Exception {
+        long farFuture = TODAY + 30 * D;
+        try (Statement st = c.createStatement()) {
+            st.executeUpdate("CREATE TABLE vital_samples (" + COLUMNS + ")");
+        }
+        insert("vital_samples", TODAY - 3 * D, TODAY + 1_000, farFuture);
+
+        createParent();
+
+        assertEquals(List.of("vital_samples_default", "vital_samples_legacy"), partitions());
+        assertEquals(List.of(TODAY - 3 * D, TODAY + 1_000), timestamps("vital_samples_legacy"));
+        assertEquals(List.of(farFuture), timestamps("vital_samples_default"));
+        assertEquals(List.of(TODAY - 3 * D, TODAY + 1_000, farFuture), timestamps("vital_samples"));
+
+        // days after the legacy range get partitions; a row already in default moves to its day
+        insert("vital_samples", TODAY + 2 * D + 5_000);
+        assertEquals(List.of(day(TODAY + D), day(TODAY + 2 * D), day(TODAY + 3 * D)), VitalPartitions.ensure(c, NOW));
+        assertEquals(List.of(TODAY + 2 * D + 5_000), timestamps(day(TODAY + 2 * D)));
+        assertEquals(List.of(farFuture), timestamps("vital_samples_default"));
+
+        // the legacy table goes like a day once all of it has expired
+        assertEquals(List.of(), VitalPartitions.dropExpired(c, TODAY));
+        List<String> dropped = VitalPartitions.dropExpired(c, TODAY + 2 * D);
+        dropped.sort(null);
+        assertEquals(List.of("vital_samples_legacy", day(TODAY + D)), dropped);
+        assertEquals(List.of(TODAY + 2 * D + 5_000, farFuture), timestamps("vital_samples"));
+
+        // the default partition stays; only its expired rows go
+        VitalPartitions.dropExpired(c, farFuture + 1);
+        assertEquals(List.of("vital_samples_default"), partitions());
+        assertTrue(timestamps("vital_samples").isEmpty());
+    }
+}
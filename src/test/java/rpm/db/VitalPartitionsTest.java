@@ -0,0 +1,32 @@
+package rpm.db;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for VitalPartitions (no Postgres).
+ * Verifies UTC day naming and reading the upper bound of partition expressions.
+ */
+class VitalPartitionsTest {
+
+    @Test
+    void testDayStartAndName() {
+        long ms = 1_700_000_000_000L; // 2023-11-14T22:13:20Z
+        long day = VitalPartitions.dayStart(ms);
+        assertEquals(1_699_920_000_000L, day);
+        assertEquals(day, VitalPartitions.dayStart(day));
+        assertEquals("vital_samples_p20231114", VitalPartitions.partitionName(day));
+        assertEquals("vital_samples_p20231115", VitalPartitions.partitionName(day + VitalPartitions.DAY_MS));
+    }
+
+    @Test
+    void testUpperBound() {
+        assertEquals(1_700_006_400_000L,
+                VitalPartitions.upperBound("FOR VALUES FROM ('1699920000000') TO ('1700006400000')"));
+        assertEquals(1_700_006_400_000L,
+                VitalPartitions.upperBound("FOR VALUES FROM (MINVALUE) TO (1700006400000)"));
+        assertEquals(Long.MAX_VALUE, VitalPartitions.upperBound("FOR VALUES FROM (1) TO (MAXVALUE)"));
+        assertEquals(Long.MAX_VALUE, VitalPartitions.upperBound("DEFAULT"));
+    }
+}
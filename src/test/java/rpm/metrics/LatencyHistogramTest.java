@@ -0,0 +1,64 @@
+package rpm.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for LatencyHistogram.
+ * Verifies power-of-two bucketing, percentile bounds, reset and concurrent recording.
+ */
+class LatencyHistogramTest {
+
+    @Test
+    void testPercentilesAreBucketUpperBoundsCappedAtMax() {
+        LatencyHistogram h = new LatencyHistogram("t");
+        for (int i = 0; i < 90; i++) h.recordMicros(3);     // bucket (2,4]
+        for (int i = 0; i < 10; i++) h.recordMicros(1000);  // bucket (512,1024]
+
+        assertEquals(100, h.count());
+        assertEquals(4, h.percentileMicros(50));
+        assertEquals(4, h.percentileMicros(90));
+        assertEquals(1000, h.percentileMicros(99), "capped at the observed max");
+        assertEquals(1000, h.maxMicros());
+        assertEquals((90 * 3 + 10 * 1000) / 100.0, h.meanMicros(), 1e-9);
+    }
+
+    @Test
+    void testEdgesAndReset() {
+        LatencyHistogram h = new LatencyHistogram("t");
+        assertEquals(0, h.percentileMicros(99), "empty histogram");
+
+        h.recordMicros(-5);   // clamped to 0
+        h.recordMillis(2);
+        assertEquals(2, h.count());
+        assertEquals(1, h.percentileMicros(50), "upper bound of the [0,1] bucket");
+        assertEquals(2000, h.percentileMicros(100));
+        assertTrue(h.summary().startsWith("t n=2 "));
+
+        h.reset();
+        assertEquals(0, h.count());
+        assertEquals(0, h.maxMicros());
+        assertEquals(0, h.percentileMicros(50));
+    }
+
+    @Test
+    void testConcurrentRecordsAreAllCounted() throws Exception {
+        LatencyHistogram h = new LatencyHistogram("t");
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int id = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) h.recordMicros(i % 100 + id);
+            }));
+        }
+        for (Thread t : threads) t.start();
+        for (Thread t : threads) t.join();
+
+        assertEquals(800_000, h.count());
+        assertEquals(99 + 7, h.maxMicros());
+    }
+}
@@ -0,0 +1,31 @@
+package rpm.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the SMALLINT codes stored for VitalType and AlertLevel.
+ * The codes are persisted, so they must stay unique, round-trip and never change.
+ */
+class StoredCodeTest {
+
+    @Test
+    void testCodesRoundTripAndStayFixed() {
+        Set<Short> seen = new HashSet<>();
+        for (VitalType t : VitalType.values()) {
+            assertTrue(seen.add(t.code()), "duplicate code " + t.code());
+            assertEquals(t, VitalType.fromCode(t.code()));
+        }
+        for (AlertLevel l : AlertLevel.values()) assertEquals(l, AlertLevel.fromCode(l.code()));
+
+        assertEquals(2, VitalType.HEART_RATE.code());
+        assertEquals(6, VitalType.ECG.code());
+        assertEquals(2, AlertLevel.URGENT.code());
+        assertThrows(IllegalArgumentException.class, () -> VitalType.fromCode(0));
+        assertThrows(IllegalArgumentException.class, () -> AlertLevel.fromCode(9));
+    }
+}
@@ -0,0 +1,73 @@
+package rpm.server;
+
+import org.junit.jupiter.api.Test;
+import rpm.dao.AbnormalEventDao;
+import rpm.dao.MinuteAverageDao;
+import rpm.dao.VitalSampleDao;
+import rpm.data.MinuteRecord;
+import rpm.model.PatientSample;
+import rpm.model.VitalSample;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for HotReadCache (no Postgres: every load comes back empty).
+ * Verifies write-through after the first read, the per-patient bound, and LRU
+ * eviction driven by reads only.
+ */
+class HotReadCacheTest {
+
+    private static HotReadCache cache(int patients, int minutes) {
+        return new HotReadCache(new VitalSampleDao(), new MinuteAverageDao(), new AbnormalEventDao(),
+                patients, minutes, 10);
+    }
+
+    private static MinuteRecord minute(long start, double hr) {
+        return new MinuteRecord(start, 36.8, hr, 16, 118, 78, 60);
+    }
+
+    @Test
+    void testWritesAfterFirstReadAreServedFromMemory() throws Exception {
+        HotReadCache c = cache(10, 3);
+        assertTrue(c.latestMinutes("P1", 3).isEmpty());
+        assertEquals(1, c.misses());
+
+        for (int i = 0; i < 4; i++) c.minuteWritten("P1", minute(i * 60_000L, 70 + i));
+        c.minuteWritten("P1", minute(3 * 60_000L, 99)); // upsert of the newest minute
+
+        List<MinuteRecord> newest = c.latestMinutes("P1", 2);
+        assertEquals(2, newest.size());
+        assertEquals(3 * 60_000L, newest.get(0).minuteStartMs());
+        assertEquals(99, newest.get(0).avgHR(), 1e-9);
+        assertEquals(2 * 60_000L, newest.get(1).minuteStartMs());
+        assertEquals(3, c.latestMinutes("P1", 3).size());
+        assertEquals(2, c.hits());
+    }
+
+    @Test
+    void testWritesDoNotAddPatientsAndReadsEvictTheColdest() throws Exception {
+        HotReadCache c = cache(2, 3);
+        c.minuteWritten("P9", minute(0, 70));
+        c.samplesWritten(Collections.singletonList(new PatientSample("P9", new VitalSample(1, 36.8, 70, 16, 118, 78, 0))));
+        assertEquals(0, c.size());
+
+        c.latestMinutes("P1", 1);
+        c.latestMinutes("P2", 1);
+        c.latestMinutes("P1", 1);
+        c.latestMinutes("P3", 1); // P2 was read least recently
+        assertEquals(2, c.size());
+        assertEquals(1, c.evictions());
+
+        VitalSample s = new VitalSample(5_000, 36.8, 72, 16, 118, 78, 0);
+        assertNull(c.latestSample("P3"));
+        c.samplesWritten(Collections.singletonList(new PatientSample("P3", s)));
+        c.samplesWritten(Collections.singletonList(new PatientSample("P3", new VitalSample(4_000, 36.8, 60, 16, 118, 78, 0))));
+        assertEquals(s, c.latestSample("P3"));
+
+        c.invalidate("P3");
+        assertEquals(1, c.size());
+    }
+}
@@ -0,0 +1,118 @@
+package rpm.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import rpm.dao.AggregationWatermarkDao;
+import rpm.dao.MinuteAverageDao;
+import rpm.dao.VitalCopyBuffer;
+import rpm.dao.VitalSampleDao;
+import rpm.db.Db;
+import rpm.db.DbInit;
+import rpm.db.PgTestRows;
+import rpm.model.PatientSample;
+import rpm.model.VitalSample;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Recovery after an outage: an hour of samples for 500 patients sits behind the
+ * saved watermark, and MinuteAggregationService backfills it with its chunked
+ * set-based catch-up.
+ *
+ * <p>Needs a reachable PostgreSQL (PG* env vars, e.g. a local or throwaway
+ * container instance); skipped otherwise. The samples lie in January 2001, so no
+ * live data shares the window; rows use a unique patient id prefix and, like the
+ * watermark job, are deleted afterwards.
+ */
+class MinuteAggregationRecoveryBenchmarkTest {
+
+    private static final long T0 = 978_307_200_000L; // 2001-01-01T00:00Z
+    private static final long M = 60_000L;
+    private static final int PATIENTS = 500;
+    private static final int MINUTES = 60;
+    private static final int SAMPLES_PER_MINUTE = 12;
+
+    private final PgTestRows testRows = new PgTestRows();
+    private final String prefix = testRows.prefix();
+    private final String job = prefix + "job";
+
+    @BeforeEach
+    void setUp() throws Exception {
+        assumeTrue(Db.hasPgEnv(), "PostgreSQL not configured");
+        DbInit.init();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        testRows.deleteFrom("vital_samples", "minute_averages", "abnormal_events", "patient_keys");
+        testRows.deleteWatermark(job);
+    }
+
+    private void load() throws Exception {
+        VitalSampleDao dao = new VitalSampleDao();
+        VitalCopyBuffer buf = new VitalCopyBuffer();
+        try (Connection c = Db.getConnection()) {
+            for (int p = 0; p < PATIENTS; p++) {
+                List<PatientSample> rows = new ArrayList<>(MINUTES * SAMPLES_PER_MINUTE);
+                for (int i = 0; i < MINUTES * SAMPLES_PER_MINUTE; i++) {
+                    long ts = T0 - MINUTES * M + i * (M / SAMPLES_PER_MINUTE);
+                    rows.add(new PatientSample(prefix + p, new VitalSample(ts, 36.8, 70 + i % 10, 16, 120, 80, 0)));
+                }
+                dao.copyBatch(c, rows, buf);
+            }
+        }
+    }
+
+    private long minuteRows() throws Exception {
+        try (Connection c = Db.getConnection();
+             PreparedStatement ps = c.prepareStatement(
+                     "SELECT COUNT(*) FROM minute_averages WHERE patient_id LIKE ? AND minute_start_ms >= ? AND minute_start_ms < ?")) {
+            ps.setString(1, prefix + "%");
+            ps.setLong(2, T0 - MINUTES * M);
+            ps.setLong(3, T0);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    @Test
+    void testHourOutageFor500PatientsIsBackfilled(TestReporter reporter) throws Exception {
+        load();
+        AggregationWatermarkDao watermarks = new AggregationWatermarkDao();
+        watermarks.save(job, T0 - MINUTES * M);
+
+        MinuteAverageDao minuteDao = new MinuteAverageDao();
+        MinuteAggregationService svc = new MinuteAggregationService(
+                new MinuteAggregationService.DbStore(job, new VitalSampleDao(), minuteDao, watermarks), T0 + 5_000);
+
+        long t0 = System.nanoTime();
+        int ticks = 0;
+        while (ticks < 20 && (ticks == 0 || svc.pendingMinutes() > 0)) {
+            svc.runOnce(T0 + 5_000 + ticks);
+            ticks++;
+        }
+        long nanos = System.nanoTime() - t0;
+        reporter.publishEntry("recovery-bench",
+                String.format("%d patients x %d minutes backfilled in %d ticks, %.1f ms (%.0f minute rows/s)",
+                        PATIENTS, MINUTES, ticks, nanos / 1e6, PATIENTS * MINUTES / Math.max(nanos / 1e9, 1e-9)));
+
+        assertEquals(MINUTES, svc.backfillTotal());
+        assertEquals(MINUTES, svc.backfilledMinutes());
+        assertEquals(0, svc.pendingMinutes());
+        assertEquals(PATIENTS * MINUTES, minuteRows());
+        // everything before the start minute is done; the start minute itself is still open
+        assertEquals(T0, svc.completedBeforeMs());
+        assertEquals(T0, watermarks.load(job));
+    }
+}
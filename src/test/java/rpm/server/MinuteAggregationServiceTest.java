@@ -0,0 +1,332 @@
+package rpm.server;
+
+import org.junit.jupiter.api.Test;
+import rpm.dao.AggregationWatermarkDao;
+import rpm.data.MinuteRecord;
+import rpm.data.PatientEvent;
+import rpm.data.PatientMinute;
+import rpm.db.Db;
+import rpm.model.PatientSample;
+import rpm.model.VitalSample;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for MinuteAggregationService against an in-memory store (no Postgres).
+ * Verifies the backfill queued from the saved watermark and its 24 h cap, the
+ * chunked catch-up with failed chunks kept queued, when the watermark is saved,
+ * per-patient write transactions, and that every failed minute is queued again, late
+ * ones for a per-patient recompute rather than the set-based catch-up.
+ */
+class MinuteAggregationServiceTest {
+
+    private static final long T0 = 1_700_000_040_000L; // a minute boundary
+    private static final long M = 60_000L;
+
+    /**
+     * Saved watermark, aggregate calls and committed writes in memory. Fails ranges
+     * starting at {@code failFrom}, every recompute while {@code recomputeFails}, and
+     * the transactions of patients in {@code failPatients} (which then leave nothing).
+     */
+    private static final class FakeStore implements MinuteAggregationService.Store {
+        volatile long watermark = AggregationWatermarkDao.NONE;
+        volatile boolean loadFails;
+        volatile long failFrom = -1;
+        volatile boolean recomputeFails;
+        final List<Long> saved = new CopyOnWriteArrayList<>();
+        final List<long[]> aggregated = new CopyOnWriteArrayList<>();
+        final List<PatientMinute> aggregateResult = new CopyOnWriteArrayList<>();
+        final Set<String> failPatients = ConcurrentHashMap.newKeySet();
+        // patient -> minute starts, one entry per committed transaction
+        final List<Map.Entry<String, List<Long>>> committed = new CopyOnWriteArrayList<>();
+        final List<Boolean> writers = new CopyOnWriteArrayList<>();
+        // "patient@minuteStart" of each recompute call, and the minutes upserted
+        final List<String> recomputed = new CopyOnWriteArrayList<>();
+        final Map<String, MinuteRecord> stored = new ConcurrentHashMap<>();
+
+        @Override
+        public long loadWatermark() throws SQLException {
+            if (loadFails) throw new SQLException("connection refused");
+            return watermark;
+        }
+
+        @Override
+        public void saveWatermark(long completedBeforeMs) {
+            saved.add(completedBeforeMs);
+            watermark = completedBeforeMs;
+        }
+
+        @Override
+        public List<PatientMinute> aggregate(long fromMs, long toMs) throws SQLException {
+            if (fromMs == failFrom) throw new SQLException("statement timeout");
+            aggregated.add(new long[]{fromMs, toMs});
+            return aggregateResult.stream()
+                    .filter(pm -> pm.record().minuteStartMs() >= fromMs && pm.record().minuteStartMs() < toMs)
+                    .collect(Collectors.toList());
+        }
+
+        @Override
+        public PatientMinute recompute(String patientId, long minuteStartMs) throws SQLException {
+            recomputed.add(patientId + "@" + minuteStartMs);
+            if (recomputeFails) throw new SQLException("connection reset");
+            return new PatientMinute(patientId, minute(minuteStartMs));
+        }
+
+        @Override
+        public MinuteAggregationService.Writer writer(boolean upsert) {
+            writers.add(upsert);
+            return new MinuteAggregationService.Writer() {
+                @Override
+                public void write(String patientId, List<MinuteRecord> minutes, List<PatientEvent> events)
+                        throws SQLException {
+                    if (failPatients.contains(patientId)) throw new SQLException("deadlock detected");
+                    List<Long> starts = minutes.stream().map(MinuteRecord::minuteStartMs).collect(Collectors.toList());
+                    committed.add(Map.entry(patientId, starts));
+                    if (upsert) for (MinuteRecord r : minutes) stored.put(patientId + "@" + r.minuteStartMs(), r);
+                }
+
+                @Override
+                public void close() {}
+            };
+        }
+    }
+
+    private static MinuteAggregationService service(FakeStore store) {
+        return new MinuteAggregationService(store, T0 + 5_000);
+    }
+
+    private static MinuteRecord minute(long start) {
+        return new MinuteRecord(start, 36.8, 72, 16, 118, 78, 60);
+    }
+
+    private static List<PatientSample> samples(String pid, long minuteStart) {
+        List<PatientSample> rows = new ArrayList<>();
+        for (int i = 0; i < 3; i++) rows.add(new PatientSample(pid, new VitalSample(minuteStart + i * 1_000, 36.8, 72, 16, 118, 78, 0)));
+        return rows;
+    }
+
+    private static Map<String, List<Long>> committedByPatient(FakeStore store) {
+        return store.committed.stream().collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    }
+
+    @Test
+    void testGapLongerThanADayIsCappedAndCaughtUpInChunks() {
+        FakeStore store = new FakeStore();
+        store.watermark = T0 - 48 * 60 * M;
+        MinuteAggregationService svc = service(store);
+
+        svc.runOnce(T0 + 5_000);
+
+        assertEquals(24 * 60, svc.backfillTotal());
+        // 32 statements of 10 consecutive minutes, oldest first
+        assertEquals(32, store.aggregated.size());
+        long from = T0 - 24 * 60 * M;
+        for (long[] c : store.aggregated) {
+            assertEquals(from, c[0]);
+            assertEquals(from + 10 * M, c[1]);
+            from = c[1];
+        }
+        assertEquals(24 * 60 - 320, svc.pendingMinutes());
+        assertEquals(320, svc.backfilledMinutes());
+        assertEquals(List.of(T0 - 24 * 60 * M + 320 * M), store.saved);
+    }
+
+    @Test
+    void testFailedChunkStaysQueuedAndHoldsTheWatermark() {
+        FakeStore store = new FakeStore();
+        store.watermark = T0 - 60 * M;
+        store.failFrom = T0 - 30 * M;
+        MinuteAggregationService svc = service(store);
+
+        svc.runOnce(T0 + 5_000);
+        assertEquals(5, store.aggregated.size());
+        assertEquals(10, svc.pendingMinutes());
+        assertEquals(T0 - 30 * M, svc.completedBeforeMs());
+        assertEquals(List.of(T0 - 30 * M), store.saved);
+
+        // the next tick retries just that chunk; the start minute is still open
+        store.failFrom = -1;
+        store.aggregated.clear();
+        svc.runOnce(T0 + 10_000);
+        assertEquals(1, store.aggregated.size());
+        assertArrayEquals(new long[]{T0 - 30 * M, T0 - 20 * M}, store.aggregated.get(0));
+        assertEquals(0, svc.pendingMinutes());
+        assertEquals(T0, svc.completedBeforeMs());
+        assertEquals(List.of(T0 - 30 * M, T0), store.saved);
+    }
+
+    @Test
+    void testWatermarkIsSavedOnlyOnceLoadedAndWhenItMoves() {
+        FakeStore store = new FakeStore();
+        store.loadFails = true;
+        MinuteAggregationService svc = service(store);
+
+        // a saved watermark that could not be read must not be overwritten
+        svc.runOnce(T0 + 5_000);
+        assertTrue(store.saved.isEmpty());
+        assertEquals(0, svc.completedBeforeMs());
+
+        // first run ever: nothing to backfill, the start minute is still owed
+        store.loadFails = false;
+        svc.runOnce(T0 + 6_000);
+        assertEquals(0, svc.backfillTotal());
+        assertTrue(store.aggregated.isEmpty());
+        assertEquals(List.of(T0), store.saved);
+
+        // the start minute closes and is recomputed; the watermark follows
+        svc.runOnce(T0 + 2 * M + 5_000);
+        assertEquals(1, store.aggregated.size());
+        assertArrayEquals(new long[]{T0, T0 + M}, store.aggregated.get(0));
+        assertEquals(List.of(T0, T0 + M), store.saved);
+
+        svc.runOnce(T0 + 2 * M + 6_000);
+        assertEquals(List.of(T0, T0 + M), new ArrayList<>(store.saved));
+        assertEquals(T0 + M, svc.completedBeforeMs());
+    }
+
+    @Test
+    void testClosedMinutesAreWrittenOneTransactionPerPatient() {
+        FakeStore store = new FakeStore();
+        MinuteAggregationService svc = service(store);
+        svc.runOnce(T0 + 6_000);
+        for (String pid : new String[]{"P1", "P2"}) {
+            svc.accept(samples(pid, T0 + M));
+            svc.accept(samples(pid, T0 + 2 * M));
+        }
+
+        svc.runOnce(T0 + 3 * M + 10_000);
+
+        // patients spread over the workers, at most one upserting writer (connection) each
+        assertEquals(Math.min(2, Math.max(1, Db.POOL_SIZE - 2)), store.writers.size());
+        assertFalse(store.writers.contains(false));
+        assertEquals(2, store.committed.size());
+        assertEquals(Map.of("P1", List.of(T0 + M, T0 + 2 * M), "P2", List.of(T0 + M, T0 + 2 * M)),
+                committedByPatient(store));
+        assertEquals(0, svc.pendingMinutes());
+        assertEquals(T0 + 3 * M, svc.completedBeforeMs());
+    }
+
+    @Test
+    void testFailedPatientIsRolledBackAloneAndItsMinutesRecomputed() {
+        FakeStore store = new FakeStore();
+        store.failPatients.add("P2");
+        MinuteAggregationService svc = service(store);
+        svc.runOnce(T0 + 6_000);
+        for (String pid : new String[]{"P1", "P2", "P3"}) svc.accept(samples(pid, T0 + M));
+
+        svc.runOnce(T0 + 2 * M + 10_000);
+
+        assertEquals(Set.of("P1", "P3"), committedByPatient(store).keySet());
+        // P2's minute went back to the catch-up queue, next to the start minute
+        assertEquals(1, store.aggregated.size());
+        assertArrayEquals(new long[]{T0, T0 + 2 * M}, store.aggregated.get(0));
+    }
+
+    @Test
+    void testCatchUpMinuteWhoseEventsFailIsQueuedAgain() {
+        FakeStore store = new FakeStore();
+        store.watermark = T0 - 10 * M;
+        store.aggregateResult.add(new PatientMinute("P1", minute(T0 - 5 * M)));
+        store.aggregateResult.add(new PatientMinute("P2", minute(T0 - 5 * M)));
+        store.failPatients.add("P2");
+        MinuteAggregationService svc = service(store);
+
+        svc.runOnce(T0 + 5_000);
+        // the averages are upserted by the statement; the writers only add events
+        assertFalse(store.writers.contains(true));
+        assertEquals(Set.of("P1"), committedByPatient(store).keySet());
+        assertEquals(1, svc.pendingMinutes());
+        assertEquals(T0 - 5 * M, svc.completedBeforeMs());
+
+        store.failPatients.clear();
+        store.aggregated.clear();
+        svc.runOnce(T0 + 6_000);
+        assertEquals(1, store.aggregated.size());
+        assertArrayEquals(new long[]{T0 - 5 * M, T0 - 4 * M}, store.aggregated.get(0));
+        assertEquals(0, svc.pendingMinutes());
+        assertEquals(T0, svc.completedBeforeMs());
+    }
+
+    @Test
+    void testLateMinuteThatFailsHoldsTheWatermarkUntilWritten() {
+        FakeStore store = new FakeStore();
+        MinuteAggregationService svc = service(store);
+        svc.runOnce(T0 + 6_000);
+        svc.accept(samples("P1", T0 + M));
+        svc.runOnce(T0 + 2 * M + 10_000);
+        assertEquals(T0 + 2 * M, svc.completedBeforeMs());
+
+        // a late sample whose re-read fails
+        svc.accept(samples("P1", T0 + M).subList(0, 1));
+        store.recomputeFails = true;
+        store.aggregated.clear();
+        svc.runOnce(T0 + 2 * M + 15_000);
+        assertEquals(1, svc.pendingMinutes());
+        assertEquals(T0 + M, svc.completedBeforeMs());
+
+        store.recomputeFails = false;
+        svc.runOnce(T0 + 2 * M + 20_000);
+        assertEquals(0, svc.pendingMinutes());
+        assertEquals(T0 + 2 * M, svc.completedBeforeMs());
+        assertEquals(List.of(T0, T0 + 2 * M), store.saved);
+        // retried for that patient alone, never by the set-based catch-up
+        assertEquals(List.of("P1@" + (T0 + M), "P1@" + (T0 + M)), store.recomputed);
+        assertTrue(store.aggregated.isEmpty());
+    }
+
+    @Test
+    void testLateMinuteWhoseWriteFailsIsRetriedForThatPatient() {
+        FakeStore store = new FakeStore();
+        MinuteAggregationService svc = service(store);
+        svc.runOnce(T0 + 6_000);
+        svc.runOnce(T0 + 2 * M + 10_000);
+
+        svc.accept(samples("P9", T0 + M));
+        store.failPatients.add("P9");
+        store.aggregated.clear();
+        svc.runOnce(T0 + 2 * M + 15_000);
+        assertTrue(committedByPatient(store).isEmpty());
+        assertEquals(1, svc.pendingMinutes());
+
+        store.failPatients.clear();
+        svc.runOnce(T0 + 2 * M + 20_000);
+        assertEquals(Map.of("P9", List.of(T0 + M)), committedByPatient(store));
+        assertEquals(2, store.recomputed.size());
+        assertTrue(store.aggregated.isEmpty());
+        assertEquals(0, svc.pendingMinutes());
+    }
+
+    @Test
+    void testLateRetryAfterCompactionKeepsTheFullAverage() {
+        FakeStore store = new FakeStore();
+        // what a set-based recompute over the rows left in vital_samples would write:
+        // the minute's other samples are already in vital_chunks
+        store.aggregateResult.add(new PatientMinute("P1", new MinuteRecord(T0 + M, 36.8, 50, 16, 118, 78, 1)));
+        MinuteAggregationService svc = service(store);
+        svc.runOnce(T0 + 6_000);
+        svc.accept(samples("P1", T0 + M));
+        svc.runOnce(T0 + 2 * M + 10_000);
+        assertEquals(72, store.stored.get("P1@" + (T0 + M)).avgHR(), 1e-9);
+
+        svc.accept(samples("P1", T0 + M).subList(0, 1));
+        store.recomputeFails = true;
+        svc.runOnce(T0 + 2 * M + 15_000);
+        store.recomputeFails = false;
+        svc.runOnce(T0 + 2 * M + 20_000);
+
+        // recompute reads rows and chunks: the stored average is still the full one
+        assertEquals(72, store.stored.get("P1@" + (T0 + M)).avgHR(), 1e-9);
+        assertEquals(60, store.stored.get("P1@" + (T0 + M)).sampleCount());
+        assertEquals(0, svc.pendingMinutes());
+    }
+}
@@ -0,0 +1,107 @@
+package rpm.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import rpm.dao.AggregationWatermarkDao;
+import rpm.dao.MinuteAverageDao;
+import rpm.dao.VitalSampleDao;
+import rpm.data.AbnormalEvent;
+import rpm.data.MinuteRecord;
+import rpm.data.PatientEvent;
+import rpm.db.Db;
+import rpm.db.DbInit;
+import rpm.db.PgTestRows;
+import rpm.model.AlertLevel;
+import rpm.model.VitalType;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Per-patient transactions of MinuteAggregationService's database store: a patient
+ * whose events fail leaves no minute rows behind, and the patients after it on the
+ * same connection still commit.
+ *
+ * <p>Needs a reachable PostgreSQL (PG* env vars, e.g. a local or throwaway
+ * container instance); skipped otherwise. Rows use a unique patient id prefix
+ * and are deleted afterwards.
+ */
+class MinuteAggregationStoreTest {
+
+    private static final long T0 = 978_307_200_000L; // 2001-01-01T00:00Z
+
+    private final PgTestRows testRows = new PgTestRows();
+    private final String prefix = testRows.prefix();
+    private final MinuteAggregationService.DbStore store = new MinuteAggregationService.DbStore(
+            prefix + "job", new VitalSampleDao(), new MinuteAverageDao(), new AggregationWatermarkDao());
+
+    @BeforeEach
+    void setUp() throws Exception {
+        assumeTrue(Db.hasPgEnv(), "PostgreSQL not configured");
+        DbInit.init();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        testRows.deleteFrom("minute_averages", "abnormal_events", "patient_keys");
+    }
+
+    private static List<MinuteRecord> minutes() {
+        return List.of(new MinuteRecord(T0, 36.8, 72, 16, 118, 78, 60),
+                new MinuteRecord(T0 + 60_000, 36.8, 74, 16, 118, 78, 60));
+    }
+
+    private static List<PatientEvent> events(String pid, String message) {
+        return List.of(new PatientEvent(pid,
+                new AbnormalEvent(T0, VitalType.HEART_RATE, AlertLevel.WARNING, 130, message)));
+    }
+
+    private long count(String table, String pid) throws Exception {
+        try (Connection c = Db.getConnection();
+             PreparedStatement ps = c.prepareStatement("SELECT COUNT(*) FROM " + table + " WHERE patient_id = ?")) {
+            ps.setString(1, pid);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    @Test
+    void testFailingPatientIsRolledBackAndTheNextOneCommits() throws Exception {
+        String ok = prefix + "ok";
+        String bad = prefix + "bad";
+        String after = prefix + "after";
+
+        try (MinuteAggregationService.Writer w = store.writer(true)) {
+            w.write(ok, minutes(), events(ok, "HR high"));
+            // PostgreSQL text cannot hold NUL: the event insert fails after the upserts ran
+            assertThrows(SQLException.class, () -> w.write(bad, minutes(), events(bad, "HR\u0000high")));
+            w.write(after, minutes(), events(after, "HR high"));
+        }
+
+        assertEquals(2, count("minute_averages", ok));
+        assertEquals(1, count("abnormal_events", ok));
+        assertEquals(0, count("minute_averages", bad));
+        assertEquals(0, count("abnormal_events", bad));
+        assertEquals(2, count("minute_averages", after));
+        assertEquals(1, count("abnormal_events", after));
+    }
+
+    @Test
+    void testEventsOnlyWriterLeavesMinutesAlone() throws Exception {
+        String pid = prefix + "events";
+        try (MinuteAggregationService.Writer w = store.writer(false)) {
+            w.write(pid, minutes(), events(pid, "HR high"));
+        }
+        assertEquals(0, count("minute_averages", pid));
+        assertEquals(1, count("abnormal_events", pid));
+    }
+}
@@ -0,0 +1,180 @@
+package rpm.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import rpm.dao.AbnormalEventDao;
+import rpm.dao.MinuteAverageDao;
+import rpm.dao.PatientDao;
+import rpm.data.AbnormalEvent;
+import rpm.data.MinuteRecord;
+import rpm.db.Db;
+import rpm.db.DbInit;
+import rpm.db.PgTestRows;
+import rpm.db.SchemaLayout;
+import rpm.model.AlertLevel;
+import rpm.model.VitalType;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * {@link PatientKeyMigration} on rows written before the patient keys existed: they
+ * are keyed and coded, reads switch layout and return the same rows, and reads of an
+ * unknown patient assign no key. Also checks that a key assigned inside a rolled
+ * back transaction is not cached.
+ *
+ * <p>Needs a reachable PostgreSQL (PG* env vars, e.g. a local or throwaway
+ * container instance); skipped otherwise. Rows use a unique patient id prefix
+ * and are deleted afterwards. The migration runs over the whole database, so it
+ * also keys any other unkeyed rows and leaves the migration recorded as complete.
+ */
+class PatientKeyMigrationTest {
+
+    private static final long T0 = 1_700_000_040_000L;
+
+    private final PgTestRows testRows = new PgTestRows();
+    private final String prefix = testRows.prefix();
+    private final MinuteAverageDao minutes = new MinuteAverageDao();
+    private final AbnormalEventDao events = new AbnormalEventDao();
+    private final PatientDao patients = new PatientDao();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        assumeTrue(Db.hasPgEnv(), "PostgreSQL not configured");
+        DbInit.init();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        testRows.deleteFrom("minute_averages", "abnormal_events", "patient_keys");
+    }
+
+    /** Rows as an instance from before the keys would have written them: TEXT columns only. */
+    private void insertUnkeyed(Connection c, String pid) throws Exception {
+        try (PreparedStatement ps = c.prepareStatement(
+                "INSERT INTO minute_averages (patient_id, minute_start_ms, avg_temp, avg_hr, avg_rr, avg_sys, avg_dia, " +
+                        "sample_count) VALUES (?, ?, 36.8, ?, 16, 120, 80, 60)")) {
+            for (int m = 0; m < 3; m++) {
+                ps.setString(1, pid);
+                ps.setLong(2, T0 + m * 60_000L);
+                ps.setDouble(3, 70 + m);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        try (PreparedStatement ps = c.prepareStatement(
+                "INSERT INTO abnormal_events (patient_id, timestamp_ms, vital_type, level, value, message) " +
+                        "VALUES (?, ?, ?, ?, ?, 'legacy')")) {
+            VitalType[] types = {VitalType.HEART_RATE, VitalType.SYSTOLIC_BP, VitalType.HEART_RATE};
+            AlertLevel[] levels = {AlertLevel.WARNING, AlertLevel.URGENT, AlertLevel.URGENT};
+            for (int i = 0; i < types.length; i++) {
+                ps.setString(1, pid);
+                ps.setLong(2, T0 + i * 1_000L);
+                ps.setString(3, types[i].name());
+                ps.setString(4, levels[i].name());
+                ps.setDouble(5, 150 + i);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    private static long count(Connection c, String sql, String like) throws Exception {
+        try (PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setString(1, like);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    @Test
+    void testLegacyRowsAreKeyedAndReadTheSameAfterwards() throws Exception {
+        String a = prefix + "a";
+        String b = prefix + "b";
+        try (Connection c = Db.getConnection()) {
+            insertUnkeyed(c, a);
+            insertUnkeyed(c, b);
+            try (PreparedStatement ps = c.prepareStatement("DELETE FROM schema_migrations WHERE name = ?")) {
+                ps.setString(1, SchemaLayout.PATIENT_KEYS);
+                ps.executeUpdate();
+            }
+        }
+        SchemaLayout.usePatientKeys(false);
+
+        List<MinuteRecord> minutesBefore = minutes.latest(a, 10);
+        List<AbnormalEvent> eventsBefore = events.latest(a, 10);
+        assertEquals(3, minutesBefore.size());
+        assertEquals(3, eventsBefore.size());
+
+        PatientKeyMigration migration = new PatientKeyMigration();
+        boolean done = false;
+        for (int i = 0; i < 100 && !done; i++) done = migration.runOnce();
+        assertTrue(done, migration.summary());
+        assertTrue(SchemaLayout.patientKeys());
+
+        try (Connection c = Db.getConnection()) {
+            String like = prefix + "%";
+            assertEquals(0, count(c, "SELECT COUNT(*) FROM minute_averages WHERE patient_id LIKE ? " +
+                    "AND patient_key IS NULL", like));
+            assertEquals(0, count(c, "SELECT COUNT(*) FROM abnormal_events WHERE patient_id LIKE ? " +
+                    "AND (patient_key IS NULL OR vital_code IS NULL OR level_code IS NULL)", like));
+            // every key is the patient's own
+            assertEquals(0, count(c, "SELECT COUNT(*) FROM minute_averages m JOIN patient_keys k " +
+                    "ON k.patient_key = m.patient_key WHERE m.patient_id LIKE ? AND k.patient_id <> m.patient_id", like));
+            assertEquals(0, count(c, "SELECT COUNT(*) FROM abnormal_events e JOIN patient_keys k " +
+                    "ON k.patient_key = e.patient_key WHERE e.patient_id LIKE ? AND k.patient_id <> e.patient_id", like));
+        }
+
+        // the keyed layout reads the same rows, in the same order
+        assertEquals(minutesBefore, minutes.latest(a, 10));
+        assertEquals(eventsBefore, events.latest(a, 10));
+        assertEquals(3, minutes.latest(b, 10).size());
+
+        // an unknown patient reads nothing and gets no key
+        String unknown = prefix + "unknown";
+        assertTrue(minutes.latest(unknown, 10).isEmpty());
+        assertEquals(0, minutes.stream(unknown, 0, Long.MAX_VALUE, 10, r -> fail("no rows expected")));
+        assertTrue(events.latest(unknown, 10).isEmpty());
+        assertTrue(events.before(unknown, T0, VitalType.HEART_RATE, 10).isEmpty());
+        try (Connection c = Db.getConnection()) {
+            assertEquals(PatientDao.NO_KEY, patients.findKey(c, unknown));
+            assertEquals(0, count(c, "SELECT COUNT(*) FROM patient_keys WHERE patient_id = ?", unknown));
+        }
+    }
+
+    @Test
+    void testKeyAssignedInsideARolledBackTransactionIsNotCached() throws Exception {
+        String pid = prefix + "rollback";
+        try (Connection c = Db.getConnection()) {
+            c.setAutoCommit(false);
+            try {
+                assertTrue(patients.key(c, pid) > 0);
+            } finally {
+                c.rollback();
+                c.setAutoCommit(true);
+            }
+            assertEquals(PatientDao.NO_KEY, patients.findKey(c, pid));
+
+            // interned outside a transaction, the key is cached and found again inside one
+            patients.internAll(c, List.of(pid));
+            int key = patients.findKey(c, pid);
+            assertNotEquals(PatientDao.NO_KEY, key);
+            c.setAutoCommit(false);
+            try {
+                assertEquals(key, patients.key(c, pid));
+            } finally {
+                c.rollback();
+                c.setAutoCommit(true);
+            }
+            assertEquals(key, patients.findKey(c, pid));
+        }
+    }
+}
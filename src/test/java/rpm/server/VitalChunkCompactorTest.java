@@ -0,0 +1,83 @@
+package rpm.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import rpm.dao.VitalChunkDao;
+import rpm.dao.VitalCopyBuffer;
+import rpm.dao.VitalSampleDao;
+import rpm.db.Db;
+import rpm.db.DbInit;
+import rpm.db.PgTestRows;
+import rpm.db.DbSession;
+import rpm.model.PatientSample;
+import rpm.model.VitalSample;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * {@link VitalChunkCompactor#runOnce} on patients nobody told it about (as a client
+ * upload would create): their closed minutes are compacted, the open one is left.
+ *
+ * <p>Needs a reachable PostgreSQL (PG* env vars, e.g. a local or throwaway
+ * container instance); skipped otherwise. Rows use a unique patient id prefix
+ * and are deleted afterwards. The compactor runs over the whole database, so it
+ * also compacts any other rows from before the test minutes.
+ */
+class VitalChunkCompactorTest {
+
+    private static final long T0 = VitalChunkDao.chunkStart(1_700_000_100_000L);
+
+    private final VitalChunkDao chunks = new VitalChunkDao();
+    private final PgTestRows testRows = new PgTestRows();
+    private final String prefix = testRows.prefix();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        assumeTrue(Db.hasPgEnv(), "PostgreSQL not configured");
+        DbInit.init();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        testRows.deleteFrom("vital_samples", "vital_chunks");
+    }
+
+    @Test
+    void testUploadedPatientsAreFoundAndCompacted() throws Exception {
+        List<String> pids = List.of(prefix + "upload-a", prefix + "upload-b");
+        List<PatientSample> batch = new ArrayList<>();
+        for (String pid : pids) {
+            for (int m = 0; m < 3; m++) {
+                for (int i = 0; i < 10; i++) {
+                    long ts = T0 + m * VitalChunkDao.CHUNK_MS + i * 1000L;
+                    batch.add(new PatientSample(pid, new VitalSample(ts, 36.8, 70 + i, 16, 120, 80, 0)));
+                }
+            }
+        }
+        try (Connection c = Db.getConnection()) {
+            new VitalSampleDao().copyBatch(c, batch, new VitalCopyBuffer());
+        }
+
+        // the third minute is younger than the delay
+        VitalChunkCompactor compactor = new VitalChunkCompactor(chunks, VitalChunkDao.CHUNK_MS);
+        compactor.runOnce(T0 + 3 * VitalChunkDao.CHUNK_MS);
+
+        try (DbSession s = DbSession.open()) {
+            for (String pid : pids) {
+                assertEquals(List.of(T0 + 2 * VitalChunkDao.CHUNK_MS), chunks.pendingChunks(s, pid, Long.MAX_VALUE, 10));
+            }
+            // pages in id order, resuming after the last id of the previous page
+            assertEquals(pids, chunks.pendingPatients(s, Long.MAX_VALUE, prefix, 2));
+            assertEquals(List.of(pids.get(1)), chunks.pendingPatients(s, Long.MAX_VALUE, pids.get(0), 1));
+        }
+        for (String pid : pids) {
+            assertEquals(30, new VitalSampleDao().range(pid, T0, Long.MAX_VALUE, 100).size());
+        }
+    }
+}
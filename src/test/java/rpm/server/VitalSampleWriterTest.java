@@ -0,0 +1,156 @@
+package rpm.server;
+
+import org.junit.jupiter.api.Test;
+import rpm.model.PatientSample;
+import rpm.model.VitalSample;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for VitalSampleWriter against an in-memory sink.
+ * Verifies batching, the single retry, onWritten (stored rows only) and the flush on stop.
+ */
+class VitalSampleWriterTest {
+
+    /**
+     * Records batches and skips (patientId, timestamp) keys it already stored, like
+     * ON CONFLICT DO NOTHING; fails the next {@code failures} writes.
+     */
+    private static final class FakeSink implements VitalSampleWriter.Sink {
+        final List<List<PatientSample>> batches = new CopyOnWriteArrayList<>();
+        final Set<String> stored = ConcurrentHashMap.newKeySet();
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicInteger resets = new AtomicInteger();
+
+        @Override
+        public void write(List<PatientSample> batch, BitSet inserted) throws Exception {
+            if (failures.getAndDecrement() > 0) throw new Exception("connection reset");
+            batches.add(new ArrayList<>(batch));
+            inserted.clear();
+            for (int i = 0; i < batch.size(); i++) {
+                if (stored.add(batch.get(i).patientId() + "/" + batch.get(i).sample().timestampMs())) inserted.set(i);
+            }
+        }
+
+        @Override
+        public void reset() {
+            resets.incrementAndGet();
+        }
+    }
+
+    private static VitalSample sample(long ts) {
+        return new VitalSample(ts, 36.8, 70, 16, 120, 80, 0.1);
+    }
+
+    @Test
+    void testQueuedSamplesGoOutInFullBatches() {
+        FakeSink sink = new FakeSink();
+        VitalSampleWriter w = new VitalSampleWriter(VitalSampleWriter.Mode.BATCH, sink, 1000, 100, 50);
+        for (int i = 0; i < 250; i++) assertTrue(w.offer("P1", sample(i)));
+
+        w.start();
+        w.stop(5000);
+
+        assertEquals(3, sink.batches.size());
+        assertEquals(100, sink.batches.get(0).size());
+        assertEquals(100, sink.batches.get(1).size());
+        assertEquals(50, sink.batches.get(2).size());
+        assertEquals(0, sink.batches.get(0).get(0).sample().timestampMs(), "order is kept");
+        assertEquals(249, sink.batches.get(2).get(49).sample().timestampMs());
+        assertEquals(250, w.written());
+        assertEquals(3, w.batches());
+    }
+
+    @Test
+    void testOneFailureIsRetriedOnAFreshConnection() {
+        FakeSink sink = new FakeSink();
+        sink.failures.set(1);
+        VitalSampleWriter w = new VitalSampleWriter(VitalSampleWriter.Mode.BATCH, sink, 1000, 100, 0);
+        for (int i = 0; i < 10; i++) w.offer("P1", sample(i));
+
+        w.start();
+        w.stop(5000);
+
+        assertEquals(1, sink.batches.size());
+        assertEquals(10, w.written());
+        assertEquals(0, w.failed());
+        assertTrue(sink.resets.get() >= 1, "the failed connection is dropped before the retry");
+    }
+
+    @Test
+    void testBatchFailingTwiceIsCountedAndNotPassedOn() {
+        FakeSink sink = new FakeSink();
+        sink.failures.set(2);
+        VitalSampleWriter w = new VitalSampleWriter(VitalSampleWriter.Mode.BATCH, sink, 1000, 100, 0);
+        List<Integer> seen = new CopyOnWriteArrayList<>();
+        w.onWritten(batch -> seen.add(batch.size()));
+        for (int i = 0; i < 10; i++) w.offer("P1", sample(i));
+
+        w.start();
+        w.stop(5000);
+
+        assertEquals(0, w.written());
+        assertEquals(10, w.failed());
+        assertEquals(1, w.droppedBatches());
+        assertTrue(w.summary().contains("failed=10 droppedBatches=1"), w.summary());
+        assertTrue(seen.isEmpty(), "listeners only see stored batches");
+    }
+
+    @Test
+    void testListenersSeeEveryStoredBatch() {
+        FakeSink sink = new FakeSink();
+        VitalSampleWriter w = new VitalSampleWriter(VitalSampleWriter.Mode.BATCH, sink, 1000, 40, 0);
+        List<Integer> seen = new CopyOnWriteArrayList<>();
+        w.onWritten(batch -> { throw new IllegalStateException("bad listener"); });
+        w.onWritten(batch -> seen.add(batch.size()));
+        for (int i = 0; i < 100; i++) w.offer("P" + (i % 3), sample(i));
+
+        w.start();
+        w.stop(5000);
+
+        assertEquals(List.of(40, 40, 20), seen, "a failing listener does not stop the others");
+    }
+
+    @Test
+    void testListenersSkipRowsTheDatabaseIgnored() {
+        FakeSink sink = new FakeSink();
+        sink.stored.add("P1/3");
+        sink.stored.add("P2/5");
+        VitalSampleWriter w = new VitalSampleWriter(VitalSampleWriter.Mode.BATCH, sink, 1000, 100, 0);
+        List<String> seen = new CopyOnWriteArrayList<>();
+        w.onWritten(batch -> batch.forEach(r -> seen.add(r.patientId() + "/" + r.sample().timestampMs())));
+        for (int i = 0; i < 6; i++) w.offer("P1", sample(i));
+        w.offer("P1", sample(1));
+        w.offer("P2", sample(5));
+
+        w.start();
+        w.stop(5000);
+
+        assertEquals(List.of("P1/0", "P1/1", "P1/2", "P1/4", "P1/5"), seen);
+        assertEquals(8, w.written());
+    }
+
+    @Test
+    void testFullQueueAndStoppedWriterReject() {
+        FakeSink sink = new FakeSink();
+        VitalSampleWriter w = new VitalSampleWriter(VitalSampleWriter.Mode.BATCH, sink, 2, 10, 0);
+        assertTrue(w.offer("P1", sample(1)));
+        assertTrue(w.offer("P1", sample(2)));
+        assertFalse(w.offer("P1", sample(3)));
+
+        w.start();
+        w.stop(5000);
+        assertFalse(w.offer("P1", sample(4)));
+        assertEquals(2, w.accepted());
+        assertEquals(2, w.rejected());
+        assertEquals(2, w.written());
+    }
+}
@@ -0,0 +1,39 @@
+package rpm.web;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Proxy;
+
+/**
+ * Records what a servlet writes to an {@link HttpServletResponse}: status, content
+ * type and body. Nothing is committed until {@link #committed} is set, so
+ * {@code resetBuffer} drops the body written so far, as a container would.
+ */
+final class FakeResponse {
+
+    int status = 200;
+    String contentType;
+    boolean committed;
+    private final StringWriter body = new StringWriter();
+    private final PrintWriter writer = new PrintWriter(body, true);
+
+    final HttpServletResponse response = (HttpServletResponse) Proxy.newProxyInstance(
+            HttpServletResponse.class.getClassLoader(), new Class<?>[]{HttpServletResponse.class},
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "setStatus": status = (Integer) args[0]; return null;
+                    case "getStatus": return status;
+                    case "setContentType": contentType = (String) args[0]; return null;
+                    case "isCommitted": return committed;
+                    case "resetBuffer": writer.flush(); body.getBuffer().setLength(0); return null;
+                    case "getWriter": return writer;
+                    default: return null;
+                }
+            });
+
+    String body() {
+        writer.flush();
+        return body.toString();
+    }
+}
@@ -0,0 +1,66 @@
+package rpm.web;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import org.junit.jupiter.api.Test;
+import rpm.data.MinuteRecord;
+import rpm.model.VitalSample;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for JsonResponses.
+ * Verifies the sample and minute field names, NaN passing through, and that a failed
+ * read replaces an uncommitted body with a 500 but leaves a committed one alone.
+ */
+class JsonResponsesTest {
+
+    @Test
+    void testSamplesAndMinutesAreStreamedAsObjects() throws IOException {
+        FakeResponse out = new FakeResponse();
+        JsonWriter w = JsonResponses.open(out.response);
+        w.beginArray();
+        JsonResponses.sample(w, new VitalSample(1_000, 36.8, 72, 16, 120, 80, Double.NaN));
+        JsonResponses.minute(w, new MinuteRecord(60_000, 36.9, 71.5, 15, 119, 79, 60));
+        w.endArray();
+        w.flush();
+
+        assertEquals("application/json; charset=utf-8", out.contentType);
+        assertEquals("[{\"tsMs\":1000,\"temp\":36.8,\"hr\":72.0,\"rr\":16.0,\"sys\":120.0,\"dia\":80.0,\"ecg\":NaN},"
+                        + "{\"minuteStartMs\":60000,\"avgTemp\":36.9,\"avgHr\":71.5,\"avgRr\":15.0,"
+                        + "\"avgSys\":119.0,\"avgDia\":79.0,\"n\":60}]",
+                out.body());
+    }
+
+    @Test
+    void testFailBeforeCommitReplacesTheBody() throws IOException {
+        FakeResponse out = new FakeResponse();
+        JsonWriter w = JsonResponses.open(out.response);
+        w.beginObject().name("samples").beginArray();
+        JsonResponses.sample(w, new VitalSample(1_000, 36.8, 72, 16, 120, 80, 0));
+        w.flush();
+
+        JsonResponses.fail(out.response, "db error: \"vital_samples\"\n\tat line 1");
+
+        assertEquals(500, out.status);
+        JsonObject body = JsonParser.parseString(out.body()).getAsJsonObject();
+        assertEquals("db error: \"vital_samples\"\n\tat line 1", body.get("error").getAsString());
+    }
+
+    @Test
+    void testFailAfterCommitJustEndsTheBody() throws IOException {
+        FakeResponse out = new FakeResponse();
+        JsonWriter w = JsonResponses.open(out.response);
+        w.beginObject().name("samples").beginArray();
+        w.flush();
+        out.committed = true;
+
+        JsonResponses.fail(out.response, "connection reset");
+
+        assertEquals(200, out.status);
+        assertEquals("{\"samples\":[", out.body());
+    }
+}
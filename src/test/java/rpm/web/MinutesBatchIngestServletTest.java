@@ -0,0 +1,115 @@
+package rpm.web;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+import rpm.data.PatientMinute;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for MinutesBatchIngestServlet against an in-memory sink (no Postgres).
+ * Verifies that JSON arrays and NDJSON are read, invalid rows are reported and
+ * skipped, and a malformed or too long body stores nothing at all.
+ */
+class MinutesBatchIngestServletTest {
+
+    private static HttpServletRequest request(String body) {
+        ByteArrayInputStream bytes = new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+        ServletInputStream in = new ServletInputStream() {
+            @Override public int read() { return bytes.read(); }
+            @Override public int read(byte[] b, int off, int len) { return bytes.read(b, off, len); }
+            @Override public boolean isFinished() { return bytes.available() == 0; }
+            @Override public boolean isReady() { return true; }
+            @Override public void setReadListener(ReadListener l) { }
+        };
+        return (HttpServletRequest) Proxy.newProxyInstance(
+                HttpServletRequest.class.getClassLoader(), new Class<?>[]{HttpServletRequest.class},
+                (proxy, method, args) -> "getInputStream".equals(method.getName()) ? in : null);
+    }
+
+    /** A container without a read cache: every attribute is missing. */
+    private static ServletConfig config() {
+        ServletContext ctx = (ServletContext) Proxy.newProxyInstance(
+                ServletContext.class.getClassLoader(), new Class<?>[]{ServletContext.class}, (proxy, method, args) -> null);
+        return (ServletConfig) Proxy.newProxyInstance(
+                ServletConfig.class.getClassLoader(), new Class<?>[]{ServletConfig.class},
+                (proxy, method, args) -> "getServletContext".equals(method.getName()) ? ctx : null);
+    }
+
+    private static String row(String pid, long minuteStartMs) {
+        return "{\"patientId\":\"" + pid + "\",\"minuteStartMs\":" + minuteStartMs + ",\"avgHR\":72,\"sampleCount\":60}";
+    }
+
+    private static JsonObject post(List<List<PatientMinute>> stored, String body) throws Exception {
+        FakeResponse out = new FakeResponse();
+        MinutesBatchIngestServlet servlet = new MinutesBatchIngestServlet(stored::add);
+        servlet.init(config());
+        servlet.doPost(request(body), out.response);
+        JsonObject json = JsonParser.parseString(out.body()).getAsJsonObject();
+        json.addProperty("status", out.status);
+        return json;
+    }
+
+    @Test
+    void testValidRowsAreStoredAndInvalidOnesReported() throws Exception {
+        List<List<PatientMinute>> stored = new ArrayList<>();
+
+        JsonObject r = post(stored, "[" + row("P001", 60_000) + "," + row(" ", 60_000) + ","
+                + row("P002", 0) + "," + row("P002", 120_000) + "]");
+
+        assertEquals(200, r.get("status").getAsInt());
+        assertEquals(4, r.get("rows").getAsInt());
+        assertEquals(2, r.get("accepted").getAsInt());
+        assertEquals(2, r.get("invalid").getAsInt());
+        assertEquals(1, r.getAsJsonArray("errors").get(0).getAsJsonObject().get("row").getAsInt());
+        assertEquals(1, stored.size(), "one batched upsert");
+        assertEquals(List.of("P001", "P002"), List.of(stored.get(0).get(0).patientId(), stored.get(0).get(1).patientId()));
+    }
+
+    @Test
+    void testNdjsonIsRead() throws Exception {
+        List<List<PatientMinute>> stored = new ArrayList<>();
+
+        JsonObject r = post(stored, row("P001", 60_000) + "\n" + row("P001", 120_000) + "\n");
+
+        assertEquals(200, r.get("status").getAsInt());
+        assertEquals(2, stored.get(0).size());
+    }
+
+    @Test
+    void testMalformedBodyStoresNothing() throws Exception {
+        List<List<PatientMinute>> stored = new ArrayList<>();
+
+        JsonObject r = post(stored, "[" + row("P001", 60_000) + "," + row("P001", 120_000) + ",{\"patientId\":");
+
+        assertEquals(400, r.get("status").getAsInt());
+        assertEquals("BAD_REQUEST", r.get("code").getAsString());
+        assertEquals(0, r.get("accepted").getAsInt());
+        assertTrue(stored.isEmpty(), "the rows before the bad one are not written either");
+    }
+
+    @Test
+    void testTooManyRowsStoresNothing() throws Exception {
+        List<List<PatientMinute>> stored = new ArrayList<>();
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i <= 10_000; i++) body.append(row("P001", (i + 1) * 60_000L)).append('\n');
+
+        JsonObject r = post(stored, body.toString());
+
+        assertEquals(413, r.get("status").getAsInt());
+        assertEquals(0, r.get("accepted").getAsInt());
+        assertTrue(stored.isEmpty());
+    }
+}
@@ -0,0 +1,52 @@
+package rpm.web;
+
+import org.junit.jupiter.api.Test;
+import rpm.model.VitalType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for VitalDownsampler.
+ * Verifies the point budget, that per-bucket extremes survive, and timestamp order.
+ */
+class VitalDownsamplerTest {
+
+    @Test
+    void testDayAt5HzKeepsPeaksWithinBudget() {
+        long day = 24 * 3_600_000L;
+        List<long[]> out = new ArrayList<>();
+        VitalDownsampler d = new VitalDownsampler(0, day - 1, 2000, VitalType.HEART_RATE,
+                (ts, temp, hr, rr, sys, dia, ecg) -> out.add(new long[]{ts, (long) hr}));
+
+        for (long ts = 0; ts < day; ts += 200) {
+            double hr = 70;
+            if (ts == 5_000_000) hr = 190;   // single spike
+            if (ts == 5_000_200) hr = 30;    // and dip in the same bucket
+            d.visit(ts, 36.8, hr, 16, 118, 78, 0);
+        }
+        int n = d.finish();
+
+        assertEquals(out.size(), n);
+        assertTrue(n <= 2000, "emitted " + n);
+        assertTrue(n >= 1000, "emitted " + n);
+        assertTrue(out.stream().anyMatch(p -> p[1] == 190));
+        assertTrue(out.stream().anyMatch(p -> p[1] == 30));
+        for (int i = 1; i < out.size(); i++) assertTrue(out.get(i - 1)[0] < out.get(i)[0]);
+    }
+
+    @Test
+    void testSeriesSelectsTheComparedVital() {
+        List<Long> ts = new ArrayList<>();
+        VitalDownsampler d = new VitalDownsampler(0, 999, 2, VitalType.SYSTOLIC_BP,
+                (t, temp, hr, rr, sys, dia, ecg) -> ts.add(t));
+        d.visit(100, 36.8, 200, 16, 120, 78, 0);
+        d.visit(200, 36.8, 60, 16, 90, 78, 0);
+        d.visit(300, 36.8, 60, 16, 150, 78, 0);
+        d.finish();
+
+        assertEquals(List.of(200L, 300L), ts);
+    }
+}
@@ -0,0 +1,69 @@
+package rpm.web;
+
+import org.junit.jupiter.api.Test;
+import rpm.model.PatientSample;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for VitalJsonStream.
+ * Verifies JSON array and NDJSON bodies, field defaults and skipping of invalid rows.
+ */
+class VitalJsonStreamTest {
+
+    private static List<PatientSample> readAll(String body, List<Integer> invalidRows) throws IOException {
+        List<PatientSample> out = new ArrayList<>();
+        try (VitalJsonStream in = new VitalJsonStream(new StringReader(body), 42)) {
+            int row = 0;
+            while (in.hasNext()) {
+                try {
+                    out.add(in.next());
+                } catch (IllegalArgumentException e) {
+                    invalidRows.add(row);
+                }
+                row++;
+            }
+        }
+        return out;
+    }
+
+    @Test
+    void testJsonArray() throws IOException {
+        String body = "[{\"patientId\":\"P001\",\"timestampMs\":1000,\"heartRate\":72,\"extra\":{\"a\":[1,2]}},"
+                + " {\"patientId\":\"P002\",\"timestampMs\":1000,\"bodyTemp\":37.5}]";
+        List<PatientSample> rows = readAll(body, new ArrayList<>());
+
+        assertEquals(2, rows.size());
+        assertEquals("P001", rows.get(0).patientId());
+        assertEquals(72, rows.get(0).sample().heartRate(), 1e-9);
+        assertEquals(37.5, rows.get(1).sample().bodyTemp(), 1e-9);
+    }
+
+    @Test
+    void testNdjsonWithDefaultsAndBadRows() throws IOException {
+        String body = "{\"patientId\":\"P001\",\"heartRate\":\"80\"}\n"
+                + "{\"heartRate\":90}\n"
+                + "{\"patientId\":\" P003 \",\"timestampMs\":\"2000\",\"ecgValue\":true,\"respiratoryRate\":null}\n";
+        List<Integer> invalid = new ArrayList<>();
+        List<PatientSample> rows = readAll(body, invalid);
+
+        assertEquals(List.of(1), invalid, "row without patientId is reported and skipped");
+        assertEquals(2, rows.size());
+        assertEquals(42, rows.get(0).sample().timestampMs(), "missing timestamp takes the default");
+        assertEquals(80, rows.get(0).sample().heartRate(), 1e-9);
+        assertEquals("P003", rows.get(1).patientId());
+        assertEquals(2000, rows.get(1).sample().timestampMs());
+        assertEquals(0, rows.get(1).sample().ecgValue(), 1e-9);
+    }
+
+    @Test
+    void testEmptyBodies() throws IOException {
+        assertTrue(readAll("", new ArrayList<>()).isEmpty());
+        assertTrue(readAll("[]", new ArrayList<>()).isEmpty());
+    }
+}
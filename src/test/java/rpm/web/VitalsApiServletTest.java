@@ -0,0 +1,137 @@
+package rpm.web;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+import rpm.dao.VitalSampleVisitor;
+import rpm.model.VitalSample;
+
+import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for VitalsApiServlet's /range against an in-memory source (no Postgres).
+ * Verifies the page size and nextCursor from the one row read past the page, resuming
+ * after a cursor, and 400s for parameters that do not parse.
+ */
+class VitalsApiServletTest {
+
+    /** Samples at 0, 1000, ... in timestamp order; records the limit of each read. */
+    private static final class FakeSource implements VitalsApiServlet.Source {
+        final List<VitalSample> rows = new ArrayList<>();
+        final List<Integer> limits = new ArrayList<>();
+
+        FakeSource(int n) {
+            for (int i = 0; i < n; i++) rows.add(new VitalSample(i * 1000L, 36.8, 60 + i, 16, 120, 80, 0));
+        }
+
+        @Override
+        public int stream(String patientId, long fromMs, long toMs, int limit, VitalSampleVisitor v) {
+            limits.add(limit);
+            int n = 0;
+            for (VitalSample s : rows) {
+                if (n == limit) break;
+                if (s.timestampMs() < fromMs || s.timestampMs() > toMs) continue;
+                v.visit(s.timestampMs(), s.bodyTemp(), s.heartRate(), s.respiratoryRate(),
+                        s.systolicBP(), s.diastolicBP(), s.ecgValue());
+                n++;
+            }
+            return n;
+        }
+    }
+
+    private static HttpServletRequest request(Map<String, String> params) {
+        return (HttpServletRequest) Proxy.newProxyInstance(
+                HttpServletRequest.class.getClassLoader(), new Class<?>[]{HttpServletRequest.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getPathInfo": return "/range";
+                        case "getParameter": return params.get((String) args[0]);
+                        default: return null;
+                    }
+                });
+    }
+
+    private static FakeResponse get(FakeSource source, String... kv) throws Exception {
+        Map<String, String> params = new HashMap<>(Map.of("patientId", "P001", "fromMs", "0", "toMs", "1000000"));
+        for (int i = 0; i < kv.length; i += 2) params.put(kv[i], kv[i + 1]);
+        FakeResponse out = new FakeResponse();
+        new VitalsApiServlet(source).doGet(request(params), out.response);
+        return out;
+    }
+
+    private static List<Long> timestamps(JsonObject body) {
+        List<Long> out = new ArrayList<>();
+        JsonArray samples = body.getAsJsonArray("samples");
+        for (int i = 0; i < samples.size(); i++) out.add(samples.get(i).getAsJsonObject().get("tsMs").getAsLong());
+        return out;
+    }
+
+    @Test
+    void testFullPageReadsOneRowMoreAndPointsPastIt() throws Exception {
+        FakeSource source = new FakeSource(10);
+
+        FakeResponse out = get(source, "limit", "4");
+
+        assertEquals(200, out.status);
+        JsonObject body = JsonParser.parseString(out.body()).getAsJsonObject();
+        assertEquals(List.of(0L, 1000L, 2000L, 3000L), timestamps(body));
+        assertEquals(3000L, body.get("nextCursor").getAsLong());
+        assertEquals(List.of(5), source.limits);
+    }
+
+    @Test
+    void testCursorResumesAfterTheLastSampleUntilTheEnd() throws Exception {
+        FakeSource source = new FakeSource(10);
+
+        JsonObject second = JsonParser.parseString(get(source, "limit", "4", "cursor", "3000").body()).getAsJsonObject();
+        assertEquals(List.of(4000L, 5000L, 6000L, 7000L), timestamps(second));
+        assertEquals(7000L, second.get("nextCursor").getAsLong());
+
+        // exactly a page left: no row past it, so no next page
+        JsonObject last = JsonParser.parseString(get(source, "limit", "2", "cursor", "7000").body()).getAsJsonObject();
+        assertEquals(List.of(8000L, 9000L), timestamps(last));
+        assertTrue(last.get("nextCursor").isJsonNull());
+    }
+
+    @Test
+    void testDownsampledRangeHasNoCursor() throws Exception {
+        FakeSource source = new FakeSource(100);
+
+        JsonObject body = JsonParser.parseString(get(source, "maxPoints", "10", "series", "heart_rate").body())
+                .getAsJsonObject();
+
+        assertTrue(timestamps(body).size() <= 10);
+        assertTrue(body.get("nextCursor").isJsonNull());
+        assertEquals(List.of(Integer.MAX_VALUE), source.limits);
+    }
+
+    @Test
+    void testUnparsableParametersAreBadRequests() throws Exception {
+        String[][] bad = {
+                {"fromMs", "yesterday"},
+                {"toMs", "1e9"},
+                {"cursor", "abc"},
+                // nothing follows it; + 1 would wrap around to the first page
+                {"cursor", String.valueOf(Long.MAX_VALUE)},
+                {"limit", "all"},
+                {"maxPoints", "lots"},
+                {"series", "pulse"},
+        };
+        for (String[] kv : bad) {
+            FakeSource source = new FakeSource(3);
+            FakeResponse out = get(source, kv);
+            assertEquals(400, out.status, kv[0]);
+            JsonObject body = JsonParser.parseString(out.body()).getAsJsonObject();
+            assertTrue(body.get("error").getAsString().contains(kv[0]), out.body());
+            assertTrue(source.limits.isEmpty(), kv[0]);
+        }
+    }
+}